@@ -2,5 +2,6 @@ package tr.org.liderahenk.network.inventory.constants;
 
 public enum InstallMethod {
 	APT_GET,
+	PROVIDED_DEB,
 	WGET,
 }
@@ -14,4 +14,20 @@ public class NetworkInventoryConstants {
 
 	public static final String MULTIPLE_FILE_TRANSFER_COMMAND = "MULTIPLE-FILE-TRANSFER";
 
+	public static final String UPLOAD_FILE_CHUNK_COMMAND = "UPLOAD-FILE-CHUNK";
+
+	public static final String GET_JOB_STATUS_COMMAND = "GET-JOB-STATUS";
+
+	/**
+	 * Interval (ms) to poll hosts found by a running scan
+	 */
+	public static final long SCAN_POLL_INTERVAL = 1000;
+
+	/**
+	 * Files larger than this are uploaded in chunks before distribution
+	 */
+	public static final long SMALL_FILE_LIMIT = 4 * 1024 * 1024;
+
+	public static final int UPLOAD_CHUNK_SIZE = 1024 * 1024;
+
 }
@@ -62,6 +62,8 @@ public class AhenkSetupDialog extends DefaultTaskDialog {
 	private Button btnExecuteNow;
 	private ArrayList<String> dnList;
 	private Combo cmbUseSsl;
+	private Button btnSingleScript;
+	private Button btnProvidePackage;
 	
 	public AhenkSetupDialog(Shell parentShell, Set<String> dnSet, List<String> selectedIpList, boolean executeOnAgent,
 			ArrayList<String> dnList) {
@@ -153,6 +155,16 @@ public class AhenkSetupDialog extends DefaultTaskDialog {
 		cmbUseSsl.setLayoutData(new GridData(GridData.FILL, GridData.FILL, true, false));
 		cmbUseSsl.setItems(new String[] {"false", "true"});
 		cmbUseSsl.select(0);
+
+		btnSingleScript = new Button(cmpMain, SWT.CHECK);
+		btnSingleScript.setText(Messages.getString("INSTALL_WITH_SINGLE_SCRIPT"));
+		btnSingleScript.setToolTipText(Messages.getString("INSTALL_WITH_SINGLE_SCRIPT_TOOLTIP"));
+		btnSingleScript.setSelection(true);
+
+		btnProvidePackage = new Button(cmpMain, SWT.CHECK);
+		btnProvidePackage.setText(Messages.getString("DOWNLOAD_PACKAGE_ON_LIDER"));
+		btnProvidePackage.setToolTipText(Messages.getString("DOWNLOAD_PACKAGE_ON_LIDER_TOOLTIP"));
+		btnProvidePackage.setSelection(true);
 		
 		return cmpMain;
 	}
@@ -225,7 +237,8 @@ public class AhenkSetupDialog extends DefaultTaskDialog {
 						parameterMap.put("ipList", selectedIpList);
 						parameterMap.put("accessMethod", btnUseUsernamePwd.getSelection()
 								? AccessMethod.USERNAME_PASSWORD : AccessMethod.PRIVATE_KEY);
-						parameterMap.put("installMethod", InstallMethod.WGET);
+						parameterMap.put("installMethod",
+								btnProvidePackage.getSelection() ? InstallMethod.PROVIDED_DEB : InstallMethod.WGET);
 						parameterMap.put("username",
 								btnUseUsernamePwd.getSelection() ? txtUsername.getText() : txtKeyUsername.getText());
 						parameterMap.put("port", new Integer(22));
@@ -241,6 +254,7 @@ public class AhenkSetupDialog extends DefaultTaskDialog {
 						}
 						
 						parameterMap.put("useTls", cmbUseSsl.getText());
+						parameterMap.put("installMode", btnSingleScript.getSelection() ? "SCRIPT" : "STEP_BY_STEP");
 
 						TaskRequest task = new TaskRequest();
 						task = new TaskRequest(dnList, DNType.AHENK, NetworkInventoryConstants.PLUGIN_NAME,
@@ -49,12 +49,23 @@ public class FileShareDialog extends Dialog {
 
 	private String encodedFile;
 
+	/**
+	 * ID of the file uploaded in chunks, used instead of encoded file for
+	 * large files
+	 */
+	private String uploadId;
+
+	private long fileSize;
+
 	private String filename;
 
 	private Map<String, Object> resultMap;
 	
 	private Text txtKeyUsername;
 	private Text txtKeyPath;
+
+	private Button btnRelay;
+	private Button btnDelta;
 	
 	public FileShareDialog(Shell parentShell, List<String> selectedIpList, String encodedFile, String filename) {
 		super(parentShell);
@@ -65,6 +76,13 @@ public class FileShareDialog extends Dialog {
 
 	}
 
+	public FileShareDialog(Shell parentShell, List<String> selectedIpList, String uploadId, long fileSize,
+			String filename) {
+		this(parentShell, selectedIpList, (String) null, filename);
+		this.uploadId = uploadId;
+		this.fileSize = fileSize;
+	}
+
 	@Override
 	protected Control createDialogArea(Composite parent) {
 
@@ -102,6 +120,14 @@ public class FileShareDialog extends Dialog {
 			}
 		});
 		txtPort.setText("22");
+
+		btnRelay = SWTResourceManager.createButton(mainComposite, SWT.CHECK,
+				Messages.getString("RELAY_BETWEEN_HOSTS"));
+		btnRelay.setToolTipText(Messages.getString("RELAY_BETWEEN_HOSTS_TOOLTIP"));
+
+		btnDelta = SWTResourceManager.createButton(mainComposite, SWT.CHECK,
+				Messages.getString("SEND_ONLY_CHANGED_BLOCKS"));
+		btnDelta.setToolTipText(Messages.getString("SEND_ONLY_CHANGED_BLOCKS_TOOLTIP"));
 		// -------------------------------------- //
 
 		// --- Username/Pass radio button area --- //
@@ -247,7 +273,12 @@ public class FileShareDialog extends Dialog {
 
 		Map<String, Object> parameterMap = new HashMap<String, Object>();
 		parameterMap.put("ipAddresses", selectedIpList);
-		parameterMap.put("file", encodedFile);
+		if (uploadId != null) {
+			parameterMap.put("uploadId", uploadId);
+			parameterMap.put("fileSize", fileSize);
+		} else {
+			parameterMap.put("file", encodedFile);
+		}
 		parameterMap.put("filename", filename);
 		parameterMap.put("destDirectory", txtDestDirectory.getText());
 		parameterMap.put("username",btnUsernamePass.getSelection() ? txtUsername.getText() : txtKeyUsername.getText());
@@ -262,6 +293,8 @@ public class FileShareDialog extends Dialog {
 		Integer port = new Integer(txtPort.getText());
 
 		parameterMap.put("port", port);
+		parameterMap.put("distributionMode", btnRelay.getSelection() ? "RELAY" : "DIRECT");
+		parameterMap.put("deltaTransfer", btnDelta.getSelection());
 
 		task.setParameterMap(parameterMap);
 
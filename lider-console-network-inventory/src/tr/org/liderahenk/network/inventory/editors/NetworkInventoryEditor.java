@@ -1,5 +1,7 @@
 package tr.org.liderahenk.network.inventory.editors;
 
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -14,11 +16,14 @@ import java.util.Map;
 import javax.xml.bind.DatatypeConverter;
 
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.e4.core.services.events.IEventBroker;
+import org.eclipse.jface.dialogs.ProgressMonitorDialog;
+import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.jface.viewers.ColumnLabelProvider;
 import org.eclipse.jface.viewers.ISelectionChangedListener;
 import org.eclipse.jface.viewers.SelectionChangedEvent;
@@ -68,6 +73,7 @@ import tr.org.liderahenk.network.inventory.i18n.Messages;
 import tr.org.liderahenk.network.inventory.model.FileDistResult;
 import tr.org.liderahenk.network.inventory.model.ScanResult;
 import tr.org.liderahenk.network.inventory.model.ScanResultHost;
+import tr.org.liderahenk.network.inventory.utils.FileUploader;
 
 /**
  * An editor that sends some network related commands such as network scan,
@@ -94,6 +100,7 @@ public class NetworkInventoryEditor extends EditorPart {
 	private TableViewer tblInventory;
 
 	private Combo cmbTimingTemplate;
+	private Button btnConnectScan;
 	// Combo values
 	private final String[] templateArr = new String[] { "PARANOID", "SNEAKY", "POLITE", "NORMAL", "AGGRESSIVE",
 			"INSANE" };
@@ -101,6 +108,8 @@ public class NetworkInventoryEditor extends EditorPart {
 
 	private List<String> selectedIpList;
 
+	private Job scanPollJob;
+
 	private IEventBroker eventBroker = (IEventBroker) PlatformUI.getWorkbench().getService(IEventBroker.class);
 
 	@Override
@@ -240,18 +249,31 @@ public class NetworkInventoryEditor extends EditorPart {
 			@Override
 			public void widgetSelected(SelectionEvent e) {
 
-				// Read file
-				byte[] fileArray = readFileAsByteArray(txtFilePath.getText());
-				String encodedFile = DatatypeConverter.printBase64Binary(fileArray);
-
 				// Find file name
 				int lastSeparatorIndex = txtFilePath.getText().lastIndexOf(FileSystems.getDefault().getSeparator());
 				String filename = txtFilePath.getText(lastSeparatorIndex + 1, txtFilePath.getText().length());
 
 				setSelectedIps();
 
-				FileShareDialog dialog = new FileShareDialog(Display.getCurrent().getActiveShell(), selectedIpList,
-						encodedFile, filename);
+				final File file = new File(txtFilePath.getText());
+				FileShareDialog dialog;
+				if (file.length() > NetworkInventoryConstants.SMALL_FILE_LIMIT) {
+					// Upload large files in chunks instead of reading them
+					// into memory
+					String uploadId = uploadFile(file);
+					if (uploadId == null) {
+						return;
+					}
+					dialog = new FileShareDialog(Display.getCurrent().getActiveShell(), selectedIpList, uploadId,
+							file.length(), filename);
+				} else {
+					// Read file
+					byte[] fileArray = readFileAsByteArray(txtFilePath.getText());
+					String encodedFile = DatatypeConverter.printBase64Binary(fileArray);
+
+					dialog = new FileShareDialog(Display.getCurrent().getActiveShell(), selectedIpList, encodedFile,
+							filename);
+				}
 
 				dialog.open();
 
@@ -380,6 +402,10 @@ public class NetworkInventoryEditor extends EditorPart {
 		// Select 'normal' by default
 		cmbTimingTemplate.select(4);
 
+		btnConnectScan = new Button(cmpOptions, SWT.CHECK);
+		btnConnectScan.setText(Messages.getString("CONNECT_SCAN"));
+		btnConnectScan.setToolTipText(Messages.getString("CONNECT_SCAN_TOOLTIP"));
+
 		Composite cmpIp = new Composite(cmpScan, SWT.NONE);
 		cmpIp.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true));
 		cmpIp.setLayout(new GridLayout(5, false));
@@ -420,7 +446,10 @@ public class NetworkInventoryEditor extends EditorPart {
 					parameterMap.put("ipRange", txtIpRange.getText());
 					parameterMap.put("ports", txtPortRange.getText());
 					parameterMap.put("timingTemplate", getSelectedValue(cmbTimingTemplate));
+					parameterMap.put("scanEngine", btnConnectScan.getSelection() ? "CONNECT" : "NMAP");
 					parameterMap.put("executeOnAgent", btnScanOptions[0].getSelection());
+					// Scan in the background and poll hosts as they are found
+					parameterMap.put("async", !btnScanOptions[0].getSelection());
 
 					ArrayList<String> dnList = null;
 					String dn = ((NetworkInventoryEditorInput) getEditorInput()).getDn();
@@ -442,11 +471,8 @@ public class NetworkInventoryEditor extends EditorPart {
 							return;
 						}
 						if (!(btnScanOptions[0].getSelection())) {
-							Map<String, Object> resultMap = response.getResultMap();
-							ObjectMapper mapper = new ObjectMapper();
-							ScanResult scanResult;
-							scanResult = mapper.readValue(resultMap.get("result").toString(), ScanResult.class);
-							tblInventory.setInput(scanResult.getHosts());
+							tblInventory.setInput(new ArrayList<ScanResultHost>());
+							pollScanResult((String) response.getResultMap().get("jobId"));
 						}
 
 					} catch (Exception e1) {
@@ -464,6 +490,85 @@ public class NetworkInventoryEditor extends EditorPart {
 		});
 	}
 
+	/**
+	 * Polls hosts found by the running scan and appends them to the table, so
+	 * that hosts are shown as each part of the network is scanned.
+	 * 
+	 * @param jobId
+	 */
+	private void pollScanResult(final String jobId) {
+		if (scanPollJob != null) {
+			scanPollJob.cancel();
+		}
+		scanPollJob = new Job(Messages.getString("NETWORK_SCAN")) {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				monitor.beginTask(Messages.getString("NETWORK_SCAN"), IProgressMonitor.UNKNOWN);
+				ObjectMapper mapper = new ObjectMapper();
+				int cursor = 0;
+				try {
+					while (!monitor.isCanceled()) {
+						Map<String, Object> parameterMap = new HashMap<String, Object>();
+						parameterMap.put("jobId", jobId);
+						parameterMap.put("cursor", cursor);
+						TaskRequest taskRequest = new TaskRequest(null, null, NetworkInventoryConstants.PLUGIN_NAME,
+								NetworkInventoryConstants.PLUGIN_VERSION,
+								NetworkInventoryConstants.GET_JOB_STATUS_COMMAND, parameterMap, null, null,
+								new Date());
+						IResponse response = TaskRestUtils.execute(taskRequest);
+						if (response.getStatus() != RestResponseStatus.OK) {
+							List<String> messages = response.getMessages();
+							Notifier.error(null, messages != null && !messages.isEmpty() ? messages.get(0)
+									: Messages.getString("ERROR_OCCURED"));
+							break;
+						}
+
+						Map<String, Object> resultMap = response.getResultMap();
+						if (resultMap.get("items") != null) {
+							final List<ScanResultHost> hosts = mapper.readValue(resultMap.get("items").toString(),
+									new TypeReference<List<ScanResultHost>>() {
+									});
+							cursor = ((Number) resultMap.get("cursor")).intValue();
+							if (!hosts.isEmpty() && !monitor.isCanceled()) {
+								Display.getDefault().asyncExec(new Runnable() {
+									@Override
+									public void run() {
+										if (!tblInventory.getTable().isDisposed()) {
+											tblInventory.add(hosts.toArray());
+										}
+									}
+								});
+							}
+						}
+
+						// Status is read before the items on Lider, so items of
+						// the last poll contain all remaining hosts
+						Map<String, Object> job = mapper.readValue(resultMap.get("job").toString(),
+								new TypeReference<Map<String, Object>>() {
+								});
+						if (!"RUNNING".equals(job.get("status"))) {
+							if (!"COMPLETED".equals(job.get("status"))) {
+								List<?> messages = (List<?>) job.get("messages");
+								Notifier.error(null, messages != null && !messages.isEmpty()
+										? messages.get(0).toString() : Messages.getString("ERROR_OCCURED"));
+							}
+							break;
+						}
+						Thread.sleep(NetworkInventoryConstants.SCAN_POLL_INTERVAL);
+					}
+				} catch (InterruptedException e) {
+					return Status.CANCEL_STATUS;
+				} catch (Exception e) {
+					e.printStackTrace();
+					Notifier.error(null, Messages.getString("UNEXPECTED_ERROR"));
+				}
+				monitor.done();
+				return Status.OK_STATUS;
+			}
+		};
+		scanPollJob.schedule();
+	}
+
 	/**
 	 * 
 	 * @param combo
@@ -639,6 +744,39 @@ public class NetworkInventoryEditor extends EditorPart {
 		return new byte[0];
 	}
 
+	/**
+	 * Uploads file to Lider in chunks while showing a progress dialog.
+	 * 
+	 * @param file
+	 * @return upload ID, or null if the upload fails or is cancelled
+	 */
+	private String uploadFile(final File file) {
+		final String[] uploadId = new String[1];
+		try {
+			new ProgressMonitorDialog(Display.getCurrent().getActiveShell()).run(true, true,
+					new IRunnableWithProgress() {
+						@Override
+						public void run(IProgressMonitor monitor)
+								throws InvocationTargetException, InterruptedException {
+							try {
+								uploadId[0] = FileUploader.upload(file, monitor);
+							} catch (InterruptedException e) {
+								throw e;
+							} catch (Exception e) {
+								throw new InvocationTargetException(e);
+							}
+						}
+					});
+		} catch (InvocationTargetException e) {
+			e.printStackTrace();
+			Notifier.error(null, e.getCause() != null && e.getCause().getMessage() != null
+					? e.getCause().getMessage() : Messages.getString("ERROR_OCCURED"));
+		} catch (InterruptedException e) {
+			// Cancelled by user
+		}
+		return uploadId[0];
+	}
+
 	@Override
 	public void setFocus() {
 
@@ -665,6 +803,9 @@ public class NetworkInventoryEditor extends EditorPart {
 	@Override
 	public void dispose() {
 		super.dispose();
+		if (scanPollJob != null) {
+			scanPollJob.cancel();
+		}
 		eventBroker.unsubscribe(eventHandler);
 	}
 }
@@ -0,0 +1,111 @@
+package tr.org.liderahenk.network.inventory.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+import tr.org.liderahenk.liderconsole.core.rest.enums.RestResponseStatus;
+import tr.org.liderahenk.liderconsole.core.rest.requests.TaskRequest;
+import tr.org.liderahenk.liderconsole.core.rest.responses.IResponse;
+import tr.org.liderahenk.liderconsole.core.rest.utils.TaskRestUtils;
+import tr.org.liderahenk.network.inventory.constants.NetworkInventoryConstants;
+import tr.org.liderahenk.network.inventory.i18n.Messages;
+
+/**
+ * Uploads a file to Lider in chunks, so that only a single chunk is kept in
+ * memory at a time. If sending a chunk fails, number of bytes received by
+ * Lider is queried and upload is resumed from there.
+ *
+ */
+public class FileUploader {
+
+	private static final int MAX_RETRIES = 3;
+
+	/**
+	 * 
+	 * @param file
+	 * @param monitor
+	 * @return upload ID which is passed to the file distribution command
+	 * @throws Exception
+	 */
+	public static String upload(File file, IProgressMonitor monitor) throws Exception {
+		String uploadId = UUID.randomUUID().toString();
+		long size = file.length();
+		int chunkSize = NetworkInventoryConstants.UPLOAD_CHUNK_SIZE;
+
+		monitor.beginTask(Messages.getString("UPLOADING_FILE"), (int) ((size + chunkSize - 1) / chunkSize));
+
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			byte[] buf = new byte[chunkSize];
+			long offset = 0;
+			int retries = 0;
+			boolean resume = false;
+			while (offset < size) {
+				if (monitor.isCanceled()) {
+					throw new InterruptedException();
+				}
+				try {
+					if (resume) {
+						// Continue from the bytes Lider has actually received
+						offset = send(uploadId, 0, null);
+						resume = false;
+						continue;
+					}
+					in.seek(offset);
+					int len = in.read(buf, 0, (int) Math.min(chunkSize, size - offset));
+					long received = send(uploadId, offset, Arrays.copyOf(buf, len));
+					monitor.worked((int) (received / chunkSize - offset / chunkSize));
+					offset = received;
+					retries = 0;
+				} catch (Exception e) {
+					if (++retries > MAX_RETRIES) {
+						throw e;
+					}
+					resume = true;
+				}
+			}
+		} finally {
+			in.close();
+			monitor.done();
+		}
+		return uploadId;
+	}
+
+	/**
+	 * Sends a chunk, or queries the received bytes if chunk is null.
+	 * 
+	 * @return number of bytes received by Lider
+	 */
+	private static long send(String uploadId, long offset, byte[] chunk) throws Exception {
+		Map<String, Object> parameterMap = new HashMap<String, Object>();
+		parameterMap.put("uploadId", uploadId);
+		if (chunk != null) {
+			parameterMap.put("offset", offset);
+			parameterMap.put("chunk", DatatypeConverter.printBase64Binary(chunk));
+		}
+
+		TaskRequest task = new TaskRequest(null, null, NetworkInventoryConstants.PLUGIN_NAME,
+				NetworkInventoryConstants.PLUGIN_VERSION, NetworkInventoryConstants.UPLOAD_FILE_CHUNK_COMMAND,
+				parameterMap, null, null, new Date());
+
+		IResponse response = TaskRestUtils.execute(task);
+		if (response == null || response.getStatus() != RestResponseStatus.OK) {
+			List<String> messages = response != null ? response.getMessages() : null;
+			throw new IOException(messages != null && !messages.isEmpty() ? messages.get(0)
+					: Messages.getString("ERROR_OCCURED"));
+		}
+		return ((Number) response.getResultMap().get("received")).longValue();
+	}
+
+}
@@ -0,0 +1,144 @@
+package tr.org.liderahenk.network.inventory.entities;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * Entity class for the progress of long-running commands (network scan, file
+ * distribution and Ahenk installation) which are executed in the background.
+ *
+ */
+@Entity
+@Table(name = "P_NETWORK_INVENTORY_JOB")
+public class NetworkInventoryJob {
+
+	@Id
+	@Column(name = "JOB_ID", length = 36)
+	private String id;
+
+	@Column(name = "JOB_TYPE")
+	private String jobType;
+
+	@Column(name = "STATUS")
+	private String status;
+
+	@Column(name = "TOTAL_COUNT")
+	private Integer totalCount;
+
+	@Column(name = "COMPLETED_COUNT")
+	private Integer completedCount;
+
+	@Column(name = "MESSAGE", length = 4000)
+	private String message;
+
+	/**
+	 * ID of the result record (e.g. scan result) saved when the job completes
+	 */
+	@Column(name = "RESULT_ID")
+	private Long resultId;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "START_DATE")
+	private Date startDate;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "END_DATE")
+	private Date endDate;
+
+	public NetworkInventoryJob() {
+		super();
+	}
+
+	public NetworkInventoryJob(String id, String jobType, String status, Integer totalCount, Integer completedCount,
+			String message, Long resultId, Date startDate, Date endDate) {
+		super();
+		this.id = id;
+		this.jobType = jobType;
+		this.status = status;
+		this.totalCount = totalCount;
+		this.completedCount = completedCount;
+		this.message = message;
+		this.resultId = resultId;
+		this.startDate = startDate;
+		this.endDate = endDate;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getJobType() {
+		return jobType;
+	}
+
+	public void setJobType(String jobType) {
+		this.jobType = jobType;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
+	public Integer getTotalCount() {
+		return totalCount;
+	}
+
+	public void setTotalCount(Integer totalCount) {
+		this.totalCount = totalCount;
+	}
+
+	public Integer getCompletedCount() {
+		return completedCount;
+	}
+
+	public void setCompletedCount(Integer completedCount) {
+		this.completedCount = completedCount;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+	public Long getResultId() {
+		return resultId;
+	}
+
+	public void setResultId(Long resultId) {
+		this.resultId = resultId;
+	}
+
+	public Date getStartDate() {
+		return startDate;
+	}
+
+	public void setStartDate(Date startDate) {
+		this.startDate = startDate;
+	}
+
+	public Date getEndDate() {
+		return endDate;
+	}
+
+	public void setEndDate(Date endDate) {
+		this.endDate = endDate;
+	}
+
+}
@@ -18,6 +18,8 @@ import javax.persistence.TemporalType;
 
 /**
  * Entity class for network scan results.
+ * <p>
+ * Indexes of this table are created by sql/network-inventory-indexes.sql.
  * 
  * @author <a href="mailto:emre.akkaya@agem.com.tr">Emre Akkaya</a>
  * @see tr.org.liderahenk.network.inventory.dto.ScanResultDto
@@ -56,7 +58,7 @@ public class ScanResult implements Serializable {
 	@Column(name = "SCAN_DATE")
 	private Date scanDate;
 
-	@OneToMany(mappedBy = "scanResult", cascade = CascadeType.ALL, fetch = FetchType.EAGER, orphanRemoval = true)
+	@OneToMany(mappedBy = "scanResult", cascade = CascadeType.ALL, fetch = FetchType.LAZY, orphanRemoval = true)
 	private List<ScanResultHost> hosts = new ArrayList<ScanResultHost>(0);
 
 	public ScanResult() {
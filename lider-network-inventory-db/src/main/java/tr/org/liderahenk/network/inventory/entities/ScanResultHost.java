@@ -1,7 +1,10 @@
 package tr.org.liderahenk.network.inventory.entities;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 
+import javax.persistence.CascadeType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
@@ -10,10 +13,17 @@ import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.Lob;
 import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
 import javax.persistence.Table;
 
 /**
  * Entity class for scanned hosts.
+ * <p>
+ * Open ports and OS guesses are also stored as {@link ScanResultHostPort} and
+ * {@link ScanResultHostOs} rows so that they can be queried without parsing
+ * {@link #openPorts} and {@link #osGuess}. Since JPA 2.0 has no index
+ * annotation, indexes of these tables are created by
+ * sql/network-inventory-indexes.sql.
  * 
  * @author <a href="mailto:emre.akkaya@agem.com.tr">Emre Akkaya</a>
  * @see tr.org.liderahenk.network.inventory.dto.ScanResultHostDto
@@ -62,6 +72,12 @@ public class ScanResultHost implements Serializable {
 	@Column(name = "MAC_VENDOR")
 	private String vendor;
 
+	@OneToMany(mappedBy = "host", cascade = CascadeType.ALL, fetch = FetchType.LAZY, orphanRemoval = true)
+	private List<ScanResultHostPort> ports = new ArrayList<ScanResultHostPort>(0);
+
+	@OneToMany(mappedBy = "host", cascade = CascadeType.ALL, fetch = FetchType.LAZY, orphanRemoval = true)
+	private List<ScanResultHostOs> osMatches = new ArrayList<ScanResultHostOs>(0);
+
 	// TODO additional info about ahenk-installed machines
 
 	public ScanResultHost() {
@@ -172,4 +188,20 @@ public class ScanResultHost implements Serializable {
 		this.hostUp = hostUp;
 	}
 
+	public List<ScanResultHostPort> getPorts() {
+		return ports;
+	}
+
+	public void setPorts(List<ScanResultHostPort> ports) {
+		this.ports = ports;
+	}
+
+	public List<ScanResultHostOs> getOsMatches() {
+		return osMatches;
+	}
+
+	public void setOsMatches(List<ScanResultHostOs> osMatches) {
+		this.osMatches = osMatches;
+	}
+
 }
@@ -0,0 +1,88 @@
+package tr.org.liderahenk.network.inventory.entities;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+
+/**
+ * Entity class for OS guesses of scanned hosts.
+ * <p>
+ * Index on OS_NAME used by OS queries is created by
+ * sql/network-inventory-indexes.sql.
+ * 
+ * @see tr.org.liderahenk.network.inventory.entities.ScanResultHost
+ *
+ */
+@Entity
+@Table(name = "P_NETWORK_SCAN_RESULT_OS")
+public class ScanResultHostOs implements Serializable {
+
+	private static final long serialVersionUID = 2251378455927010853L;
+
+	@Id
+	@GeneratedValue
+	@Column(name = "OS_ID")
+	private Long id;
+
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(name = "HOST_ID", nullable = false)
+	private ScanResultHost host;
+
+	@Column(name = "OS_NAME")
+	private String name;
+
+	@Column(name = "ACCURACY")
+	private Integer accuracy;
+
+	public ScanResultHostOs() {
+		super();
+	}
+
+	public ScanResultHostOs(Long id, ScanResultHost host, String name, Integer accuracy) {
+		super();
+		this.id = id;
+		this.host = host;
+		this.name = name;
+		this.accuracy = accuracy;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	public ScanResultHost getHost() {
+		return host;
+	}
+
+	public void setHost(ScanResultHost host) {
+		this.host = host;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public Integer getAccuracy() {
+		return accuracy;
+	}
+
+	public void setAccuracy(Integer accuracy) {
+		this.accuracy = accuracy;
+	}
+
+}
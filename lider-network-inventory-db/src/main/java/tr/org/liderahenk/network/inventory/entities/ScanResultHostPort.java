@@ -0,0 +1,113 @@
+package tr.org.liderahenk.network.inventory.entities;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+
+/**
+ * Entity class for open ports of scanned hosts.
+ * <p>
+ * Index on PORT used by port queries (e.g. hosts with 3389/tcp open) is
+ * created by sql/network-inventory-indexes.sql.
+ * 
+ * @see tr.org.liderahenk.network.inventory.entities.ScanResultHost
+ *
+ */
+@Entity
+@Table(name = "P_NETWORK_SCAN_RESULT_PORT")
+public class ScanResultHostPort implements Serializable {
+
+	private static final long serialVersionUID = -4107523358735214337L;
+
+	@Id
+	@GeneratedValue
+	@Column(name = "PORT_ID")
+	private Long id;
+
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(name = "HOST_ID", nullable = false)
+	private ScanResultHost host;
+
+	@Column(name = "PORT", nullable = false)
+	private Integer port;
+
+	@Column(name = "PROTOCOL", length = 8, nullable = false)
+	private String protocol;
+
+	@Column(name = "SERVICE")
+	private String service;
+
+	@Column(name = "STATE", length = 16)
+	private String state;
+
+	public ScanResultHostPort() {
+		super();
+	}
+
+	public ScanResultHostPort(Long id, ScanResultHost host, Integer port, String protocol, String service,
+			String state) {
+		super();
+		this.id = id;
+		this.host = host;
+		this.port = port;
+		this.protocol = protocol;
+		this.service = service;
+		this.state = state;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	public ScanResultHost getHost() {
+		return host;
+	}
+
+	public void setHost(ScanResultHost host) {
+		this.host = host;
+	}
+
+	public Integer getPort() {
+		return port;
+	}
+
+	public void setPort(Integer port) {
+		this.port = port;
+	}
+
+	public String getProtocol() {
+		return protocol;
+	}
+
+	public void setProtocol(String protocol) {
+		this.protocol = protocol;
+	}
+
+	public String getService() {
+		return service;
+	}
+
+	public void setService(String service) {
+		this.service = service;
+	}
+
+	public String getState() {
+		return state;
+	}
+
+	public void setState(String state) {
+		this.state = state;
+	}
+
+}
@@ -0,0 +1,23 @@
+-- Indexes of the network scan result tables (MariaDB).
+--
+-- Tables are created by the JPA provider, which does not create these
+-- indexes (JPA 2.0 has no index annotation) and does not alter tables of an
+-- existing deployment. Run this script once on the Lider database after the
+-- plugin is installed or upgraded, it can be run again safely.
+
+-- Scan results listed by date
+CREATE INDEX IF NOT EXISTS IDX_NSR_SCAN_DATE ON P_NETWORK_SCAN_RESULT (SCAN_DATE);
+
+-- Hosts of a scan result, read page by page ordered by host ID
+CREATE INDEX IF NOT EXISTS IDX_NSR_HOST_RESULT ON P_NETWORK_SCAN_RESULT_HOST (SCAN_RESULT_ID, HOST_ID);
+
+-- Hosts queried by IP address
+CREATE INDEX IF NOT EXISTS IDX_NSR_HOST_IP ON P_NETWORK_SCAN_RESULT_HOST (IP_ADDRESS);
+
+-- Hosts with a given port open, and ports of a host
+CREATE INDEX IF NOT EXISTS IDX_NSR_PORT_PORT ON P_NETWORK_SCAN_RESULT_PORT (PORT, HOST_ID);
+CREATE INDEX IF NOT EXISTS IDX_NSR_PORT_HOST ON P_NETWORK_SCAN_RESULT_PORT (HOST_ID);
+
+-- Hosts with a given OS guess, and OS guesses of a host
+CREATE INDEX IF NOT EXISTS IDX_NSR_OS_NAME ON P_NETWORK_SCAN_RESULT_OS (OS_NAME(191));
+CREATE INDEX IF NOT EXISTS IDX_NSR_OS_HOST ON P_NETWORK_SCAN_RESULT_OS (HOST_ID);
@@ -35,9 +35,9 @@
  */
 package org.nmap4j.parser;
 
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.nmap4j.data.NMapRun;
 import org.nmap4j.data.host.Address;
@@ -82,7 +82,11 @@ import org.xml.sax.helpers.DefaultHandler;
  */
 public class NMapXmlHandler extends DefaultHandler {
 	
-	private static List<NMap4JParserEventListener> listeners ;
+	/**
+	 * Listeners are bound to this handler (and therefore to a single parse),
+	 * so that concurrent parsers never receive each other's events.
+	 */
+	private final List<NMap4JParserEventListener> listeners = new CopyOnWriteArrayList<NMap4JParserEventListener>() ;
 	
 	private INMapRunHandler runHandler ;
 	
@@ -121,33 +125,31 @@ public class NMapXmlHandler extends DefaultHandler {
 	private boolean isCpeData = false ;
 	
 	private String previousQName ;
+	
     
 	public NMapXmlHandler( INMapRunHandler handler ) {
-		listeners = new ArrayList<NMap4JParserEventListener>() ;
 		runHandler = handler ;
 	}
 	
 	private void fireEvent( Object payload ) {
+		if( listeners.isEmpty() ) {
+			return ;
+		}
 		ParserEvent event = new ParserEvent( this, payload ) ;
-		if( listeners != null && listeners.size() > 0 ) {
-			Iterator<NMap4JParserEventListener> listenersIterator = listeners.iterator() ;
-			while( listenersIterator.hasNext() ) {
-				NMap4JParserEventListener listener = listenersIterator.next() ;
-				if( listener != null ) {
-					listener.parseEventNotification( event ) ;
-				}
+		Iterator<NMap4JParserEventListener> listenersIterator = listeners.iterator() ;
+		while( listenersIterator.hasNext() ) {
+			NMap4JParserEventListener listener = listenersIterator.next() ;
+			if( listener != null ) {
+				listener.parseEventNotification( event ) ;
 			}
 		}
 	}
 	
-	public static void addListener( NMap4JParserEventListener listener ) {
-		if( listeners == null ) {
-			 listeners = new ArrayList<NMap4JParserEventListener>() ;
-		}
+	public void addListener( NMap4JParserEventListener listener ) {
 		listeners.add( listener ) ;
 	}
 	
-	public static void removeListener( NMap4JParserEventListener listener ) {
+	public void removeListener( NMap4JParserEventListener listener ) {
 		listeners.remove( listener ) ;
 	}
 
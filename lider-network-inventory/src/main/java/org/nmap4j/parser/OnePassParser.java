@@ -62,6 +62,9 @@ import org.xml.sax.SAXException;
  * To use this class, pass in a either a File object or an InputStream and call
  * the parse() method.  You will receive a tree of objects that contain the 
  * contents of the XML.
+ * <p>
+ * Listeners are registered per parser instance. An instance should not be
+ * shared by threads, create a new parser for each concurrent parse instead.
  * 
  * @author jsvede
  *
@@ -84,7 +87,7 @@ public class OnePassParser implements NMap4JParserEventListener {
 	
 	public NMapRun parse( String input, int type  ) {
 		
-		NMapXmlHandler.addListener( this ) ;
+		nmxh.addListener( this ) ;
 		
 		SAXParserFactory spf = SAXParserFactory.newInstance();
 	    try {
@@ -113,7 +116,7 @@ public class OnePassParser implements NMap4JParserEventListener {
 	      ie.printStackTrace();
 	    }
 	    
-	    NMapXmlHandler.removeListener( this ) ;
+	    nmxh.removeListener( this ) ;
 	    
 		return nmapRun ;
 	}
@@ -126,11 +129,11 @@ public class OnePassParser implements NMap4JParserEventListener {
 	}
 	
 	public void addListener(NMap4JParserEventListener aListener ) {
-		NMapXmlHandler.addListener( aListener ) ; 
+		nmxh.addListener( aListener ) ; 
  	}
 	
 	public void removeListener( NMap4JParserEventListener aListener ) {
-		NMapXmlHandler.removeListener( aListener ) ;
+		nmxh.removeListener( aListener ) ;
 	}
 	
 }
@@ -7,16 +7,8 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.FutureTask;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.RunnableFuture;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
-import org.codehaus.jackson.JsonGenerationException;
-import org.codehaus.jackson.map.JsonMappingException;
-import org.codehaus.jackson.map.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,16 +22,27 @@ import tr.org.liderahenk.lider.core.api.service.enums.CommandResultStatus;
 import tr.org.liderahenk.network.inventory.contants.Constants;
 import tr.org.liderahenk.network.inventory.contants.Constants.AccessMethod;
 import tr.org.liderahenk.network.inventory.contants.Constants.InstallMethod;
+import tr.org.liderahenk.network.inventory.contants.Constants.InstallMode;
 import tr.org.liderahenk.network.inventory.dto.AhenkSetupDetailDto;
 import tr.org.liderahenk.network.inventory.dto.AhenkSetupDto;
 import tr.org.liderahenk.network.inventory.entities.AhenkSetupParameters;
 import tr.org.liderahenk.network.inventory.entities.AhenkSetupResultDetail;
 import tr.org.liderahenk.network.inventory.plugininfo.PluginInfoImpl;
 import tr.org.liderahenk.network.inventory.runnables.RunnableAhenkInstaller;
+import tr.org.liderahenk.network.inventory.utils.job.IJobTask;
+import tr.org.liderahenk.network.inventory.utils.job.Job;
+import tr.org.liderahenk.network.inventory.utils.job.JobManager;
+import tr.org.liderahenk.network.inventory.utils.json.ResultJsonWriter;
+import tr.org.liderahenk.network.inventory.utils.setup.PackageCache;
+import tr.org.liderahenk.network.inventory.utils.setup.PackageCache.CachedPackage;
+import tr.org.liderahenk.network.inventory.utils.scheduler.WorkScheduler;
 
 /**
  * This class is responsible for installing Ahenk packages into the specified
  * machines. It can install via provided ahenk.deb file or apt-get.
+ * <p>
+ * If 'async' parameter is true, installation is executed in the background and
+ * a job ID is returned immediately, see {@link JobManager}.
  * 
  * @author <a href="mailto:emre.akkaya@agem.com.tr">Emre Akkaya</a>
  * @author <a href="mailto:caner.feyzullahoglu@agem.com.tr">Caner Feyzullahoglu</a>
@@ -56,6 +59,8 @@ public class AhenkInstallationCommand implements ICommand {
 
 	private IConfigurationService configurationService;
 
+	private JobManager jobManager;
+
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	@Override
 	public ICommandResult execute(ICommandContext context) {
@@ -65,126 +70,150 @@ public class AhenkInstallationCommand implements ICommand {
 
 		if (!executeOnAgent) {
 			logger.debug("Getting setup parameters.");
-			List<String> ipList = (List<String>) parameterMap.get("ipList");
+			final List<String> ipList = (List<String>) parameterMap.get("ipList");
 			AccessMethod accessMethod = AccessMethod.valueOf((String) parameterMap.get("accessMethod"));
-			InstallMethod installMethod = InstallMethod.valueOf((String) parameterMap.get("installMethod"));
-			String username = (String) parameterMap.get("username");
-			Integer port = (Integer) parameterMap.get("port");
+			final InstallMethod installMethod = InstallMethod.valueOf((String) parameterMap.get("installMethod"));
+			final String username = (String) parameterMap.get("username");
+			final Integer port = (Integer) parameterMap.get("port");
 
-			String password = null;
-			String privateKey = null;
-			String passphrase = null;
-			String downloadUrl = null;
+			final String password;
+			final String privateKey;
+			final String passphrase;
+			final String downloadUrl;
 
 			if (accessMethod == AccessMethod.USERNAME_PASSWORD) {
 				password = (String) parameterMap.get("password");
+				passphrase = null;
+				privateKey = null;
 			} else {
+				password = null;
 				passphrase = (String) parameterMap.get("passphrase");
 				privateKey = (String) parameterMap.get("privateKeyPath");
 				logger.debug("Path of private key file: " + privateKey);
 			}
 
-			if (installMethod == InstallMethod.WGET) {
+			if (installMethod == InstallMethod.WGET || installMethod == InstallMethod.PROVIDED_DEB) {
 				downloadUrl = (String) parameterMap.get("downloadUrl");
+			} else {
+				downloadUrl = null;
 			}
 
-			// Receive file parameter in ahenk.conf
-			String receiveFile = (String) parameterMap.get("receiveFile");
-
-			String useTls = (String) parameterMap.get("useTls");
-			
-			LinkedBlockingQueue<Runnable> taskQueue = new LinkedBlockingQueue<Runnable>();
+			final String packageChecksum = (String) parameterMap.get("packageChecksum");
 
-			final List<Runnable> running = Collections.synchronizedList(new ArrayList());
-
-			logger.debug("Creating a thread pool.");
-			ThreadPoolExecutor executor = new ThreadPoolExecutor(Constants.SSH_CONFIG.NUM_THREADS,
-					Constants.SSH_CONFIG.NUM_THREADS, 0L, TimeUnit.MILLISECONDS, taskQueue,
-					Executors.defaultThreadFactory()) {
-
-				@Override
-				protected <T> RunnableFuture<T> newTaskFor(final Runnable runnable, T value) {
-					return new FutureTask<T>(runnable, value) {
-						@Override
-						public String toString() {
-							return runnable.toString();
-						}
-					};
-				}
-
-				@Override
-				protected void beforeExecute(Thread t, Runnable r) {
-					super.beforeExecute(t, r);
-					running.add(r);
-				}
+			// Receive file parameter in ahenk.conf
+			final String receiveFile = (String) parameterMap.get("receiveFile");
 
-				@Override
-				protected void afterExecute(Runnable r, Throwable t) {
-					super.afterExecute(r, t);
-					running.remove(r);
-					logger.debug("Running threads: {}", running);
-				}
-			};
+			final String useTls = (String) parameterMap.get("useTls");
 
+			// Install mode is step by step unless stated otherwise
+			final InstallMode installMode = parameterMap.get("installMode") != null
+					? InstallMode.valueOf((String) parameterMap.get("installMode")) : InstallMode.STEP_BY_STEP;
+			
 			logger.debug("Getting the location of private key file");
 
 			logger.debug("Creating setup parameters parent entity.");
 			// Insert new Ahenk installation parameters.
 			// Parent identity object contains installation parameters.
-			AhenkSetupParameters setupParams = getParentEntityObject(ipList, accessMethod, username, password,
+			final AhenkSetupParameters setupParams = getParentEntityObject(ipList, accessMethod, username, password,
 					privateKey, passphrase, installMethod, port, downloadUrl);
 
 			logger.debug("passphrase: " + passphrase);
 
-			AhenkSetupDto ahenkSetupDto = new AhenkSetupDto(ipList, accessMethod, username, password, privateKey,
-					passphrase, installMethod, port,
+			final AhenkSetupDto ahenkSetupDto = new AhenkSetupDto(ipList, accessMethod, username, password,
+					privateKey, passphrase, installMethod, port,
 					Collections.synchronizedList(new ArrayList<AhenkSetupDetailDto>()));
 
-			logger.debug("Starting to create a new runnable to each Ahenk installation.");
-			for (final String ip : ipList) {
-
-				// Execute each installation in a new runnable.
-				RunnableAhenkInstaller installer = new RunnableAhenkInstaller(ahenkSetupDto, ip, username, password,
-						port, privateKey, passphrase, installMethod, downloadUrl, setupParams,
-						configurationService.getXmppHost(), configurationService.getXmppUsername(),
-						configurationService.getXmppServiceName(), receiveFile, useTls);
-
-				logger.debug("Executing installation runnable for: " + ip);
+			IJobTask task = new IJobTask() {
+				@Override
+				public Object execute(Job job) throws Exception {
+					job.setPartialResult(ahenkSetupDto, ahenkSetupDto.getSetupDetailList());
+
+					// Download package once on Lider, it will be pushed to each
+					// target. It is downloaded by the job, not by the request.
+					CachedPackage cachedPackage = null;
+					if (installMethod == InstallMethod.PROVIDED_DEB) {
+						cachedPackage = PackageCache.getInstance().fetch(downloadUrl, packageChecksum);
+					}
+
+					List<RunnableAhenkInstaller> installers = new ArrayList<RunnableAhenkInstaller>();
+					logger.debug("Starting to create a new runnable to each Ahenk installation.");
+					for (final String ip : ipList) {
+						// Execute each installation in a new runnable.
+						installers.add(new RunnableAhenkInstaller(ahenkSetupDto, ip, username, password, port,
+								privateKey, passphrase, installMethod, downloadUrl, setupParams,
+								configurationService.getXmppHost(), configurationService.getXmppUsername(),
+								configurationService.getXmppServiceName(), receiveFile, useTls, installMode,
+								cachedPackage));
+					}
+
+					logger.debug("Creating a scheduler.");
+					WorkScheduler scheduler = new WorkScheduler("Ahenk installation",
+							Constants.SSH_CONFIG.NUM_THREADS);
+					job.track(scheduler);
+
+					logger.debug("Scheduling {} installation runnables.", installers.size());
+					for (RunnableAhenkInstaller installer : installers) {
+						scheduler.schedule(installer);
+					}
+
+					try {
+						logger.debug("Waiting for scheduler to finish all tasks.");
+						// Installations which are not started until the job
+						// expires are discarded by the shutdown below
+						if (scheduler.awaitCompletion(Constants.JOB_CONFIG.MAX_DURATION, TimeUnit.MILLISECONDS)) {
+							logger.debug("Scheduler finished all tasks.");
+						} else {
+							job.addMessage("Ahenk installation did not finish in " + Constants.JOB_CONFIG.MAX_DURATION
+									+ " ms, remaining hosts are not installed.");
+						}
+					} catch (InterruptedException e) {
+						logger.error(e.getMessage(), e);
+						Thread.currentThread().interrupt();
+					} finally {
+						logger.debug("Shutting down scheduler.");
+						scheduler.shutdown();
+					}
+
+					logger.debug("Saving entities to database.");
+					pluginDbService.save(setupParams);
+					job.setResultId(setupParams.getId());
+
+					logger.debug("Entities successfully saved.");
+					return ahenkSetupDto;
+				}
+			};
 
-				executor.execute(installer);
+			// Install in the background, status is queried by job ID
+			if (Boolean.TRUE.equals(parameterMap.get("async"))) {
+				Job job = jobManager.submit(getCommandId(), task);
+				Map<String, Object> resultMap = new HashMap<String, Object>();
+				resultMap.put("jobId", job.getId());
+				return resultFactory.create(CommandResultStatus.OK, new ArrayList<String>(), this, resultMap);
 			}
 
+			Job job = new Job(getCommandId(), false);
 			try {
-				logger.debug("Shutting down executor service.");
-				executor.shutdown();
-
-				logger.debug("Waiting for executor service to finish all tasks.");
-				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-
-				logger.debug("Executor service finished all tasks.");
-
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+				task.execute(job);
+			} catch (Exception e) {
+				logger.error(e.getMessage(), e);
+				List<String> messages = new ArrayList<String>();
+				messages.add(e.getMessage());
+				return resultFactory.create(CommandResultStatus.ERROR, messages, this);
 			}
 
-			logger.debug("Saving entities to database.");
-			pluginDbService.save(setupParams);
-
-			logger.debug("Entities successfully saved.");
-
 			Map<String, Object> resultMap = new HashMap<String, Object>();
-			ObjectMapper mapper = new ObjectMapper();
 			try {
-				resultMap.put("result", mapper.writeValueAsString(ahenkSetupDto));
-			} catch (JsonGenerationException e) {
-				logger.error(e.getMessage(), e);
-			} catch (JsonMappingException e) {
-				logger.error(e.getMessage(), e);
+				ResultJsonWriter writer = new ResultJsonWriter(ResultJsonWriter.isCompressionRequested(parameterMap));
+				writer.write(ahenkSetupDto);
+				writer.putResult(resultMap, "result");
 			} catch (IOException e) {
 				logger.error(e.getMessage(), e);
 			}
 
-			return resultFactory.create(CommandResultStatus.OK, new ArrayList<String>(), this, resultMap);
+			// Hosts installed so far are still returned with an expired job
+			List<String> messages = job.getMessages();
+			return resultFactory.create(messages.isEmpty() ? CommandResultStatus.OK : CommandResultStatus.ERROR,
+					messages, this, resultMap);
 		}
 
 		logger.error("Executing installation command for ahenk.");
@@ -251,4 +280,8 @@ public class AhenkInstallationCommand implements ICommand {
 		this.configurationService = configurationService;
 	}
 
+	public void setJobManager(JobManager jobManager) {
+		this.jobManager = jobManager;
+	}
+
 }
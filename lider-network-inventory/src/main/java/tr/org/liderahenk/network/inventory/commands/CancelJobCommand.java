@@ -0,0 +1,86 @@
+package tr.org.liderahenk.network.inventory.commands;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tr.org.liderahenk.lider.core.api.plugin.ICommand;
+import tr.org.liderahenk.lider.core.api.service.ICommandContext;
+import tr.org.liderahenk.lider.core.api.service.ICommandResult;
+import tr.org.liderahenk.lider.core.api.service.ICommandResultFactory;
+import tr.org.liderahenk.lider.core.api.service.enums.CommandResultStatus;
+import tr.org.liderahenk.network.inventory.plugininfo.PluginInfoImpl;
+import tr.org.liderahenk.network.inventory.utils.job.JobManager;
+
+/**
+ * Cancels a network scan executed in the background. Running nmap processes
+ * are killed and hosts scanned so far are saved as the scan result.
+ *
+ */
+public class CancelJobCommand implements ICommand {
+
+	private Logger logger = LoggerFactory.getLogger(CancelJobCommand.class);
+
+	private ICommandResultFactory resultFactory;
+	private PluginInfoImpl pluginInfo;
+	private JobManager jobManager;
+
+	@Override
+	public ICommandResult execute(ICommandContext context) throws Exception {
+		logger.info("Executing command: CANCEL-JOB");
+
+		Map<String, Object> parameterMap = context.getRequest().getParameterMap();
+		String jobId = (String) parameterMap.get("jobId");
+
+		if (!jobManager.cancel(jobId)) {
+			List<String> messages = new ArrayList<String>();
+			messages.add("Job is not running or cannot be cancelled: " + jobId);
+			return resultFactory.create(CommandResultStatus.ERROR, messages, this);
+		}
+
+		logger.info("Command executed successfully: CANCEL-JOB");
+
+		return resultFactory.create(CommandResultStatus.OK, new ArrayList<String>(), this);
+	}
+
+	@Override
+	public ICommandResult validate(ICommandContext context) {
+		return resultFactory.create(CommandResultStatus.OK, null, this);
+	}
+
+	@Override
+	public String getPluginName() {
+		return pluginInfo.getPluginName();
+	}
+
+	@Override
+	public String getPluginVersion() {
+		return pluginInfo.getPluginVersion();
+	}
+
+	@Override
+	public String getCommandId() {
+		return "CANCEL-JOB";
+	}
+
+	@Override
+	public Boolean executeOnAgent() {
+		return false;
+	}
+
+	public void setResultFactory(ICommandResultFactory resultFactory) {
+		this.resultFactory = resultFactory;
+	}
+
+	public void setPluginInfo(PluginInfoImpl pluginInfo) {
+		this.pluginInfo = pluginInfo;
+	}
+
+	public void setJobManager(JobManager jobManager) {
+		this.jobManager = jobManager;
+	}
+
+}
@@ -16,18 +16,10 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.FutureTask;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.RunnableFuture;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import javax.xml.bind.DatatypeConverter;
 
-import org.codehaus.jackson.JsonGenerationException;
-import org.codehaus.jackson.map.JsonMappingException;
-import org.codehaus.jackson.map.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,17 +31,35 @@ import tr.org.liderahenk.lider.core.api.service.ICommandResultFactory;
 import tr.org.liderahenk.lider.core.api.service.enums.CommandResultStatus;
 import tr.org.liderahenk.network.inventory.contants.Constants;
 import tr.org.liderahenk.network.inventory.contants.Constants.AccessMethod;
+import tr.org.liderahenk.network.inventory.contants.Constants.DistributionMode;
+import tr.org.liderahenk.network.inventory.contants.Constants.TransferMode;
 import tr.org.liderahenk.network.inventory.dto.FileDistResultDto;
 import tr.org.liderahenk.network.inventory.dto.FileDistResultHostDto;
 import tr.org.liderahenk.network.inventory.entities.FileDistResult;
 import tr.org.liderahenk.network.inventory.entities.FileDistResultHost;
 import tr.org.liderahenk.network.inventory.plugininfo.PluginInfoImpl;
 import tr.org.liderahenk.network.inventory.runnables.RunnableFileDistributor;
+import tr.org.liderahenk.network.inventory.runnables.RunnableRelayFileDistributor;
+import tr.org.liderahenk.network.inventory.utils.job.IJobTask;
+import tr.org.liderahenk.network.inventory.utils.job.Job;
+import tr.org.liderahenk.network.inventory.utils.job.JobManager;
+import tr.org.liderahenk.network.inventory.utils.json.ResultJsonWriter;
+import tr.org.liderahenk.network.inventory.utils.scheduler.IWorkUnitFactory;
+import tr.org.liderahenk.network.inventory.utils.scheduler.RelayTree;
+import tr.org.liderahenk.network.inventory.utils.scheduler.WorkScheduler;
+import tr.org.liderahenk.network.inventory.utils.setup.FileTransferOptions;
+import tr.org.liderahenk.network.inventory.utils.setup.PackageCache;
+import tr.org.liderahenk.network.inventory.utils.setup.RelayKey;
+import tr.org.liderahenk.network.inventory.utils.setup.SetupUtils;
+import tr.org.liderahenk.network.inventory.utils.setup.UploadStore;
 
 /**
  * This class is responsible for distributing a file to a number of machines in
  * the given IP list. Safe-copy (SCP) utility command is used to copy file to
  * its destination and it can be configured via plugin configuration file.
+ * <p>
+ * If 'async' parameter is true, the file is distributed in the background and
+ * a job ID is returned immediately, see {@link JobManager}.
  * 
  * @author <a href="mailto:emre.akkaya@agem.com.tr">Emre Akkaya</a>
  *
@@ -61,39 +71,58 @@ public class FileDistributionCommand implements ICommand {
 	private ICommandResultFactory resultFactory;
 	private IPluginDbService pluginDbService;
 	private PluginInfoImpl pluginInfo;
+	private JobManager jobManager;
 
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	@Override
 	public ICommandResult execute(ICommandContext context) {
 
-		FileDistResultDto fileDistResultDto = null;
+		final FileDistResultDto fileDistResultDto;
 
 		// Read command parameters.
 		Map<String, Object> parameterMap = context.getRequest().getParameterMap();
 		
 		ArrayList<String> ipAddresses = (ArrayList<String>) parameterMap.get("ipAddresses");
 		
-		logger.debug("Getting file as byte array from parameter map");
-		byte[] fileArray = DatatypeConverter.parseBase64Binary((String) parameterMap.get("file"));
-		
-		logger.debug("MD5: " + getMD5ofFile(fileArray));
-
 		String filename = (String) parameterMap.get("filename");
+
+		// Large files are uploaded in chunks before the command, small files
+		// are passed as a base64 parameter
+		final String uploadId = (String) parameterMap.get("uploadId");
+		final File fileToTransfer;
+		if (uploadId != null) {
+			logger.debug("Getting uploaded file: {}", uploadId);
+			Long fileSize = parameterMap.get("fileSize") != null ? ((Number) parameterMap.get("fileSize")).longValue()
+					: null;
+			try {
+				fileToTransfer = UploadStore.getInstance().complete(uploadId, filename, fileSize);
+			} catch (IOException e) {
+				logger.error(e.getMessage(), e);
+				List<String> messages = new ArrayList<String>();
+				messages.add(e.getMessage());
+				return resultFactory.create(CommandResultStatus.ERROR, messages, this);
+			}
+		} else {
+			logger.debug("Getting file as byte array from parameter map");
+			byte[] fileArray = DatatypeConverter.parseBase64Binary((String) parameterMap.get("file"));
+
+			logger.debug("MD5: " + getMD5ofFile(fileArray));
+
+			logger.debug("Getting file instances");
+			fileToTransfer = getFileInstance(fileArray, filename);
+		}
 		
-		logger.debug("Getting file instances");
-		File fileToTransfer = getFileInstance(fileArray, filename);
-		
-		String username = (String) parameterMap.get("username");
-		String password = (String) parameterMap.get("password");
-		Integer port = (Integer) (parameterMap.get("port") == null ? 22 : parameterMap.get("port"));
-		String destDirectory = (String) parameterMap.get("destDirectory");
+		final String username = (String) parameterMap.get("username");
+		final String password = (String) parameterMap.get("password");
+		final Integer port = (Integer) (parameterMap.get("port") == null ? 22 : parameterMap.get("port"));
+		final String destDirectory = (String) parameterMap.get("destDirectory");
 		AccessMethod accessMethod = AccessMethod.valueOf((String) parameterMap.get("accessMethod"));
 		
 		logger.debug("Parameter map: {}", parameterMap);
 
 		logger.debug("Getting the location of private key file");
 
-		String privateKey;
+		final String privateKey;
 		// Get private key location in Lider machine from configuration file
 		if (accessMethod == AccessMethod.PRIVATE_KEY) {
 			privateKey = (String) parameterMap.get("privateKeyPath");
@@ -102,110 +131,242 @@ public class FileDistributionCommand implements ICommand {
 			privateKey = null;
 		}
 
-		String passphrase = (String) parameterMap.get("passphrase");
+		final String passphrase = (String) parameterMap.get("passphrase");
+
+		final FileTransferOptions transferOptions = new FileTransferOptions();
+		if (parameterMap.get("transferMode") != null) {
+			transferOptions.setTransferMode(TransferMode.valueOf((String) parameterMap.get("transferMode")));
+		}
+		if (parameterMap.get("transferBufferSize") != null) {
+			transferOptions.setBufferSize((Integer) parameterMap.get("transferBufferSize"));
+		}
+		if (parameterMap.get("mappedRead") != null) {
+			transferOptions.setMappedRead((Boolean) parameterMap.get("mappedRead"));
+		}
+		if (parameterMap.get("skipIdentical") != null) {
+			transferOptions.setSkipIdentical((Boolean) parameterMap.get("skipIdentical"));
+		}
+		if (parameterMap.get("deltaTransfer") != null && (Boolean) parameterMap.get("deltaTransfer")) {
+			transferOptions.setDeltaBlockSize(Constants.SSH_CONFIG.DELTA_BLOCK_SIZE);
+		}
+
+		// Checksum is needed to find hosts which already have the file
+		String fileChecksum = null;
+		if (fileToTransfer != null
+				&& (transferOptions.isSkipIdentical() || transferOptions.getDeltaBlockSize() > 0)) {
+			try {
+				fileChecksum = PackageCache.checksum(fileToTransfer);
+			} catch (IOException e) {
+				logger.error(e.getMessage(), e);
+			}
+		}
+		final String checksum = fileChecksum;
+
+		// In relay mode, hosts which received the file forward it to others
+		final boolean relay = parameterMap.get("distributionMode") != null && DistributionMode
+				.valueOf((String) parameterMap.get("distributionMode")) == DistributionMode.RELAY;
+		final int fanOut = parameterMap.get("relayFanOut") != null ? (Integer) parameterMap.get("relayFanOut")
+				: Constants.SSH_CONFIG.RELAY_FAN_OUT;
 		
 		// Create new instance to send back to Lider Console
 		fileDistResultDto = new FileDistResultDto(ipAddresses, fileToTransfer.getName(), username, password, port,
 				privateKey, destDirectory, new Date(),
 				Collections.synchronizedList(new ArrayList<FileDistResultHostDto>()));
 
+		final ArrayList<String> hosts = ipAddresses;
+		IJobTask task = new IJobTask() {
+			@Override
+			public Object execute(Job job) throws Exception {
+				try {
+					distribute(job, fileDistResultDto, hosts, username, password, port, privateKey, passphrase,
+							fileToTransfer, destDirectory, transferOptions, checksum, relay, fanOut);
+				} finally {
+					if (uploadId != null) {
+						UploadStore.getInstance().remove(uploadId);
+					}
+				}
+				return fileDistResultDto;
+			}
+		};
+
+		// Distribute in the background, status is queried by job ID
+		if (Boolean.TRUE.equals(parameterMap.get("async"))) {
+			Job job = jobManager.submit(getCommandId(), task);
+			Map<String, Object> resultMap = new HashMap<String, Object>();
+			resultMap.put("jobId", job.getId());
+			return resultFactory.create(CommandResultStatus.OK, new ArrayList<String>(), this, resultMap);
+		}
+
+		try {
+			task.execute(new Job(getCommandId(), false));
+		} catch (Exception e) {
+			logger.error(e.getMessage(), e);
+			List<String> messages = new ArrayList<String>();
+			messages.add(e.getMessage());
+			return resultFactory.create(CommandResultStatus.ERROR, messages, this);
+		}
+
+		Map<String, Object> resultMap = new HashMap<String, Object>();
+		try {
+			ResultJsonWriter writer = new ResultJsonWriter(ResultJsonWriter.isCompressionRequested(parameterMap));
+			writer.write(fileDistResultDto);
+			writer.putResult(resultMap, "result");
+		} catch (IOException e) {
+			logger.error(e.getMessage(), e);
+		}
+
+		return resultFactory.create(CommandResultStatus.OK, new ArrayList<String>(), this, resultMap);
+	}
+
+	/**
+	 * Distributes the file to the given hosts and saves the result.
+	 */
+	private void distribute(Job job, final FileDistResultDto fileDistResultDto, ArrayList<String> ipAddresses,
+			final String username, final String password, final Integer port, final String privateKey,
+			final String passphrase, final File fileToTransfer, final String destDirectory,
+			final FileTransferOptions transferOptions, final String checksum, boolean relay, int fanOut)
+					throws InterruptedException {
+
+		job.setPartialResult(fileDistResultDto, fileDistResultDto.getHosts());
+
 		// Distribute the provided file via threads.
-		// Each thread is responsible for a limited number of hosts!
-		if (ipAddresses != null && !ipAddresses.isEmpty() && fileToTransfer != null) {
+		// Hosts are divided into small units which are shared among threads!
+		if (ipAddresses == null || ipAddresses.isEmpty() || fileToTransfer == null) {
+			return;
+		}
 
-			// Create thread pool executor!
-			LinkedBlockingQueue<Runnable> taskQueue = new LinkedBlockingQueue<Runnable>();
-			final List<Runnable> running = Collections.synchronizedList(new ArrayList());
-			ThreadPoolExecutor executor = new ThreadPoolExecutor(Constants.SSH_CONFIG.NUM_THREADS,
-					Constants.SSH_CONFIG.NUM_THREADS, 0L, TimeUnit.MILLISECONDS, taskQueue,
-					Executors.defaultThreadFactory()) {
+		// A background distribution is not limited by the request timeout
+		long timeout = job.isBackground() ? Constants.JOB_CONFIG.MAX_DURATION : 100000;
 
-				@Override
-				protected <T> RunnableFuture<T> newTaskFor(final Runnable runnable, T value) {
-					return new FutureTask<T>(runnable, value) {
-						@Override
-						public String toString() {
-							return runnable.toString();
-						}
-					};
-				}
+		// Key is generated only when there is something to distribute, it is
+		// revoked and deleted on every exit path below
+		RelayKey relayKey = null;
+		if (relay) {
+			try {
+				relayKey = RelayKey.generate();
+			} catch (IOException e) {
+				logger.error("Could not generate relay key, file will be copied directly: " + e.getMessage(), e);
+			}
+		}
 
-				@Override
-				protected void beforeExecute(Thread t, Runnable r) {
-					super.beforeExecute(t, r);
-					running.add(r);
+		WorkScheduler scheduler = new WorkScheduler("File distribution", Constants.SSH_CONFIG.NUM_THREADS);
+		job.track(scheduler);
+
+		try {
+			if (relayKey != null) {
+				RelayTree tree = new RelayTree(ipAddresses, fanOut);
+
+				logger.debug("Hosts: {}, Threads: {}, Fan-out: {}, Depth: {}", new Object[] { ipAddresses.size(),
+						Constants.SSH_CONFIG.NUM_THREADS, fanOut, tree.getDepth() });
+
+				for (Integer root : tree.getRoots()) {
+					scheduler.schedule(new RunnableRelayFileDistributor(fileDistResultDto, tree, root, null,
+							username, password, port, privateKey, passphrase, fileToTransfer, destDirectory,
+							transferOptions, checksum, relayKey, scheduler));
 				}
+			} else {
+				logger.debug("Hosts: {}, Threads: {}, Hosts per unit: {}", new Object[] { ipAddresses.size(),
+						Constants.SSH_CONFIG.NUM_THREADS, Constants.SSH_CONFIG.HOSTS_PER_UNIT });
+
+				scheduler.schedule(ipAddresses, Constants.SSH_CONFIG.HOSTS_PER_UNIT, new IWorkUnitFactory<String>() {
+					@Override
+					public Runnable create(List<String> unit) {
+						return new RunnableFileDistributor(fileDistResultDto, unit, username, password, port,
+								privateKey, passphrase, fileToTransfer, destDirectory, transferOptions, checksum);
+					}
+				});
+			}
 
-				@Override
-				protected void afterExecute(Runnable r, Throwable t) {
-					super.afterExecute(r, t);
-					running.remove(r);
-					logger.debug("Running threads: {}", running);
+			// Wait for all tasks to be completed.
+			scheduler.awaitCompletion(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			logger.warn("File distribution is interrupted.");
+			Thread.currentThread().interrupt();
+		} finally {
+			logger.debug("Shutting down scheduler.");
+			scheduler.shutdown();
+			// Key is revoked on every exit path, including timeouts and
+			// interrupts
+			if (relayKey != null) {
+				try {
+					revokeRelayKey(scheduler, relayKey, username, password, port, privateKey, passphrase);
+				} finally {
+					relayKey.delete();
 				}
-			};
-
-			logger.debug("Created thread pool executor for file distribution.");
-
-			// Calculate number of the hosts a thread can process
-			int numberOfHosts = ipAddresses.size();
-			int hostsPerThread;
-			if (numberOfHosts < Constants.SSH_CONFIG.NUM_THREADS) {
-				hostsPerThread = 1;
-	 		} else {
-	 			hostsPerThread = numberOfHosts / Constants.SSH_CONFIG.NUM_THREADS;
-	 		}
-
-			logger.debug("Hosts: {}, Threads:{}, Host per Thread: {}",
-					new Object[] { numberOfHosts, Constants.SSH_CONFIG.NUM_THREADS, hostsPerThread });
-
-			logger.debug("hostsPerThread: " + hostsPerThread);
-			// Create & execute threads
-			for (int i = 0; i < numberOfHosts; i += hostsPerThread) {
-				List<String> ipSubList;
-				if (numberOfHosts < Constants.SSH_CONFIG.NUM_THREADS) {
-					ipSubList = ipAddresses.subList(i, i + 1);
-				} else {
-		 			int toIndex = i + hostsPerThread;
-		 			ipSubList = ipAddresses.subList(i,
-		 					toIndex < ipAddresses.size() ? toIndex : ipAddresses.size() - 1);
-		 		}
-				
-				logger.debug("Creating runnable no: " + (i + 1));
-				RunnableFileDistributor distributor = new RunnableFileDistributor(fileDistResultDto, ipSubList,
-						username, password, port, privateKey, passphrase, fileToTransfer, destDirectory);
-				
-				executor.execute(distributor);
-				logger.debug("Runnable no: " + (i + 1) + " executed.");
 			}
+		}
 
-			logger.debug("Shutting down executor.");
+		logger.debug("Saving entity.");
+		// Insert new distribution result record
+		FileDistResult entity = getEntityObject(fileDistResultDto);
+		pluginDbService.save(entity);
+		job.setResultId(entity.getId());
+	}
 
+	/**
+	 * Removes relay key from all hosts which were given the key. Relay units
+	 * which are still running (e.g. after a timeout) may give the key to more
+	 * hosts, so it waits for them after the scheduler is shut down. Revocation
+	 * runs on its own scheduler and is not stopped by interrupts, interrupt
+	 * status is restored afterwards.
+	 */
+	private void revokeRelayKey(WorkScheduler scheduler, final RelayKey relayKey, final String username,
+			final String password, final Integer port, final String privateKey, final String passphrase) {
+		boolean interrupted = Thread.interrupted();
+
+		long deadline = System.currentTimeMillis() + Constants.SSH_CONFIG.RELAY_REVOKE_TIMEOUT;
+		boolean terminated = false;
+		while (!terminated && System.currentTimeMillis() < deadline) {
 			try {
-				executor.shutdown();
-				// Wait for all tasks to be completed.
-				executor.awaitTermination(100000, TimeUnit.MILLISECONDS);
+				terminated = scheduler.awaitTermination(deadline - System.currentTimeMillis(),
+						TimeUnit.MILLISECONDS);
 			} catch (InterruptedException e) {
-				e.printStackTrace();
+				interrupted = true;
 			}
-
-			logger.debug("Saving entity.");
-			// Insert new distribution result record
-			pluginDbService.save(getEntityObject(fileDistResultDto));
+		}
+		if (!terminated) {
+			logger.warn("Relay units are still running, key may be given to more hosts after revocation.");
 		}
 
-		Map<String, Object> resultMap = new HashMap<String, Object>();
-		ObjectMapper mapper = new ObjectMapper();
+		List<String> hosts = new ArrayList<String>(relayKey.getTouchedHosts());
+		logger.debug("Revoking relay key on {} hosts", hosts.size());
+		WorkScheduler revoker = new WorkScheduler("Relay key revocation", Constants.SSH_CONFIG.NUM_THREADS);
 		try {
-			resultMap.put("result", mapper.writeValueAsString(fileDistResultDto));
-		} catch (JsonGenerationException e) {
-			logger.error(e.getMessage(), e);
-		} catch (JsonMappingException e) {
-			logger.error(e.getMessage(), e);
-		} catch (IOException e) {
-			logger.error(e.getMessage(), e);
+			revoker.schedule(hosts, Constants.SSH_CONFIG.HOSTS_PER_UNIT, new IWorkUnitFactory<String>() {
+				@Override
+				public Runnable create(final List<String> unit) {
+					return new Runnable() {
+						@Override
+						public void run() {
+							for (String ip : unit) {
+								try {
+									SetupUtils.executeCommand(ip, username, password, port, privateKey, passphrase,
+											relayKey.getRevokeCommand());
+								} catch (Exception e) {
+									logger.error("Could not revoke relay key on: " + ip, e);
+								}
+							}
+						}
+					};
+				}
+			});
+
+			deadline = System.currentTimeMillis() + Constants.SSH_CONFIG.RELAY_REVOKE_TIMEOUT;
+			boolean completed = false;
+			while (!completed && System.currentTimeMillis() < deadline) {
+				try {
+					completed = revoker.awaitCompletion(deadline - System.currentTimeMillis(),
+							TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			revoker.shutdown();
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
 		}
-
-		return resultFactory.create(CommandResultStatus.OK, new ArrayList<String>(), this, resultMap);
 	}
 
 	/**
@@ -339,6 +500,10 @@ public class FileDistributionCommand implements ICommand {
 	public void setPluginInfo(PluginInfoImpl pluginInfo) {
 		this.pluginInfo = pluginInfo;
 	}
+
+	public void setJobManager(JobManager jobManager) {
+		this.jobManager = jobManager;
+	}
 	
 	private String getMD5ofFile(byte[] inputBytes) {
 		
@@ -0,0 +1,114 @@
+package tr.org.liderahenk.network.inventory.commands;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tr.org.liderahenk.lider.core.api.plugin.ICommand;
+import tr.org.liderahenk.lider.core.api.service.ICommandContext;
+import tr.org.liderahenk.lider.core.api.service.ICommandResult;
+import tr.org.liderahenk.lider.core.api.service.ICommandResultFactory;
+import tr.org.liderahenk.lider.core.api.service.enums.CommandResultStatus;
+import tr.org.liderahenk.network.inventory.dto.JobDto;
+import tr.org.liderahenk.network.inventory.plugininfo.PluginInfoImpl;
+import tr.org.liderahenk.network.inventory.utils.job.Job;
+import tr.org.liderahenk.network.inventory.utils.job.JobManager;
+import tr.org.liderahenk.network.inventory.utils.json.JsonUtils;
+
+/**
+ * Returns status of a network scan, file distribution or Ahenk installation
+ * executed in the background. Result of the job so far (e.g. hosts found by a
+ * running scan) is returned as well, if the job is still in memory.
+ * <p>
+ * If 'cursor' parameter is provided, only the result items added after the
+ * cursor are returned together with the next cursor.
+ *
+ */
+public class GetJobStatusCommand implements ICommand {
+
+	private Logger logger = LoggerFactory.getLogger(GetJobStatusCommand.class);
+
+	private ICommandResultFactory resultFactory;
+	private PluginInfoImpl pluginInfo;
+	private JobManager jobManager;
+
+	@Override
+	public ICommandResult execute(ICommandContext context) throws Exception {
+		logger.info("Executing command: GET-JOB-STATUS");
+
+		Map<String, Object> parameterMap = context.getRequest().getParameterMap();
+		String jobId = (String) parameterMap.get("jobId");
+
+		JobDto jobDto = jobManager.getStatus(jobId);
+		if (jobDto == null) {
+			List<String> messages = new ArrayList<String>();
+			messages.add("Job not found: " + jobId);
+			return resultFactory.create(CommandResultStatus.ERROR, messages, this);
+		}
+
+		Map<String, Object> resultMap = new HashMap<String, Object>();
+		resultMap.put("job", JsonUtils.writeValueAsString(jobDto));
+
+		Job job = jobManager.getJob(jobId);
+		if (job != null) {
+			if (parameterMap.get("cursor") != null) {
+				// Only the items added since the last poll
+				int cursor = ((Number) parameterMap.get("cursor")).intValue();
+				List<Object> items = job.getItemsAfter(cursor);
+				resultMap.put("items", JsonUtils.writeValueAsString(items));
+				resultMap.put("cursor", cursor + items.size());
+			} else {
+				String result = jobManager.writePartialResult(job);
+				if (result != null) {
+					resultMap.put("result", result);
+				}
+			}
+		}
+
+		logger.info("Command executed successfully: GET-JOB-STATUS");
+
+		return resultFactory.create(CommandResultStatus.OK, new ArrayList<String>(), this, resultMap);
+	}
+
+	@Override
+	public ICommandResult validate(ICommandContext context) {
+		return resultFactory.create(CommandResultStatus.OK, null, this);
+	}
+
+	@Override
+	public String getPluginName() {
+		return pluginInfo.getPluginName();
+	}
+
+	@Override
+	public String getPluginVersion() {
+		return pluginInfo.getPluginVersion();
+	}
+
+	@Override
+	public String getCommandId() {
+		return "GET-JOB-STATUS";
+	}
+
+	@Override
+	public Boolean executeOnAgent() {
+		return false;
+	}
+
+	public void setResultFactory(ICommandResultFactory resultFactory) {
+		this.resultFactory = resultFactory;
+	}
+
+	public void setPluginInfo(PluginInfoImpl pluginInfo) {
+		this.pluginInfo = pluginInfo;
+	}
+
+	public void setJobManager(JobManager jobManager) {
+		this.jobManager = jobManager;
+	}
+
+}
@@ -6,9 +6,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.codehaus.jackson.JsonGenerationException;
-import org.codehaus.jackson.map.JsonMappingException;
-import org.codehaus.jackson.map.ObjectMapper;
+import javax.persistence.EntityManagerFactory;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -21,8 +20,12 @@ import tr.org.liderahenk.lider.core.api.service.enums.CommandResultStatus;
 import tr.org.liderahenk.network.inventory.dto.ScanResultDto;
 import tr.org.liderahenk.network.inventory.dto.ScanResultHostDto;
 import tr.org.liderahenk.network.inventory.entities.ScanResult;
-import tr.org.liderahenk.network.inventory.entities.ScanResultHost;
 import tr.org.liderahenk.network.inventory.plugininfo.PluginInfoImpl;
+import tr.org.liderahenk.network.inventory.utils.json.ResultJsonWriter;
+import tr.org.liderahenk.network.inventory.utils.network.IScanResultListener;
+import tr.org.liderahenk.network.inventory.utils.persistence.ScanResultHostQuery;
+import tr.org.liderahenk.network.inventory.utils.persistence.ScanResultHostReader;
+import tr.org.liderahenk.network.inventory.utils.persistence.ScanResultHostReader.Page;
 
 public class GetScanResultCommand implements ICommand {
 
@@ -31,6 +34,7 @@ public class GetScanResultCommand implements ICommand {
 	private ICommandResultFactory resultFactory;
 	private IPluginDbService pluginDbService;
 	private PluginInfoImpl pluginInfo;
+	private List<EntityManagerFactory> entityManagerFactories;
 
 	@Override
 	public ICommandResult execute(ICommandContext context) throws Exception {
@@ -46,24 +50,54 @@ public class GetScanResultCommand implements ICommand {
 		List<ScanResult> scanResultList = pluginDbService.findByProperty(ScanResult.class, "resultId", resultId, 1);
 		
 		logger.info("Scan result list size: {}", new Object[] { scanResultList.size()});
+		if (scanResultList.isEmpty()) {
+			List<String> messages = new ArrayList<String>();
+			messages.add("Scan result not found: " + resultId);
+			return resultFactory.create(CommandResultStatus.ERROR, messages, this);
+		}
 		ScanResult scanResult = scanResultList.get(0);
 
-		// Select scan result hosts
-		List<ScanResultHost> scanResultHostList = pluginDbService.findByProperty(ScanResultHost.class, "scanResult", scanResult, null);
-		
-		ScanResultDto scanResultDto = createResultDto(scanResult, scanResultHostList);
+		// Select scan result hosts (a page of them if limit is provided) and
+		// write them one by one instead of collecting them first
+		ScanResultHostQuery query = ScanResultHostQuery.fromParameters(parameterMap);
+		final ResultJsonWriter writer = new ResultJsonWriter(ResultJsonWriter.isCompressionRequested(parameterMap));
+		final int[] hostCount = new int[1];
+		Page page;
+		try {
+			writer.writeStart(createResultDto(scanResult, null), "hosts");
+			page = new ScanResultHostReader(pluginDbService, entityManagerFactories).read(scanResult, query,
+					new IScanResultListener() {
+						@Override
+						public void hostScanned(ScanResultHostDto host) {
+							try {
+								writer.writeItem(host);
+								hostCount[0]++;
+							} catch (IOException e) {
+								throw new IllegalStateException(e);
+							}
+						}
+					});
+			writer.writeEnd();
+		} catch (IllegalStateException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			// Query is not supported (e.g. paging without an entity manager
+			// factory)
+			logger.error(e.getMessage(), e);
+			List<String> messages = new ArrayList<String>();
+			messages.add(e.getMessage());
+			return resultFactory.create(CommandResultStatus.ERROR, messages, this);
+		}
+		logger.info("Selected {} hosts of scan result: {}", new Object[] { hostCount[0], resultId });
 
 		logger.info("Creating result map");
 		Map<String, Object> resultMap = new HashMap<String, Object>();
-		ObjectMapper mapper = new ObjectMapper();
-		try {
-			resultMap.put("result", mapper.writeValueAsString(scanResultDto));
-		} catch (JsonGenerationException e) {
-			logger.error(e.getMessage(), e);
-		} catch (JsonMappingException e) {
-			logger.error(e.getMessage(), e);
-		} catch (IOException e) {
-			logger.error(e.getMessage(), e);
+		writer.putResult(resultMap, "result");
+		if (query.isPaged()) {
+			// Keyset of the next page
+			resultMap.put("lastId", page.getLastId());
+			resultMap.put("hasMore", page.hasMore());
 		}
 
 		logger.info("Command executed successfully: GET-SCAN-RESULT");
@@ -71,25 +105,10 @@ public class GetScanResultCommand implements ICommand {
 		return resultFactory.create(CommandResultStatus.OK, new ArrayList<String>(), this, resultMap);
 	}
 
-	private ScanResultDto createResultDto(ScanResult scanResult, List<ScanResultHost> scanResultHostList) {
-
-		List<ScanResultHostDto> scanResultHostDtoList = new ArrayList<ScanResultHostDto>();
-
-		logger.info("scanResultHostList size: {}", new Object[] {scanResultHostDtoList.size()});
-
-		for (ScanResultHost scanresultHost : scanResultHostList) {
-			ScanResultHostDto scanresultHostDto = new ScanResultHostDto(scanresultHost.getHostname(),
-					scanresultHost.getIp(), scanresultHost.isHostUp(), scanresultHost.getOpenPorts(),
-					scanresultHost.getOsGuess(), scanresultHost.getDistance(), scanresultHost.getUptime(),
-					scanresultHost.getMac(), scanresultHost.getVendor());
-			scanResultHostDtoList.add(scanresultHostDto);
-		}
-
-		ScanResultDto scanResultDto = new ScanResultDto(scanResult.getIpRange(), scanResult.getTimingTemplate(),
-				scanResult.getPorts(), scanResult.getSudoUsername(), scanResult.getSudoPassword(),
-				scanResult.getScanDate(), scanResultHostDtoList);
-		
-		return scanResultDto;
+	private ScanResultDto createResultDto(ScanResult scanResult, List<ScanResultHostDto> scanResultHostDtoList) {
+		return new ScanResultDto(scanResult.getIpRange(), scanResult.getTimingTemplate(), scanResult.getPorts(),
+				scanResult.getSudoUsername(), scanResult.getSudoPassword(), scanResult.getScanDate(),
+				scanResultHostDtoList);
 	}
 
 	@Override
@@ -129,4 +148,8 @@ public class GetScanResultCommand implements ICommand {
 		this.pluginInfo = pluginInfo;
 	}
 
+	public void setEntityManagerFactories(List<EntityManagerFactory> entityManagerFactories) {
+		this.entityManagerFactories = entityManagerFactories;
+	}
+
 }
@@ -1,27 +1,19 @@
 package tr.org.liderahenk.network.inventory.commands;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.SocketException;
-import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.FutureTask;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.RunnableFuture;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
-import org.codehaus.jackson.JsonGenerationException;
-import org.codehaus.jackson.map.JsonMappingException;
-import org.codehaus.jackson.map.ObjectMapper;
-import org.nmap4j.data.NMapRun;
-import org.nmap4j.data.nmaprun.Host;
-import org.nmap4j.parser.OnePassParser;
+import javax.persistence.EntityManagerFactory;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,13 +27,31 @@ import tr.org.liderahenk.lider.core.api.service.ICommandResult;
 import tr.org.liderahenk.lider.core.api.service.ICommandResultFactory;
 import tr.org.liderahenk.lider.core.api.service.enums.CommandResultStatus;
 import tr.org.liderahenk.network.inventory.contants.Constants;
+import tr.org.liderahenk.network.inventory.contants.Constants.JobStatus;
+import tr.org.liderahenk.network.inventory.contants.Constants.ScanEngine;
 import tr.org.liderahenk.network.inventory.dto.ScanResultDto;
 import tr.org.liderahenk.network.inventory.dto.ScanResultHostDto;
 import tr.org.liderahenk.network.inventory.entities.ScanResult;
 import tr.org.liderahenk.network.inventory.entities.ScanResultHost;
+import tr.org.liderahenk.network.inventory.exception.CommandExecutionException;
 import tr.org.liderahenk.network.inventory.plugininfo.PluginInfoImpl;
 import tr.org.liderahenk.network.inventory.runnables.RunnableNmap;
+import tr.org.liderahenk.network.inventory.utils.StringUtils;
+import tr.org.liderahenk.network.inventory.utils.job.IJobTask;
+import tr.org.liderahenk.network.inventory.utils.job.Job;
+import tr.org.liderahenk.network.inventory.utils.job.JobManager;
+import tr.org.liderahenk.network.inventory.utils.json.ResultJsonWriter;
+import tr.org.liderahenk.network.inventory.utils.network.ConnectScanner;
+import tr.org.liderahenk.network.inventory.utils.network.ILiveHostListener;
+import tr.org.liderahenk.network.inventory.utils.network.IScanResultListener;
+import tr.org.liderahenk.network.inventory.utils.network.IpRangeSet;
 import tr.org.liderahenk.network.inventory.utils.network.NetworkUtils;
+import tr.org.liderahenk.network.inventory.utils.network.NmapHostParser;
+import tr.org.liderahenk.network.inventory.utils.network.ScanHandle;
+import tr.org.liderahenk.network.inventory.utils.network.ScanHistory;
+import tr.org.liderahenk.network.inventory.utils.persistence.ScanResultWriter;
+import tr.org.liderahenk.network.inventory.utils.scheduler.IWorkUnitFactory;
+import tr.org.liderahenk.network.inventory.utils.scheduler.WorkScheduler;
 
 /**
  * This class is responsible for scanning network and retrieving information
@@ -49,6 +59,20 @@ import tr.org.liderahenk.network.inventory.utils.network.NetworkUtils;
  * network faster, the operation will be divided and executed by a number of
  * threads. Network mapper (nmap) utility command is used to scan a network
  * which is highly reliable and configurable.
+ * <p>
+ * Scan is performed in two phases: a fast host discovery over the whole range
+ * and port & OS scans only on the hosts which are found to be up.
+ * <p>
+ * Alternatively, if 'scanEngine' parameter is CONNECT, a pure-Java TCP connect
+ * scan is performed which does not require nmap or sudo privileges but only
+ * reports open ports.
+ * <p>
+ * If 'async' parameter is true, the scan is executed in the background and a
+ * job ID is returned immediately, see {@link JobManager}. Otherwise the scan is
+ * still registered as a job while the request waits, its ID is logged and
+ * returned with the result. A scan can be cancelled by its job ID via
+ * {@link CancelJobCommand}. Nmap processes are killed when a
+ * scan is cancelled or times out, and hosts scanned so far are saved.
  * 
  * @author <a href="mailto:emre.akkaya@agem.com.tr">Emre Akkaya</a>
  * @author <a href="mailto:caner.feyzullahoglu@agem.com.tr">Caner
@@ -62,6 +86,21 @@ public class NetworkScanCommand implements ICommand, ITaskAwareCommand {
 	private IPluginDbService pluginDbService;
 	private PluginInfoImpl pluginInfo;
 	private ICommandDao commandDao;
+	private JobManager jobManager;
+	private List<EntityManagerFactory> entityManagerFactories;
+
+	/**
+	 * IP ranges which are never scanned (e.g. managed or blacklisted networks)
+	 */
+	private String excludedRanges;
+
+	/**
+	 * Timeouts (ms) of a scan, a scan executed in the background and a single
+	 * nmap process, see {@link ScanHandle}
+	 */
+	private long scanTimeout = Constants.NMAP_CONFIG.SCAN_TIMEOUT;
+	private long backgroundScanTimeout = Constants.JOB_CONFIG.MAX_DURATION;
+	private long chunkTimeout = Constants.NMAP_CONFIG.PROCESS_TIMEOUT;
 
 	private boolean executeOnAgent;
 
@@ -71,160 +110,323 @@ public class NetworkScanCommand implements ICommand, ITaskAwareCommand {
 
 		logger.info("Executing command: SCANNETWORK");
 
-		ScanResultDto scanResultDto = null;
-
 		// Read command parameters.
 		Map<String, Object> parameterMap = context.getRequest().getParameterMap();
 		executeOnAgent = (Boolean) parameterMap.get("executeOnAgent");
 
 		if (!executeOnAgent) {
 			Boolean readLast = (Boolean) parameterMap.get("readLast");
-			String ipRange = (String) parameterMap.get("ipRange");
-			String ports = (String) parameterMap.get("ports");
-			String sudoUsername = (String) parameterMap.get("sudoUsername");
-			String sudoPassword = (String) parameterMap.get("sudoPassword");
-			String timingTemplate = (String) parameterMap.get("timingTemplate");
-			ArrayList<String> messages = new ArrayList<String>();
+			final String ipRange = (String) parameterMap.get("ipRange");
+			final String ports = (String) parameterMap.get("ports");
+			final String sudoUsername = (String) parameterMap.get("sudoUsername");
+			final String sudoPassword = (String) parameterMap.get("sudoPassword");
+			final String timingTemplate = (String) parameterMap.get("timingTemplate");
+			final String excludedRanges = (String) parameterMap.get("excludedRanges");
+			final ScanEngine scanEngine = parameterMap.get("scanEngine") != null
+					? ScanEngine.valueOf(parameterMap.get("scanEngine").toString()) : ScanEngine.NMAP;
 
 			logger.debug("Parameter map: {}", parameterMap);
 
+			ScanResultDto scanResultDto = null;
+			// Messages of an incomplete scan (e.g. timed out or cancelled)
+			List<String> messages = new ArrayList<String>();
+			String jobId = null;
+
 			// Find last network scan!
 			if (readLast != null && readLast.booleanValue()) {
 				// TODO scanResult
 			}
 			// New network scan.
 			else {
-
-				// Create new instance to send back to Lider Console
-				scanResultDto = new ScanResultDto(ipRange, timingTemplate, ports, sudoUsername, sudoPassword,
-						new Date(), Collections.synchronizedList(new ArrayList<ScanResultHostDto>()));
-
-				// If user provides an IP range, scan only it!
-				// otherwise find all IP addresses on the connected networks
-				List<String> ipAddresses = null;
-				try {
-					if (ipRange != null && !ipRange.isEmpty()) {
-						logger.debug("Converting to ip list.");
-						ipAddresses = NetworkUtils.convertToIpList(ipRange);
-					} else {
-						logger.debug("Finding ip addresses.");
-						ipAddresses = NetworkUtils.findIpAddresses();
+				IJobTask task = new IJobTask() {
+					@Override
+					public Object execute(Job job) throws Exception {
+						return scan(job, ipRange, excludedRanges, ports, sudoUsername, sudoPassword, timingTemplate,
+								scanEngine);
 					}
-				} catch (UnknownHostException e1) {
-					e1.printStackTrace();
-				} catch (SocketException e1) {
-					e1.printStackTrace();
+				};
+
+				// Scan in the background, status is queried by job ID
+				if (Boolean.TRUE.equals(parameterMap.get("async"))) {
+					Job job = jobManager.submit(getCommandId(), task);
+					Map<String, Object> resultMap = new HashMap<String, Object>();
+					resultMap.put("jobId", job.getId());
+					return resultFactory.create(CommandResultStatus.OK, new ArrayList<String>(), this, resultMap);
 				}
 
-				// Scan network via threads.
-				// Each thread is responsible for a limited number of hosts!
-				if (ipAddresses != null && !ipAddresses.isEmpty()) {
-
-					// Create thread pool executor!
-					LinkedBlockingQueue<Runnable> taskQueue = new LinkedBlockingQueue<Runnable>();
-					final List<Runnable> running = Collections.synchronizedList(new ArrayList());
-					ThreadPoolExecutor executor = new ThreadPoolExecutor(Constants.SSH_CONFIG.NUM_THREADS,
-							Constants.SSH_CONFIG.NUM_THREADS, 0L, TimeUnit.MILLISECONDS, taskQueue,
-							Executors.defaultThreadFactory()) {
-
-						@Override
-						protected <T> RunnableFuture<T> newTaskFor(final Runnable runnable, T value) {
-							return new FutureTask<T>(runnable, value) {
-								@Override
-								public String toString() {
-									return runnable.toString();
-								}
-							};
-						}
+				// Registered as a job, so that it can be cancelled by its ID
+				Job job = jobManager.run(getCommandId(), task);
+				messages = job.getMessages();
+				if (job.getStatus() == JobStatus.FAILED) {
+					return resultFactory.create(CommandResultStatus.ERROR, messages, this);
+				}
+				scanResultDto = (ScanResultDto) job.getPartialResult();
+				jobId = job.getId();
+			}
 
-						@Override
-						protected void beforeExecute(Thread t, Runnable r) {
-							super.beforeExecute(t, r);
-							running.add(r);
-						}
+			if (messages.isEmpty()) {
+				logger.info("Command executed successfully.");
+			} else {
+				logger.warn("Network scan is incomplete: {}", messages);
+			}
 
-						@Override
-						protected void afterExecute(Runnable r, Throwable t) {
-							super.afterExecute(r, t);
-							running.remove(r);
-							logger.debug("Running threads: {}", running);
-						}
-					};
+			Map<String, Object> resultMap = new HashMap<String, Object>();
+			try {
+				ResultJsonWriter writer = new ResultJsonWriter(ResultJsonWriter.isCompressionRequested(parameterMap));
+				writer.write(scanResultDto);
+				writer.putResult(resultMap, "result");
+			} catch (IOException e) {
+				logger.error(e.getMessage(), e);
+			}
+			if (jobId != null) {
+				resultMap.put("jobId", jobId);
+			}
 
-					logger.debug("Created thread pool executor for network scan.");
+			// Hosts scanned so far are still returned with an incomplete scan
+			return resultFactory.create(messages.isEmpty() ? CommandResultStatus.OK : CommandResultStatus.ERROR,
+					messages, this, resultMap);
+		} else {
+			logger.info("Executing command on Ahenk.");
+			return resultFactory.create(CommandResultStatus.OK, new ArrayList<String>(), this);
+		}
+	}
 
-					// Calculate number of the hosts a thread can process
-					int numberOfHosts = ipAddresses.size();
-					int hostsPerThread;
-					if (numberOfHosts < Constants.SSH_CONFIG.NUM_THREADS) {
-						hostsPerThread = 1;
-					} else {
-						hostsPerThread = numberOfHosts / Constants.SSH_CONFIG.NUM_THREADS;
-					}
+	/**
+	 * Scans the network and saves the result.
+	 * 
+	 * @return scan result, error messages of a partially failed scan are added
+	 *         to the job
+	 * @throws Exception
+	 *             if no host could be scanned, error messages are added to the
+	 *             job
+	 */
+	private ScanResultDto scan(Job job, String ipRange, String excludedRanges, String ports, String sudoUsername,
+			String sudoPassword, String timingTemplate, ScanEngine scanEngine) throws Exception {
+
+		// Error messages of nmap, added by concurrent units
+		List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+
+		// Create new instance to send back to Lider Console
+		ScanResultDto scanResultDto = new ScanResultDto(ipRange, timingTemplate, ports, sudoUsername, sudoPassword,
+				new Date(), Collections.synchronizedList(new ArrayList<ScanResultHostDto>()));
+		job.setPartialResult(scanResultDto, scanResultDto.getHosts());
+
+		// A background scan is not limited by the request timeout
+		long timeout = job.isBackground() ? backgroundScanTimeout : scanTimeout;
+
+		// If user provides an IP range, scan only it!
+		// otherwise find all IP addresses on the connected networks
+		// Excluded ranges of the configuration and the request are never
+		// scanned
+		IpRangeSet ipAddresses = null;
+		try {
+			ipAddresses = NetworkUtils.findScanTargets(ipRange, joinRanges(this.excludedRanges, excludedRanges));
+		} catch (SocketException e1) {
+			e1.printStackTrace();
+		}
 
-					logger.debug("Hosts: {}, Threads:{}, Host per Thread: {}",
-							new Object[] { numberOfHosts, Constants.SSH_CONFIG.NUM_THREADS, hostsPerThread });
-
-					// Create & execute threads
-					for (int i = 0; i < numberOfHosts; i += hostsPerThread) {
-						List<String> ipSubList;
-						if (numberOfHosts < Constants.SSH_CONFIG.NUM_THREADS) {
-							ipSubList = ipAddresses.subList(i, i + 1);
-						} else {
-							int toIndex = i + hostsPerThread;
-							ipSubList = ipAddresses.subList(i,
-									toIndex < ipAddresses.size() ? toIndex : ipAddresses.size() - 1);
-						}
-						String ipSubRange = NetworkUtils.convertToIpRange(ipSubList);
+		// Scan network via threads.
+		// Hosts are divided into small units which are shared among
+		// threads!
+		if (ipAddresses != null && !ipAddresses.isEmpty()) {
 
-						logger.debug("Creating thread no: " + (i + 1));
-						RunnableNmap nmap = new RunnableNmap(scanResultDto, ipSubRange, ports, sudoUsername,
-								sudoPassword, timingTemplate, messages);
-						logger.debug("Executing thread no: " + (i + 1));
-						executor.execute(nmap);
-					}
+			// Insert new scan result record, hosts are saved in batches while
+			// the scan continues, so hosts scanned so far are kept even if the
+			// scan is failed or cancelled
+			ScanResultWriter writer = new ScanResultWriter(pluginDbService, entityManagerFactories,
+					getEntityObject(scanResultDto), Constants.SCAN_RESULT_CONFIG.HOST_BATCH_SIZE);
+			writer.open();
+			job.setResultId(writer.getScanResult().getId());
+			ScanResultCollector collector = new ScanResultCollector(scanResultDto, writer);
 
-					logger.debug("Shutting down executor.");
+			try {
+				if (scanEngine == ScanEngine.CONNECT) {
+					// Probe ports with non-blocking sockets, no nmap process
+					// (and no sudo) is required.
+					logger.debug("Scanning with connect scanner.");
+					ConnectScanner scanner = new ConnectScanner();
+					job.onCancel(scanner);
+					// Hosts are saved while the scan continues
+					scanner.scan(ipAddresses, ports, System.currentTimeMillis() + timeout, collector);
+
+					if (job.isCancelled()) {
+						job.addMessage("Network scan is cancelled, hosts scanned so far are saved.");
+					} else if (!scanner.getSkipped().isEmpty()) {
+						job.addMessage("Network scan did not finish in " + timeout
+								+ " ms, hosts scanned so far are saved.");
+					}
+					if (!scanner.getSkipped().isEmpty()) {
+						job.addMessage("Following targets timed out and are not scanned: "
+								+ StringUtils.join(" ", scanner.getSkipped()));
+					}
+				} else {
+					WorkScheduler scheduler = new WorkScheduler("Network scan", Constants.SSH_CONFIG.NUM_THREADS);
+					job.track(scheduler);
+
+					// Kills running nmap processes on cancel or timeout
+					ScanHandle handle = new ScanHandle(scheduler, chunkTimeout, timeout);
+					job.onCancel(handle);
+
+					// Phase 1: discover live hosts over the whole range. Live
+					// hosts are collected by the batcher which starts port & OS
+					// scans (phase 2) in batches while the discovery still
+					// continues.
+					LiveHostBatcher batcher = new LiveHostBatcher(handle, scheduler, collector, ports, sudoUsername,
+							sudoPassword, timingTemplate, messages);
+
+					// Each unit is a small set of ranges, addresses are not
+					// expanded into strings. Units are packed by expected cost:
+					// hosts which were up in a previous scan reply quickly, so
+					// they are discovered in larger (not contiguous) units than
+					// the remaining addresses.
+					IpRangeSet knownHosts = ScanHistory.getInstance().findKnownHosts(ipAddresses);
+					IpRangeSet unknownHosts = new IpRangeSet();
+					unknownHosts.addAll(ipAddresses);
+					unknownHosts.removeAll(knownHosts);
+					List<IpRangeSet> units = new ArrayList<IpRangeSet>();
+					units.addAll(knownHosts.split(Constants.NMAP_CONFIG.KNOWN_HOSTS_PER_UNIT));
+					units.addAll(unknownHosts.split(Constants.NMAP_CONFIG.HOSTS_PER_UNIT));
+
+					logger.debug("Hosts: {}, Known hosts: {}, Threads: {}, Units: {}",
+							new Object[] { ipAddresses.size(), knownHosts.size(), Constants.SSH_CONFIG.NUM_THREADS,
+									units.size() });
+
+					scheduler.schedule(units, 1, batcher);
 
 					try {
-						executor.shutdown();
-						// Wait for all tasks to be completed.
-						executor.awaitTermination(100000, TimeUnit.MILLISECONDS);
-
-						if (!messages.isEmpty()) {
-							return resultFactory.create(CommandResultStatus.ERROR, messages, this);
+						long deadline = handle.getDeadline();
+
+						// Wait for host discovery (and the scans started so
+						// far) to finish, then scan remaining live hosts (less
+						// than a batch)
+						boolean completed = scheduler.awaitCompletion(timeout, TimeUnit.MILLISECONDS);
+						if (completed && batcher.flush()) {
+							completed = scheduler.awaitCompletion(
+									Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
 						}
 
+						if (job.isCancelled()) {
+							job.addMessage("Network scan is cancelled, hosts scanned so far are saved.");
+						} else if (!completed) {
+							job.addMessage("Network scan did not finish in " + timeout
+									+ " ms, hosts scanned so far are saved.");
+						}
 					} catch (InterruptedException e) {
 						logger.error(e.getMessage(), e);
+					} finally {
+						// Nothing of this scan should keep running
+						handle.cancel();
+						logger.debug("Shutting down scheduler.");
+						scheduler.shutdown();
 					}
 
-					logger.debug("Saving entity.");
-					// Insert new scan result record
-					pluginDbService.save(getEntityObject(scanResultDto));
+					if (!handle.getSkipped().isEmpty()) {
+						job.addMessage("Following targets timed out and are not scanned: "
+								+ StringUtils.join(" ", handle.getSkipped()));
+					}
 				}
+			} finally {
+				writer.close();
+			}
 
+			if (!messages.isEmpty()) {
+				synchronized (messages) {
+					job.addMessages(messages);
+				}
+				// Hosts scanned by the other units are saved and returned
+				// along with the error messages
+				if (scanResultDto.getHosts().isEmpty()) {
+					throw new CommandExecutionException("Network scan failed.");
+				}
+				job.addMessage("Network scan failed on some targets, hosts scanned so far are saved.");
 			}
+		}
 
-			logger.info("Command executed successfully.");
+		return scanResultDto;
+	}
 
-			Map<String, Object> resultMap = new HashMap<String, Object>();
-			ObjectMapper mapper = new ObjectMapper();
-			try {
-				resultMap.put("result", mapper.writeValueAsString(scanResultDto));
-			} catch (JsonGenerationException e) {
-				logger.error(e.getMessage(), e);
-			} catch (JsonMappingException e) {
-				logger.error(e.getMessage(), e);
-			} catch (IOException e) {
-				logger.error(e.getMessage(), e);
+	private static String joinRanges(String ranges1, String ranges2) {
+		if (ranges1 == null || ranges1.trim().isEmpty()) {
+			return ranges2;
+		}
+		if (ranges2 == null || ranges2.trim().isEmpty()) {
+			return ranges1;
+		}
+		return ranges1 + "," + ranges2;
+	}
+
+	/**
+	 * Creates host discovery runnables, collects live hosts found by them and
+	 * executes port & OS scans on live hosts in batches, so that detailed scans
+	 * are only performed on hosts which are up. A batch is started when the
+	 * expected cost of its hosts (see {@link ScanHistory#getCost(String)})
+	 * reaches {@link Constants.NMAP_CONFIG#DEEP_SCAN_BATCH_COST}.
+	 */
+	private class LiveHostBatcher implements ILiveHostListener, IWorkUnitFactory<IpRangeSet> {
+
+		private final ScanHandle handle;
+		private final WorkScheduler scheduler;
+		private final IScanResultListener resultListener;
+		private final String ports;
+		private final String sudoUsername;
+		private final String sudoPassword;
+		private final String timingTemplate;
+		private final List<String> messages;
+
+		private List<String> batch = new ArrayList<String>();
+		private int batchCost = 0;
+
+		public LiveHostBatcher(ScanHandle handle, WorkScheduler scheduler, IScanResultListener resultListener,
+				String ports, String sudoUsername, String sudoPassword, String timingTemplate,
+				List<String> messages) {
+			this.handle = handle;
+			this.scheduler = scheduler;
+			this.resultListener = resultListener;
+			this.ports = ports;
+			this.sudoUsername = sudoUsername;
+			this.sudoPassword = sudoPassword;
+			this.timingTemplate = timingTemplate;
+			this.messages = messages;
+		}
+
+		@Override
+		public Runnable create(List<IpRangeSet> unit) {
+			return new RunnableNmap(resultListener, unit.get(0).toNmapTargetList(), sudoUsername, sudoPassword,
+					timingTemplate, messages, this, handle);
+		}
+
+		@Override
+		public synchronized void hostUp(String ip) {
+			batch.add(ip);
+			batchCost += ScanHistory.getInstance().getCost(ip);
+			if (batchCost >= Constants.NMAP_CONFIG.DEEP_SCAN_BATCH_COST) {
+				flush();
 			}
+		}
 
-			return resultFactory.create(CommandResultStatus.OK, new ArrayList<String>(), this, resultMap);
-		} else {
-			logger.info("Executing command on Ahenk.");
-			return resultFactory.create(CommandResultStatus.OK, new ArrayList<String>(), this);
+		/**
+		 * Starts scanning the collected live hosts.
+		 * 
+		 * @return true if a scan is started, false if there is no host to scan
+		 */
+		public synchronized boolean flush() {
+			if (batch.isEmpty()) {
+				return false;
+			}
+			List<String> targets = batch;
+			batch = new ArrayList<String>();
+			batchCost = 0;
+			try {
+				logger.debug("Scanning live hosts: {}", targets);
+				scheduler.schedule(new RunnableNmap(resultListener, targets, ports, sudoUsername, sudoPassword,
+						timingTemplate, messages, true, handle));
+				return true;
+			} catch (RejectedExecutionException e) {
+				logger.warn("Scan timed out, live hosts will not be scanned: {}", targets);
+				return false;
+			}
 		}
+
 	}
 
 	@Override
@@ -255,77 +457,70 @@ public class NetworkScanCommand implements ICommand, ITaskAwareCommand {
 			String sudoPassword = (String) parameterMap.get("sudoPassword");
 			String timingTemplate = (String) parameterMap.get("timingTemplate");
 
-			// Convert byte array to string, parser uses string
 			logger.info("Getting response data");
 			byte[] resultData = execResult.getResponseData();
 
-			// Parse the output of nmap scan
-			logger.info("Parsing output of nmap scan");
-			OnePassParser parser = new OnePassParser();
-			NMapRun parsedResult = parser.parse(new String(resultData), OnePassParser.STRING_INPUT);
-
-			// Get hosts
-			ArrayList<Host> hostList = parsedResult.getHosts();
-
-			logger.info("Creating entity objects");
 			// Create new master entity instance for saving results to database
 			ScanResult scanResult = new ScanResult(null, result.getId(), ipRange, timingTemplate, ports, sudoUsername,
 					sudoPassword, new Date(), new ArrayList<ScanResultHost>());
+			final ScanResultWriter writer = new ScanResultWriter(pluginDbService, scanResult);
+			writer.open();
 
-			// Add each result to master entity's detail list
-			for (Host host : hostList) {
-				ScanResultHost scanResultHost = new ScanResultHost();
-				scanResultHost.setHostname(NetworkUtils.getHostname(host));
-				scanResultHost.setDistance(NetworkUtils.getDistance(host));
-				scanResultHost.setIp(NetworkUtils.getIpV4(host));
-				scanResultHost.setHostUp(NetworkUtils.isHostUp(host));
-				scanResultHost.setOpenPorts(NetworkUtils.getOpenPorts(host));
-				scanResultHost.setOsGuess(NetworkUtils.getOsGuess(host));
-				scanResultHost.setUptime(NetworkUtils.getUptime(host));
-				scanResultHost.setMac(NetworkUtils.getMac(host));
-				scanResultHost.setVendor(NetworkUtils.getMacVendor(host));
-				scanResultHost.setScanResult(scanResult);
-
-				scanResult.getHosts().add(scanResultHost);
+			// Parse the output of nmap scan, each host is queued to be saved as
+			// soon as it is parsed instead of building the whole object tree
+			logger.info("Parsing output of nmap scan");
+			try {
+				new NmapHostParser(new IScanResultListener() {
+					@Override
+					public void hostScanned(ScanResultHostDto host) {
+						writer.add(getEntityObject(host));
+					}
+				}).parse(new ByteArrayInputStream(resultData));
+			} catch (IOException e) {
+				logger.error(e.getMessage(), e);
+			} finally {
+				writer.close();
 			}
-
-			logger.info("Saving entity object");
-			pluginDbService.save(scanResult);
 		}
 	}
 
 	/**
-	 * Convert data transfer object to entity object.
-	 * 
-	 * @param dto
-	 * @return
+	 * Adds scanned hosts to the result which is returned to Lider Console and
+	 * queues them to be saved.
 	 */
-	private ScanResult getEntityObject(ScanResultDto dto) {
-		ScanResult entity = new ScanResult(null, null, dto.getIpRange(), dto.getTimingTemplate(), dto.getPorts(),
-				dto.getSudoUsername(), dto.getSudoPassword(), dto.getScanDate(), null);
-		entity.setHosts(getEntityList(dto.getHosts(), entity));
-		return entity;
+	private class ScanResultCollector implements IScanResultListener {
+
+		private final ScanResultDto scanResultDto;
+		private final ScanResultWriter writer;
+
+		public ScanResultCollector(ScanResultDto scanResultDto, ScanResultWriter writer) {
+			this.scanResultDto = scanResultDto;
+			this.writer = writer;
+		}
+
+		@Override
+		public void hostScanned(ScanResultHostDto host) {
+			scanResultDto.getHosts().add(host);
+			writer.add(getEntityObject(host));
+		}
+
 	}
 
 	/**
-	 * Convert list of data transfer objects to list of entity objects.
+	 * Convert data transfer object to entity object, hosts are saved
+	 * separately by {@link ScanResultWriter}.
 	 * 
-	 * @param dtoList
-	 * @param parentEntity
+	 * @param dto
 	 * @return
 	 */
-	private List<ScanResultHost> getEntityList(List<ScanResultHostDto> dtoList, ScanResult parentEntity) {
-		List<ScanResultHost> entityList = new ArrayList<ScanResultHost>();
-		if (dtoList != null) {
-			for (ScanResultHostDto dto : dtoList) {
-				ScanResultHost entity = new ScanResultHost(null, parentEntity, dto.getHostname(), dto.getIp(),
-						dto.isHostUp(), dto.getOpenPorts(), dto.getOsGuess(), dto.getDistance(), dto.getUptime(),
-						dto.getMac(), dto.getVendor());
-				entityList.add(entity);
-			}
-		}
+	private ScanResult getEntityObject(ScanResultDto dto) {
+		return new ScanResult(null, null, dto.getIpRange(), dto.getTimingTemplate(), dto.getPorts(),
+				dto.getSudoUsername(), dto.getSudoPassword(), dto.getScanDate(), new ArrayList<ScanResultHost>());
+	}
 
-		return entityList;
+	private ScanResultHost getEntityObject(ScanResultHostDto dto) {
+		return new ScanResultHost(null, null, dto.getHostname(), dto.getIp(), dto.isHostUp(), dto.getOpenPorts(),
+				dto.getOsGuess(), dto.getDistance(), dto.getUptime(), dto.getMac(), dto.getVendor());
 	}
 
 	@Override
@@ -372,4 +567,28 @@ public class NetworkScanCommand implements ICommand, ITaskAwareCommand {
 		this.commandDao = commandDao;
 	}
 
+	public void setJobManager(JobManager jobManager) {
+		this.jobManager = jobManager;
+	}
+
+	public void setExcludedRanges(String excludedRanges) {
+		this.excludedRanges = excludedRanges;
+	}
+
+	public void setScanTimeout(long scanTimeout) {
+		this.scanTimeout = scanTimeout;
+	}
+
+	public void setBackgroundScanTimeout(long backgroundScanTimeout) {
+		this.backgroundScanTimeout = backgroundScanTimeout;
+	}
+
+	public void setChunkTimeout(long chunkTimeout) {
+		this.chunkTimeout = chunkTimeout;
+	}
+
+	public void setEntityManagerFactories(List<EntityManagerFactory> entityManagerFactories) {
+		this.entityManagerFactories = entityManagerFactories;
+	}
+
 }
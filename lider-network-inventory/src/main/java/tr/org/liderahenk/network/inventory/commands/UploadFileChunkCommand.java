@@ -0,0 +1,105 @@
+package tr.org.liderahenk.network.inventory.commands;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tr.org.liderahenk.lider.core.api.plugin.ICommand;
+import tr.org.liderahenk.lider.core.api.service.ICommandContext;
+import tr.org.liderahenk.lider.core.api.service.ICommandResult;
+import tr.org.liderahenk.lider.core.api.service.ICommandResultFactory;
+import tr.org.liderahenk.lider.core.api.service.enums.CommandResultStatus;
+import tr.org.liderahenk.network.inventory.contants.Constants;
+import tr.org.liderahenk.network.inventory.plugininfo.PluginInfoImpl;
+import tr.org.liderahenk.network.inventory.utils.setup.UploadStore;
+
+/**
+ * Receives a chunk of a file which is uploaded from Lider Console. Uploaded
+ * file can then be distributed by passing its upload ID to
+ * {@link FileDistributionCommand}.
+ * <p>
+ * If no chunk is given, only the number of bytes received so far is returned,
+ * which lets the console resume an interrupted upload.
+ *
+ */
+public class UploadFileChunkCommand implements ICommand {
+
+	private Logger logger = LoggerFactory.getLogger(UploadFileChunkCommand.class);
+
+	private ICommandResultFactory resultFactory;
+	private PluginInfoImpl pluginInfo;
+
+	@Override
+	public ICommandResult execute(ICommandContext context) throws Exception {
+
+		Map<String, Object> parameterMap = context.getRequest().getParameterMap();
+		String uploadId = (String) parameterMap.get("uploadId");
+
+		UploadStore store = UploadStore.getInstance();
+		long received;
+		try {
+			if (parameterMap.get("chunk") != null) {
+				byte[] chunk = DatatypeConverter.parseBase64Binary((String) parameterMap.get("chunk"));
+				if (chunk.length > Constants.UPLOAD_CONFIG.MAX_CHUNK_SIZE) {
+					throw new IOException("Chunk is too large: " + chunk.length);
+				}
+				long offset = ((Number) parameterMap.get("offset")).longValue();
+				received = store.write(uploadId, offset, chunk);
+				logger.debug("Upload: {} received: {}", new Object[] { uploadId, received });
+			} else {
+				store.removeExpired();
+				received = store.getSize(uploadId);
+			}
+		} catch (IOException e) {
+			logger.error(e.getMessage(), e);
+			List<String> messages = new ArrayList<String>();
+			messages.add(e.getMessage());
+			return resultFactory.create(CommandResultStatus.ERROR, messages, this);
+		}
+
+		Map<String, Object> resultMap = new HashMap<String, Object>();
+		resultMap.put("received", received);
+		return resultFactory.create(CommandResultStatus.OK, new ArrayList<String>(), this, resultMap);
+	}
+
+	@Override
+	public ICommandResult validate(ICommandContext context) {
+		return resultFactory.create(CommandResultStatus.OK, null, this);
+	}
+
+	@Override
+	public String getPluginName() {
+		return pluginInfo.getPluginName();
+	}
+
+	@Override
+	public String getPluginVersion() {
+		return pluginInfo.getPluginVersion();
+	}
+
+	@Override
+	public String getCommandId() {
+		return "UPLOAD-FILE-CHUNK";
+	}
+
+	@Override
+	public Boolean executeOnAgent() {
+		return false;
+	}
+
+	public void setResultFactory(ICommandResultFactory resultFactory) {
+		this.resultFactory = resultFactory;
+	}
+
+	public void setPluginInfo(PluginInfoImpl pluginInfo) {
+		this.pluginInfo = pluginInfo;
+	}
+
+}
@@ -8,6 +8,17 @@ public class Constants {
 		public static final int SESSION_TIMEOUT = 99000000;
 		public static final int CHANNEL_TIMEOUT = 99000000;
 		public static final int NUM_THREADS = 10;
+		public static final int HOSTS_PER_UNIT = 1;
+		public static final int POOL_IDLE_TIMEOUT = 60000;
+		public static final int POOL_BORROW_TIMEOUT = 600000;
+		public static final int POOL_MAX_CHANNELS_PER_HOST = 4;
+		public static final int TRANSFER_BUFFER_SIZE = 256 * 1024;
+		public static final int SFTP_BULK_REQUESTS = 32;
+		public static final int MAPPED_REGION_SIZE = 64 * 1024 * 1024;
+		public static final int RELAY_FAN_OUT = 4;
+		// Upper limit to wait for relay units and to remove the relay key
+		public static final long RELAY_REVOKE_TIMEOUT = 100000;
+		public static final int DELTA_BLOCK_SIZE = 128 * 1024;
 	}
 	
 	public static final class NMAP_CONFIG {
@@ -15,6 +26,88 @@ public class Constants {
 		public static final int OS_LIMIT = 3;
 		public static final int NETWORK_TIMEOUT = 900000;
 		public static final String NMAP_PATH = "/usr";
+		public static final int SCAN_TIMEOUT = 100000;
+		public static final int HOSTS_PER_UNIT = 32;
+		// Hosts which were up in a previous scan usually reply at once,
+		// so discovery units of such hosts are larger
+		public static final int KNOWN_HOSTS_PER_UNIT = 128;
+		// Cost of a live host is 1 + number of open ports found by the
+		// previous scan, a deep scan batch is started at this total cost
+		public static final int DEEP_SCAN_BATCH_COST = 64;
+		public static final int UNKNOWN_HOST_COST = 4;
+		public static final int SCAN_HISTORY_SIZE = 65536;
+		// Each nmap process is destroyed if it does not finish in time
+		public static final int PROCESS_TIMEOUT = 900000;
+		public static final int MAX_OUTPUT_SIZE = 64 * 1024 * 1024;
+		public static final int MAX_ERROR_SIZE = 64 * 1024;
+	}
+	
+	public static final class SCAN_RESULT_CONFIG {
+		public static final int HOST_BATCH_SIZE = 50;
+		public static final int FLUSH_INTERVAL = 2000;
+		// Scan threads wait if more than this many batches are not saved yet
+		public static final int QUEUED_BATCHES = 4;
+		public static final int MAX_PAGE_SIZE = 5000;
+	}
+	
+	public static final class RESULT_CONFIG {
+		// Buffer of compressed command results
+		public static final int BUFFER_SIZE = 8 * 1024;
+	}
+	
+	public static final class CONNECT_SCAN_CONFIG {
+		public static final int PROBE_TIMEOUT = 1500;
+		public static final int MAX_IN_FLIGHT = 2048;
+		public static final String DEFAULT_PORTS = "21-23,25,53,80,110,111,135,139,143,389,443,445,636,993,995,3306,3389,5222,5432,5900,8080";
+	}
+	
+	public static final class PACKAGE_CACHE_CONFIG {
+		public static final String LOCAL_DIRECTORY = "lider-package-cache";
+		public static final String REMOTE_DIRECTORY = "/var/cache/liderahenk/";
+		public static final int CONNECT_TIMEOUT = 30000;
+		public static final int READ_TIMEOUT = 300000;
+	}
+	
+	public static final class UPLOAD_CONFIG {
+		public static final String DIRECTORY = "lider-uploads";
+		public static final int MAX_CHUNK_SIZE = 8 * 1024 * 1024;
+		public static final long EXPIRATION = 24 * 60 * 60 * 1000L;
+	}
+	
+	public static final class JOB_CONFIG {
+		public static final int PROGRESS_INTERVAL = 5000;
+		public static final long RETENTION = 60 * 60 * 1000L;
+		// Upper limit for a job executed in the background
+		public static final long MAX_DURATION = 24 * 60 * 60 * 1000L;
+	}
+	
+	public static enum JobStatus {
+		RUNNING,
+		COMPLETED,
+		FAILED,
+		INTERRUPTED,
+		CANCELLED
+	}
+	
+	public static enum DistributionMode {
+		DIRECT,
+		RELAY
+	}
+	
+	public static enum CopyResult {
+		SKIPPED,
+		DELTA,
+		COPIED
+	}
+	
+	public static enum TransferMode {
+		SCP,
+		SFTP
+	}
+	
+	public static enum ScanEngine {
+		NMAP,
+		CONNECT
 	}
 	
 	public static enum AccessMethod {
@@ -28,6 +121,11 @@ public class Constants {
 		WGET
 	}
 
+	public static enum InstallMode {
+		STEP_BY_STEP,
+		SCRIPT
+	}
+
 	public static enum PackageInstaller {
 		DPKG,
 		GDEBI,
@@ -0,0 +1,126 @@
+package tr.org.liderahenk.network.inventory.dto;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.List;
+
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+
+/**
+ * Data transfer object class for status of a background job.
+ * 
+ * @see tr.org.liderahenk.network.inventory.entities.NetworkInventoryJob
+ *
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class JobDto implements Serializable {
+
+	private static final long serialVersionUID = -3185846153240375912L;
+
+	private String jobId;
+
+	private String type;
+
+	private String status;
+
+	private Integer total;
+
+	private Integer completed;
+
+	private List<String> messages;
+
+	private Date startDate;
+
+	private Date endDate;
+
+	private Long resultId;
+
+	public JobDto() {
+	}
+
+	public JobDto(String jobId, String type, String status, Integer total, Integer completed, List<String> messages,
+			Date startDate, Date endDate, Long resultId) {
+		this.jobId = jobId;
+		this.type = type;
+		this.status = status;
+		this.total = total;
+		this.completed = completed;
+		this.messages = messages;
+		this.startDate = startDate;
+		this.endDate = endDate;
+		this.resultId = resultId;
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	public void setJobId(String jobId) {
+		this.jobId = jobId;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
+	public Integer getTotal() {
+		return total;
+	}
+
+	public void setTotal(Integer total) {
+		this.total = total;
+	}
+
+	public Integer getCompleted() {
+		return completed;
+	}
+
+	public void setCompleted(Integer completed) {
+		this.completed = completed;
+	}
+
+	public List<String> getMessages() {
+		return messages;
+	}
+
+	public void setMessages(List<String> messages) {
+		this.messages = messages;
+	}
+
+	public Date getStartDate() {
+		return startDate;
+	}
+
+	public void setStartDate(Date startDate) {
+		this.startDate = startDate;
+	}
+
+	public Date getEndDate() {
+		return endDate;
+	}
+
+	public void setEndDate(Date endDate) {
+		this.endDate = endDate;
+	}
+
+	public Long getResultId() {
+		return resultId;
+	}
+
+	public void setResultId(Long resultId) {
+		this.resultId = resultId;
+	}
+
+}
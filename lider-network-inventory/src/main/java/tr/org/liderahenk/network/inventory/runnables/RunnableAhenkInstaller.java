@@ -8,21 +8,28 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import tr.org.liderahenk.network.inventory.contants.Constants;
 import tr.org.liderahenk.network.inventory.contants.Constants.InstallMethod;
+import tr.org.liderahenk.network.inventory.contants.Constants.InstallMode;
 import tr.org.liderahenk.network.inventory.dto.AhenkSetupDetailDto;
 import tr.org.liderahenk.network.inventory.dto.AhenkSetupDto;
 import tr.org.liderahenk.network.inventory.entities.AhenkSetupParameters;
 import tr.org.liderahenk.network.inventory.entities.AhenkSetupResultDetail;
 import tr.org.liderahenk.network.inventory.exception.CommandExecutionException;
 import tr.org.liderahenk.network.inventory.exception.SSHConnectionException;
+import tr.org.liderahenk.network.inventory.utils.setup.IOutputLineConsumer;
+import tr.org.liderahenk.network.inventory.utils.setup.PackageCache.CachedPackage;
 import tr.org.liderahenk.network.inventory.utils.setup.SetupUtils;
 
 /**
@@ -55,15 +62,34 @@ public class RunnableAhenkInstaller implements Runnable {
 
 	private final static String MAKE_DIR_UNDER_TMP = "mkdir /tmp/{0}";
 
+	/**
+	 * Installation script (in classpath) which is used in SCRIPT install mode
+	 */
+	private final static String INSTALL_SCRIPT = "ahenk-install.sh";
+
 	private String xmppHost;
 	private String xmppUsername;
 	private String xmppServiceName;
 	private String receiveFile;
 	private String useTls;
+	private InstallMode installMode;
+	/**
+	 * Package downloaded by Lider. If it is null, package is downloaded by
+	 * each target machine.
+	 */
+	private CachedPackage cachedPackage;
 	
 	public RunnableAhenkInstaller(AhenkSetupDto setupDto, String ip, String username, String password, Integer port,
 			String privateKey, String passphrase, InstallMethod installMethod, String downloadUrl,
 			AhenkSetupParameters setupParams, String xmppHost, String xmppUsername, String xmppServiceName, String receiveFile, String useTls) {
+		this(setupDto, ip, username, password, port, privateKey, passphrase, installMethod, downloadUrl, setupParams,
+				xmppHost, xmppUsername, xmppServiceName, receiveFile, useTls, InstallMode.STEP_BY_STEP, null);
+	}
+
+	public RunnableAhenkInstaller(AhenkSetupDto setupDto, String ip, String username, String password, Integer port,
+			String privateKey, String passphrase, InstallMethod installMethod, String downloadUrl,
+			AhenkSetupParameters setupParams, String xmppHost, String xmppUsername, String xmppServiceName,
+			String receiveFile, String useTls, InstallMode installMode, CachedPackage cachedPackage) {
 		super();
 		this.setupDto = setupDto;
 		this.ip = ip;
@@ -79,6 +105,8 @@ public class RunnableAhenkInstaller implements Runnable {
 		this.xmppServiceName = xmppServiceName;
 		this.receiveFile = receiveFile;
 		this.useTls = useTls;
+		this.installMode = installMode;
+		this.cachedPackage = cachedPackage;
 	}
 
 	@Override
@@ -103,47 +131,11 @@ public class RunnableAhenkInstaller implements Runnable {
 				SimpleDateFormat dateFormat = new SimpleDateFormat("ddMMyyyy-HH:mm:ss");
 				String timestamp = dateFormat.format(date);
 
-				logger.info("Creating directory under /tmp");
-				SetupUtils.executeCommand(ip, username, password, port, privateKey, passphrase,
-						MAKE_DIR_UNDER_TMP.replace("{0}", "ahenkTmpDir" + timestamp));
-
-				logger.info("Downloading file from URL: " + downloadUrl);
-				SetupUtils.downloadPackage(ip, username, password, port, privateKey, passphrase,
-						"ahenkTmpDir" + timestamp, "ahenk.deb", downloadUrl);
-
-				logger.info("Creating repository file");
-				SetupUtils.executeCommand(ip, username, password, port, privateKey, passphrase,
-						"touch /etc/apt/sources.list.d/liderahenk.list");
-
-				logger.info("Writing to repository file");
-				SetupUtils.executeCommand(ip, username, password, port, privateKey, passphrase,
-						"echo 'deb http://ftp.pardus.org.tr/lider-ahenk/la-stable yenikusak main' > /etc/apt/sources.list.d/liderahenk.list");
-
-				logger.info("Adding key");
-				SetupUtils.executeCommand(ip, username, password, port, privateKey, passphrase,
-						"wget -qO - http://ftp.pardus.org.tr/Release.pub | apt-key add -");
-
-				logger.info("Updating package list");
-				SetupUtils.executeCommand(ip, username, password, port, privateKey, passphrase, "apt-get update");
-
-				logger.info("Clearing old Ahenk files");
-				SetupUtils.executeCommand(ip, username, password, port, privateKey, passphrase,
-						"rm -rf /etc/ahenk/ahenk.db");
-				SetupUtils.executeCommand(ip, username, password, port, privateKey, passphrase, "rm -rf /opt/ahenk");
-
-				logger.info("Installing Ahenk");
-				SetupUtils.installPackageGdebiWithOpts(ip, username, password, port, privateKey, passphrase,
-						"/tmp/ahenkTmpDir" + timestamp + "/ahenk.deb", "Dpkg::Options::='--force-overwrite'");
-
-				logger.info("Preparing ahenk.conf file");
-				File ahenkConfFile = prepareConfFile();
-				
-				logger.info("Copying ahenk.conf file");
-				SetupUtils.copyFile(ip, username, password, port, privateKey, passphrase, ahenkConfFile, "/etc/ahenk/");
-				
-				logger.info("Starting Ahenk service");
-				SetupUtils.executeCommand(ip, username, password, port, privateKey, passphrase,
-						"service ahenk start");
+				if (installMode == InstallMode.SCRIPT) {
+					installWithScript("ahenkTmpDir" + timestamp);
+				} else {
+					installStepByStep("ahenkTmpDir" + timestamp);
+				}
 
 				logger.info("Ahenk installation successfully completed.");
 
@@ -168,7 +160,140 @@ public class RunnableAhenkInstaller implements Runnable {
 		}
 	}
 
+	/**
+	 * Installs Ahenk by executing each step as a separate remote command.
+	 * 
+	 * @param tmpDir
+	 *            name of the directory to be created under /tmp
+	 * @throws SSHConnectionException
+	 * @throws CommandExecutionException
+	 */
+	private void installStepByStep(String tmpDir) throws SSHConnectionException, CommandExecutionException {
+		logger.info("Creating directory under /tmp");
+		SetupUtils.executeCommand(ip, username, password, port, privateKey, passphrase,
+				MAKE_DIR_UNDER_TMP.replace("{0}", tmpDir));
+
+		if (cachedPackage != null) {
+			String remotePackage = pushCachedPackage();
+			logger.info("Copying package from: " + remotePackage);
+			SetupUtils.executeCommand(ip, username, password, port, privateKey, passphrase,
+					"cp " + remotePackage + " /tmp/" + tmpDir + "/ahenk.deb");
+		} else {
+			logger.info("Downloading file from URL: " + downloadUrl);
+			SetupUtils.downloadPackage(ip, username, password, port, privateKey, passphrase, tmpDir, "ahenk.deb",
+					downloadUrl);
+		}
+
+		logger.info("Creating repository file");
+		SetupUtils.executeCommand(ip, username, password, port, privateKey, passphrase,
+				"touch /etc/apt/sources.list.d/liderahenk.list");
+
+		logger.info("Writing to repository file");
+		SetupUtils.executeCommand(ip, username, password, port, privateKey, passphrase,
+				"echo 'deb http://ftp.pardus.org.tr/lider-ahenk/la-stable yenikusak main' > /etc/apt/sources.list.d/liderahenk.list");
+
+		logger.info("Adding key");
+		SetupUtils.executeCommand(ip, username, password, port, privateKey, passphrase,
+				"wget -qO - http://ftp.pardus.org.tr/Release.pub | apt-key add -");
+
+		logger.info("Updating package list");
+		SetupUtils.executeCommand(ip, username, password, port, privateKey, passphrase, "apt-get update");
+
+		logger.info("Clearing old Ahenk files");
+		SetupUtils.executeCommand(ip, username, password, port, privateKey, passphrase,
+				"rm -rf /etc/ahenk/ahenk.db");
+		SetupUtils.executeCommand(ip, username, password, port, privateKey, passphrase, "rm -rf /opt/ahenk");
+
+		logger.info("Installing Ahenk");
+		SetupUtils.installPackageGdebiWithOpts(ip, username, password, port, privateKey, passphrase,
+				"/tmp/" + tmpDir + "/ahenk.deb", "Dpkg::Options::='--force-overwrite'");
+
+		logger.info("Preparing ahenk.conf file");
+		File ahenkConfFile = prepareConfFile();
+		
+		logger.info("Copying ahenk.conf file");
+		SetupUtils.copyFile(ip, username, password, port, privateKey, passphrase, ahenkConfFile, "/etc/ahenk/");
+		
+		logger.info("Starting Ahenk service");
+		SetupUtils.executeCommand(ip, username, password, port, privateKey, passphrase,
+				"service ahenk start");
+	}
+
+	/**
+	 * Installs Ahenk in a single round trip: installation script and
+	 * ahenk.conf are uploaded in one transfer and the script is executed in
+	 * one channel. Script reports status of each step via its output.
+	 * 
+	 * @param tmpDir
+	 *            name of the directory to be created under /tmp
+	 * @throws SSHConnectionException
+	 * @throws CommandExecutionException
+	 */
+	private void installWithScript(String tmpDir) throws SSHConnectionException, CommandExecutionException {
+
+		// Package (if provided by Lider) is kept out of the work directory, so
+		// that it is not copied again on the next installation
+		String remotePackage = cachedPackage != null ? pushCachedPackage() : "";
+
+		logger.info("Preparing installation script and ahenk.conf file");
+		File localDir = createLocalTmpDir();
+		List<File> files = new ArrayList<File>();
+		files.add(prepareInstallScript(localDir, remotePackage));
+		files.add(prepareConfFile(localDir));
+
+		try {
+			logger.info("Copying installation files to /tmp/" + tmpDir);
+			SetupUtils.copyFiles(ip, username, password, port, privateKey, passphrase, files, "/tmp/", tmpDir);
+
+			logger.info("Executing installation script");
+			InstallStepTracker tracker = new InstallStepTracker();
+			try {
+				SetupUtils.executeCommand(ip, username, password, port, privateKey, passphrase,
+						"sh /tmp/" + tmpDir + "/" + INSTALL_SCRIPT + " /tmp/" + tmpDir, tracker);
+			} catch (CommandExecutionException e) {
+				throw new CommandExecutionException(
+						"Installation failed at step: " + tracker.getCurrentStep() + " (" + e.getMessage() + ")");
+			}
+		} finally {
+			for (File file : files) {
+				file.delete();
+			}
+			localDir.delete();
+		}
+	}
+
+	/**
+	 * Copies package downloaded by Lider to the target machine unless it
+	 * already has the same package.
+	 * 
+	 * @return path of the package on the target machine
+	 */
+	private String pushCachedPackage() throws SSHConnectionException, CommandExecutionException {
+		logger.info("Copying package to: " + ip);
+		boolean copied = SetupUtils.copyFileIfChanged(ip, username, password, port, privateKey, passphrase,
+				cachedPackage.getFile(), cachedPackage.getChecksum(), Constants.PACKAGE_CACHE_CONFIG.REMOTE_DIRECTORY);
+		if (!copied) {
+			logger.info("Package already exists on: " + ip);
+		}
+		return Constants.PACKAGE_CACHE_CONFIG.REMOTE_DIRECTORY + cachedPackage.getFile().getName();
+	}
+
 	private File prepareConfFile() {
+		return writeToFile(prepareConfText(), "ahenk.conf");
+	}
+
+	private File prepareConfFile(File directory) {
+		return writeToFile(prepareConfText(), new File(directory, "ahenk.conf"));
+	}
+
+	private File prepareInstallScript(File directory, String remotePackage) {
+		Map<String, String> map = new HashMap<String, String>();
+		// Values are substituted into single-quoted shell literals
+		map.put("#DOWNLOAD_URL", SetupUtils.escapeSingleQuotes(downloadUrl != null ? downloadUrl : ""));
+		map.put("#PACKAGE_PATH", SetupUtils.escapeSingleQuotes(remotePackage));
+		return writeToFile(SetupUtils.replace(map, readFile("/" + INSTALL_SCRIPT)), new File(directory, INSTALL_SCRIPT));
+	}
+	private String prepareConfText() {
 		String confText = readFile("/ahenk.conf");
 		
 		Map<String, String> map = new HashMap<String, String>();
@@ -179,9 +304,19 @@ public class RunnableAhenkInstaller implements Runnable {
 		map.put("#RECEIVE_FILE", receiveFile);
 		map.put("#USE_TLS", useTls);
 		
-		confText = SetupUtils.replace(map, confText);
-		
-		return writeToFile(confText, "ahenk.conf");
+		return SetupUtils.replace(map, confText);
+	}
+
+	/**
+	 * Creates a new directory under temporary file directory, so that files
+	 * prepared for different machines do not clash.
+	 */
+	private File createLocalTmpDir() throws CommandExecutionException {
+		try {
+			return Files.createTempDirectory("ahenk-install").toFile();
+		} catch (IOException e) {
+			throw new CommandExecutionException(e.getMessage());
+		}
 	}
 	
 	/**
@@ -194,12 +329,12 @@ public class RunnableAhenkInstaller implements Runnable {
 	 * @return returns the file itself
 	 */
 	private File writeToFile(String content, String fileName) {
+		return writeToFile(content, new File(System.getProperty("java.io.tmpdir") + "/" + fileName));
+	}
 
-		File temp = null;
-		
-		try {
-			temp = new File(System.getProperty("java.io.tmpdir") + "/" + fileName);
+	private File writeToFile(String content, File temp) {
 
+		try {
 			FileWriter fileWriter = new FileWriter(temp.getAbsoluteFile());
 
 			BufferedWriter buffWriter = new BufferedWriter(fileWriter);
@@ -287,4 +422,35 @@ public class RunnableAhenkInstaller implements Runnable {
 		logger.info("Detail entity added successfully.");
 	}
 
+	/**
+	 * Follows step markers (##STEP name START|OK|FAILED) printed by the
+	 * installation script.
+	 */
+	private class InstallStepTracker implements IOutputLineConsumer {
+
+		private static final String STEP_MARKER = "##STEP ";
+
+		private String currentStep = "SCRIPT";
+
+		@Override
+		public void consume(String line) {
+			if (!line.startsWith(STEP_MARKER)) {
+				logger.debug(line);
+				return;
+			}
+			String[] tokens = line.substring(STEP_MARKER.length()).trim().split(" ");
+			currentStep = tokens[0];
+			if (tokens.length > 1 && "FAILED".equals(tokens[1])) {
+				logger.error("Step {} failed on: {}", currentStep, ip);
+			} else {
+				logger.info("Step {} {} on: {}", new Object[] { currentStep, tokens.length > 1 ? tokens[1] : "", ip });
+			}
+		}
+
+		public String getCurrentStep() {
+			return currentStep;
+		}
+
+	}
+
 }
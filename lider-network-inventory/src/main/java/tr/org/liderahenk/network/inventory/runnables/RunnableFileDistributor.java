@@ -6,8 +6,10 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import tr.org.liderahenk.network.inventory.contants.Constants.CopyResult;
 import tr.org.liderahenk.network.inventory.dto.FileDistResultDto;
 import tr.org.liderahenk.network.inventory.dto.FileDistResultHostDto;
+import tr.org.liderahenk.network.inventory.utils.setup.FileTransferOptions;
 import tr.org.liderahenk.network.inventory.utils.setup.SetupUtils;
 
 /**
@@ -30,10 +32,23 @@ public class RunnableFileDistributor implements Runnable {
 	private String passphrase;
 	private File fileToTransfer;
 	private String destDirectory;
+	private FileTransferOptions transferOptions;
+	/**
+	 * SHA-256 checksum of the file, used to skip hosts which already have the
+	 * file. May be null.
+	 */
+	private String checksum;
 
 	public RunnableFileDistributor(FileDistResultDto fileDistResultDto, List<String> ipList, String username,
 			String password, Integer port, String privateKey, String passphrase, File fileToTransfer,
 			String destDirectory) {
+		this(fileDistResultDto, ipList, username, password, port, privateKey, passphrase, fileToTransfer,
+				destDirectory, new FileTransferOptions(), null);
+	}
+
+	public RunnableFileDistributor(FileDistResultDto fileDistResultDto, List<String> ipList, String username,
+			String password, Integer port, String privateKey, String passphrase, File fileToTransfer,
+			String destDirectory, FileTransferOptions transferOptions, String checksum) {
 		this.fileDistResultDto = fileDistResultDto;
 		this.ipList = ipList;
 		this.username = username;
@@ -43,6 +58,8 @@ public class RunnableFileDistributor implements Runnable {
 		this.passphrase = passphrase;
 		this.fileToTransfer = fileToTransfer;
 		this.destDirectory = destDirectory;
+		this.transferOptions = transferOptions;
+		this.checksum = checksum;
 	}
 
 	@Override
@@ -53,8 +70,14 @@ public class RunnableFileDistributor implements Runnable {
 			FileDistResultHostDto hostDto = null;
 			try {
 				logger.debug("Copying file to: " + ip);
-				SetupUtils.copyFile(ip, username, password, port, privateKey, passphrase, fileToTransfer,
-						destDirectory);
+				if (checksum != null) {
+					CopyResult result = SetupUtils.syncFile(ip, username, password, port, privateKey, passphrase,
+							fileToTransfer, checksum, destDirectory, transferOptions);
+					logger.debug("Copy result for {}: {}", new Object[] { ip, result });
+				} else {
+					SetupUtils.copyFile(ip, username, password, port, privateKey, passphrase, fileToTransfer,
+							destDirectory, transferOptions);
+				}
 				hostDto = new FileDistResultHostDto(ip, true, null);
 			} catch (Exception e) {
 				logger.error(e.getMessage(), e);
@@ -66,9 +89,10 @@ public class RunnableFileDistributor implements Runnable {
 
 	@Override
 	public String toString() {
-		return "RunnableFileDistributor [ipList=" + ipList + ", username=" + username + ", password=" + password
-				+ ", port=" + port + ", privateKey=" + privateKey + ", fileToTransfer=" + fileToTransfer
-				+ ", destDirectory=" + destDirectory + "]";
+		// Credentials are left out since units are logged by the scheduler
+		return "RunnableFileDistributor [ipList=" + ipList + ", username=" + username + ", port=" + port
+				+ ", fileToTransfer=" + fileToTransfer + ", destDirectory=" + destDirectory + ", transferOptions="
+				+ transferOptions + "]";
 	}
 
 }
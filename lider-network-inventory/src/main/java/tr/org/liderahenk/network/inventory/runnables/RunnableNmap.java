@@ -1,69 +1,110 @@
 package tr.org.liderahenk.network.inventory.runnables;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
-import org.nmap4j.data.nmaprun.Host;
+import org.nmap4j.core.nmap.NMapExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import tr.org.liderahenk.network.inventory.dto.ScanResultDto;
 import tr.org.liderahenk.network.inventory.dto.ScanResultHostDto;
+import tr.org.liderahenk.network.inventory.utils.StringUtils;
+import tr.org.liderahenk.network.inventory.utils.network.ILiveHostListener;
+import tr.org.liderahenk.network.inventory.utils.network.IScanResultListener;
+import tr.org.liderahenk.network.inventory.utils.network.IpRangeSet;
 import tr.org.liderahenk.network.inventory.utils.network.NetworkUtils;
+import tr.org.liderahenk.network.inventory.utils.network.ProcessTimeoutException;
+import tr.org.liderahenk.network.inventory.utils.network.ScanHandle;
+import tr.org.liderahenk.network.inventory.utils.network.ScanHistory;
 
 /**
- * A runnable that is responsible of performing a network scan over given IP
- * range.
+ * A runnable that is responsible of performing a network scan over given
+ * targets (addresses or ranges, which need not be contiguous). Hosts are passed
+ * to the result listener as soon as nmap reports them.
+ * <p>
+ * If a live host listener is provided, only host discovery is performed: hosts
+ * which are up are passed to the listener (to be scanned in detail later) and
+ * only the hosts which are down are passed to the result listener.
+ * <p>
+ * Results are recorded to {@link ScanHistory} so that later scans can
+ * estimate the cost of each host.
+ * <p>
+ * If nmap times out, targets are split into two halves which are scheduled
+ * again via the {@link ScanHandle}, a single target which times out is
+ * skipped.
  * 
  * @author <a href="mailto:caner.feyzullahoglu@agem.com.tr">Caner
  *         Feyzullahoğlu</a>
  */
-public class RunnableNmap implements Runnable {
+public class RunnableNmap implements Runnable, IScanResultListener {
 
 	private Logger logger = LoggerFactory.getLogger(RunnableNmap.class);
 
-	private ScanResultDto scanResultDto;
-	private String ipRange;
+	private IScanResultListener resultListener;
+	private List<String> targets;
 	private String ports;
 	private String sudoUsername;
 	private String sudoPassword;
 	private String timingTemplate;
-	private ArrayList<String> messages;
+	private List<String> messages;
+	private boolean skipHostDiscovery;
+	private ILiveHostListener liveHostListener;
+	private ScanHandle handle;
 
-	public RunnableNmap(ScanResultDto scanResultDto, String ipRange, String ports, String sudoUsername,
-			String sudoPassword, String timingTemplate, ArrayList<String> messages) {
-		this.scanResultDto = scanResultDto;
-		this.ipRange = ipRange;
+	/**
+	 * Addresses reported by nmap so far, they are not scanned again on retry
+	 */
+	private final Set<String> reported = new HashSet<String>();
+
+	public RunnableNmap(IScanResultListener resultListener, List<String> targets, String ports, String sudoUsername,
+			String sudoPassword, String timingTemplate, List<String> messages) {
+		this(resultListener, targets, ports, sudoUsername, sudoPassword, timingTemplate, messages, false, null);
+	}
+
+	public RunnableNmap(IScanResultListener resultListener, List<String> targets, String ports, String sudoUsername,
+			String sudoPassword, String timingTemplate, List<String> messages, boolean skipHostDiscovery,
+			ScanHandle handle) {
+		this.resultListener = resultListener;
+		this.targets = targets;
 		this.ports = ports;
 		this.sudoUsername = sudoUsername;
 		this.sudoPassword = sudoPassword;
 		this.timingTemplate = timingTemplate;
 		this.messages = messages;
+		this.skipHostDiscovery = skipHostDiscovery;
+		this.handle = handle;
+	}
+
+	public RunnableNmap(IScanResultListener resultListener, List<String> targets, String sudoUsername, String sudoPassword,
+			String timingTemplate, List<String> messages, ILiveHostListener liveHostListener,
+			ScanHandle handle) {
+		this(resultListener, targets, null, sudoUsername, sudoPassword, timingTemplate, messages, false, handle);
+		this.liveHostListener = liveHostListener;
 	}
 
 	@Override
 	public void run() {
+		if (handle != null && handle.isCancelled()) {
+			return;
+		}
 		try {
-			ArrayList<Host> hosts = NetworkUtils.scanNetwork(ipRange, ports, sudoUsername, sudoPassword,
-					timingTemplate);
-			if (hosts != null && hosts.size() > 0) {
-				for (Host host : hosts) {
-					String ip = NetworkUtils.getIpV4(host);
-					if (ip != null && !ip.isEmpty()) {
-
-						ScanResultHostDto hostDto = new ScanResultHostDto();
-						hostDto.setHostname(NetworkUtils.getHostname(host));
-						hostDto.setDistance(NetworkUtils.getDistance(host));
-						hostDto.setIp(NetworkUtils.getIpV4(host));
-						hostDto.setHostUp(NetworkUtils.isHostUp(host));
-						hostDto.setOpenPorts(NetworkUtils.getOpenPorts(host));
-						hostDto.setOsGuess(NetworkUtils.getOsGuess(host));
-						hostDto.setUptime(NetworkUtils.getUptime(host));
-						hostDto.setMac(NetworkUtils.getMac(host));
-						hostDto.setVendor(NetworkUtils.getMacVendor(host));
-
-						scanResultDto.getHosts().add(hostDto);
-					}
-				}
+			if (liveHostListener != null) {
+				NetworkUtils.discoverHosts(targets, sudoUsername, sudoPassword, timingTemplate, handle, this);
+			} else {
+				NetworkUtils.scanNetwork(targets, ports, sudoUsername, sudoPassword, timingTemplate,
+						skipHostDiscovery, handle, this);
+			}
+		} catch (NMapExecutionException e) {
+			if (handle != null && handle.isCancelled()) {
+				logger.debug("Scan is cancelled: {}", targets);
+			} else if (handle != null && e.getCause() instanceof ProcessTimeoutException) {
+				logger.warn("Scan timed out: {}", targets);
+				retry();
+			} else {
+				messages.add(e.getMessage());
+				logger.error(e.getMessage(), e);
 			}
 		} catch (Exception e) {
 			messages.add(e.getMessage());
@@ -71,11 +112,60 @@ public class RunnableNmap implements Runnable {
 		}
 	}
 
+	/**
+	 * Scans each half of the targets which are not reported yet again, or
+	 * skips the target if it cannot be split.
+	 */
+	private void retry() {
+		IpRangeSet addresses = IpRangeSet.parse(StringUtils.join(",", targets));
+		for (String ip : reported) {
+			addresses.remove(IpRangeSet.toInt(ip), IpRangeSet.toInt(ip));
+		}
+		if (addresses.size() > 1) {
+			for (IpRangeSet half : addresses.split((int) ((addresses.size() + 1) / 2))) {
+				RunnableNmap unit = new RunnableNmap(resultListener, half.toNmapTargetList(), ports, sudoUsername,
+						sudoPassword, timingTemplate, messages, skipHostDiscovery, handle);
+				unit.liveHostListener = liveHostListener;
+				if (!handle.schedule(unit)) {
+					handle.addSkipped(half.toNmapTargetList());
+				}
+			}
+		} else if (!addresses.isEmpty()) {
+			handle.addSkipped(addresses.toNmapTargetList());
+		}
+	}
+
+	@Override
+	public void hostScanned(ScanResultHostDto hostDto) {
+		String ip = hostDto.getIp();
+		if (ip != null && !ip.isEmpty()) {
+			reported.add(ip);
+
+			if (liveHostListener != null) {
+				// Down hosts are only recorded, they are not part of the
+				// result
+				if (hostDto.isHostUp()) {
+					liveHostListener.hostUp(ip);
+				} else {
+					ScanHistory.getInstance().hostDown(ip);
+				}
+				return;
+			}
+
+			if (hostDto.isHostUp()) {
+				ScanHistory.getInstance().hostScanned(ip, hostDto.getOpenPorts());
+			}
+
+			resultListener.hostScanned(hostDto);
+		}
+	}
+
 	@Override
 	public String toString() {
-		return "RunnableNmap [ipRange=" + ipRange + ", ports=" + ports + ", sudoUsername=" + sudoUsername
-				+ ", sudoPassword=" + sudoPassword + ", timingTemplate=" + timingTemplate + ", messages=" + messages
-				+ "]";
+		// Credentials are left out since units are logged by the scheduler
+		return "RunnableNmap [targets=" + targets + ", ports=" + ports + ", sudoUsername=" + sudoUsername
+				+ ", timingTemplate=" + timingTemplate + ", messages=" + messages
+				+ ", skipHostDiscovery=" + skipHostDiscovery + ", discovery=" + (liveHostListener != null) + "]";
 	}
 
 }
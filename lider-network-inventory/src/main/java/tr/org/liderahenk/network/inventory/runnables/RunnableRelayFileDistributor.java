@@ -0,0 +1,214 @@
+package tr.org.liderahenk.network.inventory.runnables;
+
+import java.io.File;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tr.org.liderahenk.network.inventory.contants.Constants.CopyResult;
+import tr.org.liderahenk.network.inventory.dto.FileDistResultDto;
+import tr.org.liderahenk.network.inventory.dto.FileDistResultHostDto;
+import tr.org.liderahenk.network.inventory.exception.CommandExecutionException;
+import tr.org.liderahenk.network.inventory.exception.SSHConnectionException;
+import tr.org.liderahenk.network.inventory.utils.scheduler.RelayTree;
+import tr.org.liderahenk.network.inventory.utils.scheduler.WorkScheduler;
+import tr.org.liderahenk.network.inventory.utils.setup.FileTransferOptions;
+import tr.org.liderahenk.network.inventory.utils.setup.IOutputLineConsumer;
+import tr.org.liderahenk.network.inventory.utils.setup.RelayKey;
+import tr.org.liderahenk.network.inventory.utils.setup.SetupUtils;
+
+/**
+ * A runnable that delivers the file to a single host of the relay tree. The
+ * file is copied from the source host (or from Lider if there is no source
+ * host), and then the host is prepared to forward the file and its children
+ * are scheduled with this host as their source.
+ * <p>
+ * If a relayed copy fails, file is copied directly from Lider. If the file
+ * cannot be delivered at all, children of the host use the source of the host
+ * instead.
+ * 
+ * @see RelayTree
+ *
+ */
+public class RunnableRelayFileDistributor implements Runnable {
+
+	private Logger logger = LoggerFactory.getLogger(RunnableRelayFileDistributor.class);
+
+	/**
+	 * Printed by the target host if it already has the file
+	 */
+	private static final String IDENTICAL = "IDENTICAL";
+
+	private FileDistResultDto fileDistResultDto;
+	private RelayTree tree;
+	private int index;
+	private String sourceIp;
+	private String username;
+	private String password;
+	private Integer port;
+	private String privateKey;
+	private String passphrase;
+	private File fileToTransfer;
+	private String destDirectory;
+	private FileTransferOptions transferOptions;
+	/**
+	 * SHA-256 checksum of the file, used to skip hosts which already have the
+	 * file. May be null.
+	 */
+	private String checksum;
+	private RelayKey relayKey;
+	private WorkScheduler scheduler;
+
+	/**
+	 * 
+	 * @param fileDistResultDto
+	 * @param tree
+	 * @param index
+	 *            index of the target host in the tree
+	 * @param sourceIp
+	 *            host which forwards the file, null if the file is copied
+	 *            from Lider
+	 * @param username
+	 * @param password
+	 * @param port
+	 * @param privateKey
+	 * @param passphrase
+	 * @param fileToTransfer
+	 * @param destDirectory
+	 * @param transferOptions
+	 * @param checksum
+	 * @param relayKey
+	 * @param scheduler
+	 *            used to schedule children of the host
+	 */
+	public RunnableRelayFileDistributor(FileDistResultDto fileDistResultDto, RelayTree tree, int index,
+			String sourceIp, String username, String password, Integer port, String privateKey, String passphrase,
+			File fileToTransfer, String destDirectory, FileTransferOptions transferOptions, String checksum,
+			RelayKey relayKey, WorkScheduler scheduler) {
+		this.fileDistResultDto = fileDistResultDto;
+		this.tree = tree;
+		this.index = index;
+		this.sourceIp = sourceIp;
+		this.username = username;
+		this.password = password;
+		this.port = port;
+		this.privateKey = privateKey;
+		this.passphrase = passphrase;
+		this.fileToTransfer = fileToTransfer;
+		this.destDirectory = destDirectory.endsWith("/") ? destDirectory : destDirectory + "/";
+		this.transferOptions = transferOptions;
+		this.checksum = checksum;
+		this.relayKey = relayKey;
+		this.scheduler = scheduler;
+	}
+
+	@Override
+	public void run() {
+
+		String ip = tree.getHost(index);
+		boolean copied = false;
+		String error = null;
+
+		if (sourceIp != null) {
+			try {
+				logger.debug("Relaying file from: {} to: {}", new Object[] { sourceIp, ip });
+				relay(ip);
+				copied = true;
+			} catch (Exception e) {
+				logger.warn("Relaying file from: {} to: {} failed, copying directly: {}",
+						new Object[] { sourceIp, ip, e.getMessage() });
+			}
+		}
+
+		if (!copied) {
+			try {
+				logger.debug("Copying file to: " + ip);
+				if (checksum != null) {
+					CopyResult result = SetupUtils.syncFile(ip, username, password, port, privateKey, passphrase,
+							fileToTransfer, checksum, destDirectory, transferOptions);
+					logger.debug("Copy result for {}: {}", new Object[] { ip, result });
+				} else {
+					SetupUtils.copyFile(ip, username, password, port, privateKey, passphrase, fileToTransfer,
+							destDirectory, transferOptions);
+				}
+				copied = true;
+			} catch (Exception e) {
+				logger.error(e.getMessage(), e);
+				error = e.getMessage();
+			}
+		}
+
+		fileDistResultDto.getHosts().add(new FileDistResultHostDto(ip, copied, error));
+
+		if (tree.getChildren(index).isEmpty()) {
+			return;
+		}
+
+		// Children are served by this host if it can forward the file,
+		// otherwise by the source of this host.
+		String childSourceIp = sourceIp;
+		if (copied) {
+			try {
+				prepareForwarding(ip);
+				childSourceIp = ip;
+			} catch (Exception e) {
+				logger.warn("Host: {} cannot forward the file: {}", new Object[] { ip, e.getMessage() });
+			}
+		}
+
+		for (Integer child : tree.getChildren(index)) {
+			scheduler.schedule(new RunnableRelayFileDistributor(fileDistResultDto, tree, child, childSourceIp,
+					username, password, port, privateKey, passphrase, fileToTransfer, destDirectory,
+					transferOptions, checksum, relayKey, scheduler));
+		}
+	}
+
+	/**
+	 * Authorizes the relay key on the target host and makes the source host
+	 * copy the file. If the target host already has an identical file, the key
+	 * is not authorized and the copy is skipped.
+	 */
+	private void relay(String ip) throws SSHConnectionException, CommandExecutionException {
+		relayKey.addTouchedHost(ip);
+		String targetFile = destDirectory + fileToTransfer.getName();
+		String command = "mkdir -p '" + destDirectory + "' && ";
+		if (checksum != null && transferOptions.isSkipIdentical()) {
+			command += "if [ \"$(sha256sum '" + targetFile + "' 2>/dev/null | cut -d ' ' -f 1)\" = '" + checksum
+					+ "' ]; then echo " + IDENTICAL + "; else " + relayKey.getAuthorizeCommand(sourceIp, targetFile)
+					+ "; fi";
+		} else {
+			command += relayKey.getAuthorizeCommand(sourceIp, targetFile);
+		}
+		final boolean[] identical = new boolean[1];
+		SetupUtils.executeCommand(ip, username, password, port, privateKey, passphrase, command,
+				new IOutputLineConsumer() {
+					@Override
+					public void consume(String line) {
+						identical[0] |= IDENTICAL.equals(line.trim());
+					}
+				});
+		if (identical[0]) {
+			logger.info("File {} already exists on: {}, skipping copy.", fileToTransfer.getName(), ip);
+			return;
+		}
+		SetupUtils.executeCommand(sourceIp, username, password, port, privateKey, passphrase,
+				relayKey.getCopyCommand(targetFile, username, ip, port));
+	}
+
+	/**
+	 * Copies private part of the relay key to the host.
+	 */
+	private void prepareForwarding(String ip) throws SSHConnectionException, CommandExecutionException {
+		relayKey.addTouchedHost(ip);
+		SetupUtils.copyFile(ip, username, password, port, privateKey, passphrase, relayKey.getPrivateKeyFile(),
+				relayKey.getRemoteDirectory(), relayKey.getCopyOptions());
+	}
+
+	@Override
+	public String toString() {
+		return "RunnableRelayFileDistributor [ip=" + tree.getHost(index) + ", sourceIp=" + sourceIp + ", username="
+				+ username + ", port=" + port + ", fileToTransfer=" + fileToTransfer + ", destDirectory="
+				+ destDirectory + "]";
+	}
+
+}
@@ -0,0 +1,9 @@
+package tr.org.liderahenk.network.inventory.utils.job;
+
+/**
+ * Stops a running job (e.g. kills processes of a network scan).
+ *
+ */
+public interface ICancellable {
+	public void cancel();
+}
@@ -0,0 +1,21 @@
+package tr.org.liderahenk.network.inventory.utils.job;
+
+/**
+ * Body of a long-running command which can be executed either in the calling
+ * thread or in the background by {@link JobManager}.
+ *
+ */
+public interface IJobTask {
+
+	/**
+	 * Executes the task. The task reports its progress and partial results via
+	 * the given job.
+	 *
+	 * @param job
+	 * @return final result of the task (a data transfer object)
+	 * @throws Exception
+	 *             if the task fails
+	 */
+	Object execute(Job job) throws Exception;
+
+}
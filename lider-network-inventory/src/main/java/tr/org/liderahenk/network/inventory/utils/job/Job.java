@@ -0,0 +1,217 @@
+package tr.org.liderahenk.network.inventory.utils.job;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import tr.org.liderahenk.network.inventory.contants.Constants.JobStatus;
+import tr.org.liderahenk.network.inventory.dto.JobDto;
+import tr.org.liderahenk.network.inventory.utils.scheduler.WorkScheduler;
+
+/**
+ * State of a long-running command. Progress is read from the work scheduler of
+ * the command and the partial result is the result object which is filled by
+ * the scheduled units.
+ *
+ */
+public class Job {
+
+	private final String id;
+	private final String type;
+
+	/**
+	 * True if the job is executed by {@link JobManager}, false if it is
+	 * executed in the thread of the command
+	 */
+	private final boolean background;
+
+	private final Date startDate = new Date();
+	private volatile Date endDate;
+	private volatile JobStatus status = JobStatus.RUNNING;
+
+	private volatile WorkScheduler scheduler;
+	private volatile Object partialResult;
+	private volatile List<?> partialItems;
+	private volatile Long resultId;
+	private volatile boolean cancelled = false;
+	private ICancellable cancellable;
+
+	private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+
+	public Job(String type, boolean background) {
+		this.id = UUID.randomUUID().toString();
+		this.type = type;
+		this.background = background;
+	}
+
+	/**
+	 * Reports progress of the job as the completed units of the given
+	 * scheduler.
+	 *
+	 * @param scheduler
+	 */
+	public void track(WorkScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Sets the result object which is filled while the job is running.
+	 *
+	 * @param partialResult
+	 * @param items
+	 *            synchronized list of the result which the running job appends
+	 *            to (e.g. hosts of a scan result), it is also used to
+	 *            synchronize reads of the partial result
+	 */
+	public void setPartialResult(Object partialResult, List<?> items) {
+		this.partialItems = items;
+		this.partialResult = partialResult;
+	}
+
+	public Object getPartialResult() {
+		return partialResult;
+	}
+
+	public Object getPartialResultLock() {
+		List<?> items = partialItems;
+		return items != null ? items : this;
+	}
+
+	/**
+	 * Returns items of the partial result which are added after the given
+	 * cursor, so that a client can poll for new items (e.g. hosts found by a
+	 * running scan) instead of reading the whole result each time.
+	 *
+	 * @param cursor
+	 *            number of items already read by the client
+	 * @return new items, the next cursor is cursor + size of the list
+	 */
+	public List<Object> getItemsAfter(int cursor) {
+		List<?> items = partialItems;
+		List<Object> result = new ArrayList<Object>();
+		if (items == null) {
+			return result;
+		}
+		synchronized (items) {
+			for (int i = Math.max(cursor, 0); i < items.size(); i++) {
+				result.add(items.get(i));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Registers the object which stops the job when it is cancelled. If the
+	 * job is already cancelled, it is cancelled at once.
+	 *
+	 * @param cancellable
+	 */
+	public void onCancel(ICancellable cancellable) {
+		boolean cancelNow;
+		synchronized (this) {
+			this.cancellable = cancellable;
+			cancelNow = cancelled;
+		}
+		if (cancelNow) {
+			cancellable.cancel();
+		}
+	}
+
+	/**
+	 * Cancels the job. Result of the job so far is kept.
+	 *
+	 * @return true if the job is cancelled, false if it is already finished or
+	 *         it cannot be cancelled
+	 */
+	public boolean cancel() {
+		ICancellable current;
+		synchronized (this) {
+			if (status != JobStatus.RUNNING || cancellable == null) {
+				return false;
+			}
+			cancelled = true;
+			current = cancellable;
+		}
+		current.cancel();
+		return true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public void addMessages(Collection<String> messages) {
+		this.messages.addAll(messages);
+	}
+
+	public void addMessage(String message) {
+		messages.add(message);
+	}
+
+	public List<String> getMessages() {
+		synchronized (messages) {
+			return new ArrayList<String>(messages);
+		}
+	}
+
+	void finish(JobStatus status) {
+		this.endDate = new Date();
+		this.status = status;
+	}
+
+	public int getTotal() {
+		WorkScheduler current = scheduler;
+		return current != null ? current.getScheduledCount() : 0;
+	}
+
+	public int getCompleted() {
+		WorkScheduler current = scheduler;
+		return current != null ? current.getCompletedCount() : 0;
+	}
+
+	public JobDto toDto() {
+		return new JobDto(id, type, status.toString(), getTotal(), getCompleted(), getMessages(), startDate, endDate,
+				resultId);
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public boolean isBackground() {
+		return background;
+	}
+
+	public JobStatus getStatus() {
+		return status;
+	}
+
+	public Date getStartDate() {
+		return startDate;
+	}
+
+	public Date getEndDate() {
+		return endDate;
+	}
+
+	public Long getResultId() {
+		return resultId;
+	}
+
+	public void setResultId(Long resultId) {
+		this.resultId = resultId;
+	}
+
+	@Override
+	public String toString() {
+		return "Job [id=" + id + ", type=" + type + ", status=" + status + "]";
+	}
+
+}
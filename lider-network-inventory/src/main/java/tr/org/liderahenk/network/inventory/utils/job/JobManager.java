@@ -0,0 +1,254 @@
+package tr.org.liderahenk.network.inventory.utils.job;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tr.org.liderahenk.lider.core.api.persistence.IPluginDbService;
+import tr.org.liderahenk.network.inventory.contants.Constants;
+import tr.org.liderahenk.network.inventory.contants.Constants.JobStatus;
+import tr.org.liderahenk.network.inventory.dto.JobDto;
+import tr.org.liderahenk.network.inventory.entities.NetworkInventoryJob;
+import tr.org.liderahenk.network.inventory.utils.json.JsonUtils;
+
+/**
+ * Executes long-running commands (network scan, file distribution and Ahenk
+ * installation) in the background, so that a command can return a job ID
+ * immediately instead of keeping the request open until all hosts are
+ * processed.
+ * <p>
+ * Progress of running jobs is written to the database every
+ * {@link Constants.JOB_CONFIG#PROGRESS_INTERVAL} ms. Finished jobs are kept in
+ * memory (with their results) for {@link Constants.JOB_CONFIG#RETENTION} ms,
+ * after that only their database record can be queried.
+ *
+ */
+public class JobManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(JobManager.class);
+
+	private IPluginDbService pluginDbService;
+
+	private final Map<String, Job> jobs = new ConcurrentHashMap<String, Job>();
+
+	private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "network-inventory-job-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private Timer timer;
+
+	public synchronized void init() {
+		if (timer == null) {
+			timer = new Timer("network-inventory-job-progress", true);
+			timer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					persistProgress();
+				}
+			}, Constants.JOB_CONFIG.PROGRESS_INTERVAL, Constants.JOB_CONFIG.PROGRESS_INTERVAL);
+		}
+	}
+
+	public synchronized void shutdown() {
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Starts executing the task in the background.
+	 *
+	 * @param type
+	 *            command ID of the job
+	 * @param task
+	 * @return started job
+	 */
+	public Job submit(String type, final IJobTask task) {
+		final Job job = new Job(type, true);
+		jobs.put(job.getId(), job);
+		persist(job);
+		logger.info("Starting job: {}", job);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				execute(job, task);
+			}
+		});
+		return job;
+	}
+
+	/**
+	 * Executes the task in the calling thread. The job is registered like a
+	 * background job while it is running, so that it can be queried and
+	 * cancelled by its ID (e.g. from the log or by another request).
+	 *
+	 * @param type
+	 *            command ID of the job
+	 * @param task
+	 * @return finished job, its status is {@link JobStatus#FAILED} if the task
+	 *         throws an exception
+	 */
+	public Job run(String type, IJobTask task) {
+		Job job = new Job(type, false);
+		jobs.put(job.getId(), job);
+		persist(job);
+		logger.info("Starting job in the request thread: {}", job);
+		execute(job, task);
+		return job;
+	}
+
+	private void execute(Job job, IJobTask task) {
+		try {
+			task.execute(job);
+			job.finish(job.isCancelled() ? JobStatus.CANCELLED : JobStatus.COMPLETED);
+		} catch (Exception e) {
+			logger.error(e.getMessage(), e);
+			if (e.getMessage() != null) {
+				job.addMessage(e.getMessage());
+			}
+			job.finish(job.isCancelled() ? JobStatus.CANCELLED : JobStatus.FAILED);
+		}
+		logger.info("Job finished: {}", job);
+		persist(job);
+	}
+
+	/**
+	 * @param jobId
+	 * @return job which is running or finished recently, null if it is not
+	 *         in memory
+	 */
+	public Job getJob(String jobId) {
+		return jobs.get(jobId);
+	}
+
+	/**
+	 * Cancels a running job.
+	 *
+	 * @param jobId
+	 * @return true if the job is cancelled, false if there is no such running
+	 *         job or it cannot be cancelled
+	 */
+	public boolean cancel(String jobId) {
+		Job job = jobs.get(jobId);
+		if (job == null || !job.cancel()) {
+			return false;
+		}
+		logger.info("Job cancelled: {}", job);
+		persist(job);
+		return true;
+	}
+
+	/**
+	 * Returns status of the job. If the job is not in memory, its last
+	 * persisted status is returned. A job which is persisted as running but
+	 * is not in memory was interrupted (e.g. by a restart of Lider).
+	 *
+	 * @param jobId
+	 * @return status of the job, null if there is no such job
+	 */
+	public JobDto getStatus(String jobId) {
+		Job job = jobs.get(jobId);
+		if (job != null) {
+			return job.toDto();
+		}
+		NetworkInventoryJob entity = pluginDbService.find(NetworkInventoryJob.class, jobId);
+		if (entity == null) {
+			return null;
+		}
+		String status = entity.getStatus();
+		if (JobStatus.RUNNING.toString().equals(status)) {
+			status = JobStatus.INTERRUPTED.toString();
+		}
+		List<String> messages = new ArrayList<String>();
+		if (entity.getMessage() != null) {
+			messages.add(entity.getMessage());
+		}
+		return new JobDto(entity.getId(), entity.getJobType(), status, entity.getTotalCount(),
+				entity.getCompletedCount(), messages, entity.getStartDate(), entity.getEndDate(),
+				entity.getResultId());
+	}
+
+	/**
+	 * Serializes the partial result of the job while the job may still be
+	 * adding to it.
+	 *
+	 * @param job
+	 * @return JSON of the partial result, null if the job has no result yet
+	 * @throws Exception
+	 */
+	public String writePartialResult(Job job) throws Exception {
+		Object result = job.getPartialResult();
+		if (result == null) {
+			return null;
+		}
+		synchronized (job.getPartialResultLock()) {
+			return JsonUtils.writeValueAsString(result);
+		}
+	}
+
+	/**
+	 * Writes progress of running jobs and removes finished jobs which are
+	 * older than the retention period.
+	 */
+	public void persistProgress() {
+		long now = System.currentTimeMillis();
+		Iterator<Job> it = jobs.values().iterator();
+		while (it.hasNext()) {
+			Job job = it.next();
+			if (job.getStatus() == JobStatus.RUNNING) {
+				persist(job);
+			} else if (job.getEndDate() != null
+					&& now - job.getEndDate().getTime() > Constants.JOB_CONFIG.RETENTION) {
+				it.remove();
+			}
+		}
+	}
+
+	private synchronized void persist(Job job) {
+		try {
+			List<String> messages = job.getMessages();
+			String message = null;
+			if (!messages.isEmpty()) {
+				message = messages.get(messages.size() - 1);
+				if (message.length() > 4000) {
+					message = message.substring(0, 4000);
+				}
+			}
+			NetworkInventoryJob entity = new NetworkInventoryJob(job.getId(), job.getType(),
+					job.getStatus().toString(), job.getTotal(), job.getCompleted(), message, job.getResultId(),
+					job.getStartDate(), job.getEndDate());
+			if (pluginDbService.find(NetworkInventoryJob.class, job.getId()) == null) {
+				pluginDbService.save(entity);
+			} else {
+				pluginDbService.update(entity);
+			}
+		} catch (Exception e) {
+			logger.error("Could not persist job: " + job, e);
+		}
+	}
+
+	public void setPluginDbService(IPluginDbService pluginDbService) {
+		this.pluginDbService = pluginDbService;
+	}
+
+}
@@ -0,0 +1,42 @@
+package tr.org.liderahenk.network.inventory.utils.json;
+
+import java.io.IOException;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.SerializationConfig;
+
+/**
+ * Provides a single, pre-configured object mapper instead of creating one
+ * for each serialization. Object mapper is thread-safe once configured.
+ *
+ */
+public class JsonUtils {
+
+	private static final ObjectMapper mapper = createMapper();
+
+	private JsonUtils() {
+	}
+
+	public static ObjectMapper getMapper() {
+		return mapper;
+	}
+
+	/**
+	 * @param value
+	 * @return JSON of the given value
+	 * @throws IOException
+	 */
+	public static String writeValueAsString(Object value) throws IOException {
+		return mapper.writeValueAsString(value);
+	}
+
+	private static ObjectMapper createMapper() {
+		ObjectMapper mapper = new ObjectMapper();
+		// Result writers close (and flush) their streams themselves
+		mapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+		mapper.configure(SerializationConfig.Feature.FLUSH_AFTER_WRITE_VALUE, false);
+		return mapper;
+	}
+
+}
@@ -0,0 +1,152 @@
+package tr.org.liderahenk.network.inventory.utils.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.codec.binary.Base64OutputStream;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+
+import tr.org.liderahenk.network.inventory.contants.Constants;
+
+/**
+ * Writes a command result as JSON through a streaming generator.
+ * <p>
+ * Large results (e.g. hosts of a scan result) can be written item by item
+ * via {@link #writeStart(Object, String)}, {@link #writeItem(Object)} and
+ * {@link #writeEnd()} without building the whole object graph. If
+ * compression is requested, the JSON is gzipped and Base64 encoded while it
+ * is being written, so only the compressed result is kept in memory.
+ *
+ */
+public class ResultJsonWriter {
+
+	/**
+	 * Value of the "resultEncoding" entry of compressed results
+	 */
+	public static final String GZIP_ENCODING = "gzip";
+
+	private final boolean compress;
+	private final StringWriter stringWriter;
+	private final ByteArrayOutputStream byteStream;
+	private final OutputStream compressedStream;
+	private final JsonGenerator generator;
+	private String result;
+
+	public ResultJsonWriter(boolean compress) throws IOException {
+		this.compress = compress;
+		if (compress) {
+			this.stringWriter = null;
+			this.byteStream = new ByteArrayOutputStream();
+			this.compressedStream = new GZIPOutputStream(new Base64OutputStream(byteStream, true, 0, null),
+					Constants.RESULT_CONFIG.BUFFER_SIZE);
+			this.generator = JsonUtils.getMapper().getJsonFactory().createJsonGenerator(compressedStream,
+					JsonEncoding.UTF8);
+		} else {
+			this.stringWriter = new StringWriter();
+			this.byteStream = null;
+			this.compressedStream = null;
+			this.generator = JsonUtils.getMapper().getJsonFactory().createJsonGenerator(stringWriter);
+		}
+	}
+
+	/**
+	 * Writes the whole value.
+	 *
+	 * @param value
+	 * @throws IOException
+	 */
+	public void write(Object value) throws IOException {
+		generator.writeObject(value);
+	}
+
+	/**
+	 * Writes properties of the header object (except the item array) and
+	 * starts the item array.
+	 *
+	 * @param header
+	 *            result object whose item array is not set
+	 * @param arrayField
+	 *            name of the item array property
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public void writeStart(Object header, String arrayField) throws IOException {
+		Map<String, Object> properties = JsonUtils.getMapper().convertValue(header, LinkedHashMap.class);
+		generator.writeStartObject();
+		for (Entry<String, Object> entry : properties.entrySet()) {
+			if (!arrayField.equals(entry.getKey())) {
+				generator.writeObjectField(entry.getKey(), entry.getValue());
+			}
+		}
+		generator.writeArrayFieldStart(arrayField);
+	}
+
+	public void writeItem(Object item) throws IOException {
+		generator.writeObject(item);
+	}
+
+	public void writeEnd() throws IOException {
+		generator.writeEndArray();
+		generator.writeEndObject();
+	}
+
+	/**
+	 * Finishes writing and returns the result.
+	 *
+	 * @return JSON, or Base64 encoded gzip of the JSON if compressed
+	 * @throws IOException
+	 */
+	public String getResult() throws IOException {
+		if (result == null) {
+			generator.close();
+			if (compress) {
+				compressedStream.close();
+				result = toAscii(byteStream);
+			} else {
+				result = stringWriter.toString();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Puts the result to the result map with the given key. Compressed
+	 * results are marked by a "resultEncoding" entry.
+	 *
+	 * @param resultMap
+	 * @param key
+	 * @throws IOException
+	 */
+	public void putResult(Map<String, Object> resultMap, String key) throws IOException {
+		resultMap.put(key, getResult());
+		if (compress) {
+			resultMap.put("resultEncoding", GZIP_ENCODING);
+		}
+	}
+
+	public boolean isCompressed() {
+		return compress;
+	}
+
+	private static String toAscii(ByteArrayOutputStream stream) throws UnsupportedEncodingException {
+		return stream.toString("US-ASCII");
+	}
+
+	/**
+	 * @param parameterMap
+	 * @return true if the command requests a compressed result
+	 */
+	public static boolean isCompressionRequested(Map<String, Object> parameterMap) {
+		Object compress = parameterMap.get("compress");
+		return Boolean.TRUE.equals(compress) || "true".equalsIgnoreCase(String.valueOf(compress));
+	}
+
+}
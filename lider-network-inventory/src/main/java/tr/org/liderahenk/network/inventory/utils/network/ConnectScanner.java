@@ -0,0 +1,393 @@
+package tr.org.liderahenk.network.inventory.utils.network;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tr.org.liderahenk.network.inventory.contants.Constants;
+import tr.org.liderahenk.network.inventory.dto.ScanResultHostDto;
+import tr.org.liderahenk.network.inventory.utils.job.ICancellable;
+
+/**
+ * A pure-Java TCP connect scanner. It does not fork any process and does not
+ * need root privileges: all probes are non-blocking socket connects
+ * multiplexed over a single {@link Selector}, so thousands of probes can be in
+ * flight on the calling thread.
+ * <p>
+ * A port is reported as open if the connection is established. A host is
+ * reported as up if at least one of its probes is either accepted or actively
+ * refused (i.e. the host answered with a RST). Hosts which do not answer any
+ * probe are reported as down, since ICMP is not available without privileges.
+ * Hosts which are not probed on every port before the deadline (or before the
+ * scan is cancelled) and did not answer yet are not reported at all, they are
+ * returned by {@link #getSkipped()} instead. Only the hosts being probed are
+ * kept in memory, results are passed to an {@link IScanResultListener}. OS detection, MAC addresses and
+ * service versions are not available with this engine.
+ *
+ * @see LiderNmap4j
+ *
+ */
+public class ConnectScanner implements ICancellable {
+
+	private static Logger logger = LoggerFactory.getLogger(ConnectScanner.class);
+
+	private static final Map<Integer, String> SERVICES = new HashMap<Integer, String>();
+
+	static {
+		SERVICES.put(21, "ftp");
+		SERVICES.put(22, "ssh");
+		SERVICES.put(23, "telnet");
+		SERVICES.put(25, "smtp");
+		SERVICES.put(53, "domain");
+		SERVICES.put(80, "http");
+		SERVICES.put(110, "pop3");
+		SERVICES.put(111, "rpcbind");
+		SERVICES.put(135, "msrpc");
+		SERVICES.put(139, "netbios-ssn");
+		SERVICES.put(143, "imap");
+		SERVICES.put(389, "ldap");
+		SERVICES.put(443, "https");
+		SERVICES.put(445, "microsoft-ds");
+		SERVICES.put(636, "ldapssl");
+		SERVICES.put(993, "imaps");
+		SERVICES.put(995, "pop3s");
+		SERVICES.put(3306, "mysql");
+		SERVICES.put(3389, "ms-wbt-server");
+		SERVICES.put(5222, "xmpp-client");
+		SERVICES.put(5432, "postgresql");
+		SERVICES.put(5900, "vnc");
+		SERVICES.put(8080, "http-proxy");
+	}
+
+	private final int timeout;
+	private final int maxInFlight;
+
+	private volatile boolean cancelled = false;
+	private volatile Selector selector;
+	private final IpRangeSet skipped = new IpRangeSet();
+
+	/**
+	 * @param timeout
+	 *            time in milliseconds to wait for a single connection attempt
+	 * @param maxInFlight
+	 *            maximum number of connection attempts at the same time
+	 */
+	public ConnectScanner(int timeout, int maxInFlight) {
+		this.timeout = timeout;
+		this.maxInFlight = maxInFlight;
+	}
+
+	public ConnectScanner() {
+		this(Constants.CONNECT_SCAN_CONFIG.PROBE_TIMEOUT, Constants.CONNECT_SCAN_CONFIG.MAX_IN_FLIGHT);
+	}
+
+	/**
+	 * Probes given ports on each IP address. Addresses are taken from the
+	 * iterator only when there is room for their probes, and each host is
+	 * reported to the listener as soon as all of its probes are finished, so
+	 * that a large range is neither held in memory nor reported at the end.
+	 *
+	 * @param ipAddresses
+	 * @param ports
+	 *            nmap style port list (e.g. 21-25,8080,111). If empty, a list
+	 *            of common ports is used.
+	 * @param deadline
+	 *            absolute time in milliseconds after which no new probe is
+	 *            started and pending probes are abandoned
+	 * @param resultListener
+	 *            receives one result for each IP address which is scanned, it
+	 *            is called on the scanning thread
+	 * @throws IOException
+	 */
+	public void scan(Iterable<String> ipAddresses, String ports, long deadline, IScanResultListener resultListener)
+			throws IOException {
+
+		List<Integer> portList = parsePorts(
+				ports != null && !ports.trim().isEmpty() ? ports : Constants.CONNECT_SCAN_CONFIG.DEFAULT_PORTS);
+
+		// Hosts which are being probed, at most one more than the in-flight
+		// limit
+		Set<HostState> active = new LinkedHashSet<HostState>();
+		Iterator<String> ipIt = ipAddresses.iterator();
+
+		Selector selector = Selector.open();
+		this.selector = selector;
+		try {
+			HostState current = null;
+			int portIndex = 0;
+
+			while (true) {
+				// Start new probes until the in-flight limit is reached
+				while (selector.keys().size() < maxInFlight && System.currentTimeMillis() < deadline
+						&& !cancelled) {
+					if (current == null || portIndex >= portList.size()) {
+						if (!ipIt.hasNext()) {
+							break;
+						}
+						current = new HostState(ipIt.next(), portList.size());
+						portIndex = 0;
+						if (portList.isEmpty()) {
+							resultListener.hostScanned(current.toDto());
+							continue;
+						}
+						active.add(current);
+					}
+					startProbe(selector, current, portList.get(portIndex++), active, resultListener);
+				}
+
+				if (selector.keys().isEmpty()) {
+					break;
+				}
+
+				selector.select(Math.max(1, Math.min(timeout, deadline - System.currentTimeMillis())));
+
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					finishProbe(key, active, resultListener);
+				}
+
+				expireProbes(selector, cancelled || System.currentTimeMillis() >= deadline, active, resultListener);
+			}
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				closeQuietly(key.channel());
+			}
+			selector.close();
+		}
+
+		// Hosts whose probes are abandoned are reported only if they answered
+		synchronized (skipped) {
+			for (HostState host : active) {
+				if (host.up) {
+					resultListener.hostScanned(host.toDto());
+				} else {
+					skipped.add(host.ip);
+				}
+			}
+			while (ipIt.hasNext()) {
+				skipped.add(ipIt.next());
+			}
+		}
+	}
+
+	/**
+	 * Stops starting new probes and abandons pending ones, hosts which are
+	 * not completely probed are skipped.
+	 */
+	@Override
+	public void cancel() {
+		cancelled = true;
+		Selector current = selector;
+		if (current != null) {
+			current.wakeup();
+		}
+	}
+
+	/**
+	 * @return targets which are not scanned since the deadline is reached or
+	 *         the scan is cancelled
+	 */
+	public List<String> getSkipped() {
+		synchronized (skipped) {
+			return skipped.toNmapTargetList();
+		}
+	}
+
+	private void startProbe(Selector selector, HostState host, int port, Set<HostState> active,
+			IScanResultListener resultListener) {
+		SocketChannel channel = null;
+		try {
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			if (channel.connect(new InetSocketAddress(InetAddress.getByName(host.ip), port))) {
+				host.portOpen(port);
+				probed(host, active, resultListener);
+				closeQuietly(channel);
+			} else {
+				channel.register(selector, SelectionKey.OP_CONNECT,
+						new Probe(host, port, System.currentTimeMillis() + timeout));
+			}
+		} catch (ConnectException e) {
+			host.responded();
+			probed(host, active, resultListener);
+			closeQuietly(channel);
+		} catch (IOException e) {
+			logger.debug("Could not probe {}:{} {}", new Object[] { host.ip, port, e.getMessage() });
+			probed(host, active, resultListener);
+			closeQuietly(channel);
+		}
+	}
+
+	private void finishProbe(SelectionKey key, Set<HostState> active, IScanResultListener resultListener) {
+		Probe probe = (Probe) key.attachment();
+		SocketChannel channel = (SocketChannel) key.channel();
+		try {
+			if (channel.finishConnect()) {
+				probe.host.portOpen(probe.port);
+			}
+		} catch (ConnectException e) {
+			// Connection refused, port is closed but host is up.
+			probe.host.responded();
+		} catch (IOException e) {
+			// Host or network unreachable
+		} finally {
+			key.cancel();
+			closeQuietly(channel);
+			probed(probe.host, active, resultListener);
+		}
+	}
+
+	private void expireProbes(Selector selector, boolean expireAll, Set<HostState> active,
+			IScanResultListener resultListener) {
+		long now = System.currentTimeMillis();
+		for (SelectionKey key : selector.keys()) {
+			if (!key.isValid()) {
+				continue;
+			}
+			Probe probe = (Probe) key.attachment();
+			if (expireAll || probe.deadline <= now) {
+				key.cancel();
+				closeQuietly(key.channel());
+			}
+			if (probe.deadline <= now) {
+				// Host did not answer in time
+				probed(probe.host, active, resultListener);
+			}
+		}
+		if (!selector.keys().isEmpty()) {
+			try {
+				// Flush cancelled keys out of the key set
+				selector.selectNow();
+			} catch (IOException e) {
+				logger.error(e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Counts a completed (or timed out) probe of the host and reports the
+	 * host once all of its ports are probed.
+	 */
+	private static void probed(HostState host, Set<HostState> active, IScanResultListener resultListener) {
+		host.probed++;
+		if (host.probed >= host.portCount) {
+			active.remove(host);
+			resultListener.hostScanned(host.toDto());
+		}
+	}
+
+	private static void closeQuietly(Channel channel) {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * Parses an nmap style port list such as 21-25,8080,111 into a sorted list
+	 * of distinct port numbers. Protocol prefixes (e.g. T:) are ignored.
+	 *
+	 * @param ports
+	 * @return
+	 */
+	public static List<Integer> parsePorts(String ports) {
+		TreeSet<Integer> result = new TreeSet<Integer>();
+		for (String token : ports.split(",")) {
+			token = token.trim();
+			if (token.contains(":")) {
+				token = token.substring(token.indexOf(':') + 1);
+			}
+			if (token.isEmpty()) {
+				continue;
+			}
+			int dash = token.indexOf('-');
+			if (dash >= 0) {
+				int from = dash == 0 ? 1 : Integer.parseInt(token.substring(0, dash).trim());
+				int to = dash == token.length() - 1 ? 65535 : Integer.parseInt(token.substring(dash + 1).trim());
+				for (int port = Math.max(from, 1); port <= Math.min(to, 65535); port++) {
+					result.add(port);
+				}
+			} else {
+				int port = Integer.parseInt(token);
+				if (port > 0 && port <= 65535) {
+					result.add(port);
+				}
+			}
+		}
+		return new ArrayList<Integer>(result);
+	}
+
+	private static class HostState {
+
+		private final String ip;
+		private final int portCount;
+		private boolean up;
+		/**
+		 * Number of probes which are completed or timed out (not abandoned)
+		 */
+		private int probed;
+		private final List<Integer> openPorts = new ArrayList<Integer>();
+
+		private HostState(String ip, int portCount) {
+			this.ip = ip;
+			this.portCount = portCount;
+		}
+
+		private void responded() {
+			up = true;
+		}
+
+		private void portOpen(int port) {
+			up = true;
+			openPorts.add(port);
+		}
+
+		private ScanResultHostDto toDto() {
+			Collections.sort(openPorts);
+			StringBuilder portsStr = new StringBuilder();
+			for (Integer port : openPorts) {
+				String service = SERVICES.get(port);
+				portsStr.append(port).append("/tcp ").append(service != null ? service : "unknown").append("\n");
+			}
+			return new ScanResultHostDto(null, ip, up, up ? portsStr.toString() : null, null, null, null, null,
+					null);
+		}
+
+	}
+
+	private static class Probe {
+
+		private final HostState host;
+		private final int port;
+		private final long deadline;
+
+		private Probe(HostState host, int port, long deadline) {
+			this.host = host;
+			this.port = port;
+			this.deadline = deadline;
+		}
+
+	}
+
+}
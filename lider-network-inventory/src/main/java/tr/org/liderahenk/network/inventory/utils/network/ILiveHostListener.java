@@ -0,0 +1,10 @@
+package tr.org.liderahenk.network.inventory.utils.network;
+
+/**
+ * Receives hosts which are found to be up during host discovery, so that they
+ * can be scanned in detail while discovery continues.
+ * 
+ */
+public interface ILiveHostListener {
+	public void hostUp(String ip);
+}
@@ -0,0 +1,12 @@
+package tr.org.liderahenk.network.inventory.utils.network;
+
+import tr.org.liderahenk.network.inventory.dto.ScanResultHostDto;
+
+/**
+ * Receives each host of a scan result as soon as it is scanned (e.g. to add it
+ * to the result and save it while the scan continues).
+ *
+ */
+public interface IScanResultListener {
+	public void hostScanned(ScanResultHostDto host);
+}
@@ -0,0 +1,13 @@
+package tr.org.liderahenk.network.inventory.utils.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads an output stream of a process while the process is still running
+ * (e.g. parses nmap XML output host by host).
+ *
+ */
+public interface IStreamConsumer {
+	public void consume(InputStream in) throws IOException;
+}
@@ -0,0 +1,457 @@
+package tr.org.liderahenk.network.inventory.utils.network;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of IPv4 addresses kept as sorted, non-overlapping ranges of int
+ * addresses. Large networks (e.g. a /16 or /8) can be planned and divided into
+ * scan units without creating a string for each address.
+ * <p>
+ * Addresses are treated as unsigned 32-bit values and ranges are inclusive.
+ * Overlapping or adjacent ranges are merged when they are added, so the same
+ * address is never listed twice, and ranges can be removed (e.g. excluded
+ * networks). Since ranges never overlap, sorted arrays with binary search are
+ * used instead of an interval tree.
+ *
+ */
+public class IpRangeSet implements Iterable<String> {
+
+	private static final long MASK = 0xFFFFFFFFL;
+
+	private int[] starts;
+	private int[] ends;
+	private int count;
+
+	public IpRangeSet() {
+		starts = new int[4];
+		ends = new int[4];
+	}
+
+	/**
+	 * Parses comma or space separated IP ranges. Each range may be a single
+	 * address (192.168.1.5), a range of the last octet (192.168.1.5-20), a
+	 * range of addresses (192.168.1.5-192.168.2.20) or a subnet in CIDR
+	 * notation (192.168.1.0/24, network and broadcast addresses are excluded).
+	 *
+	 * @param ranges
+	 * @return parsed ranges
+	 * @throws IllegalArgumentException
+	 *             if a range is invalid
+	 */
+	public static IpRangeSet parse(String ranges) {
+		IpRangeSet set = new IpRangeSet();
+		if (ranges == null) {
+			return set;
+		}
+		for (String range : ranges.trim().split("[,\\s]+")) {
+			if (range.isEmpty()) {
+				continue;
+			}
+			int slash = range.indexOf('/');
+			int dash = range.indexOf('-');
+			if (slash > 0) {
+				set.addSubnet(toInt(range.substring(0, slash)), Integer.parseInt(range.substring(slash + 1)));
+			} else if (dash > 0) {
+				int start = toInt(range.substring(0, dash));
+				String last = range.substring(dash + 1);
+				int end;
+				if (last.indexOf('.') >= 0) {
+					end = toInt(last);
+				} else {
+					int octet = Integer.parseInt(last);
+					if (octet < 0 || octet > 255) {
+						throw new IllegalArgumentException("Invalid IP range: " + range);
+					}
+					end = (start & 0xFFFFFF00) | octet;
+				}
+				if ((start & MASK) > (end & MASK)) {
+					throw new IllegalArgumentException("Invalid IP range: " + range);
+				}
+				set.add(start, end);
+			} else {
+				int ip = toInt(range);
+				set.add(ip, ip);
+			}
+		}
+		return set;
+	}
+
+	/**
+	 * Adds usable host addresses of the given subnet (network and broadcast
+	 * addresses are excluded unless prefix is 31 or 32).
+	 *
+	 * @param address
+	 *            any address in the subnet
+	 * @param prefixLength
+	 */
+	public void addSubnet(int address, int prefixLength) {
+		if (prefixLength < 0 || prefixLength > 32) {
+			throw new IllegalArgumentException("Invalid prefix length: " + prefixLength);
+		}
+		int netmask = prefixLength == 0 ? 0 : 0xFFFFFFFF << (32 - prefixLength);
+		int network = address & netmask;
+		int broadcast = network | ~netmask;
+		if (prefixLength >= 31) {
+			add(network, broadcast);
+		} else {
+			add(network + 1, broadcast - 1);
+		}
+	}
+
+	/**
+	 * Adds the range [start, end], merging it with overlapping or adjacent
+	 * ranges.
+	 *
+	 * @param start
+	 * @param end
+	 */
+	public void add(int start, int end) {
+		long s = start & MASK;
+		long e = end & MASK;
+		if (s > e) {
+			throw new IllegalArgumentException("Start of the range is after its end: " + toIp(start) + "-"
+					+ toIp(end));
+		}
+
+		// First range which ends at or after the address before start
+		int lo = 0;
+		int hi = count;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if ((ends[mid] & MASK) + 1 < s) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		int first = lo;
+		int last = first;
+		while (last < count && (starts[last] & MASK) <= e + 1) {
+			s = Math.min(s, starts[last] & MASK);
+			e = Math.max(e, ends[last] & MASK);
+			last++;
+		}
+
+		int merged = last - first;
+		if (merged == 0) {
+			ensureCapacity(count + 1);
+			System.arraycopy(starts, first, starts, first + 1, count - first);
+			System.arraycopy(ends, first, ends, first + 1, count - first);
+			count++;
+		} else if (merged > 1) {
+			System.arraycopy(starts, last, starts, first + 1, count - last);
+			System.arraycopy(ends, last, ends, first + 1, count - last);
+			count -= merged - 1;
+		}
+		starts[first] = (int) s;
+		ends[first] = (int) e;
+	}
+
+	public void add(String ip) {
+		int address = toInt(ip);
+		add(address, address);
+	}
+
+	public void addAll(IpRangeSet other) {
+		for (int i = 0; i < other.count; i++) {
+			add(other.starts[i], other.ends[i]);
+		}
+	}
+
+	/**
+	 * Removes the range [start, end], splitting ranges which partially
+	 * overlap with it.
+	 *
+	 * @param start
+	 * @param end
+	 */
+	public void remove(int start, int end) {
+		long s = start & MASK;
+		long e = end & MASK;
+		if (s > e) {
+			throw new IllegalArgumentException("Start of the range is after its end: " + toIp(start) + "-"
+					+ toIp(end));
+		}
+
+		// First range which ends at or after start
+		int lo = 0;
+		int hi = count;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if ((ends[mid] & MASK) < s) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		int first = lo;
+		int last = first;
+		while (last < count && (starts[last] & MASK) <= e) {
+			last++;
+		}
+		if (first == last) {
+			return;
+		}
+
+		// At most two pieces remain: the part of the first range before
+		// start and the part of the last range after end
+		boolean keepHead = (starts[first] & MASK) < s;
+		boolean keepTail = (ends[last - 1] & MASK) > e;
+		int headStart = starts[first];
+		int tailEnd = ends[last - 1];
+		int pieces = (keepHead ? 1 : 0) + (keepTail ? 1 : 0);
+
+		ensureCapacity(count - (last - first) + pieces);
+		int newLast = first + pieces;
+		System.arraycopy(starts, last, starts, newLast, count - last);
+		System.arraycopy(ends, last, ends, newLast, count - last);
+		count += pieces - (last - first);
+
+		int i = first;
+		if (keepHead) {
+			starts[i] = headStart;
+			ends[i] = (int) (s - 1);
+			i++;
+		}
+		if (keepTail) {
+			starts[i] = (int) (e + 1);
+			ends[i] = tailEnd;
+		}
+	}
+
+	public void removeAll(IpRangeSet other) {
+		for (int i = 0; i < other.count; i++) {
+			remove(other.starts[i], other.ends[i]);
+		}
+	}
+
+	/**
+	 * @return number of addresses in the set
+	 */
+	public long size() {
+		long size = 0;
+		for (int i = 0; i < count; i++) {
+			size += (ends[i] & MASK) - (starts[i] & MASK) + 1;
+		}
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * @return number of (merged) ranges in the set
+	 */
+	public int getRangeCount() {
+		return count;
+	}
+
+	public boolean contains(String ip) {
+		return contains(toInt(ip));
+	}
+
+	public boolean contains(int ip) {
+		long address = ip & MASK;
+		int lo = 0;
+		int hi = count - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if ((ends[mid] & MASK) < address) {
+				lo = mid + 1;
+			} else if ((starts[mid] & MASK) > address) {
+				hi = mid - 1;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Divides the set into sets of at most unitSize addresses, in address
+	 * order.
+	 *
+	 * @param unitSize
+	 * @return units
+	 */
+	public List<IpRangeSet> split(int unitSize) {
+		if (unitSize < 1) {
+			throw new IllegalArgumentException("Unit size must be positive: " + unitSize);
+		}
+		List<IpRangeSet> units = new ArrayList<IpRangeSet>();
+		IpRangeSet unit = new IpRangeSet();
+		long remaining = unitSize;
+		for (int i = 0; i < count; i++) {
+			long s = starts[i] & MASK;
+			long e = ends[i] & MASK;
+			while (s <= e) {
+				long end = Math.min(e, s + remaining - 1);
+				unit.add((int) s, (int) end);
+				remaining -= end - s + 1;
+				s = end + 1;
+				if (remaining == 0) {
+					units.add(unit);
+					unit = new IpRangeSet();
+					remaining = unitSize;
+				}
+			}
+		}
+		if (!unit.isEmpty()) {
+			units.add(unit);
+		}
+		return units;
+	}
+
+	/**
+	 * Formats the set as nmap targets, ranges are divided at /24 boundaries
+	 * since nmap accepts ranges per octet (e.g. 192.168.1.250-255
+	 * 192.168.2.0-10).
+	 *
+	 * @return space separated nmap targets
+	 */
+	public String toNmapTargets() {
+		StringBuilder targets = new StringBuilder();
+		for (String target : toNmapTargetList()) {
+			if (targets.length() > 0) {
+				targets.append(' ');
+			}
+			targets.append(target);
+		}
+		return targets.toString();
+	}
+
+	/**
+	 * @return nmap targets (see {@link #toNmapTargets()}), one per element
+	 */
+	public List<String> toNmapTargetList() {
+		List<String> targets = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			long s = starts[i] & MASK;
+			long e = ends[i] & MASK;
+			while (s <= e) {
+				long end = Math.min(e, s | 0xFF);
+				if (end != s) {
+					targets.add(toIp((int) s) + "-" + (end & 0xFF));
+				} else {
+					targets.add(toIp((int) s));
+				}
+				s = end + 1;
+			}
+		}
+		return targets;
+	}
+
+	/**
+	 * Iterates addresses in order. Address strings are created while
+	 * iterating.
+	 */
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private int range = 0;
+			private long next = count > 0 ? starts[0] & MASK : 0;
+
+			@Override
+			public boolean hasNext() {
+				return range < count;
+			}
+
+			@Override
+			public String next() {
+				if (range >= count) {
+					throw new NoSuchElementException();
+				}
+				String ip = toIp((int) next);
+				if (next == (ends[range] & MASK)) {
+					range++;
+					if (range < count) {
+						next = starts[range] & MASK;
+					}
+				} else {
+					next++;
+				}
+				return ip;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * @return all addresses as strings, should be used only for small sets
+	 */
+	public List<String> toList() {
+		List<String> list = new ArrayList<String>();
+		for (String ip : this) {
+			list.add(ip);
+		}
+		return list;
+	}
+
+	/**
+	 * @param ip
+	 *            dotted IPv4 address
+	 * @return address as int
+	 * @throws IllegalArgumentException
+	 *             if the address is invalid
+	 */
+	public static int toInt(String ip) {
+		String[] octets = ip.trim().split("\\.");
+		if (octets.length != 4) {
+			throw new IllegalArgumentException("Invalid IP address: " + ip);
+		}
+		int address = 0;
+		for (String octet : octets) {
+			int value;
+			try {
+				value = Integer.parseInt(octet);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid IP address: " + ip);
+			}
+			if (value < 0 || value > 255) {
+				throw new IllegalArgumentException("Invalid IP address: " + ip);
+			}
+			address = address << 8 | value;
+		}
+		return address;
+	}
+
+	public static String toIp(int address) {
+		return (address >>> 24) + "." + (address >> 16 & 0xFF) + "." + (address >> 8 & 0xFF) + "." + (address & 0xFF);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > starts.length) {
+			int length = Math.max(capacity, starts.length * 2);
+			int[] newStarts = new int[length];
+			int[] newEnds = new int[length];
+			System.arraycopy(starts, 0, newStarts, 0, count);
+			System.arraycopy(ends, 0, newEnds, 0, count);
+			starts = newStarts;
+			ends = newEnds;
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (builder.length() > 0) {
+				builder.append(',');
+			}
+			builder.append(toIp(starts[i]));
+			if (starts[i] != ends[i]) {
+				builder.append('-').append(toIp(ends[i]));
+			}
+		}
+		return builder.toString();
+	}
+
+}
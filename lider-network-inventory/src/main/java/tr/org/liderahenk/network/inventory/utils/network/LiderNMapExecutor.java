@@ -2,6 +2,7 @@ package tr.org.liderahenk.network.inventory.utils.network;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 
@@ -13,7 +14,7 @@ import org.nmap4j.core.nmap.NMapInitializationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import tr.org.liderahenk.network.inventory.utils.StringUtils;
+import tr.org.liderahenk.network.inventory.contants.Constants;
 
 public class LiderNMapExecutor extends NMapExecutor {
 
@@ -21,6 +22,7 @@ public class LiderNMapExecutor extends NMapExecutor {
 
 	private ArgumentProperties nmapArguments;
 	private LiderNMapProperties nmapProperties;
+	private ScanHandle scanHandle;
 
 	public LiderNMapExecutor(ArgumentProperties argProps, LiderNMapProperties nmapProps)
 			throws NMapInitializationException {
@@ -58,7 +60,8 @@ public class LiderNMapExecutor extends NMapExecutor {
 	 * this object was constructed.
 	 * <p>
 	 * This method can throw an NMapExecutionException which will be a wrapper
-	 * around an IO Exception.
+	 * around an IO Exception (e.g. if nmap does not finish in
+	 * {@link Constants.NMAP_CONFIG#PROCESS_TIMEOUT} ms).
 	 * 
 	 * @return
 	 * @throws NMapExecutionException
@@ -69,29 +72,119 @@ public class LiderNMapExecutor extends NMapExecutor {
 		ExecutionResults results = new ExecutionResults();
 
 		try {
-			logger.info("Command: {}", command.toString());
+			final StringBuilder output = new StringBuilder();
+			ProcessPump pump = startProcess(command, results);
+			try {
+				pump.run(new IStreamConsumer() {
+					@Override
+					public void consume(InputStream in) throws IOException {
+						if (ProcessPump.read(in, output, Constants.NMAP_CONFIG.MAX_OUTPUT_SIZE)) {
+							throw new IOException("nmap output exceeds " + Constants.NMAP_CONFIG.MAX_OUTPUT_SIZE
+									+ " characters.");
+						}
+					}
+				});
+			} finally {
+				results.setErrors(pump.getErrors());
+				if (scanHandle != null) {
+					scanHandle.unregister(pump.getProcess());
+				}
+			}
+			results.setOutput(output.toString());
+
+		} catch (IOException e) {
+			throw new NMapExecutionException(e.getMessage(), e);
+		}
+
+		return results;
+	}
+
+	/**
+	 * Executes nmap and passes its standard output to the given consumer (e.g.
+	 * {@link NmapHostParser}) as it is read from the process pipe. Output of
+	 * the returned results is always null.
+	 * 
+	 * @param consumer
+	 * @return
+	 * @throws NMapExecutionException
+	 */
+	public ExecutionResults execute(IStreamConsumer consumer) throws NMapExecutionException {
+		StringBuffer command = getCommand();
+		ExecutionResults results = new ExecutionResults();
+
+		try {
+			ProcessPump pump = startProcess(command, results);
+			try {
+				pump.run(consumer);
+			} finally {
+				results.setErrors(pump.getErrors());
+				if (scanHandle != null) {
+					scanHandle.unregister(pump.getProcess());
+				}
+			}
+
+		} catch (IOException e) {
+			throw new NMapExecutionException(e.getMessage(), e);
+		}
+
+		return results;
+	}
+
+	/**
+	 * Starts nmap and returns a pump which drains its standard output and
+	 * error in parallel, otherwise nmap blocks when the pipe of the stream
+	 * which is not being read is full.
+	 */
+	private ProcessPump startProcess(StringBuffer command, ExecutionResults results) throws IOException {
+		logger.info("Command: {}", command.toString());
+
+		long timeout = Constants.NMAP_CONFIG.PROCESS_TIMEOUT;
+		if (scanHandle != null) {
+			if (scanHandle.isCancelled()) {
+				throw new IOException("Scan is cancelled.");
+			}
+			timeout = scanHandle.getProcessTimeout();
+			if (timeout <= 0) {
+				throw new ProcessTimeoutException("Scan deadline is passed.");
+			}
+		}
 
-			results.setExecutedCommand(command.toString());
-			Process process = Runtime.getRuntime().exec(command.toString());
+		results.setExecutedCommand(command.toString());
+		Process process = Runtime.getRuntime().exec(command.toString());
+		if (scanHandle != null && !scanHandle.register(process)) {
+			throw new IOException("Scan is cancelled.");
+		}
 
-			// pass password as an argument
-			if (nmapProperties.getSudoUser() != null) {
+		// pass password as an argument
+		if (nmapProperties.getSudoUser() != null) {
+			try {
 				OutputStream stdIn = process.getOutputStream();
 				BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(stdIn));
 				writer.write(nmapProperties.getSudoUserPassword());
 				writer.write("\n"); // write newline char to mimic 'enter'
 									// press.
 				writer.flush();
+			} catch (IOException e) {
+				if (scanHandle != null) {
+					scanHandle.unregister(process);
+				}
+				process.destroy();
+				throw e;
 			}
-
-			results.setErrors(StringUtils.convertStream(process.getErrorStream()));
-			results.setOutput(StringUtils.convertStream(process.getInputStream()));
-
-		} catch (IOException e) {
-			throw new NMapExecutionException(e.getMessage(), e);
 		}
 
-		return results;
+		return new ProcessPump(process, timeout, Constants.NMAP_CONFIG.MAX_ERROR_SIZE);
+	}
+
+	/**
+	 * Processes are registered to the handle so that they are destroyed when
+	 * the scan is cancelled, and their timeout is limited by the deadline of
+	 * the scan.
+	 * 
+	 * @param scanHandle
+	 */
+	public void setScanHandle(ScanHandle scanHandle) {
+		this.scanHandle = scanHandle;
 	}
 
 	@Override
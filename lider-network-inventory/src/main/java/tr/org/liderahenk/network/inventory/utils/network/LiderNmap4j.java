@@ -1,10 +1,19 @@
 package tr.org.liderahenk.network.inventory.utils.network;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+
 import org.nmap4j.Nmap4j;
 import org.nmap4j.core.flags.ArgumentProperties;
 import org.nmap4j.core.nmap.ExecutionResults;
 import org.nmap4j.core.nmap.NMapExecutionException;
-import org.nmap4j.core.nmap.NMapExecutor;
 import org.nmap4j.core.nmap.NMapInitializationException;
 import org.nmap4j.data.NMapRun;
 import org.nmap4j.parser.OnePassParser;
@@ -13,8 +22,10 @@ public class LiderNmap4j extends Nmap4j {
 
 	private LiderNMapProperties nmapProperties;
 	private ArgumentProperties flags;
-	private NMapExecutor nmapExecutor;
+	private LiderNMapExecutor nmapExecutor;
 	private ExecutionResults results;
+	private List<String> targets;
+	private ScanHandle scanHandle;
 	
 	public LiderNmap4j(String path) {
 		super(path);
@@ -33,10 +44,37 @@ public class LiderNmap4j extends Nmap4j {
 	@Override
 	public void execute() throws NMapInitializationException,
 			NMapExecutionException {
-		nmapExecutor = new LiderNMapExecutor(flags, nmapProperties );
-		results = nmapExecutor.execute();
+		File targetFile = writeTargetFile();
+		try {
+			nmapExecutor = new LiderNMapExecutor(getExecutionFlags(targetFile), nmapProperties );
+			nmapExecutor.setScanHandle( scanHandle ) ;
+			results = nmapExecutor.execute();
+		} finally {
+			deleteTargetFile(targetFile);
+		}
 	}
 	
+	/**
+	 * Executes the nmap scan in streaming mode, passing the XML output to the
+	 * given consumer (e.g. {@link NmapHostParser}) while nmap is still
+	 * running.
+	 * 
+	 * @param consumer
+	 * @throws NMapInitializationException
+	 * @throws NMapExecutionException
+	 */
+	public void execute(IStreamConsumer consumer) throws NMapInitializationException,
+			NMapExecutionException {
+		File targetFile = writeTargetFile();
+		try {
+			nmapExecutor = new LiderNMapExecutor(getExecutionFlags(targetFile), nmapProperties );
+			nmapExecutor.setScanHandle( scanHandle ) ;
+			results = nmapExecutor.execute(consumer);
+		} finally {
+			deleteTargetFile(targetFile);
+		}
+	}
+
 	/**
 	 * Add the appropriate flags to your scan.  Call this method with all the 
 	 * flags you will want.  For example, if you want to scan for hosts, OS
@@ -66,6 +104,31 @@ public class LiderNmap4j extends Nmap4j {
 		flags.addIncludedHost( hosts ) ;
 	}
 		
+	/**
+	 * Add targets (addresses or nmap ranges) which need not be contiguous.
+	 * Targets are written to a temporary file which is passed to nmap via
+	 * "-iL", so the number of targets is not limited by the command line
+	 * length.
+	 * 
+	 * @param targets
+	 */
+	public void includeHosts( Collection<String> targets ) {
+		if( this.targets == null ) {
+			this.targets = new ArrayList<String>() ;
+		}
+		this.targets.addAll( targets ) ;
+	}
+
+	/**
+	 * Sets the handle of the scan which this execution belongs to, see
+	 * {@link ScanHandle}.
+	 * 
+	 * @param scanHandle
+	 */
+	public void setScanHandle( ScanHandle scanHandle ) {
+		this.scanHandle = scanHandle ;
+	}
+
 	/**
 	 * Add a list of space delimited hosts to exclude.  Usually this is used
 	 * when you specify a large included host list.  This allows you specify
@@ -121,6 +184,59 @@ public class LiderNmap4j extends Nmap4j {
 		return results ;
 	}
 
+	private File writeTargetFile() throws NMapExecutionException {
+		if( targets == null || targets.isEmpty() ) {
+			return null ;
+		}
+		File targetFile = null ;
+		try {
+			targetFile = File.createTempFile( "nmap-targets", ".txt" ) ;
+			BufferedWriter writer = new BufferedWriter( new OutputStreamWriter(
+					new FileOutputStream( targetFile ), "UTF-8" ) ) ;
+			try {
+				for( String target : targets ) {
+					writer.write( target ) ;
+					writer.write( "\n" ) ;
+				}
+			} finally {
+				writer.close() ;
+			}
+		} catch( IOException e ) {
+			deleteTargetFile( targetFile ) ;
+			throw new NMapExecutionException( "Could not write nmap target list: " + e.getMessage(), e ) ;
+		}
+		return targetFile ;
+	}
+
+	/**
+	 * Flags of a single execution, the target file is added to a copy so
+	 * that the flags can be reused by the next execution.
+	 * 
+	 * @param targetFile
+	 *            may be null if there is no target list
+	 * @return
+	 */
+	private ArgumentProperties getExecutionFlags( File targetFile ) {
+		ArgumentProperties executionFlags = new ArgumentProperties() ;
+		executionFlags.setFlagMap( new LinkedHashMap<String, String>( flags.getFlagMap() ) ) ;
+		for( String host : flags.getIncludedHosts() ) {
+			executionFlags.addIncludedHost( host ) ;
+		}
+		for( String host : flags.getExcludeHost() ) {
+			executionFlags.addExcludedHost( host ) ;
+		}
+		if( targetFile != null ) {
+			executionFlags.addFlag( "-iL " + targetFile.getAbsolutePath() ) ;
+		}
+		return executionFlags ;
+	}
+
+	private static void deleteTargetFile( File targetFile ) {
+		if( targetFile != null ) {
+			targetFile.delete() ;
+		}
+	}
+
 	public void useSudo(String sudoUser, String sudoUserPassword) {
 		nmapProperties.setSudoUser(sudoUser);
 		nmapProperties.setSudoUserPassword(sudoUserPassword);		
@@ -1,13 +1,13 @@
 package tr.org.liderahenk.network.inventory.utils.network;
 
 import java.io.IOException;
+import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.InterfaceAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -52,8 +52,21 @@ public class NetworkUtils {
 	 * @throws SocketException
 	 */
 	public static List<String> findIpAddresses() throws UnknownHostException, SocketException {
+		return findIpRangeSet().toList();
+	}
+
+	/**
+	 * Finds addresses of the networks to which the machine belongs, without
+	 * expanding them into a list. Subnets of different interfaces which
+	 * overlap are merged.
+	 * 
+	 * @return IP ranges of all network interfaces except loopback
+	 * @throws SocketException
+	 */
+	public static IpRangeSet findIpRangeSet() throws SocketException {
 
-		List<String> ipAddresses = new ArrayList<String>();
+		IpRangeSet ranges = new IpRangeSet();
+		long total = 0;
 
 		// Find all IP ranges of network interfaces belonging to the local
 		// machine.
@@ -66,22 +79,13 @@ public class NetworkUtils {
 			if (!iface.getName().contains("lo")) { // Consider only eth
 													// networks, skip localhost
 				for (InterfaceAddress ifaceAddress : iface.getInterfaceAddresses()) {
-					if (ifaceAddress.getNetworkPrefixLength() <= (short) 32) { // Supports
-																				// only
-																				// IPv4
-																				// at
-																				// the
-																				// moment,
-																				// So
-																				// max
-																				// mask
-																				// length
-																				// cannot
-																				// exceed
-																				// 32!
-						SubnetUtils subnet = new SubnetUtils(ifaceAddress.getAddress().getHostAddress() + "/"
-								+ ifaceAddress.getNetworkPrefixLength());
-						ipAddresses.addAll(Arrays.asList(subnet.getInfo().getAllAddresses()));
+					// Supports only IPv4 at the moment
+					if (ifaceAddress.getAddress() instanceof Inet4Address) {
+						IpRangeSet subnet = new IpRangeSet();
+						subnet.addSubnet(IpRangeSet.toInt(ifaceAddress.getAddress().getHostAddress()),
+								ifaceAddress.getNetworkPrefixLength());
+						total += subnet.size();
+						ranges.addAll(subnet);
 
 						logger.debug("iface {} has address {}/{}", new Object[] { iface.getName(),
 								ifaceAddress.getAddress(), ifaceAddress.getNetworkPrefixLength() });
@@ -90,9 +94,35 @@ public class NetworkUtils {
 			}
 		}
 
-		logger.info("IP addresses have been found. Returning results.");
+		logger.info("IP addresses have been found: {} ({} duplicate addresses merged)", ranges,
+				total - ranges.size());
+
+		return ranges;
+	}
 
-		return ipAddresses;
+	/**
+	 * Returns unique addresses to scan: the given IP range, or the networks to
+	 * which the machine belongs if no range is given, except the excluded
+	 * ranges. Overlapping networks (e.g. a bridge and its VLAN sub-interface)
+	 * are merged, so each address is scanned once.
+	 * 
+	 * @param ipRange
+	 *            IP ranges to scan, may be null
+	 * @param excludedRanges
+	 *            IP ranges which must not be scanned (e.g. managed or
+	 *            blacklisted networks), may be null
+	 * @return addresses to scan
+	 * @throws SocketException
+	 */
+	public static IpRangeSet findScanTargets(String ipRange, String excludedRanges) throws SocketException {
+		IpRangeSet targets = ipRange != null && !ipRange.trim().isEmpty() ? IpRangeSet.parse(ipRange)
+				: findIpRangeSet();
+		if (excludedRanges != null && !excludedRanges.trim().isEmpty()) {
+			long size = targets.size();
+			targets.removeAll(IpRangeSet.parse(excludedRanges));
+			logger.info("{} addresses are excluded from the scan.", size - targets.size());
+		}
+		return targets;
 	}
 
 	/**
@@ -152,13 +182,122 @@ public class NetworkUtils {
 		logger.debug("Scanning network with parameters IP range: {}, ports: {}, username: {}, timing template: {}",
 				new Object[] { ipRange, ports, sudoUsername, timingTemplate });
 
-		LiderNmap4j nmap = new LiderNmap4j(Constants.NMAP_CONFIG.NMAP_PATH);
+		LiderNmap4j nmap = createNmap(ports, sudoUsername, sudoPassword, timingTemplate, false);
 		nmap.includeHosts(ipRange);
 
+		nmap.execute();
+
+		if (!nmap.hasError()) {
+			NMapRun nmapRun = nmap.getResult();
+			logger.info("Finished scanning network. Returning results");
+			return nmapRun != null ? nmapRun.getHosts() : null;
+		} else {
+			logger.warn(nmap.getExecutionResults().getErrors());
+			return null;
+		}
+	}
+
+	/**
+	 * Scans network in streaming mode. Output of nmap is parsed while it is
+	 * read from the process and the listener is notified for each host as soon
+	 * as its element is closed, so that neither the raw XML nor the host list
+	 * is kept in memory.
+	 * 
+	 * @param targets
+	 *            addresses or nmap ranges, which are passed to nmap via a
+	 *            target list file (-iL) so they need not be contiguous
+	 * @param ports
+	 * @param sudoUsername
+	 * @param sudoPassword
+	 * @param timingTemplate
+	 * @param skipHostDiscovery
+	 *            if true, all given hosts are treated as online (-Pn). This
+	 *            should be used when hosts are already known to be up.
+	 * @param handle
+	 *            handle of the scan which kills nmap on cancel, may be null
+	 * @param listener
+	 * @return true if nmap finished without an error, false otherwise
+	 * @throws NMapInitializationException
+	 * @throws NMapExecutionException
+	 */
+	public static boolean scanNetwork(List<String> targets, String ports, String sudoUsername, String sudoPassword,
+			String timingTemplate, boolean skipHostDiscovery, ScanHandle handle, IScanResultListener listener)
+					throws NMapInitializationException, NMapExecutionException {
+
+		logger.debug("Scanning network with parameters target count: {}, ports: {}, username: {}, timing template: {}",
+				new Object[] { targets.size(), ports, sudoUsername, timingTemplate });
+
+		LiderNmap4j nmap = createNmap(ports, sudoUsername, sudoPassword, timingTemplate, skipHostDiscovery);
+		nmap.includeHosts(targets);
+		nmap.setScanHandle(handle);
+
+		return execute(nmap, listener);
+	}
+
+	/**
+	 * Performs host discovery only (ping/ARP scan, no port or OS scan) over
+	 * the given targets. This is much faster than a full scan and can be used
+	 * to find live hosts before scanning them in detail. Listener is notified
+	 * for each host (up or down) as soon as it is reported by nmap.
+	 * 
+	 * @param targets
+	 *            addresses or nmap ranges, which need not be contiguous
+	 * @param sudoUsername
+	 * @param sudoPassword
+	 * @param timingTemplate
+	 * @param handle
+	 *            handle of the scan which kills nmap on cancel, may be null
+	 * @param listener
+	 * @return true if nmap finished without an error, false otherwise
+	 * @throws NMapInitializationException
+	 * @throws NMapExecutionException
+	 */
+	public static boolean discoverHosts(List<String> targets, String sudoUsername, String sudoPassword,
+			String timingTemplate, ScanHandle handle, IScanResultListener listener)
+					throws NMapInitializationException, NMapExecutionException {
+
+		logger.debug("Discovering hosts with parameters target count: {}, username: {}, timing template: {}",
+				new Object[] { targets.size(), sudoUsername, timingTemplate });
+
+		LiderNmap4j nmap = new LiderNmap4j(Constants.NMAP_CONFIG.NMAP_PATH);
+		nmap.includeHosts(targets);
+		nmap.setScanHandle(handle);
+
+		StringBuilder flags = new StringBuilder(" -v -sn ");
+		if (sudoPassword != null && !sudoPassword.isEmpty()) {
+			// Privileged discovery uses ARP requests on local networks
+			nmap.useSudo(sudoUsername == null ? "root" : sudoUsername, sudoPassword);
+		}
+		appendTimingTemplate(flags, timingTemplate);
+		nmap.addFlags(flags.toString());
+
+		return execute(nmap, listener);
+	}
+
+	private static boolean execute(LiderNmap4j nmap, IScanResultListener listener)
+			throws NMapInitializationException, NMapExecutionException {
+
+		nmap.execute(new NmapHostParser(listener));
+
+		if (nmap.hasError()) {
+			logger.warn(nmap.getExecutionResults().getErrors());
+			return false;
+		}
+		logger.info("Finished scanning network.");
+		return true;
+	}
+
+	/**
+	 * Creates nmap with scan flags, targets should be added by the caller.
+	 */
+	private static LiderNmap4j createNmap(String ports, String sudoUsername, String sudoPassword,
+			String timingTemplate, boolean skipHostDiscovery) {
+
+		LiderNmap4j nmap = new LiderNmap4j(Constants.NMAP_CONFIG.NMAP_PATH);
+
 		// Build flags
 		StringBuilder flags = new StringBuilder(" -v ");
 		logger.debug("****Timing Template : " + timingTemplate);
-		logger.debug("****IP Sub Range : " + ipRange);
 		logger.debug("****Port Range : " + ports);
 		if (ports != null && !ports.isEmpty()) {
 			flags.append(" -p ").append(ports);
@@ -169,47 +308,36 @@ public class NetworkUtils {
 			nmap.useSudo(sudoUsername == null ? "root" : sudoUsername, sudoPassword);
 			flags.append(" -O --osscan-guess ");
 		}
-		if (timingTemplate != null && !timingTemplate.isEmpty()) {
-			flags.append(" -T").append(timingTemplate).append(" ");
-		} else {
-			flags.append(" -T3 ");
+		if (skipHostDiscovery) {
+			flags.append(" -Pn ");
 		}
+		appendTimingTemplate(flags, timingTemplate);
 		nmap.addFlags(flags.toString());
 
-		nmap.execute();
+		return nmap;
+	}
 
-		if (!nmap.hasError()) {
-			NMapRun nmapRun = nmap.getResult();
-			logger.info("Finished scanning network. Returning results");
-			return nmapRun != null ? nmapRun.getHosts() : null;
+	private static void appendTimingTemplate(StringBuilder flags, String timingTemplate) {
+		if (timingTemplate != null && !timingTemplate.isEmpty()) {
+			flags.append(" -T").append(timingTemplate).append(" ");
 		} else {
-			logger.warn(nmap.getExecutionResults().getErrors());
-			return null;
+			flags.append(" -T3 ");
 		}
 	}
 
+	/**
+	 * Expands the given IP range (e.g. 192.168.1.5-20) into a list of
+	 * addresses. Large ranges should be handled via
+	 * {@link IpRangeSet#parse(String)} instead.
+	 * 
+	 * @param ipRange
+	 * @return list of IP addresses
+	 */
 	public static List<String> convertToIpList(String ipRange) {
 		if (ipRange == null || ipRange.isEmpty()) {
 			return null;
 		}
-		String[] nums = ipRange.split("-");
-		List<String> ipList = new ArrayList<String>();
-		
-		if (nums.length == 1) {
-			ipList.add(nums[0]);
-		} else {
-			String firstIp = nums[0];
-			String lastIp = firstIp.substring(0, firstIp.lastIndexOf(".") + 1) + nums[1];
-			String currentIp = firstIp;
-			while (true) {
-				ipList.add(currentIp);
-				if (currentIp.equalsIgnoreCase(lastIp)) {
-					break;
-				}
-				currentIp = getNextIPV4Address(currentIp);
-			}
-		}
-		return ipList;
+		return IpRangeSet.parse(ipRange).toList();
 	}
 
 	public static String getNextIPV4Address(String ip) {
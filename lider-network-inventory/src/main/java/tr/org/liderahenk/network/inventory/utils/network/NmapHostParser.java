@@ -0,0 +1,189 @@
+package tr.org.liderahenk.network.inventory.utils.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import tr.org.liderahenk.network.inventory.contants.Constants;
+import tr.org.liderahenk.network.inventory.dto.ScanResultHostDto;
+
+/**
+ * Pull parser which reads nmap XML output and creates a
+ * {@link ScanResultHostDto} for each &lt;host&gt; element directly, without
+ * building the nmap4j object tree.
+ * <p>
+ * Only the elements kept by the inventory are read (status, addresses,
+ * hostname, open ports, OS matches, distance and uptime), other elements
+ * such as times and TCP sequences are skipped. Resulting fields are the same
+ * as the ones built by {@link NetworkUtils} helper methods from an nmap4j
+ * {@link org.nmap4j.data.nmaprun.Host}. Listener is notified as soon as the
+ * closing &lt;/host&gt; tag is read.
+ *
+ */
+public class NmapHostParser implements IStreamConsumer {
+
+	private static final XMLInputFactory factory = createFactory();
+
+	private final IScanResultListener listener;
+
+	// State of the host being parsed
+	private ScanResultHostDto host;
+	private final StringBuilder openPorts = new StringBuilder();
+	private boolean hasPorts;
+	private final StringBuilder osGuess = new StringBuilder();
+	private boolean hasOs;
+	private int osCount;
+
+	// State of the port being parsed
+	private String portId;
+	private String protocol;
+	private String portState;
+	private String service;
+
+	public NmapHostParser(IScanResultListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Parses the given stream until the end of the document.
+	 *
+	 * @param input
+	 * @throws IOException
+	 */
+	public void parse(InputStream input) throws IOException {
+		XMLStreamReader reader;
+		try {
+			synchronized (factory) {
+				reader = factory.createXMLStreamReader(input);
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+		try {
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					startElement(reader);
+				} else if (event == XMLStreamConstants.END_ELEMENT && host != null) {
+					endElement(reader.getLocalName());
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException(e.getMessage(), e);
+		} finally {
+			host = null;
+			try {
+				reader.close();
+			} catch (XMLStreamException e) {
+				// Underlying stream is closed by its owner
+			}
+		}
+	}
+
+	@Override
+	public void consume(InputStream in) throws IOException {
+		parse(in);
+	}
+
+	private void startElement(XMLStreamReader reader) {
+		String name = reader.getLocalName();
+		if ("host".equals(name)) {
+			host = new ScanResultHostDto();
+			hasPorts = false;
+			openPorts.setLength(0);
+			hasOs = false;
+			osGuess.setLength(0);
+			osCount = 0;
+			return;
+		}
+		if (host == null) {
+			return;
+		}
+		if ("status".equals(name)) {
+			host.setHostUp(NetworkUtils.HOST_UP.equalsIgnoreCase(reader.getAttributeValue(null, "state")));
+		} else if ("address".equals(name)) {
+			String type = reader.getAttributeValue(null, "addrtype");
+			if (NetworkUtils.IPV4.equalsIgnoreCase(type) && host.getIp() == null) {
+				host.setIp(reader.getAttributeValue(null, "addr"));
+			} else if (NetworkUtils.MAC.equalsIgnoreCase(type) && host.getMac() == null) {
+				host.setMac(reader.getAttributeValue(null, "addr"));
+				host.setVendor(reader.getAttributeValue(null, "vendor"));
+			}
+		} else if ("hostname".equals(name)) {
+			host.setHostname(reader.getAttributeValue(null, "name"));
+		} else if ("ports".equals(name)) {
+			hasPorts = true;
+		} else if ("port".equals(name)) {
+			portId = reader.getAttributeValue(null, "portid");
+			protocol = reader.getAttributeValue(null, "protocol");
+			portState = null;
+			service = null;
+		} else if ("state".equals(name)) {
+			portState = reader.getAttributeValue(null, "state");
+		} else if ("service".equals(name)) {
+			service = reader.getAttributeValue(null, "name");
+		} else if ("os".equals(name)) {
+			hasOs = true;
+		} else if ("osmatch".equals(name)) {
+			addOsMatch(reader.getAttributeValue(null, "accuracy"), reader.getAttributeValue(null, "name"));
+		} else if ("distance".equals(name)) {
+			Long distance = toLong(reader.getAttributeValue(null, "value"));
+			host.setDistance(distance != null ? distance + NetworkUtils.DISTANCE_UNIT : null);
+		} else if ("uptime".equals(name)) {
+			host.setUptime(reader.getAttributeValue(null, "lastboot"));
+		}
+	}
+
+	private void endElement(String name) {
+		if ("port".equals(name)) {
+			Long port = toLong(portId);
+			if (port != null && NetworkUtils.PORT_OPEN.equalsIgnoreCase(portState)) {
+				openPorts.append(port.longValue()).append("/").append(protocol).append(" ").append(service)
+						.append("\n");
+			}
+		} else if ("host".equals(name)) {
+			host.setOpenPorts(hasPorts ? openPorts.toString() : null);
+			host.setOsGuess(hasOs ? osGuess.toString() : null);
+			ScanResultHostDto parsed = host;
+			host = null;
+			listener.hostScanned(parsed);
+		}
+	}
+
+	private void addOsMatch(String accuracy, String name) {
+		if (accuracy == null || osCount >= Constants.NMAP_CONFIG.OS_LIMIT) {
+			return;
+		}
+		try {
+			if (Integer.parseInt(accuracy) > Constants.NMAP_CONFIG.OS_ACCURACY_THRESHOLD) {
+				osGuess.append("(%").append(accuracy).append(") ").append(name).append("\n");
+				osCount++;
+			}
+		} catch (NumberFormatException e) {
+			// Skip invalid accuracy
+		}
+	}
+
+	private static Long toLong(String value) {
+		try {
+			return value != null ? Long.valueOf(value) : null;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static XMLInputFactory createFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+		// nmap output has a DOCTYPE without any entity declarations
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+
+}
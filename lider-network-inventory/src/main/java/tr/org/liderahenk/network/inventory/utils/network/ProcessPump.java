@@ -0,0 +1,165 @@
+package tr.org.liderahenk.network.inventory.utils.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.TimerTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drains standard output and standard error of a process in parallel, so that
+ * the process never blocks on a full pipe buffer while the other stream is
+ * being read.
+ * <p>
+ * Standard output is passed to a consumer on the calling thread, standard
+ * error is read on a separate thread and at most maxErrorChars of it are
+ * kept. The process is destroyed by the {@link ProcessWatchdog} if it does not
+ * finish within the timeout.
+ *
+ */
+public class ProcessPump {
+
+	private static final Logger logger = LoggerFactory.getLogger(ProcessPump.class);
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Process process;
+	private final long timeout;
+	private final int maxErrorChars;
+
+	private final StringBuilder errors = new StringBuilder();
+	private volatile boolean timedOut = false;
+
+	public ProcessPump(Process process, long timeout, int maxErrorChars) {
+		this.process = process;
+		this.timeout = timeout;
+		this.maxErrorChars = maxErrorChars;
+	}
+
+	/**
+	 * Passes standard output to the consumer and returns after both streams
+	 * are closed (i.e. the process is finished or destroyed).
+	 * 
+	 * @param outputConsumer
+	 * @throws IOException
+	 *             if the output cannot be read, or
+	 *             {@link ProcessTimeoutException} if the process does not
+	 *             finish within the timeout
+	 */
+	public void run(IStreamConsumer outputConsumer) throws IOException {
+		long deadline = System.currentTimeMillis() + timeout;
+
+		TimerTask killTask = new TimerTask() {
+			@Override
+			public void run() {
+				timedOut = true;
+				logger.warn("Process did not finish in {} ms, destroying it.", timeout);
+				process.destroy();
+			}
+		};
+		ProcessWatchdog.getInstance().schedule(killTask, timeout);
+
+		Thread errorPump = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					read(process.getErrorStream(), errors, maxErrorChars);
+				} catch (IOException e) {
+					logger.debug("Error stream closed: {}", e.getMessage());
+				}
+			}
+		}, "process-stderr-pump");
+		errorPump.setDaemon(true);
+		errorPump.start();
+
+		boolean consumed = false;
+		try {
+			InputStream out = process.getInputStream();
+			outputConsumer.consume(out);
+			// Consumer may stop before the end of the stream (e.g. after the
+			// root element), remaining output is discarded
+			try {
+				read(out, null, 0);
+			} catch (IOException e) {
+				// Stream is already closed by the consumer
+			}
+			consumed = true;
+		} catch (IOException e) {
+			if (!timedOut) {
+				throw e;
+			}
+		} finally {
+			if (!consumed) {
+				// Do not wait for a process whose output is not read
+				process.destroy();
+			}
+			try {
+				errorPump.join(Math.max(deadline - System.currentTimeMillis(), 1));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			killTask.cancel();
+			ProcessWatchdog.getInstance().purge();
+			if (errorPump.isAlive()) {
+				// Error stream is held open by a child process
+				process.destroy();
+			}
+		}
+
+		if (timedOut) {
+			throw new ProcessTimeoutException("Process did not finish in " + timeout + " ms.");
+		}
+	}
+
+	public Process getProcess() {
+		return process;
+	}
+
+	/**
+	 * @return standard error of the process (truncated to maxErrorChars)
+	 */
+	public String getErrors() {
+		synchronized (errors) {
+			return errors.toString();
+		}
+	}
+
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * Reads the stream to its end, appending at most maxChars characters to
+	 * the builder. Characters after the limit are discarded.
+	 * 
+	 * @param in
+	 * @param builder
+	 *            may be null to discard the whole stream
+	 * @param maxChars
+	 * @return true if some characters were discarded
+	 * @throws IOException
+	 */
+	public static boolean read(InputStream in, StringBuilder builder, int maxChars) throws IOException {
+		Reader reader = new InputStreamReader(in, "UTF-8");
+		char[] buf = new char[BUFFER_SIZE];
+		boolean truncated = false;
+		int len;
+		while ((len = reader.read(buf)) != -1) {
+			if (builder == null) {
+				continue;
+			}
+			synchronized (builder) {
+				int remaining = maxChars - builder.length();
+				if (remaining > 0) {
+					builder.append(buf, 0, Math.min(len, remaining));
+				}
+				truncated |= len > remaining;
+			}
+		}
+		return truncated;
+	}
+
+}
@@ -0,0 +1,17 @@
+package tr.org.liderahenk.network.inventory.utils.network;
+
+import java.io.IOException;
+
+/**
+ * Thrown if a process does not finish within its timeout and is destroyed.
+ *
+ */
+public class ProcessTimeoutException extends IOException {
+
+	private static final long serialVersionUID = -4270185512623493658L;
+
+	public ProcessTimeoutException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,59 @@
+package tr.org.liderahenk.network.inventory.utils.network;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Owns the timer thread which destroys processes that do not finish in time,
+ * see {@link ProcessPump}. The thread is started on first use and stopped
+ * when the bundle is stopped.
+ *
+ */
+public class ProcessWatchdog {
+
+	private static ProcessWatchdog instance;
+
+	private Timer timer;
+
+	public static synchronized ProcessWatchdog getInstance() {
+		if (instance == null) {
+			instance = new ProcessWatchdog();
+		}
+		return instance;
+	}
+
+	/**
+	 * Runs the task once after the delay.
+	 *
+	 * @param task
+	 * @param delay
+	 *            delay in milliseconds
+	 */
+	public synchronized void schedule(TimerTask task, long delay) {
+		if (timer == null) {
+			timer = new Timer("process-watchdog", true);
+		}
+		timer.schedule(task, delay);
+	}
+
+	/**
+	 * Removes cancelled tasks from the timer.
+	 */
+	public synchronized void purge() {
+		if (timer != null) {
+			timer.purge();
+		}
+	}
+
+	/**
+	 * Stops the timer thread, pending tasks are discarded. It is called when
+	 * the bundle is stopped.
+	 */
+	public synchronized void close() {
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+	}
+
+}
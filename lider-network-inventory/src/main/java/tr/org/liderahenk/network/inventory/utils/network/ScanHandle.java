@@ -0,0 +1,146 @@
+package tr.org.liderahenk.network.inventory.utils.network;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tr.org.liderahenk.network.inventory.utils.job.ICancellable;
+import tr.org.liderahenk.network.inventory.utils.scheduler.WorkScheduler;
+
+/**
+ * Controls the nmap processes of a single network scan. Each process is
+ * limited by the chunk timeout and the deadline of the whole scan, and all
+ * running processes are destroyed when the scan is cancelled (or its deadline
+ * is passed), so that no nmap process outlives its scan.
+ * <p>
+ * Units which time out are scheduled again through the handle, targets which
+ * time out on their own are recorded as skipped.
+ *
+ */
+public class ScanHandle implements ICancellable {
+
+	private static final Logger logger = LoggerFactory.getLogger(ScanHandle.class);
+
+	private final WorkScheduler scheduler;
+	private final long chunkTimeout;
+	private final long deadline;
+
+	private final Set<Process> processes = new HashSet<Process>();
+	private final List<String> skipped = new ArrayList<String>();
+	private volatile boolean cancelled = false;
+
+	/**
+	 * @param scheduler
+	 *            scheduler which executes the units of the scan
+	 * @param chunkTimeout
+	 *            timeout of a single nmap process (ms)
+	 * @param timeout
+	 *            timeout of the whole scan (ms)
+	 */
+	public ScanHandle(WorkScheduler scheduler, long chunkTimeout, long timeout) {
+		this.scheduler = scheduler;
+		this.chunkTimeout = chunkTimeout;
+		this.deadline = System.currentTimeMillis() + timeout;
+	}
+
+	/**
+	 * @return timeout for a process started now, zero or negative if the
+	 *         deadline of the scan is passed
+	 */
+	public long getProcessTimeout() {
+		return Math.min(chunkTimeout, deadline - System.currentTimeMillis());
+	}
+
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Schedules a unit again (e.g. a half of a timed out unit) unless the scan
+	 * is cancelled or its deadline is passed.
+	 *
+	 * @param unit
+	 * @return true if the unit is scheduled
+	 */
+	public boolean schedule(Runnable unit) {
+		if (cancelled || getProcessTimeout() <= 0) {
+			return false;
+		}
+		try {
+			scheduler.schedule(unit);
+			return true;
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Registers a started process so that it can be destroyed on cancel.
+	 *
+	 * @param process
+	 * @return false if the scan is already cancelled, the process is destroyed
+	 *         in that case
+	 */
+	public boolean register(Process process) {
+		synchronized (processes) {
+			if (!cancelled) {
+				processes.add(process);
+				return true;
+			}
+		}
+		process.destroy();
+		return false;
+	}
+
+	public void unregister(Process process) {
+		synchronized (processes) {
+			processes.remove(process);
+		}
+	}
+
+	/**
+	 * Destroys all running processes, processes are not started after this
+	 * call.
+	 */
+	@Override
+	public void cancel() {
+		List<Process> running;
+		synchronized (processes) {
+			cancelled = true;
+			running = new ArrayList<Process>(processes);
+			processes.clear();
+		}
+		if (!running.isEmpty()) {
+			logger.info("Destroying {} running nmap processes.", running.size());
+		}
+		for (Process process : running) {
+			process.destroy();
+		}
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public void addSkipped(Collection<String> targets) {
+		synchronized (skipped) {
+			skipped.addAll(targets);
+		}
+	}
+
+	/**
+	 * @return targets which are not scanned since they timed out
+	 */
+	public List<String> getSkipped() {
+		synchronized (skipped) {
+			return new ArrayList<String>(skipped);
+		}
+	}
+
+}
@@ -0,0 +1,99 @@
+package tr.org.liderahenk.network.inventory.utils.network;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import tr.org.liderahenk.network.inventory.contants.Constants;
+
+/**
+ * Keeps hosts which were found up by previous scans and their number of open
+ * ports, so that the next scan can pack its units by expected cost instead of
+ * by address adjacency: known hosts are discovered in larger units and deep
+ * scan batches are sized by the number of ports expected to be probed.
+ * <p>
+ * Only the most recently scanned {@link Constants.NMAP_CONFIG#SCAN_HISTORY_SIZE}
+ * hosts are kept.
+ *
+ */
+public class ScanHistory {
+
+	private static ScanHistory instance;
+
+	private final Map<Integer, Integer> openPortCounts;
+
+	public static synchronized ScanHistory getInstance() {
+		if (instance == null) {
+			instance = new ScanHistory(Constants.NMAP_CONFIG.SCAN_HISTORY_SIZE);
+		}
+		return instance;
+	}
+
+	public ScanHistory(final int maxSize) {
+		openPortCounts = new LinkedHashMap<Integer, Integer>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Records a host which is up.
+	 *
+	 * @param ip
+	 * @param openPorts
+	 *            open ports as reported by
+	 *            {@link NetworkUtils#getOpenPorts(org.nmap4j.data.nmaprun.Host)},
+	 *            may be null
+	 */
+	public synchronized void hostScanned(String ip, String openPorts) {
+		int count = 0;
+		if (openPorts != null) {
+			for (String port : openPorts.split("\n")) {
+				if (!port.trim().isEmpty()) {
+					count++;
+				}
+			}
+		}
+		openPortCounts.put(IpRangeSet.toInt(ip), count);
+	}
+
+	/**
+	 * Forgets a host which is no longer up.
+	 *
+	 * @param ip
+	 */
+	public synchronized void hostDown(String ip) {
+		openPortCounts.remove(IpRangeSet.toInt(ip));
+	}
+
+	/**
+	 * @param ip
+	 * @return expected cost of a deep scan on the given host
+	 */
+	public synchronized int getCost(String ip) {
+		Integer count = openPortCounts.get(IpRangeSet.toInt(ip));
+		return count != null ? 1 + count : Constants.NMAP_CONFIG.UNKNOWN_HOST_COST;
+	}
+
+	/**
+	 * @param targets
+	 * @return addresses among the targets which were up in a previous scan
+	 */
+	public synchronized IpRangeSet findKnownHosts(IpRangeSet targets) {
+		IpRangeSet known = new IpRangeSet();
+		for (Integer address : openPortCounts.keySet()) {
+			if (targets.contains(address.intValue())) {
+				known.add(address, address);
+			}
+		}
+		return known;
+	}
+
+	public synchronized int size() {
+		return openPortCounts.size();
+	}
+
+}
@@ -0,0 +1,113 @@
+package tr.org.liderahenk.network.inventory.utils.persistence;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import tr.org.liderahenk.network.inventory.entities.ScanResultHost;
+import tr.org.liderahenk.network.inventory.entities.ScanResultHostOs;
+import tr.org.liderahenk.network.inventory.entities.ScanResultHostPort;
+import tr.org.liderahenk.network.inventory.utils.network.NetworkUtils;
+
+/**
+ * Creates port and OS rows of a scanned host from its open ports (e.g.
+ * "22/tcp ssh") and OS guess (e.g. "(%95) Linux 3.2 - 4.0") lines, which are
+ * built by {@link NetworkUtils#getOpenPorts(org.nmap4j.data.nmaprun.Host)},
+ * {@link NetworkUtils#getOsGuess(org.nmap4j.data.nmaprun.Host)} and connect
+ * scan.
+ *
+ */
+public class HostDetailParser {
+
+	private static final Pattern OS_PATTERN = Pattern.compile("^\\(%(\\d{1,3})\\)\\s*(.*)$");
+
+	private static final int MAX_NAME_LENGTH = 255;
+
+	private HostDetailParser() {
+	}
+
+	/**
+	 * Sets port and OS rows of the host unless they are already set.
+	 *
+	 * @param host
+	 */
+	public static void fill(ScanResultHost host) {
+		if (host.getPorts() == null || host.getPorts().isEmpty()) {
+			host.setPorts(parsePorts(host));
+		}
+		if (host.getOsMatches() == null || host.getOsMatches().isEmpty()) {
+			host.setOsMatches(parseOsMatches(host));
+		}
+	}
+
+	/**
+	 * @param host
+	 * @return a port row for each valid line of open ports of the host
+	 */
+	public static List<ScanResultHostPort> parsePorts(ScanResultHost host) {
+		List<ScanResultHostPort> ports = new ArrayList<ScanResultHostPort>();
+		if (host.getOpenPorts() == null) {
+			return ports;
+		}
+		Set<String> seen = new HashSet<String>();
+		for (String line : host.getOpenPorts().split("\n")) {
+			line = line.trim();
+			int space = line.indexOf(' ');
+			String portStr = space < 0 ? line : line.substring(0, space);
+			int slash = portStr.indexOf('/');
+			if (slash <= 0 || slash == portStr.length() - 1) {
+				continue;
+			}
+			Integer port;
+			try {
+				port = Integer.valueOf(portStr.substring(0, slash));
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			String protocol = portStr.substring(slash + 1).toLowerCase();
+			// A port is stored once per protocol
+			if (!seen.add(port + "/" + protocol)) {
+				continue;
+			}
+			String service = space < 0 ? null : truncate(line.substring(space + 1).trim());
+			if (service != null && (service.isEmpty() || "null".equals(service))) {
+				service = null;
+			}
+			ports.add(new ScanResultHostPort(null, host, port, protocol, service, NetworkUtils.PORT_OPEN));
+		}
+		return ports;
+	}
+
+	/**
+	 * @param host
+	 * @return an OS row for each line of OS guess of the host
+	 */
+	public static List<ScanResultHostOs> parseOsMatches(ScanResultHost host) {
+		List<ScanResultHostOs> osMatches = new ArrayList<ScanResultHostOs>();
+		if (host.getOsGuess() == null) {
+			return osMatches;
+		}
+		for (String line : host.getOsGuess().split("\n")) {
+			line = line.trim();
+			if (line.isEmpty()) {
+				continue;
+			}
+			Matcher matcher = OS_PATTERN.matcher(line);
+			if (matcher.matches()) {
+				osMatches.add(new ScanResultHostOs(null, host, truncate(matcher.group(2)),
+						Integer.valueOf(matcher.group(1))));
+			} else {
+				osMatches.add(new ScanResultHostOs(null, host, truncate(line), null));
+			}
+		}
+		return osMatches;
+	}
+
+	private static String truncate(String str) {
+		return str.length() > MAX_NAME_LENGTH ? str.substring(0, MAX_NAME_LENGTH) : str;
+	}
+
+}
@@ -0,0 +1,163 @@
+package tr.org.liderahenk.network.inventory.utils.persistence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import tr.org.liderahenk.network.inventory.contants.Constants;
+
+/**
+ * Page, projection and filter parameters of a scan result host query.
+ * <p>
+ * Hosts are ordered by their IDs. A page either starts after the last host ID
+ * of the previous page (keyset pagination, preferred for large results) or
+ * skips given number of hosts (offset pagination).
+ *
+ */
+public class ScanResultHostQuery {
+
+	/**
+	 * Host fields which can be projected, named as in
+	 * {@link tr.org.liderahenk.network.inventory.dto.ScanResultHostDto}
+	 */
+	public static final List<String> FIELDS = Arrays.asList("hostname", "ip", "hostUp", "openPorts", "osGuess",
+			"distance", "uptime", "mac", "vendor");
+
+	private Integer afterId;
+	private Integer offset;
+	private Integer limit;
+	private List<String> fields = FIELDS;
+	private boolean upOnly;
+	private Integer port;
+	private String vendor;
+
+	/**
+	 * Creates a query from command parameters: afterId, offset, limit, fields
+	 * (list or comma separated), upOnly, port and vendor. Missing parameters
+	 * select all hosts with all fields.
+	 *
+	 * @param parameterMap
+	 * @return
+	 */
+	public static ScanResultHostQuery fromParameters(Map<String, Object> parameterMap) {
+		ScanResultHostQuery query = new ScanResultHostQuery();
+		query.setAfterId(toInteger(parameterMap.get("afterId")));
+		query.setOffset(toInteger(parameterMap.get("offset")));
+		query.setLimit(toInteger(parameterMap.get("limit")));
+		query.setFields(toList(parameterMap.get("fields")));
+		query.setUpOnly(Boolean.TRUE.equals(parameterMap.get("upOnly"))
+				|| "true".equalsIgnoreCase(String.valueOf(parameterMap.get("upOnly"))));
+		query.setPort(toInteger(parameterMap.get("port")));
+		Object vendor = parameterMap.get("vendor");
+		query.setVendor(vendor != null && !vendor.toString().trim().isEmpty() ? vendor.toString().trim() : null);
+		return query;
+	}
+
+	/**
+	 * @return true if the hosts are requested page by page
+	 */
+	public boolean isPaged() {
+		return limit != null;
+	}
+
+	public Integer getAfterId() {
+		return afterId;
+	}
+
+	public void setAfterId(Integer afterId) {
+		this.afterId = afterId;
+	}
+
+	public Integer getOffset() {
+		return offset;
+	}
+
+	public void setOffset(Integer offset) {
+		this.offset = offset != null && offset > 0 ? offset : null;
+	}
+
+	public Integer getLimit() {
+		return limit;
+	}
+
+	public void setLimit(Integer limit) {
+		this.limit = limit != null && limit > 0 ? Math.min(limit, Constants.SCAN_RESULT_CONFIG.MAX_PAGE_SIZE) : null;
+	}
+
+	public List<String> getFields() {
+		return fields;
+	}
+
+	/**
+	 * Sets projected fields, unknown fields are ignored. All fields are
+	 * selected if none of the given fields is known.
+	 *
+	 * @param fields
+	 */
+	public void setFields(Collection<String> fields) {
+		List<String> selected = new ArrayList<String>();
+		if (fields != null) {
+			for (String field : FIELDS) {
+				if (fields.contains(field)) {
+					selected.add(field);
+				}
+			}
+		}
+		this.fields = selected.isEmpty() ? FIELDS : selected;
+	}
+
+	public boolean isUpOnly() {
+		return upOnly;
+	}
+
+	public void setUpOnly(boolean upOnly) {
+		this.upOnly = upOnly;
+	}
+
+	public Integer getPort() {
+		return port;
+	}
+
+	public void setPort(Integer port) {
+		this.port = port;
+	}
+
+	public String getVendor() {
+		return vendor;
+	}
+
+	public void setVendor(String vendor) {
+		this.vendor = vendor;
+	}
+
+	private static Integer toInteger(Object value) {
+		if (value instanceof Number) {
+			return ((Number) value).intValue();
+		}
+		if (value != null && !value.toString().trim().isEmpty()) {
+			try {
+				return Integer.valueOf(value.toString().trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid number: " + value);
+			}
+		}
+		return null;
+	}
+
+	private static List<String> toList(Object value) {
+		List<String> list = new ArrayList<String>();
+		if (value instanceof Collection) {
+			for (Object item : (Collection<?>) value) {
+				list.add(String.valueOf(item).trim());
+			}
+		} else if (value != null) {
+			for (String item : value.toString().split(",")) {
+				list.add(item.trim());
+			}
+		}
+		return list;
+	}
+
+}
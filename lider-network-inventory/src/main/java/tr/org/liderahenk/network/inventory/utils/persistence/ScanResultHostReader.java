@@ -0,0 +1,301 @@
+package tr.org.liderahenk.network.inventory.utils.persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Query;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tr.org.liderahenk.lider.core.api.persistence.IPluginDbService;
+import tr.org.liderahenk.network.inventory.dto.ScanResultHostDto;
+import tr.org.liderahenk.network.inventory.entities.ScanResult;
+import tr.org.liderahenk.network.inventory.entities.ScanResultHost;
+import tr.org.liderahenk.network.inventory.entities.ScanResultHostPort;
+import tr.org.liderahenk.network.inventory.utils.network.IScanResultListener;
+
+/**
+ * Reads hosts of a scan result page by page.
+ * <p>
+ * If an entity manager factory managing {@link ScanResultHost} is available,
+ * filters, ordering and paging are done by the database and only the
+ * projected columns are selected (e.g. OPEN_PORTS is not read unless
+ * requested). Otherwise hosts are read via {@link IPluginDbService} and
+ * filtered in memory, which loads every host of the scan result. Since
+ * {@link IPluginDbService} cannot select a page, paged queries are rejected in
+ * that case instead of loading a large result for each page.
+ *
+ */
+public class ScanResultHostReader {
+
+	private static final Logger logger = LoggerFactory.getLogger(ScanResultHostReader.class);
+
+	private final IPluginDbService pluginDbService;
+	private final List<EntityManagerFactory> entityManagerFactories;
+
+	public ScanResultHostReader(IPluginDbService pluginDbService, List<EntityManagerFactory> entityManagerFactories) {
+		this.pluginDbService = pluginDbService;
+		this.entityManagerFactories = entityManagerFactories;
+	}
+
+	/**
+	 * @param scanResult
+	 * @param query
+	 * @return hosts of the scan result matching the query
+	 */
+	public Page read(ScanResult scanResult, ScanResultHostQuery query) {
+		final List<ScanResultHostDto> hosts = new ArrayList<ScanResultHostDto>();
+		Page page = read(scanResult, query, new IScanResultListener() {
+			@Override
+			public void hostScanned(ScanResultHostDto host) {
+				hosts.add(host);
+			}
+		});
+		return new Page(hosts, page.getLastId(), page.hasMore());
+	}
+
+	/**
+	 * Passes the hosts of the scan result matching the query to the listener
+	 * one by one, so that they can be written without collecting them.
+	 *
+	 * @param scanResult
+	 * @param query
+	 * @param listener
+	 * @return page without hosts
+	 */
+	public Page read(ScanResult scanResult, ScanResultHostQuery query, IScanResultListener listener) {
+		EntityManagerFactory factory = findFactory(entityManagerFactories);
+		List<Object[]> rows = factory != null ? select(factory, scanResult, query) : filter(scanResult, query);
+
+		boolean hasMore = query.isPaged() && rows.size() > query.getLimit();
+		if (hasMore) {
+			rows = rows.subList(0, query.getLimit());
+		}
+		for (Object[] row : rows) {
+			listener.hostScanned(toDto(query.getFields(), row));
+		}
+		Integer lastId = rows.isEmpty() ? query.getAfterId() : (Integer) rows.get(rows.size() - 1)[0];
+		return new Page(new ArrayList<ScanResultHostDto>(0), lastId, hasMore);
+	}
+
+	/**
+	 * Selects ID and projected fields of the matching hosts. One more row than
+	 * the limit is selected to find out if there are more pages.
+	 */
+	private List<Object[]> select(EntityManagerFactory factory, ScanResult scanResult, ScanResultHostQuery query) {
+		StringBuilder jpql = new StringBuilder("SELECT h.id");
+		for (String field : query.getFields()) {
+			jpql.append(", h.").append(field);
+		}
+		jpql.append(" FROM ").append(ScanResultHost.class.getSimpleName())
+				.append(" h WHERE h.scanResult.id = :scanResultId");
+		if (query.getAfterId() != null) {
+			jpql.append(" AND h.id > :afterId");
+		}
+		if (query.isUpOnly()) {
+			jpql.append(" AND h.hostUp = TRUE");
+		}
+		if (query.getVendor() != null) {
+			jpql.append(" AND LOWER(h.vendor) LIKE :vendor");
+		}
+		if (query.getPort() != null) {
+			jpql.append(" AND EXISTS (SELECT p.id FROM ").append(ScanResultHostPort.class.getSimpleName())
+					.append(" p WHERE p.host = h AND p.port = :port)");
+		}
+		jpql.append(" ORDER BY h.id");
+
+		EntityManager entityManager = factory.createEntityManager();
+		try {
+			Query q = entityManager.createQuery(jpql.toString());
+			q.setParameter("scanResultId", scanResult.getId());
+			if (query.getAfterId() != null) {
+				q.setParameter("afterId", query.getAfterId());
+			} else if (query.getOffset() != null) {
+				q.setFirstResult(query.getOffset());
+			}
+			if (query.getVendor() != null) {
+				q.setParameter("vendor", "%" + query.getVendor().toLowerCase() + "%");
+			}
+			if (query.getPort() != null) {
+				q.setParameter("port", query.getPort());
+			}
+			if (query.isPaged()) {
+				q.setMaxResults(query.getLimit() + 1);
+			}
+			@SuppressWarnings("unchecked")
+			List<Object[]> rows = q.getResultList();
+			return rows;
+		} finally {
+			entityManager.close();
+		}
+	}
+
+	/**
+	 * Filters hosts in memory, used if no entity manager factory is available.
+	 *
+	 * @throws IllegalStateException
+	 *             if the query is paged
+	 */
+	private List<Object[]> filter(ScanResult scanResult, ScanResultHostQuery query) {
+		if (query.isPaged() || query.getAfterId() != null || query.getOffset() != null) {
+			throw new IllegalStateException(
+					"Scan result hosts cannot be read page by page, no entity manager factory is available.");
+		}
+		List<ScanResultHost> hosts = pluginDbService.findByProperty(ScanResultHost.class, "scanResult", scanResult,
+				null);
+		Collections.sort(hosts, new Comparator<ScanResultHost>() {
+			@Override
+			public int compare(ScanResultHost h1, ScanResultHost h2) {
+				return h1.getId().compareTo(h2.getId());
+			}
+		});
+
+		List<Object[]> rows = new ArrayList<Object[]>();
+		for (ScanResultHost host : hosts) {
+			if (!matches(host, query)) {
+				continue;
+			}
+			Object[] row = new Object[query.getFields().size() + 1];
+			row[0] = host.getId();
+			for (int i = 0; i < query.getFields().size(); i++) {
+				row[i + 1] = getValue(host, query.getFields().get(i));
+			}
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	private static boolean matches(ScanResultHost host, ScanResultHostQuery query) {
+		if (query.isUpOnly() && !host.isHostUp()) {
+			return false;
+		}
+		if (query.getVendor() != null && (host.getVendor() == null
+				|| !host.getVendor().toLowerCase().contains(query.getVendor().toLowerCase()))) {
+			return false;
+		}
+		if (query.getPort() != null) {
+			for (ScanResultHostPort port : HostDetailParser.parsePorts(host)) {
+				if (query.getPort().equals(port.getPort())) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return true;
+	}
+
+	private static Object getValue(ScanResultHost host, String field) {
+		if ("hostname".equals(field)) {
+			return host.getHostname();
+		} else if ("ip".equals(field)) {
+			return host.getIp();
+		} else if ("hostUp".equals(field)) {
+			return host.isHostUp();
+		} else if ("openPorts".equals(field)) {
+			return host.getOpenPorts();
+		} else if ("osGuess".equals(field)) {
+			return host.getOsGuess();
+		} else if ("distance".equals(field)) {
+			return host.getDistance();
+		} else if ("uptime".equals(field)) {
+			return host.getUptime();
+		} else if ("mac".equals(field)) {
+			return host.getMac();
+		} else if ("vendor".equals(field)) {
+			return host.getVendor();
+		}
+		return null;
+	}
+
+	private static ScanResultHostDto toDto(List<String> fields, Object[] row) {
+		ScanResultHostDto dto = new ScanResultHostDto();
+		for (int i = 0; i < fields.size(); i++) {
+			String field = fields.get(i);
+			Object value = row[i + 1];
+			if ("hostname".equals(field)) {
+				dto.setHostname((String) value);
+			} else if ("ip".equals(field)) {
+				dto.setIp((String) value);
+			} else if ("hostUp".equals(field)) {
+				dto.setHostUp(Boolean.TRUE.equals(value));
+			} else if ("openPorts".equals(field)) {
+				dto.setOpenPorts((String) value);
+			} else if ("osGuess".equals(field)) {
+				dto.setOsGuess((String) value);
+			} else if ("distance".equals(field)) {
+				dto.setDistance((String) value);
+			} else if ("uptime".equals(field)) {
+				dto.setUptime((String) value);
+			} else if ("mac".equals(field)) {
+				dto.setMac((String) value);
+			} else if ("vendor".equals(field)) {
+				dto.setVendor((String) value);
+			}
+		}
+		return dto;
+	}
+
+	/**
+	 * @param entityManagerFactories
+	 *            may be null
+	 * @return factory which manages scan result hosts, or null if there is no
+	 *         such factory
+	 */
+	static EntityManagerFactory findFactory(List<EntityManagerFactory> entityManagerFactories) {
+		if (entityManagerFactories == null) {
+			return null;
+		}
+		try {
+			for (EntityManagerFactory factory : entityManagerFactories) {
+				try {
+					factory.getMetamodel().entity(ScanResultHost.class);
+					return factory;
+				} catch (IllegalArgumentException e) {
+					// Persistence unit does not manage scan results
+				}
+			}
+		} catch (RuntimeException e) {
+			logger.warn("Could not get entity manager factory: {}", e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * A page of scan result hosts
+	 */
+	public static class Page {
+
+		private final List<ScanResultHostDto> hosts;
+		private final Integer lastId;
+		private final boolean hasMore;
+
+		public Page(List<ScanResultHostDto> hosts, Integer lastId, boolean hasMore) {
+			this.hosts = hosts;
+			this.lastId = lastId;
+			this.hasMore = hasMore;
+		}
+
+		public List<ScanResultHostDto> getHosts() {
+			return hosts;
+		}
+
+		/**
+		 * @return ID of the last host of the page, to be used as afterId of
+		 *         the next page
+		 */
+		public Integer getLastId() {
+			return lastId;
+		}
+
+		public boolean hasMore() {
+			return hasMore;
+		}
+
+	}
+
+}
@@ -0,0 +1,286 @@
+package tr.org.liderahenk.network.inventory.utils.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tr.org.liderahenk.lider.core.api.persistence.IPluginDbService;
+import tr.org.liderahenk.network.inventory.contants.Constants;
+import tr.org.liderahenk.network.inventory.entities.ScanResult;
+import tr.org.liderahenk.network.inventory.entities.ScanResultHost;
+import tr.org.liderahenk.network.inventory.entities.ScanResultHostOs;
+import tr.org.liderahenk.network.inventory.entities.ScanResultHostPort;
+
+/**
+ * Saves hosts of a scan result while the scan is still running, instead of
+ * saving the whole result with a single cascade at the end.
+ * <p>
+ * The scan result record is saved first (without hosts), then hosts are
+ * queued and saved by a writer thread in batches of
+ * {@link Constants.SCAN_RESULT_CONFIG#HOST_BATCH_SIZE}, or after
+ * {@link Constants.SCAN_RESULT_CONFIG#FLUSH_INTERVAL} ms if a batch is not
+ * filled. If an entity manager factory which manages scan result hosts is
+ * available, each batch is persisted in a single transaction and the
+ * persistence context is cleared after it. Otherwise (or if the batch fails)
+ * hosts of the batch are saved one by one via {@link IPluginDbService}. Port
+ * and OS rows of each host are created by {@link HostDetailParser} on the
+ * writer thread and saved together with the host.
+ * <p>
+ * Saved hosts are not referenced by the writer or the scan result entity,
+ * and the queue is bounded, so the writer itself does not hold more than
+ * {@link Constants.SCAN_RESULT_CONFIG#QUEUED_BATCHES} + 1 batches. These hosts
+ * (up to 250 with the default configuration) are lost if Lider stops during a
+ * scan. Note that the scan command keeps its own copy of every host in the
+ * result returned to Lider Console.
+ *
+ */
+public class ScanResultWriter {
+
+	private static final Logger logger = LoggerFactory.getLogger(ScanResultWriter.class);
+
+	/**
+	 * Queued by {@link #close()} to stop the writer thread
+	 */
+	private static final ScanResultHost END = new ScanResultHost();
+
+	private final IPluginDbService pluginDbService;
+	private final List<EntityManagerFactory> entityManagerFactories;
+	private final ScanResult scanResult;
+	private final int batchSize;
+	private final BlockingQueue<ScanResultHost> queue;
+
+	private EntityManagerFactory entityManagerFactory;
+	private Thread writer;
+	private volatile boolean closed = false;
+	private final AtomicInteger savedCount = new AtomicInteger();
+	private final AtomicInteger failedCount = new AtomicInteger();
+
+	public ScanResultWriter(IPluginDbService pluginDbService, ScanResult scanResult) {
+		this(pluginDbService, null, scanResult, Constants.SCAN_RESULT_CONFIG.HOST_BATCH_SIZE);
+	}
+
+	public ScanResultWriter(IPluginDbService pluginDbService, ScanResult scanResult, int batchSize) {
+		this(pluginDbService, null, scanResult, batchSize);
+	}
+
+	/**
+	 * @param pluginDbService
+	 * @param entityManagerFactories
+	 *            used to persist batches in a single transaction, may be null
+	 * @param scanResult
+	 * @param batchSize
+	 */
+	public ScanResultWriter(IPluginDbService pluginDbService, List<EntityManagerFactory> entityManagerFactories,
+			ScanResult scanResult, int batchSize) {
+		this.pluginDbService = pluginDbService;
+		this.entityManagerFactories = entityManagerFactories;
+		this.scanResult = scanResult;
+		this.batchSize = batchSize;
+		this.queue = new LinkedBlockingQueue<ScanResultHost>(batchSize * Constants.SCAN_RESULT_CONFIG.QUEUED_BATCHES);
+	}
+
+	/**
+	 * Saves the scan result record and starts the writer thread.
+	 */
+	public synchronized void open() {
+		if (scanResult.getHosts() == null) {
+			scanResult.setHosts(new ArrayList<ScanResultHost>(0));
+		}
+		pluginDbService.save(scanResult);
+		entityManagerFactory = ScanResultHostReader.findFactory(entityManagerFactories);
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		}, "scan-result-writer-" + scanResult.getId());
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Queues a host to be saved. Blocks if the writer falls behind by more
+	 * than {@link Constants.SCAN_RESULT_CONFIG#QUEUED_BATCHES} batches.
+	 *
+	 * @param host
+	 */
+	public void add(ScanResultHost host) {
+		if (closed) {
+			throw new IllegalStateException("Scan result writer is closed.");
+		}
+		host.setScanResult(scanResult);
+		try {
+			queue.put(host);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			// Host is saved at once instead of being lost
+			save(host);
+		}
+	}
+
+	/**
+	 * Saves the remaining hosts and stops the writer thread.
+	 */
+	public void close() {
+		Thread current;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			current = writer;
+		}
+		if (current == null) {
+			return;
+		}
+		try {
+			queue.put(END);
+			current.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		// Hosts which are added while closing
+		List<ScanResultHost> remaining = new ArrayList<ScanResultHost>();
+		queue.drainTo(remaining);
+		for (ScanResultHost host : remaining) {
+			if (host != END) {
+				save(host);
+			}
+		}
+		logger.info("Saved {} hosts of scan result: {}, failed: {}",
+				new Object[] { savedCount.get(), scanResult.getId(), failedCount.get() });
+	}
+
+	public ScanResult getScanResult() {
+		return scanResult;
+	}
+
+	public int getSavedCount() {
+		return savedCount.get();
+	}
+
+	public int getFailedCount() {
+		return failedCount.get();
+	}
+
+	private void write() {
+		List<ScanResultHost> batch = new ArrayList<ScanResultHost>(batchSize + 1);
+		boolean done = false;
+		while (!done) {
+			ScanResultHost host;
+			try {
+				host = queue.poll(Constants.SCAN_RESULT_CONFIG.FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				host = null;
+			}
+			if (host != null) {
+				batch.add(host);
+				queue.drainTo(batch, batchSize - batch.size());
+			}
+			for (int i = batch.size() - 1; i >= 0; i--) {
+				if (batch.get(i) == END) {
+					batch.remove(i);
+					done = true;
+				}
+			}
+			// A batch is saved when it is filled, when no host arrives within
+			// the flush interval or when the writer is closed
+			if (batch.size() >= batchSize || (!batch.isEmpty() && (host == null || done))) {
+				if (!persist(batch)) {
+					for (ScanResultHost item : batch) {
+						save(item);
+					}
+				}
+				logger.debug("Saved batch of {} hosts of scan result: {}", batch.size(), scanResult.getId());
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Persists the batch in a single transaction.
+	 *
+	 * @return false if there is no entity manager factory or the batch is
+	 *         rolled back, hosts must be saved one by one then
+	 */
+	private boolean persist(List<ScanResultHost> batch) {
+		if (entityManagerFactory == null) {
+			return false;
+		}
+		EntityManager entityManager = null;
+		EntityTransaction transaction = null;
+		try {
+			entityManager = entityManagerFactory.createEntityManager();
+			transaction = entityManager.getTransaction();
+			transaction.begin();
+			for (ScanResultHost host : batch) {
+				HostDetailParser.fill(host);
+				entityManager.persist(host);
+			}
+			entityManager.flush();
+			transaction.commit();
+			entityManager.clear();
+			savedCount.addAndGet(batch.size());
+			return true;
+		} catch (RuntimeException e) {
+			logger.warn("Could not persist batch of scan result: {}, saving hosts one by one: {}",
+					new Object[] { scanResult.getId(), e.getMessage() });
+			if (transaction != null && transaction.isActive()) {
+				try {
+					transaction.rollback();
+				} catch (RuntimeException re) {
+					logger.debug("Rollback failed: {}", re.getMessage());
+				}
+			}
+			if (e instanceof IllegalStateException && transaction == null) {
+				// Transactions are managed by the container, do not retry
+				entityManagerFactory = null;
+			}
+			// IDs assigned by the rolled back transaction are not valid
+			for (ScanResultHost host : batch) {
+				resetIds(host);
+			}
+			return false;
+		} finally {
+			if (entityManager != null) {
+				entityManager.close();
+			}
+		}
+	}
+
+	private static void resetIds(ScanResultHost host) {
+		host.setId(null);
+		if (host.getPorts() != null) {
+			for (ScanResultHostPort port : host.getPorts()) {
+				port.setId(null);
+			}
+		}
+		if (host.getOsMatches() != null) {
+			for (ScanResultHostOs os : host.getOsMatches()) {
+				os.setId(null);
+			}
+		}
+	}
+
+	private void save(ScanResultHost host) {
+		try {
+			HostDetailParser.fill(host);
+			pluginDbService.save(host);
+			savedCount.incrementAndGet();
+		} catch (Exception e) {
+			failedCount.incrementAndGet();
+			logger.error("Could not save host: " + host.getIp(), e);
+		}
+	}
+
+}
@@ -0,0 +1,12 @@
+package tr.org.liderahenk.network.inventory.utils.scheduler;
+
+import java.util.List;
+
+/**
+ * Creates the runnable which processes a single unit of work (e.g. a few
+ * hosts) scheduled by {@link WorkScheduler}.
+ *
+ */
+public interface IWorkUnitFactory<T> {
+	public Runnable create(List<T> unit);
+}
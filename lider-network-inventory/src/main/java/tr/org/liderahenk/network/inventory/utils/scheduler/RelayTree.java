@@ -0,0 +1,79 @@
+package tr.org.liderahenk.network.inventory.utils.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Arranges hosts in a k-ary tree rooted at Lider. Hosts are kept in
+ * breadth-first order: first k hosts are children of Lider, and children of
+ * host i are the hosts k*(i+1) ... k*(i+1)+k-1. Depth of the tree (and so the
+ * number of consecutive copies) grows with log(N).
+ *
+ */
+public class RelayTree {
+
+	private final List<String> hosts;
+	private final int fanOut;
+
+	public RelayTree(List<String> hosts, int fanOut) {
+		if (fanOut < 1) {
+			throw new IllegalArgumentException("Fan-out must be positive: " + fanOut);
+		}
+		this.hosts = new ArrayList<String>(hosts);
+		this.fanOut = fanOut;
+	}
+
+	/**
+	 * @return indices of the hosts which receive the file directly from Lider
+	 */
+	public List<Integer> getRoots() {
+		List<Integer> roots = new ArrayList<Integer>();
+		for (int i = 0; i < Math.min(fanOut, hosts.size()); i++) {
+			roots.add(i);
+		}
+		return roots;
+	}
+
+	/**
+	 * @param index
+	 * @return indices of the hosts which receive the file from the given host
+	 */
+	public List<Integer> getChildren(int index) {
+		List<Integer> children = new ArrayList<Integer>();
+		int first = fanOut * (index + 1);
+		for (int i = first; i < Math.min(first + fanOut, hosts.size()); i++) {
+			children.add(i);
+		}
+		return children;
+	}
+
+	/**
+	 * @param index
+	 * @return index of the parent host, or -1 if the host is a child of Lider
+	 */
+	public int getParent(int index) {
+		return index < fanOut ? -1 : index / fanOut - 1;
+	}
+
+	/**
+	 * @return number of levels in the tree
+	 */
+	public int getDepth() {
+		int depth = 0;
+		int index = hosts.size() - 1;
+		while (index >= 0) {
+			depth++;
+			index = getParent(index);
+		}
+		return depth;
+	}
+
+	public String getHost(int index) {
+		return hosts.get(index);
+	}
+
+	public int size() {
+		return hosts.size();
+	}
+
+}
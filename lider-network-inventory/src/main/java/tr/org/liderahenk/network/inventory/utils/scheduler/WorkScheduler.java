@@ -0,0 +1,297 @@
+package tr.org.liderahenk.network.inventory.utils.scheduler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schedules work in small units over a work-stealing {@link ForkJoinPool}.
+ * <p>
+ * Instead of dividing hosts into one static slice per thread, hosts are
+ * divided into units of a few hosts each. Units are forked recursively so
+ * that idle workers steal pending units from busy ones, and a slow host only
+ * delays its own unit rather than a whole slice. Execution time of each unit
+ * is recorded to track the slowest units of a command. Units are identified
+ * by their {@link Object#toString()} in timings and log messages, so it must
+ * not contain credentials.
+ *
+ */
+public class WorkScheduler {
+
+	private static Logger logger = LoggerFactory.getLogger(WorkScheduler.class);
+
+	private final String name;
+	private final ForkJoinPool pool;
+
+	private final Object lock = new Object();
+	private int pending = 0;
+	private int scheduled = 0;
+
+	private final long startTime = System.currentTimeMillis();
+	private final List<WorkUnitTiming> timings = Collections.synchronizedList(new ArrayList<WorkUnitTiming>());
+
+	/**
+	 * @param name
+	 *            name of the scheduler, used in log messages
+	 * @param parallelism
+	 *            maximum number of units executed at the same time
+	 */
+	public WorkScheduler(String name, int parallelism) {
+		this.name = name;
+		this.pool = new ForkJoinPool(parallelism);
+	}
+
+	/**
+	 * Divides given items into units of (at most) unitSize items and schedules
+	 * a runnable created by the factory for each unit.
+	 *
+	 * @param items
+	 * @param unitSize
+	 * @param factory
+	 * @throws RejectedExecutionException
+	 *             if the scheduler is already shut down
+	 */
+	public <T> void schedule(List<T> items, int unitSize, IWorkUnitFactory<T> factory) {
+		List<List<T>> units = partition(items, unitSize);
+		if (units.isEmpty()) {
+			return;
+		}
+		incrementPending(units.size());
+		try {
+			pool.execute(new SplitTask<T>(units, 0, units.size(), factory));
+		} catch (RejectedExecutionException e) {
+			decrementPending(units.size());
+			throw e;
+		}
+		logger.debug("{}: scheduled {} items in {} units.", new Object[] { name, items.size(), units.size() });
+	}
+
+	/**
+	 * Schedules a single unit of work. It can be called from a running unit as
+	 * well (e.g. to process results of that unit).
+	 *
+	 * @param unit
+	 * @throws RejectedExecutionException
+	 *             if the scheduler is already shut down
+	 */
+	public void schedule(Runnable unit) {
+		incrementPending(1);
+		try {
+			pool.execute(new UnitTask(unit));
+		} catch (RejectedExecutionException e) {
+			decrementPending(1);
+			throw e;
+		}
+	}
+
+	/**
+	 * Waits until all scheduled units are completed or the timeout elapses.
+	 *
+	 * @param timeout
+	 * @param unit
+	 * @return true if all units are completed, false otherwise
+	 * @throws InterruptedException
+	 */
+	public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+		synchronized (lock) {
+			while (pending > 0) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					logger.warn("{}: {} units could not be completed in {} ms.",
+							new Object[] { name, pending, unit.toMillis(timeout) });
+					return false;
+				}
+				lock.wait(remaining);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stops accepting new units and discards units which are not started yet.
+	 * Running units are not interrupted.
+	 */
+	public void shutdown() {
+		pool.shutdownNow();
+		logStatistics();
+	}
+
+	/**
+	 * Waits until units which were running when the scheduler is shut down
+	 * are completed.
+	 *
+	 * @param timeout
+	 * @param unit
+	 * @return true if no unit is running anymore, false if the timeout
+	 *         elapsed
+	 * @throws InterruptedException
+	 * @see #shutdown()
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return pool.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * @return timings of the completed units
+	 */
+	public List<WorkUnitTiming> getTimings() {
+		synchronized (timings) {
+			return new ArrayList<WorkUnitTiming>(timings);
+		}
+	}
+
+	/**
+	 * Divides given items into consecutive units, the last unit may contain
+	 * less than unitSize items.
+	 *
+	 * @param items
+	 * @param unitSize
+	 * @return
+	 */
+	public static <T> List<List<T>> partition(List<T> items, int unitSize) {
+		if (unitSize < 1) {
+			unitSize = 1;
+		}
+		List<List<T>> units = new ArrayList<List<T>>();
+		if (items != null) {
+			for (int i = 0; i < items.size(); i += unitSize) {
+				units.add(new ArrayList<T>(items.subList(i, Math.min(i + unitSize, items.size()))));
+			}
+		}
+		return units;
+	}
+
+	/**
+	 * @return number of units scheduled so far
+	 */
+	public int getScheduledCount() {
+		synchronized (lock) {
+			return scheduled;
+		}
+	}
+
+	/**
+	 * @return number of units completed (or failed) so far
+	 */
+	public int getCompletedCount() {
+		synchronized (lock) {
+			return scheduled - pending;
+		}
+	}
+
+	private void incrementPending(int count) {
+		synchronized (lock) {
+			pending += count;
+			scheduled += count;
+		}
+	}
+
+	private void decrementPending(int count) {
+		synchronized (lock) {
+			pending -= count;
+			if (pending <= 0) {
+				lock.notifyAll();
+			}
+		}
+	}
+
+	private void execute(Runnable unit) {
+		long start = System.currentTimeMillis();
+		try {
+			unit.run();
+		} catch (Exception e) {
+			logger.error(e.getMessage(), e);
+		} finally {
+			long end = System.currentTimeMillis();
+			timings.add(new WorkUnitTiming(unit.toString(), start - startTime, end - start));
+			logger.debug("{}: unit completed in {} ms: {}", new Object[] { name, end - start, unit });
+			decrementPending(1);
+		}
+	}
+
+	private void logStatistics() {
+		List<WorkUnitTiming> completed = getTimings();
+		if (completed.isEmpty()) {
+			return;
+		}
+		WorkUnitTiming slowest = completed.get(0);
+		long total = 0;
+		for (WorkUnitTiming timing : completed) {
+			total += timing.getDuration();
+			if (timing.getDuration() > slowest.getDuration()) {
+				slowest = timing;
+			}
+		}
+		logger.info("{}: {} units completed in {} ms, average: {} ms, slowest: {}",
+				new Object[] { name, completed.size(), System.currentTimeMillis() - startTime,
+						total / completed.size(), slowest });
+	}
+
+	/**
+	 * Forks its half of the units recursively until a single unit remains, so
+	 * that forked halves can be stolen by idle workers.
+	 */
+	private class SplitTask<T> extends RecursiveAction {
+
+		private static final long serialVersionUID = -2850327446917542302L;
+
+		private final List<List<T>> units;
+		private final int from;
+		private final int to;
+		private final IWorkUnitFactory<T> factory;
+
+		private SplitTask(List<List<T>> units, int from, int to, IWorkUnitFactory<T> factory) {
+			this.units = units;
+			this.from = from;
+			this.to = to;
+			this.factory = factory;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				Runnable unit;
+				try {
+					unit = factory.create(units.get(from));
+				} catch (Exception e) {
+					logger.error(e.getMessage(), e);
+					decrementPending(1);
+					return;
+				}
+				WorkScheduler.this.execute(unit);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			// Completion is tracked by the pending counter, no need to join.
+			new SplitTask<T>(units, middle, to, factory).fork();
+			new SplitTask<T>(units, from, middle, factory).compute();
+		}
+
+	}
+
+	private class UnitTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 6403393335466113052L;
+
+		private final Runnable unit;
+
+		private UnitTask(Runnable unit) {
+			this.unit = unit;
+		}
+
+		@Override
+		protected void compute() {
+			WorkScheduler.this.execute(unit);
+		}
+
+	}
+
+}
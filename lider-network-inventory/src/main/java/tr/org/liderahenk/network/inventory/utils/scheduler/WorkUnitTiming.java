@@ -0,0 +1,47 @@
+package tr.org.liderahenk.network.inventory.utils.scheduler;
+
+import java.io.Serializable;
+
+/**
+ * Execution time of a single unit of work.
+ *
+ * @see WorkScheduler
+ *
+ */
+public class WorkUnitTiming implements Serializable {
+
+	private static final long serialVersionUID = 4318225097823440412L;
+
+	private String unit;
+
+	/**
+	 * Start time in milliseconds, relative to the creation of the scheduler
+	 */
+	private long start;
+
+	private long duration;
+
+	public WorkUnitTiming(String unit, long start, long duration) {
+		this.unit = unit;
+		this.start = start;
+		this.duration = duration;
+	}
+
+	public String getUnit() {
+		return unit;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public long getDuration() {
+		return duration;
+	}
+
+	@Override
+	public String toString() {
+		return "WorkUnitTiming [unit=" + unit + ", start=" + start + ", duration=" + duration + "]";
+	}
+
+}
@@ -0,0 +1,242 @@
+package tr.org.liderahenk.network.inventory.utils.setup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes a block level delta between a local file and an older copy of it
+ * on a remote machine, so that only the changed blocks are transferred.
+ * <p>
+ * Remote machine reports MD5 checksums of fixed size blocks of its copy (see
+ * {@link #getSignatureCommand(String, int, String)}). Each block of the local file
+ * which has the same checksum with any remote block is copied from the remote
+ * copy, other blocks are sent in a literal file. A generated shell script
+ * rebuilds the file on the remote machine, verifies its SHA-256 checksum and
+ * replaces the old copy, keeping its mode and owner.
+ * <p>
+ * Blocks are compared at fixed offsets only (there is no rolling checksum),
+ * so modified blocks are detected but inserted bytes shift every following
+ * block.
+ *
+ */
+public class BlockDelta {
+
+	/**
+	 * If more than this ratio of the blocks must be sent, full copy is
+	 * preferred.
+	 */
+	private static final double MAX_LITERAL_RATIO = 0.5;
+
+	private final File file;
+	private final int blockSize;
+	private final List<Range> ranges = new ArrayList<Range>();
+	private int blockCount = 0;
+	private int literalBlockCount = 0;
+
+	/**
+	 * @param file
+	 *            local file
+	 * @param blockSize
+	 * @param remoteBlockChecksums
+	 *            MD5 checksums (hex) of the blocks of the remote copy, in order
+	 * @throws IOException
+	 */
+	public BlockDelta(File file, int blockSize, List<String> remoteBlockChecksums) throws IOException {
+		this.file = file;
+		this.blockSize = blockSize;
+
+		Map<String, Integer> remoteBlocks = new HashMap<String, Integer>();
+		for (int i = remoteBlockChecksums.size() - 1; i >= 0; i--) {
+			remoteBlocks.put(remoteBlockChecksums.get(i).toLowerCase(), i);
+		}
+
+		MessageDigest digest = newDigest();
+		InputStream in = new FileChannelInputStream(file, false, blockSize);
+		try {
+			byte[] block = new byte[blockSize];
+			int len;
+			while ((len = readBlock(in, block)) > 0) {
+				digest.update(block, 0, len);
+				Integer remoteIndex = remoteBlocks.get(toHex(digest.digest()));
+				if (remoteIndex != null) {
+					addBlock(false, remoteIndex);
+				} else {
+					addBlock(true, literalBlockCount++);
+				}
+				blockCount++;
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @param remoteFile
+	 * @param blockSize
+	 * @param checksum
+	 *            SHA-256 checksum (hex) of the local file
+	 * @return command which prints MD5 checksum of each block of the remote
+	 *         file (as "checksum -" lines), or nothing if the file does not
+	 *         exist or it is identical to the local file
+	 */
+	public static String getSignatureCommand(String remoteFile, int blockSize, String checksum) {
+		// Blocks are read in a single pass by split, the dd loop is a fallback
+		// for split versions without --filter
+		return "if [ -f '" + remoteFile + "' ] && [ \"$(sha256sum '" + remoteFile + "' | cut -d ' ' -f 1)\" != '"
+				+ checksum + "' ]; then split -b " + blockSize + " --filter=md5sum '" + remoteFile
+				+ "' 2>/dev/null || { n=$(( ($(stat -c %s '" + remoteFile + "') + " + (blockSize - 1) + ") / "
+				+ blockSize + " )); i=0; while [ $i -lt $n ]; do dd if='" + remoteFile + "' bs=" + blockSize
+				+ " skip=$i count=1 2>/dev/null | md5sum; i=$((i+1)); done; }; fi";
+	}
+
+	/**
+	 * @return true if sending the delta is cheaper than copying the file
+	 */
+	public boolean isWorthwhile() {
+		return blockCount > 0 && literalBlockCount <= blockCount * MAX_LITERAL_RATIO;
+	}
+
+	/**
+	 * Writes blocks which do not exist on the remote copy to the given file.
+	 * 
+	 * @param literalFile
+	 * @throws IOException
+	 */
+	public void writeLiteralFile(File literalFile) throws IOException {
+		InputStream in = new FileChannelInputStream(file, false, blockSize);
+		OutputStream out = new FileOutputStream(literalFile);
+		try {
+			byte[] block = new byte[blockSize];
+			for (Range range : ranges) {
+				for (int i = 0; i < range.count; i++) {
+					int len = readBlock(in, block);
+					if (range.literal) {
+						out.write(block, 0, len);
+					}
+				}
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes a shell script which rebuilds the file from the remote copy and
+	 * the literal file. The script fails (and leaves the remote copy as it
+	 * is) if the rebuilt file does not have the expected checksum.
+	 * 
+	 * @param scriptFile
+	 * @param remoteFile
+	 *            path of the old copy on the remote machine
+	 * @param remoteLiteralFile
+	 *            path of the literal file on the remote machine
+	 * @param checksum
+	 *            SHA-256 checksum (hex) of the local file
+	 * @throws IOException
+	 */
+	public void writeScript(File scriptFile, String remoteFile, String remoteLiteralFile, String checksum)
+			throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(scriptFile), StandardCharsets.UTF_8);
+		try {
+			writer.write("#!/bin/sh\n");
+			writer.write("OLD='" + remoteFile + "'\n");
+			writer.write("LIT='" + remoteLiteralFile + "'\n");
+			writer.write("NEW='" + remoteFile + ".new'\n");
+			writer.write(": > \"$NEW\" || exit 1\n");
+			for (Range range : ranges) {
+				writer.write("dd if=\"" + (range.literal ? "$LIT" : "$OLD") + "\" bs=" + blockSize + " skip="
+						+ range.start + " count=" + range.count + " 2>/dev/null >> \"$NEW\" || exit 1\n");
+			}
+			writer.write("rm -f \"$LIT\"\n");
+			writer.write("if [ \"$(sha256sum \"$NEW\" | cut -d ' ' -f 1)\" != '" + checksum + "' ]; then\n");
+			writer.write("\trm -f \"$NEW\"\n");
+			writer.write("\texit 2\n");
+			writer.write("fi\n");
+			// Keep permissions of the old copy, owner can only be kept if the
+			// user is allowed to change it
+			writer.write("chmod --reference=\"$OLD\" \"$NEW\" || { rm -f \"$NEW\"; exit 1; }\n");
+			writer.write("chown --reference=\"$OLD\" \"$NEW\" 2>/dev/null\n");
+			writer.write("mv \"$NEW\" \"$OLD\"\n");
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Appends a block to the last range if it is contiguous with it.
+	 */
+	private void addBlock(boolean literal, int index) {
+		if (!ranges.isEmpty()) {
+			Range last = ranges.get(ranges.size() - 1);
+			if (last.literal == literal && last.start + last.count == index) {
+				last.count++;
+				return;
+			}
+		}
+		ranges.add(new Range(literal, index));
+	}
+
+	private static int readBlock(InputStream in, byte[] block) throws IOException {
+		int total = 0;
+		int len;
+		while (total < block.length && (len = in.read(block, total, block.length - total)) > 0) {
+			total += len;
+		}
+		return total;
+	}
+
+	private static MessageDigest newDigest() throws IOException {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder builder = new StringBuilder();
+		for (byte b : bytes) {
+			builder.append(String.format("%02x", b));
+		}
+		return builder.toString();
+	}
+
+	public int getBlockCount() {
+		return blockCount;
+	}
+
+	public int getLiteralBlockCount() {
+		return literalBlockCount;
+	}
+
+	/**
+	 * Consecutive blocks which are read from the same source
+	 */
+	private static class Range {
+
+		private final boolean literal;
+		private final int start;
+		private int count;
+
+		private Range(boolean literal, int start) {
+			this.literal = literal;
+			this.start = start;
+			this.count = 1;
+		}
+
+	}
+
+}
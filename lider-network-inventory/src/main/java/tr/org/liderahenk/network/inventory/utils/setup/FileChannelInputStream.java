@@ -0,0 +1,93 @@
+package tr.org.liderahenk.network.inventory.utils.setup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a local file via its {@link FileChannel}, either with plain channel
+ * reads into a reusable buffer or through memory mapped regions. Used as the
+ * source of file transfers so that large reads do not go through small
+ * intermediate buffers.
+ *
+ */
+public class FileChannelInputStream extends InputStream {
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long size;
+	private final boolean mapped;
+	private final int regionSize;
+
+	private long position = 0;
+	private ByteBuffer region;
+
+	/**
+	 * @param file
+	 * @param mapped
+	 *            if true, file is read via memory mapped regions
+	 * @param regionSize
+	 *            maximum size of a mapped region
+	 * @throws IOException
+	 */
+	public FileChannelInputStream(File file, boolean mapped, int regionSize) throws IOException {
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+		this.size = channel.size();
+		this.mapped = mapped;
+		this.regionSize = regionSize;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int len = read(b, 0, 1);
+		return len <= 0 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (mapped) {
+			return readMapped(b, off, len);
+		}
+		int read = channel.read(ByteBuffer.wrap(b, off, len), position);
+		if (read > 0) {
+			position += read;
+		}
+		return read;
+	}
+
+	private int readMapped(byte[] b, int off, int len) throws IOException {
+		if (region == null || !region.hasRemaining()) {
+			if (position >= size) {
+				return -1;
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position,
+					Math.min(regionSize, size - position));
+			region = buffer;
+		}
+		int read = Math.min(len, region.remaining());
+		region.get(b, off, read);
+		position += read;
+		return read;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int) Math.min(Integer.MAX_VALUE, size - position);
+	}
+
+	@Override
+	public void close() throws IOException {
+		region = null;
+		file.close();
+	}
+
+}
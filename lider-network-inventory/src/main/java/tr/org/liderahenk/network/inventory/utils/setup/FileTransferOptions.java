@@ -0,0 +1,125 @@
+package tr.org.liderahenk.network.inventory.utils.setup;
+
+import tr.org.liderahenk.network.inventory.contants.Constants;
+import tr.org.liderahenk.network.inventory.contants.Constants.TransferMode;
+
+/**
+ * Options used while copying files to remote machines.
+ * 
+ * @see SSHManager#copyFileToRemote(java.io.File, String, boolean,
+ *      FileTransferOptions)
+ *
+ */
+public class FileTransferOptions {
+
+	private TransferMode transferMode = TransferMode.SCP;
+
+	/**
+	 * Size of the buffer used to read the local file and write it to the
+	 * channel
+	 */
+	private int bufferSize = Constants.SSH_CONFIG.TRANSFER_BUFFER_SIZE;
+
+	/**
+	 * Maximum number of outstanding write requests in SFTP mode
+	 */
+	private int bulkRequests = Constants.SSH_CONFIG.SFTP_BULK_REQUESTS;
+
+	/**
+	 * If true, local file is read via memory mapped regions instead of
+	 * FileChannel reads
+	 */
+	private boolean mappedRead = false;
+
+	/**
+	 * If true, copy is skipped when an identical file already exists in the
+	 * destination directory
+	 */
+	private boolean skipIdentical = true;
+
+	/**
+	 * Block size of delta transfer, zero disables delta transfer
+	 */
+	private int deltaBlockSize = 0;
+
+	/**
+	 * Permissions of the file created on the remote machine (e.g. 0600),
+	 * applied when the file is created, used in SCP mode only
+	 */
+	private int fileMode = 0644;
+
+	public FileTransferOptions() {
+	}
+
+	public FileTransferOptions(TransferMode transferMode, int bufferSize, int bulkRequests, boolean mappedRead) {
+		this.transferMode = transferMode;
+		this.bufferSize = bufferSize;
+		this.bulkRequests = bulkRequests;
+		this.mappedRead = mappedRead;
+	}
+
+	public TransferMode getTransferMode() {
+		return transferMode;
+	}
+
+	public void setTransferMode(TransferMode transferMode) {
+		this.transferMode = transferMode;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	public int getBulkRequests() {
+		return bulkRequests;
+	}
+
+	public void setBulkRequests(int bulkRequests) {
+		this.bulkRequests = bulkRequests;
+	}
+
+	public boolean isMappedRead() {
+		return mappedRead;
+	}
+
+	public void setMappedRead(boolean mappedRead) {
+		this.mappedRead = mappedRead;
+	}
+
+	public boolean isSkipIdentical() {
+		return skipIdentical;
+	}
+
+	public void setSkipIdentical(boolean skipIdentical) {
+		this.skipIdentical = skipIdentical;
+	}
+
+	public int getDeltaBlockSize() {
+		return deltaBlockSize;
+	}
+
+	public void setDeltaBlockSize(int deltaBlockSize) {
+		this.deltaBlockSize = deltaBlockSize;
+	}
+
+	public int getFileMode() {
+		return fileMode;
+	}
+
+	public void setFileMode(int fileMode) {
+		this.fileMode = fileMode;
+	}
+
+	@Override
+	public String toString() {
+		return "FileTransferOptions [transferMode=" + transferMode + ", bufferSize=" + bufferSize
+				+ ", bulkRequests=" + bulkRequests + ", mappedRead=" + mappedRead + ", skipIdentical="
+				+ skipIdentical + ", deltaBlockSize=" + deltaBlockSize + ", fileMode="
+				+ Integer.toOctalString(fileMode) + "]";
+	}
+
+}
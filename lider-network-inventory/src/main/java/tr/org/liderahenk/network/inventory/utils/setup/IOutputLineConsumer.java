@@ -0,0 +1,10 @@
+package tr.org.liderahenk.network.inventory.utils.setup;
+
+/**
+ * Receives output of a remote command line by line, as soon as each line is
+ * read.
+ *
+ */
+public interface IOutputLineConsumer {
+	public void consume(String line);
+}
@@ -0,0 +1,220 @@
+package tr.org.liderahenk.network.inventory.utils.setup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tr.org.liderahenk.network.inventory.contants.Constants;
+
+/**
+ * Keeps packages (e.g. ahenk.deb) on Lider, so that a package is downloaded
+ * once and then pushed to each target over SSH instead of being downloaded by
+ * every target.
+ * <p>
+ * Packages are stored under a directory named after their SHA-256 checksum.
+ * If an expected checksum is provided, an already cached package with that
+ * checksum is used without downloading it again.
+ *
+ */
+public class PackageCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(PackageCache.class);
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static PackageCache instance;
+
+	private final File directory;
+
+	public static synchronized PackageCache getInstance() {
+		if (instance == null) {
+			instance = new PackageCache(new File(System.getProperty("java.io.tmpdir"),
+					Constants.PACKAGE_CACHE_CONFIG.LOCAL_DIRECTORY));
+		}
+		return instance;
+	}
+
+	public PackageCache(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the package at given URL, downloading it if it is not cached
+	 * yet.
+	 *
+	 * @param downloadUrl
+	 * @param expectedChecksum
+	 *            SHA-256 checksum (hex) of the package, may be null
+	 * @return cached package
+	 * @throws IOException
+	 *             if the package cannot be downloaded or its checksum does not
+	 *             match the expected one
+	 */
+	public synchronized CachedPackage fetch(String downloadUrl, String expectedChecksum) throws IOException {
+
+		String fileName = getFileName(downloadUrl);
+
+		if (expectedChecksum != null && !expectedChecksum.isEmpty()) {
+			File cached = new File(new File(directory, expectedChecksum.toLowerCase()), fileName);
+			if (cached.isFile() && expectedChecksum.equalsIgnoreCase(checksum(cached))) {
+				logger.info("Using cached package: {}", cached.getAbsolutePath());
+				return new CachedPackage(cached, expectedChecksum.toLowerCase());
+			}
+		}
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create package cache directory: " + directory.getAbsolutePath());
+		}
+
+		logger.info("Downloading package from URL: {}", downloadUrl);
+		File temp = File.createTempFile("package", ".part", directory);
+		String checksum;
+		try {
+			checksum = download(downloadUrl, temp);
+		} catch (IOException e) {
+			temp.delete();
+			throw e;
+		}
+
+		if (expectedChecksum != null && !expectedChecksum.isEmpty() && !expectedChecksum.equalsIgnoreCase(checksum)) {
+			temp.delete();
+			throw new IOException("Checksum mismatch for package: " + downloadUrl + " expected: " + expectedChecksum
+					+ " actual: " + checksum);
+		}
+
+		File packageDir = new File(directory, checksum);
+		if (!packageDir.isDirectory() && !packageDir.mkdirs()) {
+			temp.delete();
+			throw new IOException("Could not create package cache directory: " + packageDir.getAbsolutePath());
+		}
+		File cached = new File(packageDir, fileName);
+		Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		logger.info("Package cached: {} SHA-256: {}", cached.getAbsolutePath(), checksum);
+		return new CachedPackage(cached, checksum);
+	}
+
+	/**
+	 * Downloads given URL to the file and returns SHA-256 checksum of the
+	 * downloaded content.
+	 */
+	private static String download(String downloadUrl, File file) throws IOException {
+		String url = downloadUrl.contains("://") ? downloadUrl : "http://" + downloadUrl;
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setConnectTimeout(Constants.PACKAGE_CACHE_CONFIG.CONNECT_TIMEOUT);
+		connection.setReadTimeout(Constants.PACKAGE_CACHE_CONFIG.READ_TIMEOUT);
+		InputStream in = null;
+		OutputStream out = null;
+		try {
+			if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+				throw new IOException(
+						"Could not download package: " + url + " HTTP status: " + connection.getResponseCode());
+			}
+			DigestInputStream digestStream = new DigestInputStream(connection.getInputStream(), newDigest());
+			in = digestStream;
+			out = new FileOutputStream(file);
+			byte[] buf = new byte[BUFFER_SIZE];
+			int len;
+			while ((len = in.read(buf)) != -1) {
+				out.write(buf, 0, len);
+			}
+			return toHex(digestStream.getMessageDigest().digest());
+		} finally {
+			if (in != null) {
+				in.close();
+			}
+			if (out != null) {
+				out.close();
+			}
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * @param file
+	 * @return SHA-256 checksum (hex) of the given file
+	 * @throws IOException
+	 */
+	public static String checksum(File file) throws IOException {
+		MessageDigest digest = newDigest();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buf = new byte[BUFFER_SIZE];
+			int len;
+			while ((len = in.read(buf)) != -1) {
+				digest.update(buf, 0, len);
+			}
+		} finally {
+			in.close();
+		}
+		return toHex(digest.digest());
+	}
+
+	private static MessageDigest newDigest() throws IOException {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder builder = new StringBuilder();
+		for (byte b : bytes) {
+			builder.append(String.format("%02x", b));
+		}
+		return builder.toString();
+	}
+
+	private static String getFileName(String downloadUrl) {
+		String path = downloadUrl;
+		int query = path.indexOf('?');
+		if (query >= 0) {
+			path = path.substring(0, query);
+		}
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		return name.matches("[A-Za-z0-9._+~-]+") ? name : "package.deb";
+	}
+
+	/**
+	 * A package file on Lider and its checksum
+	 */
+	public static class CachedPackage {
+
+		private final File file;
+		private final String checksum;
+
+		public CachedPackage(File file, String checksum) {
+			this.file = file;
+			this.checksum = checksum;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public String getChecksum() {
+			return checksum;
+		}
+
+		@Override
+		public String toString() {
+			return "CachedPackage [file=" + file + ", checksum=" + checksum + "]";
+		}
+
+	}
+
+}
@@ -0,0 +1,176 @@
+package tr.org.liderahenk.network.inventory.utils.setup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.KeyPair;
+
+import tr.org.liderahenk.network.inventory.contants.Constants.TransferMode;
+
+/**
+ * A temporary key pair which lets hosts copy a file to each other over SSH
+ * without knowing the credentials used by Lider. Public key is authorized on
+ * hosts which receive the file from another host, only for connections from
+ * that host, without a terminal or forwarding and restricted to writing the
+ * distributed file. Private key is copied to
+ * hosts which forward the file, created with mode 0600. Both are removed by
+ * the {@link #getRevokeCommand()} command from the hosts returned by
+ * {@link #getTouchedHosts()}.
+ *
+ */
+public class RelayKey {
+
+	private static final String REMOTE_DIRECTORY = "/tmp/";
+
+	private final String name;
+	private final String publicKey;
+	private final File privateKeyFile;
+
+	/**
+	 * Hosts which are given the public or private key
+	 */
+	private final Set<String> touchedHosts = Collections.synchronizedSet(new HashSet<String>());
+
+	private RelayKey(String name, String publicKey, File privateKeyFile) {
+		this.name = name;
+		this.publicKey = publicKey;
+		this.privateKeyFile = privateKeyFile;
+	}
+
+	/**
+	 * Generates a new RSA key pair and writes its private key to a local
+	 * temporary file.
+	 * 
+	 * @return generated key
+	 * @throws IOException
+	 */
+	public static RelayKey generate() throws IOException {
+		String name = "liderahenk-relay-" + UUID.randomUUID().toString();
+		KeyPair keyPair;
+		try {
+			keyPair = KeyPair.genKeyPair(new JSch(), KeyPair.RSA, 2048);
+		} catch (JSchException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+
+		ByteArrayOutputStream publicKey = new ByteArrayOutputStream();
+		keyPair.writePublicKey(publicKey, name);
+
+		File directory = new File(System.getProperty("java.io.tmpdir"), name);
+		if (!directory.mkdirs()) {
+			throw new IOException("Could not create directory: " + directory.getAbsolutePath());
+		}
+		File privateKeyFile = new File(directory, name);
+		privateKeyFile.createNewFile();
+		privateKeyFile.setReadable(false, false);
+		privateKeyFile.setReadable(true, true);
+		OutputStream out = new FileOutputStream(privateKeyFile);
+		try {
+			keyPair.writePrivateKey(out);
+		} finally {
+			out.close();
+		}
+		keyPair.dispose();
+
+		return new RelayKey(name, new String(publicKey.toByteArray(), StandardCharsets.US_ASCII).trim(),
+				privateKeyFile);
+	}
+
+	/**
+	 * @param fromIp
+	 *            IP address of the only host which is allowed to use the key
+	 * @param targetFile
+	 *            path of the only file which can be written with the key
+	 * @return command which authorizes the public key for the current user
+	 */
+	public String getAuthorizeCommand(String fromIp, String targetFile) {
+		// The key can only run the forced command, which writes its input to
+		// the target file, whatever command the client requests
+		String forcedCommand = "cat > '" + targetFile.replace("'", "'\\''") + "'";
+		String entry = "command=\"" + forcedCommand.replace("\"", "\\\"") + "\",from=\"" + fromIp
+				+ "\",no-pty,no-port-forwarding,no-agent-forwarding,no-X11-forwarding " + publicKey;
+		return "mkdir -p ~/.ssh && chmod 700 ~/.ssh && printf '%s\\n' '" + entry.replace("'", "'\\''")
+				+ "' >> ~/.ssh/authorized_keys && chmod 600 ~/.ssh/authorized_keys";
+	}
+
+	/**
+	 * @return options to copy the private key, the key is created with mode
+	 *         0600 on the remote host
+	 */
+	public FileTransferOptions getCopyOptions() {
+		FileTransferOptions options = new FileTransferOptions();
+		options.setTransferMode(TransferMode.SCP);
+		options.setFileMode(0600);
+		return options;
+	}
+
+	/**
+	 * @param sourceFile
+	 *            path of the file on the forwarding host
+	 * @param username
+	 * @param targetIp
+	 * @param port
+	 * @return command which copies the file from the forwarding host to the
+	 *         target file of the key on the target host
+	 * @see #getAuthorizeCommand(String, String)
+	 */
+	public String getCopyCommand(String sourceFile, String username, String targetIp, Integer port) {
+		return "ssh -T -q -i " + getRemotePrivateKeyPath() + " -p " + port
+				+ " -o BatchMode=yes -o StrictHostKeyChecking=no -o UserKnownHostsFile=/dev/null " + username + "@"
+				+ targetIp + " < '" + sourceFile + "'";
+	}
+
+	/**
+	 * @return command which removes both the private key and the authorized
+	 *         public key
+	 */
+	public String getRevokeCommand() {
+		return "rm -f " + getRemotePrivateKeyPath() + "; if [ -f ~/.ssh/authorized_keys ]; then sed -i '/ " + name
+				+ "$/d' ~/.ssh/authorized_keys; fi";
+	}
+
+	/**
+	 * Removes local private key file.
+	 */
+	public void delete() {
+		privateKeyFile.delete();
+		privateKeyFile.getParentFile().delete();
+	}
+
+	public void addTouchedHost(String ip) {
+		touchedHosts.add(ip);
+	}
+
+	public Set<String> getTouchedHosts() {
+		synchronized (touchedHosts) {
+			return new HashSet<String>(touchedHosts);
+		}
+	}
+
+	public String getRemoteDirectory() {
+		return REMOTE_DIRECTORY;
+	}
+
+	public String getRemotePrivateKeyPath() {
+		return REMOTE_DIRECTORY + name;
+	}
+
+	public File getPrivateKeyFile() {
+		return privateKeyFile;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+}
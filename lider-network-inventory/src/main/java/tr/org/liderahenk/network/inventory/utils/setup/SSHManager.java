@@ -1,10 +1,13 @@
 package tr.org.liderahenk.network.inventory.utils.setup;
 
+import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Properties;
 
 import org.slf4j.Logger;
@@ -12,11 +15,13 @@ import org.slf4j.LoggerFactory;
 
 import com.jcraft.jsch.Channel;
 import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.ChannelSftp;
 import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
 
 import tr.org.liderahenk.network.inventory.contants.Constants;
+import tr.org.liderahenk.network.inventory.contants.Constants.TransferMode;
 import tr.org.liderahenk.network.inventory.exception.CommandExecutionException;
 import tr.org.liderahenk.network.inventory.exception.SSHConnectionException;
 
@@ -31,6 +36,22 @@ public class SSHManager {
 
 	private static final Logger logger = LoggerFactory.getLogger(SSHManager.class);
 
+	/**
+	 * Time in milliseconds to wait for the exit status after the command
+	 * output is closed
+	 */
+	private static final int EXIT_STATUS_TIMEOUT = 5000;
+
+	/**
+	 * Default consumer which logs command output
+	 */
+	private static final IOutputLineConsumer LOGGING_CONSUMER = new IOutputLineConsumer() {
+		@Override
+		public void consume(String line) {
+			logger.debug(line);
+		}
+	};
+
 	private JSch SSHChannel;
 	private Session session;
 	private Properties config;
@@ -136,6 +157,26 @@ public class SSHManager {
 	 */
 	public void execCommand(final String command, final IOutputStreamProvider outputStreamProvider)
 			throws CommandExecutionException {
+		execCommand(command, outputStreamProvider, LOGGING_CONSUMER);
+	}
+
+	/**
+	 * Executes command string via SSH. Output of the command is passed to the
+	 * consumer line by line while the command is running. Returns as soon as
+	 * the command exits.
+	 * 
+	 * @param command
+	 *            Command String
+	 * @param outputStreamProvider
+	 *            Provides an array of bytes which is used to pass arguments to
+	 *            the command executed.
+	 * @param outputLineConsumer
+	 *            Receives each line of the output
+	 * @throws CommandExecutionException
+	 * 
+	 */
+	public void execCommand(final String command, final IOutputStreamProvider outputStreamProvider,
+			final IOutputLineConsumer outputLineConsumer) throws CommandExecutionException {
 
 		Channel channel = null;
 		
@@ -164,31 +205,28 @@ public class SSHManager {
 				outputStream.flush();
 			}
 
-			// Read output from the stream and handle the channel accordingly
-			byte[] tmp = new byte[1024];
-			while (true) {
-				while (inputStream.available() > 0) {
-					int i = inputStream.read(tmp, 0, 1024);
-					if (i < 0)
-						break;
-					String output = new String(tmp, 0, i);
-					logger.debug(output);
-				}
-				if (channel.isClosed()) {
-					logger.info("exit status: " + channel.getExitStatus());
-					if (channel.getExitStatus() != 0) {
-						throw new CommandExecutionException("Exit status: " + channel.getExitStatus());
-					}
-					
-					break;
-				}
-				try {
-					Thread.sleep(1000);
-				} catch (Exception ee) {
-					ee.printStackTrace();
-				}
+			// Read output until the remote end closes the stream. Each read
+			// blocks until data arrives, so there is no need to poll.
+			BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+			IOutputLineConsumer consumer = outputLineConsumer != null ? outputLineConsumer : LOGGING_CONSUMER;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				consumer.consume(line);
 			}
 
+			// Exit status is sent right before the channel is closed
+			long deadline = System.currentTimeMillis() + EXIT_STATUS_TIMEOUT;
+			while (!channel.isClosed() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+
+			logger.info("exit status: " + channel.getExitStatus());
+			if (channel.getExitStatus() != 0) {
+				throw new CommandExecutionException("Exit status: " + channel.getExitStatus());
+			}
+
+		} catch (CommandExecutionException e) {
+			throw e;
 		} catch (Exception e) {
 			logger.error(e.getMessage());
 			throw new CommandExecutionException(e.getMessage());
@@ -228,6 +266,23 @@ public class SSHManager {
 	 */
 	public void execCommand(final String command, final Object[] params, IOutputStreamProvider outputStreamProvider)
 			throws CommandExecutionException {
+		execCommand(command, params, outputStreamProvider, LOGGING_CONSUMER);
+	}
+
+	/**
+	 * Executes command string via SSH. Replaces parameter indicators with
+	 * values from the provided array before execution. While executing the
+	 * command feeds its output stream via IOutputStreamProvider instance and
+	 * passes each line of its output to IOutputLineConsumer instance.
+	 * 
+	 * @param command
+	 * @param params
+	 * @param outputStreamProvider
+	 * @param outputLineConsumer
+	 * @throws CommandExecutionException
+	 */
+	public void execCommand(final String command, final Object[] params, IOutputStreamProvider outputStreamProvider,
+			IOutputLineConsumer outputLineConsumer) throws CommandExecutionException {
 		String tmpCommand = command;
 		if (params != null) {
 			for (int i = 0; i < params.length; i++) {
@@ -235,7 +290,7 @@ public class SSHManager {
 				tmpCommand = tmpCommand.replaceAll("\\{" + i + "\\}", param);
 			}
 		}
-		execCommand(tmpCommand, outputStreamProvider);
+		execCommand(tmpCommand, outputStreamProvider, outputLineConsumer);
 	}
 
 	/**
@@ -248,9 +303,38 @@ public class SSHManager {
 	 */
 	public void copyFileToRemote(final File fileToTransfer, final String destDirectory, final boolean preserveTimestamp)
 			throws CommandExecutionException {
+		copyFileToRemote(fileToTransfer, destDirectory, preserveTimestamp, new FileTransferOptions());
+	}
+
+	/**
+	 * Tries to safe-copy provided local file to remote server using given
+	 * transfer options.
+	 * 
+	 * @param fileToTransfer
+	 * @param destDirectory
+	 * @param preserveTimestamp
+	 * @param options
+	 *            transfer mode, buffer size etc.
+	 * @throws CommandExecutionException
+	 */
+	public void copyFileToRemote(final File fileToTransfer, final String destDirectory, final boolean preserveTimestamp,
+			final FileTransferOptions options) throws CommandExecutionException {
+		long start = System.currentTimeMillis();
+		if (options.getTransferMode() == TransferMode.SFTP) {
+			copyFileWithSftp(fileToTransfer, destDirectory, preserveTimestamp, options);
+		} else {
+			copyFileWithScp(fileToTransfer, destDirectory, preserveTimestamp, options);
+		}
+		long duration = Math.max(1, System.currentTimeMillis() - start);
+		logger.info("Copied {} bytes in {} ms ({} KB/s) with {}", new Object[] { fileToTransfer.length(), duration,
+				fileToTransfer.length() * 1000 / 1024 / duration, options });
+	}
+
+	private void copyFileWithScp(final File fileToTransfer, final String destDirectory,
+			final boolean preserveTimestamp, final FileTransferOptions options) throws CommandExecutionException {
 
-		FileInputStream fis = null;
 		String error = null;
+		Channel channel = null;
 
 		try {
 
@@ -259,7 +343,7 @@ public class SSHManager {
 
 			logger.info("Command: {}", command);
 
-			Channel channel = session.openChannel("exec");
+			channel = session.openChannel("exec");
 			((ChannelExec) channel).setCommand(command);
 
 			OutputStream out = channel.getOutputStream();
@@ -283,42 +367,178 @@ public class SSHManager {
 				}
 			}
 
-			// send scp command
-			long filesize = fileToTransfer.length();
-			command = "C0644 " + filesize + " " + fileToTransfer.getName() + "\n";
-			out.write(command.getBytes());
-			out.flush();
-			if ((error = checkAck(in)) != null) {
-				throw new CommandExecutionException(error);
+			sendFile(fileToTransfer, out, in, options);
+			out.close();
+
+		} catch (Exception e) {
+			logger.error(e.getMessage(), e);
+			throw new CommandExecutionException(e.getMessage());
+		} finally {
+			// Session may be reused, do not leave the channel open
+			if (channel != null) {
+				channel.disconnect();
 			}
+		}
 
-			// send content of local file
-			fis = new FileInputStream(fileToTransfer);
-			byte[] buf = new byte[1024];
-			while (true) {
-				int len = fis.read(buf, 0, buf.length);
-				if (len <= 0)
-					break;
-				out.write(buf, 0, len); // out.flush();
+	}
+
+	/**
+	 * Copies file over SFTP. Unlike SCP, several write requests are sent
+	 * without waiting for their acknowledgements (up to
+	 * {@link FileTransferOptions#getBulkRequests()}), so latency of the link
+	 * does not limit the throughput.
+	 */
+	private void copyFileWithSftp(final File fileToTransfer, final String destDirectory,
+			final boolean preserveTimestamp, final FileTransferOptions options) throws CommandExecutionException {
+
+		ChannelSftp channel = null;
+		InputStream in = null;
+
+		try {
+			String dest = destDirectory + fileToTransfer.getName();
+			logger.info("SFTP put: {}", dest);
+
+			channel = (ChannelSftp) session.openChannel("sftp");
+			channel.connect(Constants.SSH_CONFIG.CHANNEL_TIMEOUT);
+			channel.setBulkRequests(options.getBulkRequests());
+
+			in = openFile(fileToTransfer, options);
+			channel.put(in, dest, ChannelSftp.OVERWRITE);
+
+			if (preserveTimestamp) {
+				channel.setMtime(dest, (int) (fileToTransfer.lastModified() / 1000));
 			}
-			fis.close();
-			fis = null;
-			// send '\0'
-			buf[0] = 0;
-			out.write(buf, 0, 1);
-			out.flush();
+
+		} catch (Exception e) {
+			logger.error(e.getMessage(), e);
+			throw new CommandExecutionException(e.getMessage());
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+			// Session may be reused, do not leave the channel open
+			if (channel != null) {
+				channel.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Safe-copies provided local files to remote server in a single transfer.
+	 * If a directory name is given, files are copied into a new directory with
+	 * that name under the destination directory.
+	 * 
+	 * @param filesToTransfer
+	 * @param destDirectory
+	 * @param directoryName
+	 *            name of the directory to be created, may be null
+	 * @throws CommandExecutionException
+	 */
+	public void copyFilesToRemote(final List<File> filesToTransfer, final String destDirectory,
+			final String directoryName) throws CommandExecutionException {
+
+		String error = null;
+		Channel channel = null;
+
+		try {
+
+			String command = "scp " + (directoryName != null ? "-r" : "-d") + " -t " + destDirectory;
+
+			logger.info("Command: {}", command);
+
+			channel = session.openChannel("exec");
+			((ChannelExec) channel).setCommand(command);
+
+			OutputStream out = channel.getOutputStream();
+			InputStream in = channel.getInputStream();
+
+			channel.connect(Constants.SSH_CONFIG.CHANNEL_TIMEOUT);
+
 			if ((error = checkAck(in)) != null) {
 				throw new CommandExecutionException(error);
 			}
-			out.close();
 
-			channel.disconnect();
+			if (directoryName != null) {
+				// enter directory (it is created if it does not exist)
+				out.write(("D0755 0 " + directoryName + "\n").getBytes());
+				out.flush();
+				if ((error = checkAck(in)) != null) {
+					throw new CommandExecutionException(error);
+				}
+			}
+
+			FileTransferOptions options = new FileTransferOptions();
+			for (File fileToTransfer : filesToTransfer) {
+				sendFile(fileToTransfer, out, in, options);
+			}
+
+			if (directoryName != null) {
+				// leave directory
+				out.write("E\n".getBytes());
+				out.flush();
+				if ((error = checkAck(in)) != null) {
+					throw new CommandExecutionException(error);
+				}
+			}
+			out.close();
 
 		} catch (Exception e) {
 			logger.error(e.getMessage(), e);
 			throw new CommandExecutionException(e.getMessage());
+		} finally {
+			// Session may be reused, do not leave the channel open
+			if (channel != null) {
+				channel.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Sends a single file over an SCP channel which is already acknowledged.
+	 */
+	private static void sendFile(final File fileToTransfer, final OutputStream out, final InputStream in,
+			final FileTransferOptions options) throws IOException, CommandExecutionException {
+		String error = null;
+
+		// send scp command, file is created with the given mode so that it is
+		// never readable by others, even for a moment
+		long filesize = fileToTransfer.length();
+		String command = "C" + String.format("%04o", options.getFileMode() & 07777) + " " + filesize + " "
+				+ fileToTransfer.getName() + "\n";
+		out.write(command.getBytes());
+		out.flush();
+		if ((error = checkAck(in)) != null) {
+			throw new CommandExecutionException(error);
 		}
 
+		// send content of local file, acknowledgement is read only once the
+		// whole content is sent
+		InputStream fis = openFile(fileToTransfer, options);
+		byte[] buf = new byte[options.getBufferSize()];
+		try {
+			while (true) {
+				int len = fis.read(buf, 0, buf.length);
+				if (len <= 0)
+					break;
+				out.write(buf, 0, len); // out.flush();
+			}
+		} finally {
+			fis.close();
+		}
+		// send '\0'
+		buf[0] = 0;
+		out.write(buf, 0, 1);
+		out.flush();
+		if ((error = checkAck(in)) != null) {
+			throw new CommandExecutionException(error);
+		}
+	}
+
+	private static InputStream openFile(final File file, final FileTransferOptions options) throws IOException {
+		return new FileChannelInputStream(file, options.isMappedRead(), Constants.SSH_CONFIG.MAPPED_REGION_SIZE);
 	}
 
 	private static String checkAck(final InputStream in) throws IOException {
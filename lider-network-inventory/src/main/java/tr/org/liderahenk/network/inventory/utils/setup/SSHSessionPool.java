@@ -0,0 +1,365 @@
+package tr.org.liderahenk.network.inventory.utils.setup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tr.org.liderahenk.network.inventory.contants.Constants;
+import tr.org.liderahenk.network.inventory.exception.SSHConnectionException;
+
+/**
+ * Keeps connected SSH sessions so that consecutive operations on the same
+ * machine (e.g. each step of an Ahenk installation) do not need a new SSH
+ * handshake.
+ * <p>
+ * Sessions are keyed by IP, port, username and credentials. A borrowed session
+ * is used by a single thread and returned via {@link #release(SSHManager)}.
+ * Idle sessions are checked before they are reused, and disconnected after
+ * they stay idle for {@link Constants.SSH_CONFIG#POOL_IDLE_TIMEOUT} ms. Number
+ * of sessions borrowed at the same time for a host is limited by
+ * {@link Constants.SSH_CONFIG#POOL_MAX_CHANNELS_PER_HOST}.
+ *
+ */
+public class SSHSessionPool {
+
+	private static final Logger logger = LoggerFactory.getLogger(SSHSessionPool.class);
+
+	private static SSHSessionPool instance;
+
+	private final Map<SessionKey, LinkedList<IdleSession>> idleSessions = new HashMap<SessionKey, LinkedList<IdleSession>>();
+	private final Map<String, Semaphore> hostPermits = new HashMap<String, Semaphore>();
+	private final Map<SSHManager, SessionKey> borrowed = new HashMap<SSHManager, SessionKey>();
+
+	private final long idleTimeout;
+	private final int maxChannelsPerHost;
+	private final long borrowTimeout;
+
+	private Timer evictor;
+
+	public static synchronized SSHSessionPool getInstance() {
+		if (instance == null) {
+			instance = new SSHSessionPool(Constants.SSH_CONFIG.POOL_IDLE_TIMEOUT,
+					Constants.SSH_CONFIG.POOL_MAX_CHANNELS_PER_HOST, Constants.SSH_CONFIG.POOL_BORROW_TIMEOUT);
+		}
+		return instance;
+	}
+
+	/**
+	 * @param idleTimeout
+	 *            idle sessions are disconnected after this duration (ms)
+	 * @param maxChannelsPerHost
+	 *            maximum number of sessions borrowed at the same time for a
+	 *            host
+	 * @param borrowTimeout
+	 *            maximum duration (ms) to wait for a host which is at its limit
+	 */
+	public SSHSessionPool(long idleTimeout, int maxChannelsPerHost, long borrowTimeout) {
+		this.idleTimeout = idleTimeout;
+		this.maxChannelsPerHost = maxChannelsPerHost;
+		this.borrowTimeout = borrowTimeout;
+	}
+
+	/**
+	 * Returns a connected SSH manager for the given machine. An idle session is
+	 * reused if it is still healthy, otherwise a new session is connected.
+	 *
+	 * @param ip
+	 * @param username
+	 * @param password
+	 * @param port
+	 * @param privateKey
+	 * @param passphrase
+	 * @return connected SSH manager which must be released after use
+	 * @throws SSHConnectionException
+	 *             if it fails to connect
+	 */
+	public SSHManager borrow(String ip, String username, String password, Integer port, String privateKey,
+			String passphrase) throws SSHConnectionException {
+
+		SessionKey key = new SessionKey(ip, port == null ? Constants.SSH_CONFIG.CONNECTION_PORT : port, username,
+				password, privateKey, passphrase);
+
+		Semaphore permits = getPermits(ip);
+		try {
+			if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+				throw new SSHConnectionException("Timed out waiting for an SSH session to " + ip);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SSHConnectionException(e.getMessage());
+		}
+
+		try {
+			SSHManager manager;
+			while ((manager = pollIdle(key)) != null) {
+				if (isHealthy(manager)) {
+					logger.debug("Reusing SSH session to: {}", ip);
+					break;
+				}
+				logger.debug("Discarding broken SSH session to: {}", ip);
+				disconnectQuietly(manager);
+			}
+			if (manager == null) {
+				manager = connect(ip, username, password, port, privateKey, passphrase);
+			}
+			synchronized (this) {
+				borrowed.put(manager, key);
+			}
+			return manager;
+		} catch (SSHConnectionException e) {
+			permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns a borrowed SSH manager to the pool so that it can be reused.
+	 *
+	 * @param manager
+	 */
+	public void release(SSHManager manager) {
+		if (manager == null) {
+			return;
+		}
+		boolean healthy = isHealthy(manager);
+		SessionKey key;
+		synchronized (this) {
+			key = borrowed.remove(manager);
+			if (key != null && healthy) {
+				LinkedList<IdleSession> sessions = idleSessions.get(key);
+				if (sessions == null) {
+					sessions = new LinkedList<IdleSession>();
+					idleSessions.put(key, sessions);
+				}
+				sessions.addFirst(new IdleSession(manager, System.currentTimeMillis()));
+				startEvictor();
+				manager = null;
+			}
+		}
+		if (manager != null) {
+			disconnectQuietly(manager);
+		}
+		if (key != null) {
+			getPermits(key.ip).release();
+		}
+	}
+
+	/**
+	 * Disconnects a borrowed SSH manager instead of returning it to the pool
+	 * (e.g. if its session is known to be broken).
+	 *
+	 * @param manager
+	 */
+	public void invalidate(SSHManager manager) {
+		if (manager == null) {
+			return;
+		}
+		SessionKey key;
+		synchronized (this) {
+			key = borrowed.remove(manager);
+		}
+		disconnectQuietly(manager);
+		if (key != null) {
+			getPermits(key.ip).release();
+		}
+	}
+
+	/**
+	 * Disconnects all idle sessions. It is called when the bundle is stopped.
+	 */
+	public void close() {
+		List<SSHManager> managers = new ArrayList<SSHManager>();
+		synchronized (this) {
+			for (LinkedList<IdleSession> sessions : idleSessions.values()) {
+				for (IdleSession session : sessions) {
+					managers.add(session.manager);
+				}
+			}
+			idleSessions.clear();
+			if (evictor != null) {
+				evictor.cancel();
+				evictor = null;
+			}
+		}
+		for (SSHManager manager : managers) {
+			disconnectQuietly(manager);
+		}
+	}
+
+	/**
+	 * Disconnects sessions which have been idle longer than the idle timeout.
+	 */
+	public void evictIdle() {
+		List<SSHManager> expired = new ArrayList<SSHManager>();
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			Iterator<LinkedList<IdleSession>> it = idleSessions.values().iterator();
+			while (it.hasNext()) {
+				LinkedList<IdleSession> sessions = it.next();
+				Iterator<IdleSession> sessionIt = sessions.iterator();
+				while (sessionIt.hasNext()) {
+					IdleSession session = sessionIt.next();
+					if (now - session.since >= idleTimeout) {
+						expired.add(session.manager);
+						sessionIt.remove();
+					}
+				}
+				if (sessions.isEmpty()) {
+					it.remove();
+				}
+			}
+			if (idleSessions.isEmpty() && evictor != null) {
+				evictor.cancel();
+				evictor = null;
+			}
+		}
+		for (SSHManager manager : expired) {
+			logger.debug("Disconnecting idle SSH session to: {}", manager.getIp());
+			disconnectQuietly(manager);
+		}
+	}
+
+	/**
+	 * Connects a new session to the given machine.
+	 */
+	protected SSHManager connect(String ip, String username, String password, Integer port, String privateKey,
+			String passphrase) throws SSHConnectionException {
+		SSHManager manager = new SSHManager(ip, username, password, port, privateKey, passphrase);
+		manager.connect();
+		return manager;
+	}
+
+	private synchronized SSHManager pollIdle(SessionKey key) {
+		LinkedList<IdleSession> sessions = idleSessions.get(key);
+		if (sessions == null) {
+			return null;
+		}
+		while (!sessions.isEmpty()) {
+			IdleSession session = sessions.removeFirst();
+			if (System.currentTimeMillis() - session.since < idleTimeout) {
+				return session.manager;
+			}
+			disconnectQuietly(session.manager);
+		}
+		idleSessions.remove(key);
+		return null;
+	}
+
+	private synchronized Semaphore getPermits(String ip) {
+		Semaphore permits = hostPermits.get(ip);
+		if (permits == null) {
+			permits = new Semaphore(maxChannelsPerHost, true);
+			hostPermits.put(ip, permits);
+		}
+		return permits;
+	}
+
+	private void startEvictor() {
+		if (evictor == null) {
+			evictor = new Timer("ssh-session-pool-evictor", true);
+			evictor.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					evictIdle();
+				}
+			}, idleTimeout, idleTimeout);
+		}
+	}
+
+	private static boolean isHealthy(SSHManager manager) {
+		try {
+			if (manager.getSession() == null || !manager.getSession().isConnected()) {
+				return false;
+			}
+			// Fails if the underlying socket is already broken
+			manager.getSession().sendKeepAliveMsg();
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	private static void disconnectQuietly(SSHManager manager) {
+		try {
+			manager.disconnect();
+		} catch (Exception e) {
+			logger.debug("Exception while disconnecting SSH session: {}", e.getMessage());
+		}
+	}
+
+	private static class IdleSession {
+
+		private final SSHManager manager;
+		private final long since;
+
+		private IdleSession(SSHManager manager, long since) {
+			this.manager = manager;
+			this.since = since;
+		}
+
+	}
+
+	private static class SessionKey {
+
+		private final String ip;
+		private final int port;
+		private final String username;
+		private final String password;
+		private final String privateKey;
+		private final String passphrase;
+
+		private SessionKey(String ip, int port, String username, String password, String privateKey,
+				String passphrase) {
+			this.ip = ip;
+			this.port = port;
+			this.username = username;
+			this.password = password;
+			this.privateKey = privateKey;
+			this.passphrase = passphrase;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + ((ip == null) ? 0 : ip.hashCode());
+			result = prime * result + port;
+			result = prime * result + ((username == null) ? 0 : username.hashCode());
+			result = prime * result + ((password == null) ? 0 : password.hashCode());
+			result = prime * result + ((privateKey == null) ? 0 : privateKey.hashCode());
+			result = prime * result + ((passphrase == null) ? 0 : passphrase.hashCode());
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null || getClass() != obj.getClass())
+				return false;
+			SessionKey other = (SessionKey) obj;
+			return port == other.port && equals(ip, other.ip) && equals(username, other.username)
+					&& equals(password, other.password) && equals(privateKey, other.privateKey)
+					&& equals(passphrase, other.passphrase);
+		}
+
+		private static boolean equals(String s1, String s2) {
+			return s1 == null ? s2 == null : s1.equals(s2);
+		}
+
+	}
+
+}
@@ -2,12 +2,17 @@ package tr.org.liderahenk.network.inventory.utils.setup;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.regex.Matcher;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import tr.org.liderahenk.network.inventory.contants.Constants.CopyResult;
 import tr.org.liderahenk.network.inventory.contants.Constants.PackageInstaller;
 import tr.org.liderahenk.network.inventory.exception.CommandExecutionException;
 import tr.org.liderahenk.network.inventory.exception.SSHConnectionException;
@@ -58,6 +63,18 @@ public class SetupUtils {
 	private static final String INSTALL_PACKAGE_GDEBI_WITH_OPTS = "gdebi -n -o {0} {1}";
 	
 	private static final String INSTALL_GDEBI = "apt-get install -y gdebi";
+
+	/**
+	 * Create directory {0} (if it does not exist) and print SHA-256 checksum of
+	 * file {1} (if it exists)
+	 */
+	private static final String CHECKSUM_AND_MAKE_DIR = "mkdir -p '{0}' && (sha256sum '{1}' 2>/dev/null || true)";
+
+	/**
+	 * Runs delta script and removes it (and the literal file if the script
+	 * fails before removing it)
+	 */
+	private static final String APPLY_DELTA = "sh '{0}'; r=$?; rm -f '{0}' '{1}'; exit $r";
 	
 	/**
 	 * Tries to connect via SSH. If password parameter is null, then it tries to
@@ -77,23 +94,14 @@ public class SetupUtils {
 
 		boolean connected = true;
 		try {
-			manager = new SSHManager(ip, username == null ? "root" : username, password, port, privateKey, passphrase);
-			manager.connect();
+			manager = borrowManager(ip, username, password, port, privateKey, passphrase);
 			logger.info("Connection established to: {} with username: {}", new Object[] { ip, username });
 		} catch (SSHConnectionException e) {
 			logger.error(e.getMessage(), e);
 			connected = false;
 		} finally {
-			try {
-				if (manager != null) {
-					manager.disconnect();
-				}
-			} catch (Exception e2) {
-				logger.warn("Unimportant exception while manager class disconnects (it does not affect process).");
-				logger.warn("Unimportant Exception Message: " + e2.getMessage());
-
-				return connected;
-			}
+			// Keep the session for the following operations on this machine
+			releaseManager(manager);
 		}
 
 		return connected;
@@ -122,7 +130,6 @@ public class SetupUtils {
 			logger.debug("Installing package locally.");
 
 			try {
-
 				String command;
 				String logMessage;
 
@@ -158,19 +165,19 @@ public class SetupUtils {
 		} else {
 			logger.info("Installing package remotely on: {} with username: {}", new Object[] { ip, username });
 
-			SSHManager manager = new SSHManager(ip, username == null ? "root" : username, password, port, privateKey,
-					passphrase);
-			manager.connect();
-
-			// If version is not given
-			if (version == null || "".equals(version)) {
-				manager.execCommand(INSTALL_PACKAGE_FROM_REPO_CMD_WITHOUT_VERSION, new Object[] { packageName });
-				logger.info("Package {} installed successfully", new Object[] { packageName });
-			} else {
-				manager.execCommand(INSTALL_PACKAGE_FROM_REPO_CMD, new Object[] { packageName, version });
-				logger.info("Package {}:{} installed successfully", new Object[] { packageName, version });
+			SSHManager manager = borrowManager(ip, username, password, port, privateKey, passphrase);
+			try {
+				// If version is not given
+				if (version == null || "".equals(version)) {
+					manager.execCommand(INSTALL_PACKAGE_FROM_REPO_CMD_WITHOUT_VERSION, new Object[] { packageName });
+					logger.info("Package {} installed successfully", new Object[] { packageName });
+				} else {
+					manager.execCommand(INSTALL_PACKAGE_FROM_REPO_CMD, new Object[] { packageName, version });
+					logger.info("Package {}:{} installed successfully", new Object[] { packageName, version });
+				}
+			} finally {
+				releaseManager(manager);
 			}
-			manager.disconnect();
 		}
 
 	}
@@ -206,7 +213,6 @@ public class SetupUtils {
 			logger.debug("Installing package locally.");
 
 			try {
-
 				copyFile(ip, username, password, port, privateKey, passphrase, debPackage, "/tmp/");
 
 				Process process = Runtime.getRuntime().exec(command);
@@ -232,11 +238,12 @@ public class SetupUtils {
 
 			copyFile(ip, username, password, port, privateKey, passphrase, debPackage, "/tmp/");
 
-			SSHManager manager = new SSHManager(ip, username == null ? "root" : username, password, port, privateKey,
-					passphrase);
-			manager.connect();
-			manager.execCommand(command, new Object[] {});
-			manager.disconnect();
+			SSHManager manager = borrowManager(ip, username, password, port, privateKey, passphrase);
+			try {
+				manager.execCommand(command, new Object[] {});
+			} finally {
+				releaseManager(manager);
+			}
 
 			logger.info("Package {} installed successfully", debPackage.getName());
 		}
@@ -285,7 +292,6 @@ public class SetupUtils {
 
 			try {
 
-
 				Process process = Runtime.getRuntime().exec(command);
 
 				int exitValue = process.waitFor();
@@ -307,19 +313,40 @@ public class SetupUtils {
 
 			logger.debug("Installing package remotely on: {} with username: {}", new Object[] { ip, username });
 
-			SSHManager manager = new SSHManager(ip, username == null ? "root" : username, password, port, privateKey,
-					passphrase);
-			manager.connect();
-			manager.execCommand(command, new Object[] {});
-			manager.disconnect();
+			SSHManager manager = borrowManager(ip, username, password, port, privateKey, passphrase);
+			try {
+				manager.execCommand(command, new Object[] {});
+			} finally {
+				releaseManager(manager);
+			}
 
 			logger.info("Package {} installed successfully", filename);
 		}
 	}
 
+	/**
+	 * Escapes a value which is put into a single-quoted shell literal. Each
+	 * quote ends the literal, adds an escaped quote and starts a new literal,
+	 * so the value cannot leave the literal.
+	 * 
+	 * @param value
+	 * @return
+	 */
+	public static String escapeSingleQuotes(String value) {
+		return value.replace("'", "'\\''");
+	}
+
+	/**
+	 * Replaces each key of the map in the text with its value, values are
+	 * inserted literally.
+	 * 
+	 * @param map
+	 * @param text
+	 * @return
+	 */
 	public static String replace(Map<String, String> map, String text) {
 		for (Entry<String, String> entry : map.entrySet()) {
-			text = text.replaceAll(entry.getKey().replaceAll("#", "\\#"), entry.getValue());
+			text = text.replaceAll(entry.getKey().replaceAll("#", "\\#"), Matcher.quoteReplacement(entry.getValue()));
 		}
 		return text;
 	}
@@ -340,6 +367,28 @@ public class SetupUtils {
 	public static void copyFile(final String ip, final String username, final String password, final Integer port,
 			final String privateKey, final String passphrase, final File fileToTranster, final String destDirectory)
 					throws SSHConnectionException, CommandExecutionException {
+		copyFile(ip, username, password, port, privateKey, passphrase, fileToTranster, destDirectory,
+				new FileTransferOptions());
+	}
+
+	/**
+	 * 
+	 * @param ip
+	 * @param username
+	 * @param password
+	 * @param port
+	 * @param privateKey
+	 * @param passphrase
+	 * @param fileToTranster
+	 * @param destDirectory
+	 * @param options
+	 *            transfer mode, buffer size etc.
+	 * @throws SSHConnectionException
+	 * @throws CommandExecutionException
+	 */
+	public static void copyFile(final String ip, final String username, final String password, final Integer port,
+			final String privateKey, final String passphrase, final File fileToTranster, final String destDirectory,
+			final FileTransferOptions options) throws SSHConnectionException, CommandExecutionException {
 		String destinationDir = destDirectory;
 		if (!destinationDir.endsWith("/")) {
 			destinationDir += "/";
@@ -347,15 +396,208 @@ public class SetupUtils {
 
 		logger.info("Copying file to: {0} with username: {1}", new Object[] { ip, username });
 
-		SSHManager manager = new SSHManager(ip, username == null ? "root" : username, password, port, privateKey,
-				passphrase);
-		manager.connect();
-		manager.copyFileToRemote(fileToTranster, destinationDir, false);
-		manager.disconnect();
+		SSHManager manager = borrowManager(ip, username, password, port, privateKey, passphrase);
+		try {
+			manager.copyFileToRemote(fileToTranster, destinationDir, false, options);
+		} finally {
+			releaseManager(manager);
+		}
 
 		logger.info("File {0} copied successfully", fileToTranster.getName());
 	}
 
+	/**
+	 * Copies file to the given machine unless an identical file (with the same
+	 * SHA-256 checksum) already exists in the destination directory. Checksum
+	 * of the remote file is read and destination directory is created in a
+	 * single remote command.
+	 * 
+	 * @param ip
+	 * @param username
+	 * @param password
+	 * @param port
+	 * @param privateKey
+	 * @param passphrase
+	 * @param fileToTransfer
+	 * @param checksum
+	 *            SHA-256 checksum (hex) of the file
+	 * @param destDirectory
+	 * @return true if the file is copied, false if it already exists
+	 * @throws SSHConnectionException
+	 * @throws CommandExecutionException
+	 */
+	public static boolean copyFileIfChanged(final String ip, final String username, final String password,
+			final Integer port, final String privateKey, final String passphrase, final File fileToTransfer,
+			final String checksum, final String destDirectory) throws SSHConnectionException, CommandExecutionException {
+		return syncFile(ip, username, password, port, privateKey, passphrase, fileToTransfer, checksum,
+				destDirectory, new FileTransferOptions()) != CopyResult.SKIPPED;
+	}
+
+	/**
+	 * Brings the file in the destination directory up to date. Checksum of
+	 * the remote file (and checksums of its blocks if delta transfer is
+	 * enabled) is read and destination directory is created in a single
+	 * remote command. Then the copy is either skipped, or only the changed
+	 * blocks are sent, or the whole file is copied.
+	 * 
+	 * @param ip
+	 * @param username
+	 * @param password
+	 * @param port
+	 * @param privateKey
+	 * @param passphrase
+	 * @param fileToTransfer
+	 * @param checksum
+	 *            SHA-256 checksum (hex) of the file
+	 * @param destDirectory
+	 * @param options
+	 *            transfer mode, delta block size etc.
+	 * @return how the file is brought up to date
+	 * @throws SSHConnectionException
+	 * @throws CommandExecutionException
+	 */
+	public static CopyResult syncFile(final String ip, final String username, final String password,
+			final Integer port, final String privateKey, final String passphrase, final File fileToTransfer,
+			final String checksum, final String destDirectory, final FileTransferOptions options)
+					throws SSHConnectionException, CommandExecutionException {
+		String destinationDir = destDirectory;
+		if (!destinationDir.endsWith("/")) {
+			destinationDir += "/";
+		}
+		String remoteFile = destinationDir + fileToTransfer.getName();
+
+		if (!NetworkUtils.isLocal(ip)) {
+			String command = CHECKSUM_AND_MAKE_DIR.replace("{0}", destinationDir).replace("{1}", remoteFile);
+			if (options.getDeltaBlockSize() > 0) {
+				command += " && " + BlockDelta.getSignatureCommand(remoteFile, options.getDeltaBlockSize(), checksum);
+			}
+
+			final StringBuilder remoteChecksum = new StringBuilder();
+			final List<String> blockChecksums = new ArrayList<String>();
+			executeCommand(ip, username, password, port, privateKey, passphrase, command,
+					new IOutputLineConsumer() {
+						@Override
+						public void consume(String line) {
+							// sha256sum output: <checksum>  <file>
+							// md5sum output of a block: <checksum>  -
+							String[] tokens = line.trim().split("\\s+");
+							if (tokens.length < 2) {
+								return;
+							}
+							if ("-".equals(tokens[1])) {
+								blockChecksums.add(tokens[0]);
+							} else if (remoteChecksum.length() == 0) {
+								remoteChecksum.append(tokens[0]);
+							}
+						}
+					});
+			if (checksum.equalsIgnoreCase(remoteChecksum.toString())) {
+				logger.info("File {} already exists on: {}, skipping copy.", fileToTransfer.getName(), ip);
+				return CopyResult.SKIPPED;
+			}
+
+			if (!blockChecksums.isEmpty()) {
+				try {
+					if (copyDelta(ip, username, password, port, privateKey, passphrase, fileToTransfer, checksum,
+							destinationDir, options.getDeltaBlockSize(), blockChecksums)) {
+						return CopyResult.DELTA;
+					}
+				} catch (IOException e) {
+					logger.warn("Delta transfer to: {} failed, copying whole file: {}",
+							new Object[] { ip, e.getMessage() });
+				} catch (CommandExecutionException e) {
+					logger.warn("Delta transfer to: {} failed, copying whole file: {}",
+							new Object[] { ip, e.getMessage() });
+				}
+			}
+		}
+
+		copyFile(ip, username, password, port, privateKey, passphrase, fileToTransfer, destinationDir, options);
+		return CopyResult.COPIED;
+	}
+
+	/**
+	 * Sends changed blocks of the file with a script which rebuilds the file
+	 * on the remote machine.
+	 * 
+	 * @return false if delta is not worth sending
+	 */
+	private static boolean copyDelta(final String ip, final String username, final String password,
+			final Integer port, final String privateKey, final String passphrase, final File fileToTransfer,
+			final String checksum, final String destinationDir, final int blockSize,
+			final List<String> blockChecksums) throws IOException, SSHConnectionException, CommandExecutionException {
+
+		BlockDelta delta = new BlockDelta(fileToTransfer, blockSize, blockChecksums);
+		logger.info("Delta for {} on {}: {} of {} blocks changed", new Object[] { fileToTransfer.getName(), ip,
+				delta.getLiteralBlockCount(), delta.getBlockCount() });
+		if (!delta.isWorthwhile()) {
+			return false;
+		}
+
+		File localDir = Files.createTempDirectory("delta").toFile();
+		String literalName = "." + fileToTransfer.getName() + ".delta";
+		File literalFile = new File(localDir, literalName);
+		File scriptFile = new File(localDir, literalName + ".sh");
+		try {
+			delta.writeLiteralFile(literalFile);
+			delta.writeScript(scriptFile, destinationDir + fileToTransfer.getName(), destinationDir + literalName,
+					checksum);
+
+			List<File> files = new ArrayList<File>();
+			files.add(literalFile);
+			files.add(scriptFile);
+			copyFiles(ip, username, password, port, privateKey, passphrase, files, destinationDir, null);
+
+			String remoteScript = destinationDir + scriptFile.getName();
+			executeCommand(ip, username, password, port, privateKey, passphrase,
+					APPLY_DELTA.replace("{0}", remoteScript).replace("{1}", destinationDir + literalName));
+		} finally {
+			literalFile.delete();
+			scriptFile.delete();
+			localDir.delete();
+		}
+		return true;
+	}
+
+	/**
+	 * Copies given files to the given machine in a single transfer. If a
+	 * directory name is given, files are copied into a new directory with that
+	 * name under the destination directory.
+	 * 
+	 * @param ip
+	 * @param username
+	 * @param password
+	 * @param port
+	 * @param privateKey
+	 * @param passphrase
+	 * @param filesToTransfer
+	 * @param destDirectory
+	 * @param directoryName
+	 * @throws SSHConnectionException
+	 * @throws CommandExecutionException
+	 */
+	public static void copyFiles(final String ip, final String username, final String password, final Integer port,
+			final String privateKey, final String passphrase, final List<File> filesToTransfer,
+			final String destDirectory, final String directoryName)
+					throws SSHConnectionException, CommandExecutionException {
+		String destinationDir = destDirectory;
+		if (!destinationDir.endsWith("/")) {
+			destinationDir += "/";
+		}
+
+		logger.info("Copying {} files to: {} with username: {}",
+				new Object[] { filesToTransfer.size(), ip, username });
+
+		SSHManager manager = borrowManager(ip, username, password, port, privateKey, passphrase);
+		try {
+			manager.copyFilesToRemote(filesToTransfer, destinationDir, directoryName);
+		} finally {
+			releaseManager(manager);
+		}
+
+		logger.info("Files copied successfully to: {}", ip);
+	}
+
 	/**
 	 * Downloads a file from given URL to given machine. It creates another
 	 * folder with provided name under /tmp to prevent duplication of files.
@@ -390,7 +632,6 @@ public class SetupUtils {
 			logger.info("Executing command locally.");
 
 			try {
-
 				Process process = Runtime.getRuntime().exec(command);
 
 				int exitValue = process.waitFor();
@@ -411,15 +652,15 @@ public class SetupUtils {
 		} else {
 			logger.info("Executing command remotely on: {0} with username: {1}", new Object[] { ip, username });
 
-			SSHManager manager = new SSHManager(ip, username == null ? "root" : username, password, port, privateKey,
-					passphrase);
-			manager.connect();
-
-			manager.execCommand(command, new Object[] {});
-			logger.info("Command: '{0}' executed successfully.",
-					new Object[] { DOWNLOAD_PACKAGE.replace("{0}", filename).replace("{1}", downloadUrl) });
+			SSHManager manager = borrowManager(ip, username, password, port, privateKey, passphrase);
+			try {
+				manager.execCommand(command, new Object[] {});
+				logger.info("Command: '{0}' executed successfully.",
+						new Object[] { DOWNLOAD_PACKAGE.replace("{0}", filename).replace("{1}", downloadUrl) });
 
-			manager.disconnect();
+			} finally {
+				releaseManager(manager);
+			}
 		}
 
 	}
@@ -441,12 +682,33 @@ public class SetupUtils {
 	public static void executeCommand(final String ip, final String username, final String password, final Integer port,
 			final String privateKey, final String passphrase, final String command)
 					throws SSHConnectionException, CommandExecutionException {
+		executeCommand(ip, username, password, port, privateKey, passphrase, command, null);
+	}
+
+	/**
+	 * 
+	 * Executes a command on the given machine and passes each line of its
+	 * output to the given consumer (if the machine is remote).
+	 * 
+	 * @param ip
+	 * @param username
+	 * @param password
+	 * @param port
+	 * @param privateKey
+	 * @param passphrase
+	 * @param command
+	 * @param outputLineConsumer
+	 * @throws SSHConnectionException
+	 * @throws CommandExecutionException
+	 */
+	public static void executeCommand(final String ip, final String username, final String password, final Integer port,
+			final String privateKey, final String passphrase, final String command,
+			final IOutputLineConsumer outputLineConsumer) throws SSHConnectionException, CommandExecutionException {
 		if (NetworkUtils.isLocal(ip)) {
 
 			logger.info("Executing command locally.");
 
 			try {
-
 				Process process = Runtime.getRuntime().exec(command);
 
 				int exitValue = process.waitFor();
@@ -468,13 +730,13 @@ public class SetupUtils {
 			logger.info("Executing command remotely on: {0} with username: {1}",
 					new Object[] { ip, username });
 
-			SSHManager manager = new SSHManager(ip, username == null ? "root" : username, password, port, privateKey, passphrase);
-			manager.connect();
-
-			manager.execCommand(command, new Object[] {});
-			logger.info("Command: '{0}' executed successfully.", new Object[] { command });
-
-			manager.disconnect();
+			SSHManager manager = borrowManager(ip, username, password, port, privateKey, passphrase);
+			try {
+				manager.execCommand(command, new Object[] {}, null, outputLineConsumer);
+				logger.info("Command: '{0}' executed successfully.", new Object[] { command });
+			} finally {
+				releaseManager(manager);
+			}
 		}
 
 	}
@@ -503,19 +765,32 @@ public class SetupUtils {
 
 		String command;
 
-		SSHManager manager = new SSHManager(ip, username == null ? "root" : username, password, port, privateKey,
-				passphrase);
-
-		manager.connect();
-		
-		// Add given options and deb package.
-		command = INSTALL_PACKAGE_GDEBI_WITH_OPTS.replace("{0}", dpkgOpts).replace("{1}", debPackagePath);
-		manager.execCommand(INSTALL_GDEBI, new Object[] {});
+		SSHManager manager = borrowManager(ip, username, password, port, privateKey, passphrase);
+		try {
+			// Add given options and deb package.
+			command = INSTALL_PACKAGE_GDEBI_WITH_OPTS.replace("{0}", dpkgOpts).replace("{1}", debPackagePath);
+			manager.execCommand(INSTALL_GDEBI, new Object[] {});
 
-		manager.execCommand(command, new Object[] {});
-		manager.disconnect();
+			manager.execCommand(command, new Object[] {});
+		} finally {
+			releaseManager(manager);
+		}
 
 		logger.info("Package {0} installed successfully", debPackagePath);
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Borrows a connected SSH manager from the session pool. It must be
+	 * released via releaseManager() after use.
+	 */
+	private static SSHManager borrowManager(final String ip, final String username, final String password,
+			final Integer port, final String privateKey, final String passphrase) throws SSHConnectionException {
+		return SSHSessionPool.getInstance().borrow(ip, username == null ? "root" : username, password, port,
+				privateKey, passphrase);
+	}
+
+	private static void releaseManager(SSHManager manager) {
+		SSHSessionPool.getInstance().release(manager);
+	}
+
+}
@@ -0,0 +1,195 @@
+package tr.org.liderahenk.network.inventory.utils.setup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tr.org.liderahenk.network.inventory.contants.Constants;
+
+/**
+ * Keeps files which are uploaded from Lider Console in chunks, so that large
+ * files are written to disk as they arrive instead of being passed as a
+ * single parameter.
+ * <p>
+ * Each upload is identified by an ID generated by the console. A chunk is
+ * written at its offset, so a chunk may be sent again after a failure, and an
+ * interrupted upload can be resumed from {@link #getSize(String)}. Completed
+ * files are kept in a separate directory of the upload, so their names do not
+ * collide with the part file. Uploads
+ * which are not used for {@link Constants.UPLOAD_CONFIG#EXPIRATION} ms are
+ * deleted.
+ *
+ */
+public class UploadStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(UploadStore.class);
+
+	private static final String PART_FILE = "upload.part";
+
+	private static final String FILES_DIRECTORY = "files";
+
+	private static UploadStore instance;
+
+	private final File directory;
+
+	public static synchronized UploadStore getInstance() {
+		if (instance == null) {
+			instance = new UploadStore(
+					new File(System.getProperty("java.io.tmpdir"), Constants.UPLOAD_CONFIG.DIRECTORY));
+		}
+		return instance;
+	}
+
+	public UploadStore(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * @param uploadId
+	 * @return number of bytes received so far
+	 * @throws IOException
+	 */
+	public synchronized long getSize(String uploadId) throws IOException {
+		File part = getPartFile(uploadId);
+		return part.isFile() ? part.length() : 0;
+	}
+
+	/**
+	 * Writes chunk at the given offset.
+	 * 
+	 * @param uploadId
+	 * @param offset
+	 * @param chunk
+	 * @return number of bytes received so far
+	 * @throws IOException
+	 *             if the offset is beyond the received bytes
+	 */
+	public synchronized long write(String uploadId, long offset, byte[] chunk) throws IOException {
+		File part = getPartFile(uploadId);
+		long size = part.isFile() ? part.length() : 0;
+		if (offset < 0 || offset > size) {
+			throw new IOException("Invalid offset: " + offset + " for upload: " + uploadId + " received: " + size);
+		}
+		if (!part.getParentFile().isDirectory() && !part.getParentFile().mkdirs()) {
+			throw new IOException("Could not create upload directory: " + part.getParent());
+		}
+		RandomAccessFile file = new RandomAccessFile(part, "rw");
+		try {
+			file.seek(offset);
+			file.write(chunk);
+			return file.length();
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Completes the upload and returns the uploaded file with its original
+	 * name.
+	 * 
+	 * @param uploadId
+	 * @param filename
+	 * @param expectedSize
+	 *            size of the original file, may be null
+	 * @return uploaded file
+	 * @throws IOException
+	 *             if the upload does not exist or is not complete, or the
+	 *             filename is not valid
+	 */
+	public synchronized File complete(String uploadId, String filename, Long expectedSize) throws IOException {
+		String name = filename != null ? new File(filename).getName() : "";
+		if (name.isEmpty() || ".".equals(name) || "..".equals(name)) {
+			throw new IOException("Invalid filename: " + filename);
+		}
+		File file = new File(new File(getUploadDirectory(uploadId), FILES_DIRECTORY), name);
+		if (file.isFile()) {
+			// Already completed (e.g. distributed before)
+			return file;
+		}
+		File part = getPartFile(uploadId);
+		if (!part.isFile()) {
+			throw new IOException("Upload not found: " + uploadId);
+		}
+		if (expectedSize != null && part.length() != expectedSize) {
+			throw new IOException(
+					"Upload is not complete: " + uploadId + " received: " + part.length() + " size: " + expectedSize);
+		}
+		if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+			throw new IOException("Could not create upload directory: " + file.getParent());
+		}
+		Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return file;
+	}
+
+	/**
+	 * Deletes the upload and its files.
+	 * 
+	 * @param uploadId
+	 */
+	public synchronized void remove(String uploadId) {
+		try {
+			delete(getUploadDirectory(uploadId));
+		} catch (IOException e) {
+			logger.warn(e.getMessage());
+		}
+	}
+
+	/**
+	 * Deletes uploads which have not been modified for a long time.
+	 */
+	public synchronized void removeExpired() {
+		File[] uploads = directory.listFiles();
+		if (uploads == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		for (File upload : uploads) {
+			if (upload.isDirectory() && now - lastModified(upload) > Constants.UPLOAD_CONFIG.EXPIRATION) {
+				logger.info("Deleting expired upload: {}", upload.getName());
+				delete(upload);
+			}
+		}
+	}
+
+	private File getUploadDirectory(String uploadId) throws IOException {
+		if (uploadId == null || !uploadId.matches("[A-Za-z0-9-]{1,64}")) {
+			throw new IOException("Invalid upload ID: " + uploadId);
+		}
+		return new File(directory, uploadId);
+	}
+
+	private File getPartFile(String uploadId) throws IOException {
+		return new File(getUploadDirectory(uploadId), PART_FILE);
+	}
+
+	private static long lastModified(File upload) {
+		long lastModified = upload.lastModified();
+		File[] files = upload.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				lastModified = Math.max(lastModified, file.lastModified());
+			}
+		}
+		return lastModified;
+	}
+
+	private static void delete(File upload) {
+		File[] files = upload.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isDirectory()) {
+					delete(file);
+				} else {
+					file.delete();
+				}
+			}
+		}
+		upload.delete();
+	}
+
+}
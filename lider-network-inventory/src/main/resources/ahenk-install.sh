@@ -0,0 +1,76 @@
+#!/bin/sh
+#
+# Installs Ahenk in a single run. This script is uploaded by Lider together
+# with ahenk.conf and executed as:
+#
+#     sh ahenk-install.sh <work directory>
+#
+# Each step reports its status via the following lines:
+#
+#     ##STEP <name> START
+#     ##STEP <name> OK
+#     ##STEP <name> FAILED <exit code>
+#
+# Placeholders starting with '#' are replaced by Lider before upload.
+#
+
+WORK_DIR=$1
+DOWNLOAD_URL='#DOWNLOAD_URL'
+# Path of the package pushed by Lider (empty if it should be downloaded)
+PACKAGE_PATH='#PACKAGE_PATH'
+
+step() {
+	echo "##STEP $1 START"
+	$2
+	RESULT=$?
+	if [ $RESULT -ne 0 ]; then
+		echo "##STEP $1 FAILED $RESULT"
+		exit $RESULT
+	fi
+	echo "##STEP $1 OK"
+}
+
+download_package() {
+	if [ -n "$PACKAGE_PATH" ]; then
+		cp "$PACKAGE_PATH" $WORK_DIR/ahenk.deb
+	else
+		wget --output-document=$WORK_DIR/ahenk.deb "$DOWNLOAD_URL"
+	fi
+}
+
+add_repository() {
+	echo 'deb http://ftp.pardus.org.tr/lider-ahenk/la-stable yenikusak main' > /etc/apt/sources.list.d/liderahenk.list
+}
+
+add_key() {
+	wget -qO - http://ftp.pardus.org.tr/Release.pub | apt-key add -
+}
+
+update_package_list() {
+	apt-get update
+}
+
+clear_old_files() {
+	rm -rf /etc/ahenk/ahenk.db && rm -rf /opt/ahenk
+}
+
+install_ahenk() {
+	apt-get install -y gdebi && gdebi -n -o Dpkg::Options::='--force-overwrite' $WORK_DIR/ahenk.deb
+}
+
+copy_configuration() {
+	cp $WORK_DIR/ahenk.conf /etc/ahenk/ahenk.conf
+}
+
+start_service() {
+	service ahenk start
+}
+
+step DOWNLOAD download_package
+step ADD_REPOSITORY add_repository
+step ADD_KEY add_key
+step UPDATE_PACKAGE_LIST update_package_list
+step CLEAR_OLD_FILES clear_old_files
+step INSTALL install_ahenk
+step COPY_CONFIGURATION copy_configuration
+step START_SERVICE start_service
@@ -0,0 +1,101 @@
+package org.nmap4j.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.nmap4j.data.NMapRun;
+import org.nmap4j.data.nmaprun.Host;
+import org.nmap4j.parser.events.NMap4JParserEventListener;
+import org.nmap4j.parser.events.ParserEvent;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * The NotifyingParser reads an nmap XML document from a stream and notifies
+ * its listener as soon as each node is closed, so that a host can be handled
+ * right after its closing &lt;/host&gt; tag is read.
+ * <p>
+ * Unlike the OnePassParser, parsed hosts are not collected into the NMapRun
+ * tree. This makes it suitable for large documents (e.g. a scan result which
+ * is read directly from the nmap process output) where keeping the whole
+ * document in memory is not desired.
+ * <p>
+ * It is only used by tests, as the reference which NmapHostParser results
+ * are compared with.
+ *
+ * @see OnePassParser
+ *
+ */
+public class NotifyingParser implements NMap4JParserEventListener {
+
+	private NMapRun nmapRun ;
+
+	private NMapXmlHandler nmxh ;
+
+	private NMap4JParserEventListener listener ;
+
+	public NotifyingParser( NMap4JParserEventListener listener ) {
+		this.listener = listener ;
+		nmxh = new NMapXmlHandler( new NMapRunHandlerImpl() {
+			@Override
+			public NMapRun createNMapRun( Attributes attributes ) {
+				NMapRun parsed = super.createNMapRun( attributes ) ;
+				// Hosts are only published via events, they are not added
+				// to the tree
+				NMapRun run = new NMapRun() {
+					@Override
+					public void addHost( Host host ) {
+					}
+				} ;
+				run.setArgs( parsed.getArgs() ) ;
+				run.setScanner( parsed.getScanner() ) ;
+				run.setStart( parsed.getStart() ) ;
+				run.setStartstr( parsed.getStartstr() ) ;
+				run.setVersion( parsed.getVersion() ) ;
+				run.setXmloutputversion( parsed.getXmloutputversion() ) ;
+				return run ;
+			}
+		} ) ;
+	}
+
+	/**
+	 * Parses the given stream until the end of the document. Listener is
+	 * notified for each node while parsing continues.
+	 *
+	 * @param input
+	 * @return NMapRun instance without any hosts (hosts are only published
+	 *         via events)
+	 * @throws IOException
+	 */
+	public NMapRun parse( InputStream input ) throws IOException {
+
+		nmxh.addListener( this ) ;
+
+		SAXParserFactory spf = SAXParserFactory.newInstance() ;
+		try {
+			SAXParser sp = spf.newSAXParser() ;
+			sp.parse( new InputSource( input ), nmxh ) ;
+		} catch( SAXException se ) {
+			throw new IOException( se.getMessage(), se ) ;
+		} catch( ParserConfigurationException pce ) {
+			throw new IOException( pce.getMessage(), pce ) ;
+		} finally {
+			nmxh.removeListener( this ) ;
+		}
+
+		return nmapRun ;
+	}
+
+	public void parseEventNotification( ParserEvent event ) {
+		if( event.getPayload() instanceof NMapRun ) {
+			nmapRun = (NMapRun) event.getPayload() ;
+		}
+		listener.parseEventNotification( event ) ;
+	}
+
+}
@@ -0,0 +1,127 @@
+package org.nmap4j.parser;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.nmap4j.data.NMapRun;
+import org.nmap4j.data.nmaprun.Host;
+import org.nmap4j.parser.events.NMap4JParserEventListener;
+import org.nmap4j.parser.events.ParserEvent;
+
+import junit.framework.TestCase;
+import tr.org.liderahenk.network.inventory.utils.network.NetworkUtils;
+
+@RunWith(JUnit4.class)
+public class OnePassParserTest extends TestCase {
+
+	private static final int NUM_PARSES = 200;
+	private static final int NUM_THREADS = 20;
+	private static final int HOSTS_PER_DOCUMENT = 5;
+
+	@Test
+	public void concurrentParsesShouldNotCrossTalk() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<String>> futures = new ArrayList<Future<String>>();
+
+		for (int i = 0; i < NUM_PARSES; i++) {
+			final int documentNo = i;
+			futures.add(executor.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					start.await();
+					NMapRun nmapRun = new OnePassParser().parse(createDocument(documentNo),
+							OnePassParser.STRING_INPUT);
+					return joinIps(nmapRun.getHosts());
+				}
+			}));
+		}
+
+		start.countDown();
+		for (int i = 0; i < NUM_PARSES; i++) {
+			assertEquals(expectedIps(i), futures.get(i).get());
+		}
+		executor.shutdown();
+	}
+
+	@Test
+	public void concurrentStreamingParsesShouldNotCrossTalk() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<String>> futures = new ArrayList<Future<String>>();
+
+		for (int i = 0; i < NUM_PARSES; i++) {
+			final int documentNo = i;
+			futures.add(executor.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					final ArrayList<Host> hosts = new ArrayList<Host>();
+					NotifyingParser parser = new NotifyingParser(new NMap4JParserEventListener() {
+						@Override
+						public void parseEventNotification(ParserEvent event) {
+							if (event.getPayload() instanceof Host) {
+								hosts.add((Host) event.getPayload());
+							}
+						}
+					});
+					start.await();
+					parser.parse(new ByteArrayInputStream(createDocument(documentNo).getBytes("UTF-8")));
+					return joinIps(hosts);
+				}
+			}));
+		}
+
+		start.countDown();
+		for (int i = 0; i < NUM_PARSES; i++) {
+			assertEquals(expectedIps(i), futures.get(i).get());
+		}
+		executor.shutdown();
+	}
+
+	private static String createDocument(int documentNo) {
+		StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		xml.append("<nmaprun scanner=\"nmap\" args=\"nmap -oX -\" start=\"0\" version=\"7.01\">");
+		for (int i = 0; i < HOSTS_PER_DOCUMENT; i++) {
+			xml.append("<host><status state=\"up\" reason=\"syn-ack\" reason_ttl=\"0\"/>");
+			xml.append("<address addr=\"").append(ip(documentNo, i)).append("\" addrtype=\"ipv4\"/>");
+			xml.append("<ports><port protocol=\"tcp\" portid=\"22\"><state state=\"open\" reason=\"syn-ack\" reason_ttl=\"0\"/>");
+			xml.append("<service name=\"ssh\" method=\"table\" conf=\"3\"/></port></ports>");
+			xml.append("</host>");
+		}
+		xml.append("<runstats><finished time=\"1\" elapsed=\"1\"/><hosts up=\"").append(HOSTS_PER_DOCUMENT)
+				.append("\" down=\"0\" total=\"").append(HOSTS_PER_DOCUMENT).append("\"/></runstats>");
+		xml.append("</nmaprun>");
+		return xml.toString();
+	}
+
+	private static String ip(int documentNo, int hostNo) {
+		return "10." + (documentNo / 256) + "." + (documentNo % 256) + "." + hostNo;
+	}
+
+	private static String expectedIps(int documentNo) {
+		StringBuilder ips = new StringBuilder();
+		for (int i = 0; i < HOSTS_PER_DOCUMENT; i++) {
+			ips.append(ip(documentNo, i)).append(",");
+		}
+		return ips.toString();
+	}
+
+	private static String joinIps(List<Host> hosts) {
+		StringBuilder ips = new StringBuilder();
+		for (Host host : hosts) {
+			ips.append(NetworkUtils.getIpV4(host)).append(",");
+		}
+		return ips.toString();
+	}
+
+}
@@ -0,0 +1,51 @@
+package tr.org.liderahenk.network.inventory.runnables;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import junit.framework.TestCase;
+import tr.org.liderahenk.network.inventory.dto.ScanResultHostDto;
+import tr.org.liderahenk.network.inventory.utils.network.ILiveHostListener;
+import tr.org.liderahenk.network.inventory.utils.network.IScanResultListener;
+
+@RunWith(JUnit4.class)
+public class RunnableNmapTest extends TestCase {
+
+	@Test
+	public void discoveryShouldNotReportDownHosts() {
+		IScanResultListener resultListener = mock(IScanResultListener.class);
+		ILiveHostListener liveHostListener = mock(ILiveHostListener.class);
+		RunnableNmap unit = new RunnableNmap(resultListener, Arrays.asList("10.0.0.0/30"), null, null, null,
+				new ArrayList<String>(), liveHostListener, null);
+
+		unit.hostScanned(new ScanResultHostDto(null, "10.0.0.1", true, null, null, null, null, null, null));
+		unit.hostScanned(new ScanResultHostDto(null, "10.0.0.2", false, null, null, null, null, null, null));
+
+		verify(liveHostListener).hostUp("10.0.0.1");
+		verify(liveHostListener, never()).hostUp("10.0.0.2");
+		verify(resultListener, never()).hostScanned(any(ScanResultHostDto.class));
+	}
+
+	@Test
+	public void portScanShouldReportScannedHosts() {
+		IScanResultListener resultListener = mock(IScanResultListener.class);
+		RunnableNmap unit = new RunnableNmap(resultListener, Arrays.asList("10.0.0.1"), "22", null, null, null,
+				new ArrayList<String>());
+
+		ScanResultHostDto host = new ScanResultHostDto(null, "10.0.0.1", true, "22/tcp ssh", null, null, null, null,
+				null);
+		unit.hostScanned(host);
+
+		verify(resultListener).hostScanned(host);
+	}
+
+}
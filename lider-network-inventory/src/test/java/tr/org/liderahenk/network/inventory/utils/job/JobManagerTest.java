@@ -0,0 +1,203 @@
+package tr.org.liderahenk.network.inventory.utils.job;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import junit.framework.TestCase;
+import tr.org.liderahenk.lider.core.api.persistence.IPluginDbService;
+import tr.org.liderahenk.network.inventory.contants.Constants.JobStatus;
+import tr.org.liderahenk.network.inventory.dto.JobDto;
+import tr.org.liderahenk.network.inventory.entities.NetworkInventoryJob;
+import tr.org.liderahenk.network.inventory.utils.scheduler.WorkScheduler;
+
+@RunWith(JUnit4.class)
+public class JobManagerTest extends TestCase {
+
+	@Test
+	public void jobShouldReportProgressAndPartialResult() throws Exception {
+		JobManager jobManager = new JobManager();
+		jobManager.setPluginDbService(mock(IPluginDbService.class));
+
+		final CountDownLatch release = new CountDownLatch(1);
+		Job job = jobManager.submit("TEST", new IJobTask() {
+			@Override
+			public Object execute(Job job) throws Exception {
+				final List<String> hosts = Collections.synchronizedList(new ArrayList<String>());
+				job.setPartialResult(hosts, hosts);
+				WorkScheduler scheduler = new WorkScheduler("test", 2);
+				job.track(scheduler);
+				scheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+						}
+						hosts.add("10.0.0.2");
+					}
+				});
+				scheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						hosts.add("10.0.0.1");
+					}
+				});
+				scheduler.awaitCompletion(10, TimeUnit.SECONDS);
+				scheduler.shutdown();
+				return hosts;
+			}
+		});
+
+		long deadline = System.currentTimeMillis() + 10000;
+		while (job.getCompleted() < 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		JobDto running = jobManager.getStatus(job.getId());
+		assertEquals("RUNNING", running.getStatus());
+		assertEquals(Integer.valueOf(2), running.getTotal());
+		assertEquals(Integer.valueOf(1), running.getCompleted());
+		assertEquals("[\"10.0.0.1\"]", jobManager.writePartialResult(job));
+
+		release.countDown();
+		waitForEnd(job);
+		assertEquals(JobStatus.COMPLETED, job.getStatus());
+		assertEquals("[\"10.0.0.1\",\"10.0.0.2\"]", jobManager.writePartialResult(job));
+		jobManager.shutdown();
+	}
+
+	@Test
+	public void itemsAfterCursorShouldBeReturned() {
+		List<String> hosts = Collections.synchronizedList(new ArrayList<String>());
+		Job job = new Job("TEST", false);
+		assertTrue(job.getItemsAfter(0).isEmpty());
+
+		job.setPartialResult(hosts, hosts);
+		hosts.add("10.0.0.1");
+		hosts.add("10.0.0.2");
+		assertEquals(2, job.getItemsAfter(0).size());
+
+		hosts.add("10.0.0.3");
+		List<Object> items = job.getItemsAfter(2);
+		assertEquals(1, items.size());
+		assertEquals("10.0.0.3", items.get(0));
+		assertTrue(job.getItemsAfter(3).isEmpty());
+	}
+
+	@Test
+	public void failedJobShouldKeepErrorMessage() throws Exception {
+		JobManager jobManager = new JobManager();
+		jobManager.setPluginDbService(mock(IPluginDbService.class));
+
+		Job job = jobManager.submit("TEST", new IJobTask() {
+			@Override
+			public Object execute(Job job) throws Exception {
+				throw new IllegalStateException("failed");
+			}
+		});
+
+		waitForEnd(job);
+		JobDto status = jobManager.getStatus(job.getId());
+		assertEquals("FAILED", status.getStatus());
+		assertEquals("failed", status.getMessages().get(0));
+		jobManager.shutdown();
+	}
+
+	@Test
+	public void runningJobNotInMemoryShouldBeInterrupted() {
+		IPluginDbService pluginDbService = mock(IPluginDbService.class);
+		NetworkInventoryJob entity = new NetworkInventoryJob("1", "SCANNETWORK", "RUNNING", 10, 4, null, null, null,
+				null);
+		when(pluginDbService.find(NetworkInventoryJob.class, "1")).thenReturn(entity);
+
+		JobManager jobManager = new JobManager();
+		jobManager.setPluginDbService(pluginDbService);
+
+		JobDto status = jobManager.getStatus("1");
+		assertEquals("INTERRUPTED", status.getStatus());
+		assertEquals(Integer.valueOf(4), status.getCompleted());
+		assertNull(jobManager.getStatus("2"));
+	}
+
+	@Test
+	public void cancelledJobShouldStopAndKeepItsStatus() throws Exception {
+		JobManager jobManager = new JobManager();
+		jobManager.setPluginDbService(mock(IPluginDbService.class));
+
+		final CountDownLatch stopped = new CountDownLatch(1);
+		Job job = jobManager.submit("TEST", new IJobTask() {
+			@Override
+			public Object execute(Job job) throws Exception {
+				job.onCancel(new ICancellable() {
+					@Override
+					public void cancel() {
+						stopped.countDown();
+					}
+				});
+				stopped.await(10, TimeUnit.SECONDS);
+				return null;
+			}
+		});
+
+		assertFalse(jobManager.cancel("unknown"));
+		long deadline = System.currentTimeMillis() + 10000;
+		while (!jobManager.cancel(job.getId()) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		waitForEnd(job);
+		assertTrue(job.isCancelled());
+		assertEquals(JobStatus.CANCELLED, job.getStatus());
+		assertFalse(jobManager.cancel(job.getId()));
+		jobManager.shutdown();
+	}
+
+	@Test
+	public void jobInRequestThreadShouldBeCancellableById() throws Exception {
+		final JobManager jobManager = new JobManager();
+		jobManager.setPluginDbService(mock(IPluginDbService.class));
+
+		final CountDownLatch stopped = new CountDownLatch(1);
+		Job job = jobManager.run("TEST", new IJobTask() {
+			@Override
+			public Object execute(final Job job) throws Exception {
+				job.onCancel(new ICancellable() {
+					@Override
+					public void cancel() {
+						stopped.countDown();
+					}
+				});
+				// Cancelled by another request while this one waits
+				new Thread(new Runnable() {
+					@Override
+					public void run() {
+						jobManager.cancel(job.getId());
+					}
+				}).start();
+				stopped.await(10, TimeUnit.SECONDS);
+				return null;
+			}
+		});
+
+		assertFalse(job.isBackground());
+		assertEquals(JobStatus.CANCELLED, job.getStatus());
+		assertSame(job, jobManager.getJob(job.getId()));
+		jobManager.shutdown();
+	}
+
+	private static void waitForEnd(Job job) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (job.getEndDate() == null && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+}
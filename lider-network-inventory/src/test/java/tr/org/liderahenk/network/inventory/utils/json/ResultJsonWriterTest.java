@@ -0,0 +1,103 @@
+package tr.org.liderahenk.network.inventory.utils.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import junit.framework.TestCase;
+import tr.org.liderahenk.network.inventory.dto.ScanResultDto;
+import tr.org.liderahenk.network.inventory.dto.ScanResultHostDto;
+
+@RunWith(JUnit4.class)
+public class ResultJsonWriterTest extends TestCase {
+
+	@Test
+	public void writtenValueShouldBeSameAsMapperOutput() throws Exception {
+		ScanResultDto dto = createResult(3);
+
+		ResultJsonWriter writer = new ResultJsonWriter(false);
+		writer.write(dto);
+
+		assertEquals(JsonUtils.writeValueAsString(dto), writer.getResult());
+	}
+
+	@Test
+	public void itemsShouldBeWrittenOneByOne() throws Exception {
+		ScanResultDto dto = createResult(5);
+
+		ResultJsonWriter writer = new ResultJsonWriter(false);
+		writer.writeStart(new ScanResultDto(dto.getIpRange(), dto.getTimingTemplate(), dto.getPorts(), null, null,
+				dto.getScanDate(), null), "hosts");
+		for (ScanResultHostDto host : dto.getHosts()) {
+			writer.writeItem(host);
+		}
+		writer.writeEnd();
+
+		ScanResultDto read = JsonUtils.getMapper().readValue(writer.getResult(), ScanResultDto.class);
+		assertEquals(dto.getIpRange(), read.getIpRange());
+		assertEquals(dto.getScanDate(), read.getScanDate());
+		assertEquals(5, read.getHosts().size());
+		assertEquals("10.0.0.5", read.getHosts().get(4).getIp());
+		assertEquals("22/tcp ssh\n", read.getHosts().get(4).getOpenPorts());
+	}
+
+	@Test
+	public void compressedResultShouldBeDecoded() throws Exception {
+		ScanResultDto dto = createResult(1000);
+		String json = JsonUtils.writeValueAsString(dto);
+
+		ResultJsonWriter writer = new ResultJsonWriter(true);
+		writer.write(dto);
+		Map<String, Object> resultMap = new HashMap<String, Object>();
+		writer.putResult(resultMap, "result");
+
+		assertEquals(ResultJsonWriter.GZIP_ENCODING, resultMap.get("resultEncoding"));
+		String result = (String) resultMap.get("result");
+		assertTrue(result.length() < json.length() / 4);
+		assertEquals(json, gunzip(DatatypeConverter.parseBase64Binary(result)));
+	}
+
+	@Test
+	public void compressionShouldBeRequestedByParameter() {
+		Map<String, Object> parameterMap = new HashMap<String, Object>();
+		assertFalse(ResultJsonWriter.isCompressionRequested(parameterMap));
+		parameterMap.put("compress", true);
+		assertTrue(ResultJsonWriter.isCompressionRequested(parameterMap));
+		parameterMap.put("compress", "true");
+		assertTrue(ResultJsonWriter.isCompressionRequested(parameterMap));
+	}
+
+	private static ScanResultDto createResult(int hostCount) {
+		List<ScanResultHostDto> hosts = new ArrayList<ScanResultHostDto>();
+		for (int i = 1; i <= hostCount; i++) {
+			hosts.add(new ScanResultHostDto("host" + i, "10.0.0." + i, true, "22/tcp ssh\n", "(%95) Linux\n", "1",
+					null, null, null));
+		}
+		return new ScanResultDto("10.0.0.0/16", "3", "22", null, null, new Date(), hosts);
+	}
+
+	private static String gunzip(byte[] data) throws Exception {
+		InputStream in = new GZIPInputStream(new ByteArrayInputStream(data));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int len;
+		while ((len = in.read(buf)) != -1) {
+			out.write(buf, 0, len);
+		}
+		in.close();
+		return out.toString("UTF-8");
+	}
+
+}
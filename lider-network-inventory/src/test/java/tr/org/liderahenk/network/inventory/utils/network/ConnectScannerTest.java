@@ -0,0 +1,154 @@
+package tr.org.liderahenk.network.inventory.utils.network;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import junit.framework.TestCase;
+import tr.org.liderahenk.network.inventory.dto.ScanResultHostDto;
+
+@RunWith(JUnit4.class)
+public class ConnectScannerTest extends TestCase {
+
+	@Test
+	public void openAndClosedPortsOnLocalhost() throws Exception {
+		ServerSocket open1 = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		ServerSocket open2 = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		int closedPort = findClosedPort();
+		try {
+			List<String> ips = new ArrayList<String>();
+			ips.add("127.0.0.1");
+			String ports = open1.getLocalPort() + "," + closedPort + "," + open2.getLocalPort();
+
+			List<ScanResultHostDto> results = new ArrayList<ScanResultHostDto>();
+			new ConnectScanner(1000, 2).scan(ips, ports, System.currentTimeMillis() + 10000, collect(results));
+
+			assertEquals(1, results.size());
+			ScanResultHostDto host = results.get(0);
+			assertEquals("127.0.0.1", host.getIp());
+			assertTrue(host.isHostUp());
+			assertTrue(host.getOpenPorts().contains(open1.getLocalPort() + "/tcp"));
+			assertTrue(host.getOpenPorts().contains(open2.getLocalPort() + "/tcp"));
+			assertFalse(host.getOpenPorts().contains(closedPort + "/tcp"));
+		} finally {
+			open1.close();
+			open2.close();
+		}
+	}
+
+	@Test
+	public void hostWithOnlyClosedPortsIsUp() throws Exception {
+		List<String> ips = new ArrayList<String>();
+		ips.add("127.0.0.1");
+
+		List<ScanResultHostDto> results = new ArrayList<ScanResultHostDto>();
+		new ConnectScanner(1000, 16).scan(ips, String.valueOf(findClosedPort()), System.currentTimeMillis() + 10000,
+				collect(results));
+
+		assertTrue(results.get(0).isHostUp());
+		assertEquals("", results.get(0).getOpenPorts());
+	}
+
+	@Test
+	public void hostsNotProbedBeforeDeadlineAreSkipped() throws Exception {
+		List<String> ips = new ArrayList<String>();
+		ips.add("127.0.0.1");
+		ips.add("127.0.0.2");
+
+		ConnectScanner scanner = new ConnectScanner(1000, 16);
+		List<ScanResultHostDto> results = new ArrayList<ScanResultHostDto>();
+		scanner.scan(ips, String.valueOf(findClosedPort()), System.currentTimeMillis() - 1, collect(results));
+
+		assertTrue(results.isEmpty());
+		assertEquals(Arrays.asList("127.0.0.1-2"), scanner.getSkipped());
+	}
+
+	@Test
+	public void cancelledScanSkipsRemainingHosts() throws Exception {
+		List<String> ips = new ArrayList<String>();
+		ips.add("127.0.0.1");
+
+		ConnectScanner scanner = new ConnectScanner(1000, 16);
+		scanner.cancel();
+		List<ScanResultHostDto> results = new ArrayList<ScanResultHostDto>();
+		scanner.scan(ips, String.valueOf(findClosedPort()), System.currentTimeMillis() + 10000, collect(results));
+
+		assertTrue(results.isEmpty());
+		assertEquals(Arrays.asList("127.0.0.1"), scanner.getSkipped());
+	}
+
+	@Test
+	public void hostsShouldBeReportedWhileRangeIsScanned() throws Exception {
+		final List<ScanResultHostDto> results = new ArrayList<ScanResultHostDto>();
+		final int[] pulled = new int[1];
+		final int[] pulledAtFirstResult = new int[] { -1 };
+		// Counts addresses taken from the range so far
+		Iterable<String> range = new Iterable<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				final Iterator<String> it = IpRangeSet.parse("127.0.0.1-127.0.0.100").iterator();
+				return new Iterator<String>() {
+					@Override
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+
+					@Override
+					public String next() {
+						pulled[0]++;
+						return it.next();
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+
+		new ConnectScanner(1000, 4).scan(range, String.valueOf(findClosedPort()), System.currentTimeMillis() + 10000,
+				new IScanResultListener() {
+					@Override
+					public void hostScanned(ScanResultHostDto host) {
+						if (results.isEmpty()) {
+							pulledAtFirstResult[0] = pulled[0];
+						}
+						results.add(host);
+					}
+				});
+
+		assertEquals(100, results.size());
+		assertTrue(pulledAtFirstResult[0] <= 5);
+	}
+
+	@Test
+	public void parsePorts() {
+		assertEquals(Arrays.asList(21, 22, 23, 25, 111, 8080), ConnectScanner.parsePorts("21-23, 25,8080,111,T:22"));
+		assertEquals(65535, ConnectScanner.parsePorts("-").size());
+	}
+
+	private static IScanResultListener collect(final List<ScanResultHostDto> results) {
+		return new IScanResultListener() {
+			@Override
+			public void hostScanned(ScanResultHostDto host) {
+				results.add(host);
+			}
+		};
+	}
+
+	private static int findClosedPort() throws Exception {
+		ServerSocket socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		int port = socket.getLocalPort();
+		socket.close();
+		return port;
+	}
+
+}
@@ -0,0 +1,102 @@
+package tr.org.liderahenk.network.inventory.utils.network;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import junit.framework.TestCase;
+
+@RunWith(JUnit4.class)
+public class IpRangeSetTest extends TestCase {
+
+	@Test
+	public void rangesShouldBeParsed() {
+		assertEquals(Arrays.asList("192.168.1.5", "192.168.1.6", "192.168.1.7"),
+				IpRangeSet.parse("192.168.1.5-7").toList());
+		assertEquals(1, IpRangeSet.parse("192.168.1.5").size());
+		assertEquals(254, IpRangeSet.parse("192.168.1.0/24").size());
+		assertEquals(65534, IpRangeSet.parse("10.1.0.0/16").size());
+		assertEquals(16777214, IpRangeSet.parse("10.0.0.0/8").size());
+		assertEquals(262, IpRangeSet.parse("10.0.0.250-10.0.1.255").size());
+		assertEquals(3, IpRangeSet.parse("10.0.0.1, 10.0.0.3 10.0.0.5").getRangeCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidAddressShouldBeRejected() {
+		IpRangeSet.parse("10.0.0.256");
+	}
+
+	@Test
+	public void overlappingAndAdjacentRangesShouldBeMerged() {
+		IpRangeSet set = IpRangeSet.parse("10.0.0.10-20,10.0.0.30-40");
+		assertEquals(2, set.getRangeCount());
+
+		set.add("10.0.0.21");
+		assertEquals(2, set.getRangeCount());
+		assertEquals("10.0.0.10-10.0.0.21,10.0.0.30-10.0.0.40", set.toString());
+
+		set.addAll(IpRangeSet.parse("10.0.0.15-35"));
+		assertEquals(1, set.getRangeCount());
+		assertEquals(31, set.size());
+
+		set.addAll(IpRangeSet.parse("10.0.0.1,255.255.255.255,128.0.0.1"));
+		assertEquals("10.0.0.1,10.0.0.10-10.0.0.40,128.0.0.1,255.255.255.255", set.toString());
+		assertTrue(set.contains("128.0.0.1"));
+		assertTrue(set.contains("10.0.0.25"));
+		assertFalse(set.contains("10.0.0.41"));
+	}
+
+	@Test
+	public void excludedRangesShouldBeRemoved() {
+		IpRangeSet set = IpRangeSet.parse("10.0.0.0/24,10.0.1.1-10,10.0.2.1-10");
+		set.removeAll(IpRangeSet.parse("10.0.0.100-199,10.0.1.5-10.0.2.5,10.0.3.1"));
+
+		assertEquals("10.0.0.1-10.0.0.99,10.0.0.200-10.0.0.254,10.0.1.1-10.0.1.4,10.0.2.6-10.0.2.10",
+				set.toString());
+		assertEquals(99 + 55 + 4 + 5, set.size());
+
+		set.remove(IpRangeSet.toInt("10.0.0.1"), IpRangeSet.toInt("10.0.0.1"));
+		set.remove(IpRangeSet.toInt("10.0.0.0"), IpRangeSet.toInt("10.0.2.255"));
+		assertTrue(set.isEmpty());
+	}
+
+	@Test
+	public void overlappingSubnetsShouldBeScannedOnce() {
+		IpRangeSet set = new IpRangeSet();
+		set.addSubnet(IpRangeSet.toInt("172.17.0.1"), 16);
+		set.addSubnet(IpRangeSet.toInt("172.17.5.1"), 24);
+		set.addSubnet(IpRangeSet.toInt("172.17.5.1"), 24);
+		assertEquals(1, set.getRangeCount());
+		assertEquals(65534, set.size());
+	}
+
+	@Test
+	public void setShouldBeSplitIntoUnits() {
+		IpRangeSet set = IpRangeSet.parse("10.0.0.1-10,10.0.0.21-25");
+		List<IpRangeSet> units = set.split(4);
+
+		assertEquals(4, units.size());
+		assertEquals("10.0.0.9-10.0.0.10,10.0.0.21-10.0.0.22", units.get(2).toString());
+		assertEquals(3, units.get(3).size());
+
+		assertEquals(256, IpRangeSet.parse("10.0.0.0/8").split(65536).size());
+	}
+
+	@Test
+	public void nmapTargetsShouldNotCrossOctets() {
+		assertEquals("10.0.0.250-255 10.0.1.0-255 10.0.2.0-3 10.0.5.1",
+				IpRangeSet.parse("10.0.0.250-10.0.2.3,10.0.5.1").toNmapTargets());
+		assertEquals(Arrays.asList("10.0.0.250-255", "10.0.1.0-255", "10.0.2.0-3", "10.0.5.1"),
+				IpRangeSet.parse("10.0.0.250-10.0.2.3,10.0.5.1").toNmapTargetList());
+	}
+
+	@Test
+	public void iterationShouldFollowAddressOrder() {
+		IpRangeSet set = IpRangeSet.parse("10.0.1.1,10.0.0.254-10.0.1.0");
+		assertEquals(Arrays.asList("10.0.0.254", "10.0.0.255", "10.0.1.0", "10.0.1.1"), set.toList());
+	}
+
+}
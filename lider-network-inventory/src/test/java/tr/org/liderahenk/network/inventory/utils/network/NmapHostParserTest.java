@@ -0,0 +1,166 @@
+package tr.org.liderahenk.network.inventory.utils.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.nmap4j.data.nmaprun.Host;
+import org.nmap4j.parser.NotifyingParser;
+import org.nmap4j.parser.events.NMap4JParserEventListener;
+import org.nmap4j.parser.events.ParserEvent;
+
+import junit.framework.TestCase;
+import tr.org.liderahenk.network.inventory.dto.ScanResultHostDto;
+
+@RunWith(JUnit4.class)
+public class NmapHostParserTest extends TestCase {
+
+	@Test
+	public void hostsShouldBeSameAsNmap4jHosts() throws Exception {
+		String xml = createDocument(50);
+
+		List<ScanResultHostDto> expected = parseWithNmap4j(xml);
+		List<ScanResultHostDto> actual = parse(xml);
+
+		assertEquals(50, expected.size());
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertHostEquals(expected.get(i), actual.get(i));
+		}
+	}
+
+	@Test
+	public void fieldsShouldBeParsed() throws Exception {
+		List<ScanResultHostDto> hosts = parse(createDocument(3));
+
+		ScanResultHostDto up = hosts.get(0);
+		assertEquals("10.0.0.0", up.getIp());
+		assertTrue(up.isHostUp());
+		assertEquals("host0.example.com", up.getHostname());
+		assertEquals("00:11:22:33:44:00", up.getMac());
+		assertEquals("Dell", up.getVendor());
+		assertEquals("22/tcp ssh\n3389/tcp ms-wbt-server\n", up.getOpenPorts());
+		assertEquals("(%98) Linux 3.2 - 4.0\n(%95) Linux 2.6.32\n(%93) Linux 3.10\n", up.getOsGuess());
+		assertEquals("2hop", up.getDistance());
+		assertEquals("Mon Oct 17 10:00:00 2026", up.getUptime());
+
+		ScanResultHostDto down = hosts.get(1);
+		assertFalse(down.isHostUp());
+		assertNull(down.getOpenPorts());
+		assertNull(down.getOsGuess());
+		assertNull(down.getHostname());
+	}
+
+	@Test
+	public void invalidDocumentShouldFail() throws Exception {
+		try {
+			parse("<nmaprun><host><status state=\"up\"/></nmaprun>");
+			fail("Invalid document should not be parsed.");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	private static void assertHostEquals(ScanResultHostDto expected, ScanResultHostDto actual) {
+		assertEquals(expected.getIp(), actual.getIp());
+		assertEquals(expected.isHostUp(), actual.isHostUp());
+		assertEquals(expected.getHostname(), actual.getHostname());
+		assertEquals(expected.getMac(), actual.getMac());
+		assertEquals(expected.getVendor(), actual.getVendor());
+		assertEquals(expected.getOpenPorts(), actual.getOpenPorts());
+		assertEquals(expected.getOsGuess(), actual.getOsGuess());
+		assertEquals(expected.getDistance(), actual.getDistance());
+		assertEquals(expected.getUptime(), actual.getUptime());
+	}
+
+	private static List<ScanResultHostDto> parse(String xml) throws Exception {
+		final List<ScanResultHostDto> hosts = new ArrayList<ScanResultHostDto>();
+		new NmapHostParser(new IScanResultListener() {
+			@Override
+			public void hostScanned(ScanResultHostDto host) {
+				hosts.add(host);
+			}
+		}).parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+		return hosts;
+	}
+
+	private static List<ScanResultHostDto> parseWithNmap4j(String xml) throws Exception {
+		final List<ScanResultHostDto> hosts = new ArrayList<ScanResultHostDto>();
+		new NotifyingParser(new NMap4JParserEventListener() {
+			@Override
+			public void parseEventNotification(ParserEvent event) {
+				if (event.getPayload() instanceof Host) {
+					Host host = (Host) event.getPayload();
+					hosts.add(new ScanResultHostDto(NetworkUtils.getHostname(host), NetworkUtils.getIpV4(host),
+							NetworkUtils.isHostUp(host), NetworkUtils.getOpenPorts(host),
+							NetworkUtils.getOsGuess(host), NetworkUtils.getDistance(host), NetworkUtils.getUptime(host),
+							NetworkUtils.getMac(host), NetworkUtils.getMacVendor(host)));
+				}
+			}
+		}).parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+		return hosts;
+	}
+
+	/**
+	 * Creates nmap output in which every other host is down, up hosts have
+	 * open and closed ports, OS matches below the accuracy threshold and more
+	 * OS matches than the limit.
+	 */
+	static String createDocument(int hostCount) {
+		StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!DOCTYPE nmaprun>\n");
+		xml.append("<?xml-stylesheet href=\"file:///usr/bin/../share/nmap/nmap.xsl\" type=\"text/xsl\"?>\n");
+		xml.append("<nmaprun scanner=\"nmap\" args=\"nmap -v -O -oX -\" start=\"0\" version=\"7.01\">\n");
+		xml.append("<scaninfo type=\"syn\" protocol=\"tcp\" numservices=\"2\" services=\"22,3389\"/>\n");
+		xml.append("<verbose level=\"1\"/><debugging level=\"0\"/>\n");
+		for (int i = 0; i < hostCount; i++) {
+			boolean up = i % 2 == 0;
+			xml.append("<host starttime=\"1\" endtime=\"2\"><status state=\"").append(up ? "up" : "down")
+					.append("\" reason=\"arp-response\" reason_ttl=\"0\"/>\n");
+			xml.append("<address addr=\"10.0.").append(i / 256).append(".").append(i % 256)
+					.append("\" addrtype=\"ipv4\"/>\n");
+			if (!up) {
+				xml.append("</host>\n");
+				continue;
+			}
+			xml.append("<address addr=\"00:11:22:33:44:").append(String.format("%02X", i % 256))
+					.append("\" addrtype=\"mac\" vendor=\"Dell\"/>\n");
+			xml.append("<hostnames><hostname name=\"host").append(i)
+					.append(".example.com\" type=\"PTR\"/></hostnames>\n");
+			xml.append("<ports><extraports state=\"closed\" count=\"998\">");
+			xml.append("<extrareasons reason=\"resets\" count=\"998\"/></extraports>\n");
+			xml.append("<port protocol=\"tcp\" portid=\"22\"><state state=\"open\" reason=\"syn-ack\" reason_ttl=\"64\"/>");
+			xml.append("<service name=\"ssh\" method=\"table\" conf=\"3\"/></port>\n");
+			xml.append("<port protocol=\"tcp\" portid=\"80\"><state state=\"closed\" reason=\"reset\" reason_ttl=\"64\"/>");
+			xml.append("<service name=\"http\" method=\"table\" conf=\"3\"/></port>\n");
+			xml.append("<port protocol=\"tcp\" portid=\"3389\"><state state=\"open\" reason=\"syn-ack\" reason_ttl=\"64\"/>");
+			xml.append("<service name=\"ms-wbt-server\" method=\"table\" conf=\"3\"/></port>\n");
+			xml.append("</ports>\n");
+			xml.append("<os><portused state=\"open\" proto=\"tcp\" portid=\"22\"/>\n");
+			xml.append("<osmatch name=\"Linux 3.2 - 4.0\" accuracy=\"98\" line=\"1\">");
+			xml.append("<osclass type=\"general purpose\" vendor=\"Linux\" osfamily=\"Linux\" osgen=\"3.X\" accuracy=\"98\">");
+			xml.append("<cpe>cpe:/o:linux:linux_kernel:3</cpe></osclass></osmatch>\n");
+			xml.append("<osmatch name=\"Android 5.0\" accuracy=\"85\" line=\"2\"/>\n");
+			xml.append("<osmatch name=\"Linux 2.6.32\" accuracy=\"95\" line=\"3\"/>\n");
+			xml.append("<osmatch name=\"Linux 3.10\" accuracy=\"93\" line=\"4\"/>\n");
+			xml.append("<osmatch name=\"Linux 4.4\" accuracy=\"92\" line=\"5\"/>\n");
+			xml.append("</os>\n");
+			xml.append("<uptime seconds=\"86400\" lastboot=\"Mon Oct 17 10:00:00 2026\"/>\n");
+			xml.append("<distance value=\"2\"/>\n");
+			xml.append("<tcpsequence index=\"260\" difficulty=\"Good luck!\" values=\"1,2,3,4,5,6\"/>\n");
+			xml.append("<ipidsequence class=\"All zeros\" values=\"0,0,0,0,0,0\"/>\n");
+			xml.append("<tcptssequence class=\"1000HZ\" values=\"1,2,3,4,5,6\"/>\n");
+			xml.append("<times srtt=\"300\" rttvar=\"100\" to=\"100000\"/>\n");
+			xml.append("</host>\n");
+		}
+		xml.append("<runstats><finished time=\"1\" timestr=\"now\" elapsed=\"1\" exit=\"success\"/>");
+		xml.append("<hosts up=\"1\" down=\"1\" total=\"2\"/></runstats>\n");
+		xml.append("</nmaprun>\n");
+		return xml.toString();
+	}
+
+}
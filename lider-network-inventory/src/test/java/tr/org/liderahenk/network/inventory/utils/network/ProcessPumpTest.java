@@ -0,0 +1,99 @@
+package tr.org.liderahenk.network.inventory.utils.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.TimerTask;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import junit.framework.TestCase;
+
+@RunWith(JUnit4.class)
+public class ProcessPumpTest extends TestCase {
+
+	@Test
+	public void largeOutputOnBothStreamsShouldNotBlock() throws Exception {
+		// Both streams are larger than a pipe buffer
+		Process process = Runtime.getRuntime().exec(new String[] { "sh", "-c",
+				"head -c 500000 /dev/zero; head -c 1000000 /dev/zero >&2; head -c 500000 /dev/zero" });
+
+		final long[] outputSize = new long[1];
+		ProcessPump pump = new ProcessPump(process, 10000, 1000);
+		pump.run(new IStreamConsumer() {
+			@Override
+			public void consume(InputStream in) throws IOException {
+				byte[] buf = new byte[4096];
+				int len;
+				while ((len = in.read(buf)) != -1) {
+					outputSize[0] += len;
+				}
+			}
+		});
+
+		assertFalse(pump.isTimedOut());
+		assertEquals(1000000, outputSize[0]);
+		assertEquals(1000, pump.getErrors().length());
+	}
+
+	@Test
+	public void processShouldBeDestroyedAfterTimeout() throws Exception {
+		Process process = Runtime.getRuntime().exec(new String[] { "sh", "-c", "echo started; exec sleep 30" });
+
+		final StringBuilder output = new StringBuilder();
+		ProcessPump pump = new ProcessPump(process, 500, 1000);
+		long start = System.currentTimeMillis();
+		try {
+			pump.run(new IStreamConsumer() {
+				@Override
+				public void consume(InputStream in) throws IOException {
+					ProcessPump.read(in, output, 1000);
+				}
+			});
+			fail("Process should time out");
+		} catch (IOException e) {
+			assertTrue(pump.isTimedOut());
+		}
+
+		assertTrue(System.currentTimeMillis() - start < 10000);
+		assertEquals("started\n", output.toString());
+	}
+
+	@Test
+	public void closedWatchdogShouldStopItsThread() throws Exception {
+		ProcessWatchdog.getInstance().schedule(new TimerTask() {
+			@Override
+			public void run() {
+			}
+		}, 60000);
+		assertTrue(isWatchdogRunning());
+
+		ProcessWatchdog.getInstance().close();
+		long deadline = System.currentTimeMillis() + 10000;
+		while (isWatchdogRunning() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertFalse(isWatchdogRunning());
+	}
+
+	@Test
+	public void readShouldTruncateToLimit() throws Exception {
+		StringBuilder builder = new StringBuilder();
+		assertTrue(ProcessPump.read(new ByteArrayInputStream("abcdef".getBytes("UTF-8")), builder, 4));
+		assertEquals("abcd", builder.toString());
+		assertFalse(ProcessPump.read(new ByteArrayInputStream("ef".getBytes("UTF-8")), builder, 8));
+		assertEquals("abcdef", builder.toString());
+	}
+
+	private static boolean isWatchdogRunning() {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if ("process-watchdog".equals(thread.getName()) && thread.isAlive()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
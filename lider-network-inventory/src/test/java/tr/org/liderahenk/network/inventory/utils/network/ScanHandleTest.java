@@ -0,0 +1,79 @@
+package tr.org.liderahenk.network.inventory.utils.network;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import junit.framework.TestCase;
+import tr.org.liderahenk.network.inventory.utils.scheduler.WorkScheduler;
+
+@RunWith(JUnit4.class)
+public class ScanHandleTest extends TestCase {
+
+	@Test
+	public void cancelShouldDestroyRunningProcesses() throws Exception {
+		WorkScheduler scheduler = new WorkScheduler("test", 1);
+		ScanHandle handle = new ScanHandle(scheduler, 60000, 60000);
+
+		Process process = Runtime.getRuntime().exec(new String[] { "sleep", "30" });
+		assertTrue(handle.register(process));
+		handle.cancel();
+		assertTrue(handle.isCancelled());
+		process.waitFor();
+
+		// Processes started after cancel are destroyed at once
+		Process late = Runtime.getRuntime().exec(new String[] { "sleep", "30" });
+		assertFalse(handle.register(late));
+		late.waitFor();
+
+		assertFalse(handle.schedule(new Runnable() {
+			@Override
+			public void run() {
+			}
+		}));
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void processTimeoutShouldBeLimitedByDeadline() throws Exception {
+		WorkScheduler scheduler = new WorkScheduler("test", 1);
+		ScanHandle handle = new ScanHandle(scheduler, 1000, 60000);
+		assertEquals(1000, handle.getProcessTimeout());
+
+		handle = new ScanHandle(scheduler, 60000, 1000);
+		assertTrue(handle.getProcessTimeout() <= 1000);
+
+		handle = new ScanHandle(scheduler, 60000, 0);
+		Thread.sleep(5);
+		assertTrue(handle.getProcessTimeout() <= 0);
+		assertFalse(handle.schedule(new Runnable() {
+			@Override
+			public void run() {
+			}
+		}));
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void retriedUnitsShouldBeScheduled() throws Exception {
+		WorkScheduler scheduler = new WorkScheduler("test", 1);
+		ScanHandle handle = new ScanHandle(scheduler, 1000, 60000);
+		final boolean[] executed = new boolean[1];
+		assertTrue(handle.schedule(new Runnable() {
+			@Override
+			public void run() {
+				executed[0] = true;
+			}
+		}));
+		assertTrue(scheduler.awaitCompletion(10, TimeUnit.SECONDS));
+		assertTrue(executed[0]);
+
+		handle.addSkipped(Arrays.asList("10.0.0.1"));
+		assertEquals(Arrays.asList("10.0.0.1"), handle.getSkipped());
+		scheduler.shutdown();
+	}
+
+}
@@ -0,0 +1,52 @@
+package tr.org.liderahenk.network.inventory.utils.network;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import junit.framework.TestCase;
+import tr.org.liderahenk.network.inventory.contants.Constants;
+
+@RunWith(JUnit4.class)
+public class ScanHistoryTest extends TestCase {
+
+	@Test
+	public void costShouldFollowOpenPorts() {
+		ScanHistory history = new ScanHistory(10);
+		history.hostScanned("10.0.0.1", "22/tcp ssh\n80/tcp http");
+		history.hostScanned("10.0.0.2", "");
+
+		assertEquals(3, history.getCost("10.0.0.1"));
+		assertEquals(1, history.getCost("10.0.0.2"));
+		assertEquals(Constants.NMAP_CONFIG.UNKNOWN_HOST_COST, history.getCost("10.0.0.3"));
+
+		history.hostDown("10.0.0.1");
+		assertEquals(Constants.NMAP_CONFIG.UNKNOWN_HOST_COST, history.getCost("10.0.0.1"));
+	}
+
+	@Test
+	public void leastRecentHostsShouldBeEvicted() {
+		ScanHistory history = new ScanHistory(2);
+		history.hostScanned("10.0.0.1", null);
+		history.hostScanned("10.0.0.2", null);
+		history.getCost("10.0.0.1");
+		history.hostScanned("10.0.0.3", null);
+
+		assertEquals(2, history.size());
+		assertEquals("10.0.0.1,10.0.0.3",
+				history.findKnownHosts(IpRangeSet.parse("10.0.0.0/24")).toString());
+	}
+
+	@Test
+	public void knownHostsShouldBeLimitedToTargets() {
+		ScanHistory history = new ScanHistory(10);
+		history.hostScanned("10.0.0.5", null);
+		history.hostScanned("10.0.0.9", null);
+		history.hostScanned("10.0.1.5", null);
+
+		IpRangeSet known = history.findKnownHosts(IpRangeSet.parse("10.0.0.0/24"));
+		assertEquals("10.0.0.5,10.0.0.9", known.toString());
+		assertEquals("10.0.0.5 10.0.0.9", known.toNmapTargets());
+	}
+
+}
@@ -0,0 +1,84 @@
+package tr.org.liderahenk.network.inventory.utils.persistence;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import junit.framework.TestCase;
+import tr.org.liderahenk.network.inventory.entities.ScanResultHost;
+import tr.org.liderahenk.network.inventory.entities.ScanResultHostOs;
+import tr.org.liderahenk.network.inventory.entities.ScanResultHostPort;
+
+@RunWith(JUnit4.class)
+public class HostDetailParserTest extends TestCase {
+
+	@Test
+	public void portsShouldBeParsed() {
+		ScanResultHost host = createHost("22/tcp ssh\n3389/tcp ms-wbt-server\n53/udp null\n", null);
+
+		List<ScanResultHostPort> ports = HostDetailParser.parsePorts(host);
+
+		assertEquals(3, ports.size());
+		assertEquals(Integer.valueOf(22), ports.get(0).getPort());
+		assertEquals("tcp", ports.get(0).getProtocol());
+		assertEquals("ssh", ports.get(0).getService());
+		assertEquals("open", ports.get(0).getState());
+		assertSame(host, ports.get(0).getHost());
+		assertEquals(Integer.valueOf(3389), ports.get(1).getPort());
+		assertEquals("udp", ports.get(2).getProtocol());
+		assertNull(ports.get(2).getService());
+	}
+
+	@Test
+	public void invalidAndDuplicatePortsShouldBeSkipped() {
+		ScanResultHost host = createHost("\nabc/tcp x\n80/\n80/tcp http\n80/tcp http\n443/tcp\n", null);
+
+		List<ScanResultHostPort> ports = HostDetailParser.parsePorts(host);
+
+		assertEquals(2, ports.size());
+		assertEquals(Integer.valueOf(80), ports.get(0).getPort());
+		assertEquals(Integer.valueOf(443), ports.get(1).getPort());
+		assertNull(ports.get(1).getService());
+	}
+
+	@Test
+	public void osMatchesShouldBeParsed() {
+		ScanResultHost host = createHost(null, "(%95) Linux 3.2 - 4.0\n(%88) Microsoft Windows 7\nUnknown\n");
+
+		List<ScanResultHostOs> osMatches = HostDetailParser.parseOsMatches(host);
+
+		assertEquals(3, osMatches.size());
+		assertEquals("Linux 3.2 - 4.0", osMatches.get(0).getName());
+		assertEquals(Integer.valueOf(95), osMatches.get(0).getAccuracy());
+		assertEquals(Integer.valueOf(88), osMatches.get(1).getAccuracy());
+		assertEquals("Unknown", osMatches.get(2).getName());
+		assertNull(osMatches.get(2).getAccuracy());
+	}
+
+	@Test
+	public void fillShouldSetRowsOfHost() {
+		ScanResultHost host = createHost("22/tcp ssh\n", "(%95) Linux\n");
+
+		HostDetailParser.fill(host);
+
+		assertEquals(1, host.getPorts().size());
+		assertEquals(1, host.getOsMatches().size());
+	}
+
+	@Test
+	public void hostWithoutDetailsShouldHaveNoRows() {
+		ScanResultHost host = createHost(null, null);
+
+		HostDetailParser.fill(host);
+
+		assertTrue(host.getPorts().isEmpty());
+		assertTrue(host.getOsMatches().isEmpty());
+	}
+
+	private static ScanResultHost createHost(String openPorts, String osGuess) {
+		return new ScanResultHost(null, null, null, "10.0.0.1", true, openPorts, osGuess, null, null, null, null);
+	}
+
+}
@@ -0,0 +1,177 @@
+package tr.org.liderahenk.network.inventory.utils.persistence;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Query;
+import javax.persistence.metamodel.Metamodel;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import junit.framework.TestCase;
+import tr.org.liderahenk.lider.core.api.persistence.IPluginDbService;
+import tr.org.liderahenk.network.inventory.entities.ScanResult;
+import tr.org.liderahenk.network.inventory.entities.ScanResultHost;
+import tr.org.liderahenk.network.inventory.utils.persistence.ScanResultHostReader.Page;
+
+@RunWith(JUnit4.class)
+public class ScanResultHostReaderTest extends TestCase {
+
+	private final ScanResult scanResult = new ScanResult();
+
+	@Test
+	public void allHostsShouldBeReadWithoutParameters() {
+		Page page = createReader(10).read(scanResult, query(new HashMap<String, Object>()));
+
+		assertEquals(10, page.getHosts().size());
+		assertEquals("10.0.0.1", page.getHosts().get(0).getIp());
+		assertEquals("10.0.0.10", page.getHosts().get(9).getIp());
+		assertFalse(page.hasMore());
+	}
+
+	@Test
+	public void pagesShouldFollowLastId() {
+		Query query = mock(Query.class);
+		List<Object[]> rows = new ArrayList<Object[]>();
+		for (int id = 5; id <= 9; id++) {
+			rows.add(new Object[] { id, "10.0.0." + id });
+		}
+		when(query.getResultList()).thenReturn(rows);
+
+		Map<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("limit", 4);
+		parameters.put("afterId", 4);
+		parameters.put("fields", "ip");
+		Page page = createReader(query).read(scanResult, query(parameters));
+
+		// One more row than the limit is selected to find out the next page
+		verify(query).setParameter("afterId", 4);
+		verify(query).setMaxResults(5);
+		verify(query, never()).setFirstResult(anyInt());
+		assertEquals(4, page.getHosts().size());
+		assertEquals("10.0.0.5", page.getHosts().get(0).getIp());
+		assertEquals(Integer.valueOf(8), page.getLastId());
+		assertTrue(page.hasMore());
+	}
+
+	@Test
+	public void offsetShouldSkipHosts() {
+		Query query = mock(Query.class);
+		List<Object[]> rows = new ArrayList<Object[]>();
+		rows.add(new Object[] { 9, "10.0.0.9" });
+		rows.add(new Object[] { 10, "10.0.0.10" });
+		when(query.getResultList()).thenReturn(rows);
+
+		Map<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("offset", "8");
+		parameters.put("limit", "5");
+		parameters.put("fields", "ip");
+		Page page = createReader(query).read(scanResult, query(parameters));
+
+		verify(query).setFirstResult(8);
+		assertEquals(2, page.getHosts().size());
+		assertEquals("10.0.0.9", page.getHosts().get(0).getIp());
+		assertFalse(page.hasMore());
+	}
+
+	@Test
+	public void pagedQueryWithoutFactoryShouldFail() {
+		Map<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("limit", 4);
+		try {
+			createReader(10).read(scanResult, query(parameters));
+			fail("Hosts should not be paged in memory");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void filtersShouldBeApplied() {
+		Map<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("upOnly", true);
+		parameters.put("port", 3389);
+		parameters.put("vendor", "dell");
+
+		Page page = createReader(10).read(scanResult, query(parameters));
+
+		// Even hosts are up, every third host has 3389 open, hosts above 5
+		// are Dell
+		assertEquals(1, page.getHosts().size());
+		assertEquals("10.0.0.6", page.getHosts().get(0).getIp());
+	}
+
+	@Test
+	public void onlyProjectedFieldsShouldBeSet() {
+		Map<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("fields", "ip, hostUp, unknown");
+
+		Page page = createReader(2).read(scanResult, query(parameters));
+
+		assertEquals("10.0.0.2", page.getHosts().get(1).getIp());
+		assertTrue(page.getHosts().get(1).isHostUp());
+		assertNull(page.getHosts().get(1).getOpenPorts());
+		assertNull(page.getHosts().get(1).getVendor());
+	}
+
+	@Test
+	public void limitShouldBeBounded() {
+		ScanResultHostQuery query = new ScanResultHostQuery();
+		query.setLimit(Integer.MAX_VALUE);
+		assertTrue(query.getLimit() < Integer.MAX_VALUE);
+		query.setLimit(0);
+		assertFalse(query.isPaged());
+	}
+
+	private static ScanResultHostQuery query(Map<String, Object> parameters) {
+		return ScanResultHostQuery.fromParameters(parameters);
+	}
+
+	/**
+	 * Creates a reader with an entity manager factory which returns the given
+	 * query.
+	 */
+	private ScanResultHostReader createReader(Query query) {
+		Metamodel metamodel = mock(Metamodel.class);
+		EntityManager entityManager = mock(EntityManager.class);
+		when(entityManager.createQuery(anyString())).thenReturn(query);
+		EntityManagerFactory factory = mock(EntityManagerFactory.class);
+		when(factory.getMetamodel()).thenReturn(metamodel);
+		when(factory.createEntityManager()).thenReturn(entityManager);
+		return new ScanResultHostReader(mock(IPluginDbService.class), Collections.singletonList(factory));
+	}
+
+	/**
+	 * Creates a reader without entity manager factories, so that hosts are
+	 * filtered in memory. Hosts are returned in reverse order.
+	 */
+	private ScanResultHostReader createReader(int count) {
+		List<ScanResultHost> hosts = new ArrayList<ScanResultHost>();
+		for (int i = count; i >= 1; i--) {
+			String openPorts = i % 3 == 0 ? "22/tcp ssh\n3389/tcp ms-wbt-server\n" : "22/tcp ssh\n";
+			hosts.add(new ScanResultHost(i, scanResult, null, "10.0.0." + i, i % 2 == 0, openPorts, null, null, null,
+					null, i > 5 ? "Dell Inc." : "Cisco"));
+		}
+		IPluginDbService pluginDbService = mock(IPluginDbService.class);
+		when(pluginDbService.findByProperty(eq(ScanResultHost.class), eq("scanResult"), any(), any(Integer.class)))
+				.thenReturn(hosts);
+		return new ScanResultHostReader(pluginDbService, null);
+	}
+
+}
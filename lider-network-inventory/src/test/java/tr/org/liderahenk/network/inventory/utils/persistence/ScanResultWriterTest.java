@@ -0,0 +1,149 @@
+package tr.org.liderahenk.network.inventory.utils.persistence;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.metamodel.Metamodel;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentMatcher;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import junit.framework.TestCase;
+import tr.org.liderahenk.lider.core.api.persistence.IPluginDbService;
+import tr.org.liderahenk.network.inventory.entities.ScanResult;
+import tr.org.liderahenk.network.inventory.entities.ScanResultHost;
+
+@RunWith(JUnit4.class)
+public class ScanResultWriterTest extends TestCase {
+
+	@Test
+	public void hostsShouldBeSavedInBatchesWhileAdding() throws Exception {
+		final List<Object> saved = Collections.synchronizedList(new ArrayList<Object>());
+		IPluginDbService pluginDbService = mock(IPluginDbService.class);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				Object entity = invocation.getArguments()[0];
+				if (entity instanceof ScanResult) {
+					((ScanResult) entity).setId(1L);
+				}
+				saved.add(entity);
+				return null;
+			}
+		}).when(pluginDbService).save(any());
+
+		ScanResult scanResult = new ScanResult();
+		ScanResultWriter writer = new ScanResultWriter(pluginDbService, scanResult, 10);
+		writer.open();
+		assertSame(scanResult, saved.get(0));
+
+		for (int i = 1; i <= 25; i++) {
+			writer.add(createHost("10.0.0." + i));
+		}
+
+		// Filled batches are saved before the writer is closed
+		long deadline = System.currentTimeMillis() + 10000;
+		while (saved.size() < 21 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(saved.size() >= 21);
+
+		writer.close();
+		assertEquals(26, saved.size());
+		assertEquals(25, writer.getSavedCount());
+		assertEquals("10.0.0.25", ((ScanResultHost) saved.get(25)).getIp());
+		assertSame(scanResult, ((ScanResultHost) saved.get(1)).getScanResult());
+		// Saved hosts are not kept by the scan result
+		assertTrue(scanResult.getHosts().isEmpty());
+	}
+
+	@Test
+	public void failedHostShouldNotStopWriter() throws Exception {
+		IPluginDbService pluginDbService = mock(IPluginDbService.class);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				Object entity = invocation.getArguments()[0];
+				if (entity instanceof ScanResultHost && "10.0.0.2".equals(((ScanResultHost) entity).getIp())) {
+					throw new RuntimeException("Constraint violation");
+				}
+				return null;
+			}
+		}).when(pluginDbService).save(any());
+
+		ScanResultWriter writer = new ScanResultWriter(pluginDbService, new ScanResult(), 2);
+		writer.open();
+		for (int i = 1; i <= 3; i++) {
+			writer.add(createHost("10.0.0." + i));
+		}
+		writer.close();
+
+		assertEquals(2, writer.getSavedCount());
+		assertEquals(1, writer.getFailedCount());
+	}
+
+	@Test
+	public void batchesShouldBePersistedInSingleTransaction() throws Exception {
+		IPluginDbService pluginDbService = mock(IPluginDbService.class);
+		EntityManager entityManager = mock(EntityManager.class);
+		EntityTransaction transaction = mock(EntityTransaction.class);
+		when(entityManager.getTransaction()).thenReturn(transaction);
+		when(transaction.isActive()).thenReturn(true);
+		doThrow(new RuntimeException("Constraint violation")).when(entityManager)
+				.persist(argThat(new ArgumentMatcher<Object>() {
+					@Override
+					public boolean matches(Object argument) {
+						return "10.0.0.7".equals(((ScanResultHost) argument).getIp());
+					}
+				}));
+
+		ScanResultWriter writer = new ScanResultWriter(pluginDbService, createFactories(entityManager),
+				new ScanResult(), 5);
+		writer.open();
+		for (int i = 1; i <= 10; i++) {
+			writer.add(createHost("10.0.0." + i));
+		}
+		writer.close();
+
+		// First batch is committed at once, second one is rolled back and
+		// saved host by host
+		verify(transaction, times(1)).commit();
+		verify(transaction, times(1)).rollback();
+		verify(entityManager, times(1)).clear();
+		verify(pluginDbService, times(6)).save(any());
+		assertEquals(10, writer.getSavedCount());
+	}
+
+	private static List<EntityManagerFactory> createFactories(EntityManager entityManager) {
+		EntityManagerFactory factory = mock(EntityManagerFactory.class);
+		when(factory.getMetamodel()).thenReturn(mock(Metamodel.class));
+		when(factory.createEntityManager()).thenReturn(entityManager);
+		List<EntityManagerFactory> factories = new ArrayList<EntityManagerFactory>();
+		factories.add(factory);
+		return factories;
+	}
+
+	private static ScanResultHost createHost(String ip) {
+		ScanResultHost host = new ScanResultHost();
+		host.setIp(ip);
+		return host;
+	}
+
+}
@@ -0,0 +1,62 @@
+package tr.org.liderahenk.network.inventory.utils.scheduler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import junit.framework.TestCase;
+
+@RunWith(JUnit4.class)
+public class RelayTreeTest extends TestCase {
+
+	@Test
+	public void everyHostShouldBeReachedOnce() {
+		RelayTree tree = new RelayTree(createIps(300), 4);
+		Set<Integer> reached = new HashSet<Integer>();
+		List<Integer> level = tree.getRoots();
+		while (!level.isEmpty()) {
+			List<Integer> next = new ArrayList<Integer>();
+			for (Integer index : level) {
+				assertTrue(reached.add(index));
+				next.addAll(tree.getChildren(index));
+			}
+			level = next;
+		}
+		assertEquals(300, reached.size());
+	}
+
+	@Test
+	public void parentShouldMatchChildren() {
+		RelayTree tree = new RelayTree(createIps(50), 3);
+		for (int i = 0; i < tree.size(); i++) {
+			for (Integer child : tree.getChildren(i)) {
+				assertEquals(i, tree.getParent(child));
+			}
+		}
+		assertEquals(Arrays.asList(0, 1, 2), tree.getRoots());
+		assertEquals(-1, tree.getParent(2));
+	}
+
+	@Test
+	public void depthShouldGrowLogarithmically() {
+		assertEquals(1, new RelayTree(createIps(4), 4).getDepth());
+		assertEquals(2, new RelayTree(createIps(20), 4).getDepth());
+		// 4 + 16 + 64 + 256 >= 300
+		assertEquals(4, new RelayTree(createIps(300), 4).getDepth());
+	}
+
+	private static List<String> createIps(int count) {
+		List<String> ips = new ArrayList<String>();
+		for (int i = 1; i <= count; i++) {
+			ips.add("10.0." + (i / 256) + "." + (i % 256));
+		}
+		return ips;
+	}
+
+}
@@ -0,0 +1,123 @@
+package tr.org.liderahenk.network.inventory.utils.scheduler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import junit.framework.TestCase;
+
+@RunWith(JUnit4.class)
+public class WorkSchedulerTest extends TestCase {
+
+	@Test
+	public void partitionShouldKeepAllItems() {
+		List<String> items = createIps(23);
+		List<List<String>> units = WorkScheduler.partition(items, 5);
+
+		assertEquals(5, units.size());
+		assertEquals(3, units.get(4).size());
+		assertEquals("10.0.0.23", units.get(4).get(2));
+	}
+
+	@Test
+	public void allUnitsShouldBeExecuted() throws Exception {
+		final List<String> processed = Collections.synchronizedList(new ArrayList<String>());
+		List<String> items = createIps(101);
+
+		WorkScheduler scheduler = new WorkScheduler("test", 4);
+		scheduler.schedule(items, 3, new IWorkUnitFactory<String>() {
+			@Override
+			public Runnable create(final List<String> unit) {
+				return new Runnable() {
+					@Override
+					public void run() {
+						processed.addAll(unit);
+					}
+				};
+			}
+		});
+
+		assertTrue(scheduler.awaitCompletion(10, TimeUnit.SECONDS));
+		scheduler.shutdown();
+
+		Collections.sort(processed);
+		List<String> expected = new ArrayList<String>(items);
+		Collections.sort(expected);
+		assertEquals(expected, processed);
+		assertEquals(34, scheduler.getTimings().size());
+	}
+
+	@Test
+	public void slowUnitShouldNotHoldOtherUnits() throws Exception {
+		final List<String> processed = Collections.synchronizedList(new ArrayList<String>());
+
+		WorkScheduler scheduler = new WorkScheduler("test", 2);
+		scheduler.schedule(createIps(40), 1, new IWorkUnitFactory<String>() {
+			@Override
+			public Runnable create(final List<String> unit) {
+				return new Runnable() {
+					@Override
+					public void run() {
+						if ("10.0.0.1".equals(unit.get(0))) {
+							try {
+								Thread.sleep(2000);
+							} catch (InterruptedException e) {
+							}
+						} else {
+							processed.addAll(unit);
+						}
+					}
+				};
+			}
+		});
+
+		// Remaining 39 units should be completed by the other worker while the
+		// first one is still busy.
+		Thread.sleep(1000);
+		assertEquals(39, processed.size());
+
+		assertTrue(scheduler.awaitCompletion(10, TimeUnit.SECONDS));
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void unitsScheduledFromUnitsShouldBeAwaited() throws Exception {
+		final List<String> processed = Collections.synchronizedList(new ArrayList<String>());
+		final WorkScheduler scheduler = new WorkScheduler("test", 2);
+
+		scheduler.schedule(createIps(4), 1, new IWorkUnitFactory<String>() {
+			@Override
+			public Runnable create(final List<String> unit) {
+				return new Runnable() {
+					@Override
+					public void run() {
+						scheduler.schedule(new Runnable() {
+							@Override
+							public void run() {
+								processed.addAll(unit);
+							}
+						});
+					}
+				};
+			}
+		});
+
+		assertTrue(scheduler.awaitCompletion(10, TimeUnit.SECONDS));
+		scheduler.shutdown();
+		assertEquals(4, processed.size());
+	}
+
+	private static List<String> createIps(int count) {
+		List<String> ips = new ArrayList<String>();
+		for (int i = 1; i <= count; i++) {
+			ips.add("10.0.0." + i);
+		}
+		return ips;
+	}
+
+}
@@ -0,0 +1,112 @@
+package tr.org.liderahenk.network.inventory.utils.setup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import junit.framework.TestCase;
+
+@RunWith(JUnit4.class)
+public class BlockDeltaTest extends TestCase {
+
+	private static final int BLOCK_SIZE = 1024;
+
+	@Test
+	public void changedBlocksShouldBeRebuilt() throws Exception {
+		File dir = Files.createTempDirectory("delta").toFile();
+		byte[] oldContent = createContent(20 * BLOCK_SIZE + 100);
+		byte[] newContent = Arrays.copyOf(oldContent, oldContent.length + 500);
+		newContent[3 * BLOCK_SIZE + 7] ^= 1;
+		newContent[11 * BLOCK_SIZE] ^= 1;
+
+		File remoteFile = write(new File(dir, "remote.bin"), oldContent);
+		File localFile = write(new File(dir, "local.bin"), newContent);
+
+		Files.setPosixFilePermissions(remoteFile.toPath(), PosixFilePermissions.fromString("rwxr-x---"));
+		String checksum = PackageCache.checksum(localFile);
+
+		List<String> checksums = run(
+				BlockDelta.getSignatureCommand(remoteFile.getAbsolutePath(), BLOCK_SIZE, checksum));
+		assertEquals(21, checksums.size());
+
+		BlockDelta delta = new BlockDelta(localFile, BLOCK_SIZE, checksums);
+		assertEquals(21, delta.getBlockCount());
+		// Two modified blocks and the last block which has grown
+		assertEquals(3, delta.getLiteralBlockCount());
+		assertTrue(delta.isWorthwhile());
+
+		File literalFile = new File(dir, "literal");
+		File scriptFile = new File(dir, "delta.sh");
+		delta.writeLiteralFile(literalFile);
+		assertEquals(2 * BLOCK_SIZE + 600, literalFile.length());
+		delta.writeScript(scriptFile, remoteFile.getAbsolutePath(), literalFile.getAbsolutePath(), checksum);
+
+		run("sh " + scriptFile.getAbsolutePath());
+		assertTrue(Arrays.equals(newContent, Files.readAllBytes(remoteFile.toPath())));
+		assertEquals("rwxr-x---",
+				PosixFilePermissions.toString(Files.getPosixFilePermissions(remoteFile.toPath())));
+		assertFalse(literalFile.exists());
+	}
+
+	@Test
+	public void identicalFileShouldHaveNoSignature() throws Exception {
+		File dir = Files.createTempDirectory("delta").toFile();
+		File remoteFile = write(new File(dir, "remote.bin"), createContent(5 * BLOCK_SIZE));
+		List<String> checksums = run(BlockDelta.getSignatureCommand(remoteFile.getAbsolutePath(), BLOCK_SIZE,
+				PackageCache.checksum(remoteFile)));
+		assertTrue(checksums.isEmpty());
+	}
+
+	@Test
+	public void unrelatedFileShouldNotBeWorthwhile() throws Exception {
+		File dir = Files.createTempDirectory("delta").toFile();
+		File localFile = write(new File(dir, "local.bin"), createContent(10 * BLOCK_SIZE));
+		List<String> checksums = new ArrayList<String>();
+		for (int i = 0; i < 10; i++) {
+			checksums.add("00000000000000000000000000000000");
+		}
+		BlockDelta delta = new BlockDelta(localFile, BLOCK_SIZE, checksums);
+		assertEquals(10, delta.getLiteralBlockCount());
+		assertFalse(delta.isWorthwhile());
+	}
+
+	private static List<String> run(String command) throws Exception {
+		Process process = new ProcessBuilder("sh", "-c", command).redirectErrorStream(true).start();
+		List<String> checksums = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			checksums.add(line.trim().split("\\s+")[0]);
+		}
+		assertEquals(0, process.waitFor());
+		return checksums;
+	}
+
+	private static byte[] createContent(int size) {
+		byte[] content = new byte[size];
+		new Random(7).nextBytes(content);
+		return content;
+	}
+
+	private static File write(File file, byte[] content) throws Exception {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+}
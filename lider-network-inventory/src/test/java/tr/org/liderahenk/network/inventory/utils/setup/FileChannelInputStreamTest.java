@@ -0,0 +1,78 @@
+package tr.org.liderahenk.network.inventory.utils.setup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import junit.framework.TestCase;
+
+@RunWith(JUnit4.class)
+public class FileChannelInputStreamTest extends TestCase {
+
+	@Test
+	public void channelReadShouldReturnWholeFile() throws Exception {
+		byte[] content = createContent(100000);
+		assertTrue(Arrays.equals(content, readAll(createFile(content), false, 4096, 8192)));
+	}
+
+	@Test
+	public void mappedReadShouldReturnWholeFile() throws Exception {
+		byte[] content = createContent(100000);
+		// Region size is not a multiple of the buffer size, so that reads
+		// cross region boundaries
+		assertTrue(Arrays.equals(content, readAll(createFile(content), true, 7000, 4096)));
+	}
+
+	@Test
+	public void emptyFileShouldReturnEndOfStream() throws Exception {
+		File file = createFile(new byte[0]);
+		InputStream in = new FileChannelInputStream(file, true, 1024);
+		try {
+			assertEquals(-1, in.read(new byte[16], 0, 16));
+			assertEquals(-1, in.read());
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] readAll(File file, boolean mapped, int regionSize, int bufferSize) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		InputStream in = new FileChannelInputStream(file, mapped, regionSize);
+		try {
+			byte[] buf = new byte[bufferSize];
+			int len;
+			while ((len = in.read(buf, 0, buf.length)) > 0) {
+				out.write(buf, 0, len);
+			}
+		} finally {
+			in.close();
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] createContent(int size) {
+		byte[] content = new byte[size];
+		new Random(42).nextBytes(content);
+		return content;
+	}
+
+	private static File createFile(byte[] content) throws Exception {
+		File file = File.createTempFile("transfer", ".bin");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+}
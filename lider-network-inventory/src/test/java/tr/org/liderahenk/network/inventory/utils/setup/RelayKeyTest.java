@@ -0,0 +1,42 @@
+package tr.org.liderahenk.network.inventory.utils.setup;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import junit.framework.TestCase;
+
+@RunWith(JUnit4.class)
+public class RelayKeyTest extends TestCase {
+
+	@Test
+	public void authorizedKeyShouldOnlyWriteTargetFile() throws Exception {
+		RelayKey key = RelayKey.generate();
+		File home = Files.createTempDirectory("relay-key-test").toFile();
+		try {
+			ProcessBuilder builder = new ProcessBuilder("sh", "-c",
+					key.getAuthorizeCommand("10.0.0.1", "/tmp/it's \"a\" file"));
+			builder.environment().put("HOME", home.getAbsolutePath());
+			assertEquals(0, builder.start().waitFor());
+
+			List<String> lines = Files.readAllLines(new File(home, ".ssh/authorized_keys").toPath(),
+					StandardCharsets.US_ASCII);
+			assertEquals(1, lines.size());
+			assertTrue(lines.get(0).startsWith("command=\"cat > '/tmp/it'\\''s \\\"a\\\" file'\",from=\"10.0.0.1\","
+					+ "no-pty,no-port-forwarding,no-agent-forwarding,no-X11-forwarding ssh-rsa "));
+			assertTrue(lines.get(0).endsWith(" " + key.getName()));
+		} finally {
+			new File(home, ".ssh/authorized_keys").delete();
+			new File(home, ".ssh").delete();
+			home.delete();
+			key.delete();
+		}
+		assertFalse(key.getPrivateKeyFile().exists());
+	}
+
+}
@@ -0,0 +1,163 @@
+package tr.org.liderahenk.network.inventory.utils.setup;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.jcraft.jsch.Session;
+
+import junit.framework.TestCase;
+import tr.org.liderahenk.network.inventory.exception.SSHConnectionException;
+
+@RunWith(JUnit4.class)
+public class SSHSessionPoolTest extends TestCase {
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	@After
+	public void shutdownExecutor() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void sessionShouldBeReusedForSameKeyOnly() throws Exception {
+		MockPool pool = new MockPool(60000, 2, 1000);
+
+		SSHManager first = pool.borrow("10.0.0.1", "user", "pass", 22, null, null);
+		pool.release(first);
+		assertSame(first, pool.borrow("10.0.0.1", "user", "pass", 22, null, null));
+
+		// Default port is the same key as port 22
+		pool.release(first);
+		assertSame(first, pool.borrow("10.0.0.1", "user", "pass", null, null, null));
+		pool.release(first);
+
+		assertNotSame(first, pool.borrow("10.0.0.1", "user", "other", 22, null, null));
+		assertNotSame(first, pool.borrow("10.0.0.1", "root", "pass", 22, null, null));
+		assertNotSame(first, pool.borrow("10.0.0.2", "user", "pass", 22, null, null));
+		assertEquals(4, pool.created.size());
+		verify(first, never()).disconnect();
+	}
+
+	@Test
+	public void borrowShouldTimeOutAtChannelLimit() throws Exception {
+		final MockPool pool = new MockPool(60000, 1, 200);
+		pool.borrow("10.0.0.1", "user", "pass", 22, null, null);
+
+		// Other hosts are not limited
+		pool.borrow("10.0.0.2", "user", "pass", 22, null, null);
+
+		long start = System.currentTimeMillis();
+		try {
+			pool.borrow("10.0.0.1", "user", "pass", 22, null, null);
+			fail("Borrow should time out");
+		} catch (SSHConnectionException e) {
+			assertTrue(System.currentTimeMillis() - start >= 200);
+		}
+	}
+
+	@Test
+	public void borrowShouldWaitForRelease() throws Exception {
+		final MockPool pool = new MockPool(60000, 1, 5000);
+		SSHManager first = pool.borrow("10.0.0.1", "user", "pass", 22, null, null);
+
+		Future<SSHManager> waiting = executor.submit(new Callable<SSHManager>() {
+			@Override
+			public SSHManager call() throws Exception {
+				return pool.borrow("10.0.0.1", "user", "pass", 22, null, null);
+			}
+		});
+		Thread.sleep(100);
+		assertFalse(waiting.isDone());
+
+		pool.release(first);
+		assertSame(first, waiting.get(1000, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void idleSessionShouldBeEvicted() throws Exception {
+		MockPool pool = new MockPool(50, 2, 1000);
+		SSHManager first = pool.borrow("10.0.0.1", "user", "pass", 22, null, null);
+		pool.release(first);
+
+		Thread.sleep(100);
+		pool.evictIdle();
+		verify(first).disconnect();
+
+		assertNotSame(first, pool.borrow("10.0.0.1", "user", "pass", 22, null, null));
+		pool.close();
+	}
+
+	@Test
+	public void unhealthySessionShouldBeDropped() throws Exception {
+		MockPool pool = new MockPool(60000, 2, 1000);
+
+		// Broken while idle
+		SSHManager first = pool.borrow("10.0.0.1", "user", "pass", 22, null, null);
+		pool.release(first);
+		when(first.getSession().isConnected()).thenReturn(false);
+		SSHManager second = pool.borrow("10.0.0.1", "user", "pass", 22, null, null);
+		assertNotSame(first, second);
+		verify(first).disconnect();
+
+		// Broken while borrowed
+		when(second.getSession().isConnected()).thenReturn(false);
+		pool.release(second);
+		verify(second).disconnect();
+		assertNotSame(second, pool.borrow("10.0.0.1", "user", "pass", 22, null, null));
+		assertEquals(3, pool.created.size());
+	}
+
+	@Test
+	public void closeShouldDisconnectIdleSessions() throws Exception {
+		MockPool pool = new MockPool(60000, 2, 1000);
+		SSHManager first = pool.borrow("10.0.0.1", "user", "pass", 22, null, null);
+		SSHManager second = pool.borrow("10.0.0.2", "user", "pass", 22, null, null);
+		pool.release(first);
+		pool.close();
+		verify(first).disconnect();
+		verify(second, never()).disconnect();
+	}
+
+	/**
+	 * Creates connected mock sessions instead of connecting to the host
+	 */
+	private static class MockPool extends SSHSessionPool {
+
+		private final List<SSHManager> created = new ArrayList<SSHManager>();
+
+		private MockPool(long idleTimeout, int maxChannelsPerHost, long borrowTimeout) {
+			super(idleTimeout, maxChannelsPerHost, borrowTimeout);
+		}
+
+		@Override
+		protected SSHManager connect(String ip, String username, String password, Integer port,
+				String privateKey, String passphrase) throws SSHConnectionException {
+			Session session = mock(Session.class);
+			when(session.isConnected()).thenReturn(true);
+			SSHManager manager = mock(SSHManager.class);
+			when(manager.getSession()).thenReturn(session);
+			when(manager.getIp()).thenReturn(ip);
+			synchronized (created) {
+				created.add(manager);
+			}
+			return manager;
+		}
+
+	}
+
+}
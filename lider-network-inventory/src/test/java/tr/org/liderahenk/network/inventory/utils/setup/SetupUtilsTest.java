@@ -1,6 +1,10 @@
 package tr.org.liderahenk.network.inventory.utils.setup;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -12,6 +16,23 @@ import tr.org.liderahenk.network.inventory.exception.SSHConnectionException;
 
 @RunWith(JUnit4.class)
 public class SetupUtilsTest extends TestCase {
+
+	@Test
+	public void replacedValueShouldStayInsideLiteral() throws Exception {
+		String url = "http://host/it's $HOME \\1 $1";
+		Map<String, String> map = new HashMap<String, String>();
+		map.put("#DOWNLOAD_URL", SetupUtils.escapeSingleQuotes(url));
+		String script = SetupUtils.replace(map, "DOWNLOAD_URL='#DOWNLOAD_URL'\nprintf '%s' \"$DOWNLOAD_URL\"");
+
+		Process process = new ProcessBuilder("sh", "-c", script).start();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+		try {
+			assertEquals(url, reader.readLine());
+		} finally {
+			reader.close();
+		}
+		assertEquals(0, process.waitFor());
+	}
 	
 //	@Test
 //	public void sshConnectionShouldSucceed() {
@@ -0,0 +1,91 @@
+package tr.org.liderahenk.network.inventory.utils.setup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import junit.framework.TestCase;
+
+@RunWith(JUnit4.class)
+public class UploadStoreTest extends TestCase {
+
+	@Test
+	public void chunksShouldBeJoined() throws Exception {
+		UploadStore store = new UploadStore(Files.createTempDirectory("upload").toFile());
+
+		assertEquals(0, store.getSize("abc-1"));
+		assertEquals(3, store.write("abc-1", 0, new byte[] { 1, 2, 3 }));
+		// Chunk sent again after a lost response
+		assertEquals(3, store.write("abc-1", 0, new byte[] { 1, 2, 3 }));
+		assertEquals(5, store.write("abc-1", 3, new byte[] { 4, 5 }));
+		assertEquals(5, store.getSize("abc-1"));
+
+		File file = store.complete("abc-1", "data.bin", 5L);
+		assertEquals("data.bin", file.getName());
+		assertTrue(Arrays.equals(new byte[] { 1, 2, 3, 4, 5 }, Files.readAllBytes(file.toPath())));
+
+		store.remove("abc-1");
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void partFileNameShouldNotCollide() throws Exception {
+		File directory = Files.createTempDirectory("upload").toFile();
+		UploadStore store = new UploadStore(directory);
+		store.write("abc-3", 0, new byte[] { 1, 2 });
+
+		File file = store.complete("abc-3", "upload.part", 2L);
+		assertEquals("upload.part", file.getName());
+		assertTrue(Arrays.equals(new byte[] { 1, 2 }, Files.readAllBytes(file.toPath())));
+		// Completed again by a later distribution
+		assertEquals(file, store.complete("abc-3", "upload.part", 2L));
+		assertEquals(0, store.getSize("abc-3"));
+
+		store.remove("abc-3");
+		assertFalse(new File(directory, "abc-3").exists());
+	}
+
+	@Test
+	public void invalidFilenameShouldBeRejected() throws Exception {
+		UploadStore store = new UploadStore(Files.createTempDirectory("upload").toFile());
+		store.write("abc-4", 0, new byte[] { 1 });
+		try {
+			store.complete("abc-4", "..", 1L);
+			fail();
+		} catch (IOException e) {
+		}
+		assertEquals(1, store.getSize("abc-4"));
+	}
+
+	@Test
+	public void missingBytesShouldBeRejected() throws Exception {
+		UploadStore store = new UploadStore(Files.createTempDirectory("upload").toFile());
+		store.write("abc-2", 0, new byte[] { 1, 2, 3 });
+		try {
+			store.write("abc-2", 10, new byte[] { 4 });
+			fail();
+		} catch (IOException e) {
+		}
+		try {
+			store.complete("abc-2", "data.bin", 4L);
+			fail();
+		} catch (IOException e) {
+		}
+	}
+
+	@Test
+	public void invalidIdShouldBeRejected() throws Exception {
+		UploadStore store = new UploadStore(Files.createTempDirectory("upload").toFile());
+		try {
+			store.write("../etc", 0, new byte[] { 1 });
+			fail();
+		} catch (IOException e) {
+		}
+	}
+
+}